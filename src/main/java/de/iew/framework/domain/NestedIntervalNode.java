@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain;
+
+/**
+ * Beschreibt Knoten, deren Position im Baum als Nested Interval kodiert ist.
+ * <p>
+ * Wie bei den NestedSet-Grenzen umschließt das Intervall eines Knotens die
+ * Intervalle aller seiner Nachfahren. Die Grenzen sind jedoch rationale
+ * Zahlen. Neue Knoten werden zwischen die Grenzen ihrer Nachbarn gelegt, ohne
+ * ein bestehendes Intervall zu ändern, bis Zähler oder Nenner die Grenze
+ * {@link de.iew.framework.domain.utils.NestedIntervalUtils#MAX_TERM}
+ * erreichen. Dann werden die Intervalle des ganzen Baumes normalisiert.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see de.iew.framework.domain.utils.NestedIntervalUtils
+ * @since 09.04.13 - 10:15
+ */
+public interface NestedIntervalNode {
+
+    public long getIntervalLeftNumerator();
+
+    public void setIntervalLeftNumerator(long intervalLeftNumerator);
+
+    public long getIntervalLeftDenominator();
+
+    public void setIntervalLeftDenominator(long intervalLeftDenominator);
+
+    public long getIntervalRightNumerator();
+
+    public void setIntervalRightNumerator(long intervalRightNumerator);
+
+    public long getIntervalRightDenominator();
+
+    public void setIntervalRightDenominator(long intervalRightDenominator);
+}
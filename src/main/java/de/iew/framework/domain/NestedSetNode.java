@@ -24,6 +24,13 @@ package de.iew.framework.domain;
  * Menge eines Teilbaums ist vollständig in der Menge des Vater-Knotens
  * enthalten. Jede Menge wird durch eine linke und rechte Grenze beschrieben.
  * </p>
+ * <p>
+ * Die Grenzen müssen nicht dicht liegen. Bäume mit einem positiven
+ * {@link Tree#getNestedSetGap()} lassen freie Positionen zwischen den Grenzen,
+ * daher ist nur das Enthaltensein der Intervalle von Bedeutung. Für die
+ * Arithmetik auf lückenhaften Grenzen gibt es
+ * {@link de.iew.framework.domain.utils.NestedSetUtils}.
+ * </p>
  *
  * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
  * @see <a href="http://www.klempert.de/nested_sets/">http://www.klempert.de/nested_sets/</a>
@@ -16,6 +16,8 @@
 
 package de.iew.framework.domain;
 
+import org.hibernate.annotations.Index;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,7 +31,12 @@ import java.util.List;
  */
 @Entity
 @Table(name = "node")
-public class Node extends AbstractModel implements TreeNode, AdjacencyNode<Node>, NestedSetNode, Order {
+@org.hibernate.annotations.Table(appliesTo = "node", indexes = {
+        @Index(name = "idx_node_tree_left", columnNames = {"tree_id", "nestedSetLeft"}),
+        @Index(name = "idx_node_tree_tombstone", columnNames = {"tree_id", "tombstone"}),
+        @Index(name = "idx_node_parent_ordinal", columnNames = {"parent_id", "ordinalNumber"})
+})
+public class Node extends AbstractModel implements TreeNode, AdjacencyNode<Node>, NestedSetNode, NestedIntervalNode, Order {
 
     private Node parent;
 
@@ -48,6 +55,18 @@ public class Node extends AbstractModel implements TreeNode, AdjacencyNode<Node>
 
     private long nestedSetRight;
 
+    private int depth;
+
+    private boolean tombstone;
+
+    private long intervalLeftNumerator;
+
+    private long intervalLeftDenominator;
+
+    private long intervalRightNumerator;
+
+    private long intervalRightDenominator;
+
     @ManyToOne(fetch = FetchType.LAZY)
     public Node getParent() {
         return parent;
@@ -129,4 +148,95 @@ public class Node extends AbstractModel implements TreeNode, AdjacencyNode<Node>
     public void setNestedSetRight(long nestedSetRight) {
         this.nestedSetRight = nestedSetRight;
     }
+
+    /**
+     * Liefert die Ebene dieses Knotens in seinem Baum. Der Wurzelknoten hat
+     * die Tiefe 0.
+     * <p>
+     * Die Tiefe wird vom {@link de.iew.framework.persistence.TreeOperationDao}
+     * gepflegt und erlaubt es, NestedSet-Bereichsabfragen auf eine Anzahl von
+     * Ebenen zu beschränken.
+     * </p>
+     * <p>
+     * Die gespeicherte Tiefe ist relativ zum Tiefen-Offset des Baumes.
+     * Nachdem eine Wurzel mit
+     * {@link de.iew.framework.persistence.TreeOperationDao#insertRoot(long, Node)}
+     * eingefügt wurde, ist die Tiefe unterhalb der Wurzel
+     * <code>getDepth() + getTree().getDepthOffset()</code>.
+     * </p>
+     *
+     * @return Die Tiefe dieses Knotens.
+     */
+    @Column(name = "depth", nullable = false)
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Prüft ob der Teilbaum dieses Knotens gerade gelöscht wird.
+     * <p>
+     * Die Knoten eines markierten Teilbaumes werden vom
+     * {@link de.iew.framework.tree.TreeDeletionService} in kleinen Portionen
+     * entfernt. Bis dahin werden sie von den lesenden Operationen des
+     * {@link de.iew.framework.persistence.TreeOperationDao} übersprungen.
+     * </p>
+     *
+     * @return TRUE wenn der Teilbaum dieses Knotens gelöscht wird.
+     */
+    @Column(name = "tombstone", nullable = false)
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
+    public void setTombstone(boolean tombstone) {
+        this.tombstone = tombstone;
+    }
+
+    /**
+     * Liefert den Zähler der linken Intervallgrenze. Die Intervallgrenzen
+     * werden nur in Bäumen mit der Kodierung
+     * {@link TreeEncoding#NESTED_INTERVALS} verwendet; in allen anderen
+     * Bäumen sind sie 0.
+     *
+     * @return Der Zähler der linken Intervallgrenze.
+     */
+    @Column(name = "interval_left_numerator", nullable = false)
+    public long getIntervalLeftNumerator() {
+        return intervalLeftNumerator;
+    }
+
+    public void setIntervalLeftNumerator(long intervalLeftNumerator) {
+        this.intervalLeftNumerator = intervalLeftNumerator;
+    }
+
+    @Column(name = "interval_left_denominator", nullable = false)
+    public long getIntervalLeftDenominator() {
+        return intervalLeftDenominator;
+    }
+
+    public void setIntervalLeftDenominator(long intervalLeftDenominator) {
+        this.intervalLeftDenominator = intervalLeftDenominator;
+    }
+
+    @Column(name = "interval_right_numerator", nullable = false)
+    public long getIntervalRightNumerator() {
+        return intervalRightNumerator;
+    }
+
+    public void setIntervalRightNumerator(long intervalRightNumerator) {
+        this.intervalRightNumerator = intervalRightNumerator;
+    }
+
+    @Column(name = "interval_right_denominator", nullable = false)
+    public long getIntervalRightDenominator() {
+        return intervalRightDenominator;
+    }
+
+    public void setIntervalRightDenominator(long intervalRightDenominator) {
+        this.intervalRightDenominator = intervalRightDenominator;
+    }
 }
@@ -36,6 +36,16 @@ public class Tree extends AbstractModel {
 
     private Set<Node> nodes = new HashSet<Node>();
 
+    private long nestedSetGap;
+
+    private int depthOffset;
+
+    private int tombstoneCount;
+
+    private TreeEncoding encoding = TreeEncoding.NESTED_SET;
+
+    private long version;
+
     @Column(name = "lookup_key", length = 255, nullable = true)
     public String getLookupKey() {
         return lookupKey;
@@ -62,4 +72,130 @@ public class Tree extends AbstractModel {
     public void setNodes(Set<Node> nodes) {
         this.nodes = nodes;
     }
+
+    /**
+     * Liefert die Anzahl der freien NestedSet-Positionen, die hinter jeder
+     * NestedSet-Grenze dieses Baumes reserviert werden.
+     * <p>
+     * Der Wert 0 (Standard) wählt die dichte Nummerierung, bei der jedes
+     * Einfügen alle Grenzen rechts davon verschiebt. Ein positiver Wert wählt
+     * die lückenhafte Nummerierung: Einfügungen belegen eine freie Position
+     * in den Lücken und nummerieren nur dann den kleinsten umschließenden
+     * Teilbaum neu, wenn keine freie Position mehr übrig ist.
+     * </p>
+     *
+     * @return Der Abstand zwischen zwei NestedSet-Grenzen.
+     */
+    @Column(name = "nested_set_gap", nullable = false)
+    public long getNestedSetGap() {
+        return nestedSetGap;
+    }
+
+    public void setNestedSetGap(long nestedSetGap) {
+        this.nestedSetGap = nestedSetGap;
+    }
+
+    /**
+     * Liefert den Offset, der auf die gespeicherte Tiefe jedes Knotens dieses
+     * Baumes addiert wird.
+     * <p>
+     * Das Einfügen einer neuen Wurzel schiebt alle bestehenden Knoten eine
+     * Ebene nach unten. Das {@link de.iew.framework.persistence.TreeOperationDao}
+     * erhöht dann diesen Offset, statt die Tiefe jedes Knotens neu zu
+     * schreiben. Die Tiefe eines Knotens unterhalb der Wurzel ist daher
+     * <code>node.getDepth() + tree.getDepthOffset()</code>. Der Offset wird
+     * mit {@link de.iew.framework.persistence.TreeOperationDao#foldDepthOffset(long)}
+     * in die Knoten geschrieben.
+     * </p>
+     *
+     * @return Der Tiefen-Offset; 0 wenn die gespeicherten Tiefen exakt sind.
+     */
+    @Column(name = "depth_offset", nullable = false)
+    public int getDepthOffset() {
+        return depthOffset;
+    }
+
+    public void setDepthOffset(int depthOffset) {
+        this.depthOffset = depthOffset;
+    }
+
+    /**
+     * Liefert die Anzahl der markierten Teilbäume dieses Baumes.
+     * <p>
+     * Markierte Teilbäume werden im Hintergrund gelöscht. Solange diese
+     * Anzahl positiv ist, filtern die lesenden Operationen des
+     * {@link de.iew.framework.persistence.TreeOperationDao} ihre Knoten aus.
+     * </p>
+     *
+     * @return Die Anzahl der ausstehenden Löschungen von Teilbäumen.
+     */
+    @Column(name = "tombstone_count", nullable = false)
+    public int getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    public void setTombstoneCount(int tombstoneCount) {
+        this.tombstoneCount = tombstoneCount;
+    }
+
+    /**
+     * Liefert die Kodierung der Baumstruktur.
+     * <p>
+     * Die Kodierung wird beim Anlegen des Baumes gewählt und kann danach
+     * nicht mehr geändert werden.
+     * </p>
+     *
+     * @return Die Kodierung; standardmäßig {@link TreeEncoding#NESTED_SET}.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encoding", length = 32, nullable = false)
+    public TreeEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Setzt die Kodierung der Baumstruktur.
+     * <p>
+     * {@link TreeEncoding#NESTED_INTERVALS} ist experimentell und wird von
+     * den meisten Operationen des
+     * {@link de.iew.framework.persistence.TreeOperationDao} nicht
+     * unterstützt. Die Kodierung kann daher nur von Hibernate beim Laden und
+     * von Unterklassen gesetzt werden.
+     * </p>
+     *
+     * @param encoding Die Kodierung.
+     */
+    protected void setEncoding(TreeEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Liefert die Version dieses Baumes.
+     * <p>
+     * Die Version wird bei jeder strukturellen Änderung des Baumes erhöht,
+     * daher scheitern gleichzeitige Schreiber in verschiedenen JVMs mit einem
+     * Optimistic-Locking-Fehler, statt die NestedSet-Grenzen zu zerstören.
+     * </p>
+     *
+     * @return Die Version dieses Baumes.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Prüft ob dieser Baum die lückenhafte NestedSet-Nummerierung verwendet.
+     *
+     * @return TRUE wenn die NestedSet-Grenzen dieses Baumes Lücken haben.
+     */
+    @Transient
+    public boolean isSparseNestedSet() {
+        return this.nestedSetGap > 0;
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain;
+
+import de.iew.framework.domain.utils.NestedIntervalEncodingStrategy;
+import de.iew.framework.domain.utils.NestedSetEncodingStrategy;
+import de.iew.framework.domain.utils.TreeEncodingStrategy;
+
+/**
+ * Listet die Kodierungen für die Struktur eines {@link Tree}s auf.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 10:20
+ */
+public enum TreeEncoding {
+
+    /**
+     * Die Knoten werden mit ganzzahligen NestedSet-Grenzen kodiert (siehe
+     * {@link NestedSetNode}). Das Einfügen verschiebt die Grenzen hinter dem
+     * neuen Knoten, sofern der Baum keine Lücken hat.
+     */
+    NESTED_SET(new NestedSetEncodingStrategy()),
+
+    /**
+     * Die Knoten werden mit rationalen Nested Intervals kodiert (siehe
+     * {@link NestedIntervalNode}). Das Einfügen ändert die Intervalle
+     * bestehender Knoten nur, wenn die Intervalle des Baumes normalisiert
+     * werden müssen.
+     * <p>
+     * Experimentell: Die Kodierung kann über die öffentliche API nicht
+     * gewählt werden, da die Operationen, die Knoten verschieben oder
+     * kopieren, sie nicht unterstützen.
+     * </p>
+     */
+    NESTED_INTERVALS(new NestedIntervalEncodingStrategy());
+
+    private final TreeEncodingStrategy strategy;
+
+    private TreeEncoding(TreeEncodingStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public TreeEncodingStrategy getStrategy() {
+        return strategy;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+
+/**
+ * Implementiert die {@link TreeEncodingStrategy} für rationale Nested
+ * Intervals.
+ * <p>
+ * Die Wurzel eines leeren Baumes erhält das Intervall <code>(0/1, 1/1)</code>.
+ * Ein neues Kind erhält die Medianten der Grenzen seiner Nachbarn; dabei
+ * ändert sich kein anderer Knoten. Siehe
+ * {@link NestedIntervalUtils#MAX_TERM} für die Grenze der Zähler und Nenner.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 10:50
+ */
+public class NestedIntervalEncodingStrategy implements TreeEncodingStrategy {
+
+    public void placeRoot(Tree tree, Node formerRoot, Node root) {
+        if (formerRoot == null) {
+            root.setIntervalLeftNumerator(0);
+            root.setIntervalLeftDenominator(1);
+            root.setIntervalRightNumerator(1);
+            root.setIntervalRightDenominator(1);
+        } else {
+            // Die neue Wurzel erweitert das Intervall der alten Wurzel auf
+            // beiden Seiten um 1.
+            long leftDenominator = formerRoot.getIntervalLeftDenominator();
+            long rightDenominator = formerRoot.getIntervalRightDenominator();
+            root.setIntervalLeftNumerator(NestedIntervalUtils.checkTerm(formerRoot.getIntervalLeftNumerator() - leftDenominator));
+            root.setIntervalLeftDenominator(leftDenominator);
+            root.setIntervalRightNumerator(NestedIntervalUtils.checkTerm(formerRoot.getIntervalRightNumerator() + rightDenominator));
+            root.setIntervalRightDenominator(rightDenominator);
+        }
+    }
+
+    public boolean placeChild(Tree tree, Node parent, Node previousSibling, Node nextSibling, Node child) {
+        if (previousSibling == null) {
+            if (nextSibling == null) {
+                NestedIntervalUtils.placeBetween(parent.getIntervalLeftNumerator(), parent.getIntervalLeftDenominator(),
+                        parent.getIntervalRightNumerator(), parent.getIntervalRightDenominator(), child);
+            } else {
+                NestedIntervalUtils.placeBetween(parent.getIntervalLeftNumerator(), parent.getIntervalLeftDenominator(),
+                        nextSibling.getIntervalLeftNumerator(), nextSibling.getIntervalLeftDenominator(), child);
+            }
+        } else {
+            if (nextSibling == null) {
+                NestedIntervalUtils.placeBetween(previousSibling.getIntervalRightNumerator(), previousSibling.getIntervalRightDenominator(),
+                        parent.getIntervalRightNumerator(), parent.getIntervalRightDenominator(), child);
+            } else {
+                NestedIntervalUtils.placeBetween(previousSibling.getIntervalRightNumerator(), previousSibling.getIntervalRightDenominator(),
+                        nextSibling.getIntervalLeftNumerator(), nextSibling.getIntervalLeftDenominator(), child);
+            }
+        }
+        return true;
+    }
+
+    public boolean isDescendant(Node ancestor, Node node) {
+        return NestedIntervalUtils.isDescendant(ancestor, node);
+    }
+
+    public int compare(Node o1, Node o2) {
+        return NestedIntervalUtils.compare(o1.getIntervalLeftNumerator(), o1.getIntervalLeftDenominator(),
+                o2.getIntervalLeftNumerator(), o2.getIntervalLeftDenominator());
+    }
+}
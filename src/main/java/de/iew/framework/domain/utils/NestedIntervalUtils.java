@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.NestedIntervalNode;
+
+import java.util.List;
+
+/**
+ * Stellt Hilfsmethoden für das Rechnen mit rationalen Nested Intervals bereit.
+ * <p>
+ * Alle Zähler und Nenner sind auf {@link #MAX_TERM} beschränkt, damit die
+ * Kreuzprodukte zweier Grenzen in eine vorzeichenbehaftete 64 Bit Zahl passen.
+ * Nur so sind die Vergleiche in Java und in SQL exakt. Die Zähler und Nenner
+ * wachsen mit jeder Ebene und mit jedem weiteren Einfügen zwischen denselben
+ * Nachbarn. Ein Einfügen, das die Grenze überschreitet, schlägt mit einer
+ * {@link IllegalStateException} fehl. Die DAOs normalisieren die Intervalle
+ * des Baumes dann mit {@link #renormalize(java.util.List)} und legen den
+ * Knoten erneut an.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 10:30
+ */
+public class NestedIntervalUtils {
+
+    /**
+     * Der größte erlaubte Betrag eines Zählers oder Nenners.
+     */
+    public static final long MAX_TERM = Integer.MAX_VALUE;
+
+    /**
+     * Vergleicht zwei Brüche mit positiven Nennern.
+     *
+     * @param numerator1   Der Zähler des ersten Bruchs.
+     * @param denominator1 Der Nenner des ersten Bruchs.
+     * @param numerator2   Der Zähler des zweiten Bruchs.
+     * @param denominator2 Der Nenner des zweiten Bruchs.
+     * @return Einen negativen Wert, 0 oder einen positiven Wert wenn der erste
+     *         Bruch kleiner, gleich oder größer als der zweite Bruch ist.
+     */
+    public static int compare(long numerator1, long denominator1, long numerator2, long denominator2) {
+        long left = numerator1 * denominator2;
+        long right = numerator2 * denominator1;
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    /**
+     * Prüft ob die linke Grenze von <code>node</code> echt innerhalb des
+     * Intervalls von <code>ancestor</code> liegt.
+     *
+     * @param ancestor Der mögliche Vorfahre.
+     * @param node     Der Knoten.
+     * @return TRUE wenn <code>node</code> ein Nachfahre von
+     *         <code>ancestor</code> ist.
+     */
+    public static boolean isDescendant(NestedIntervalNode ancestor, NestedIntervalNode node) {
+        return compare(node.getIntervalLeftNumerator(), node.getIntervalLeftDenominator(),
+                ancestor.getIntervalLeftNumerator(), ancestor.getIntervalLeftDenominator()) > 0
+                && compare(node.getIntervalLeftNumerator(), node.getIntervalLeftDenominator(),
+                ancestor.getIntervalRightNumerator(), ancestor.getIntervalRightDenominator()) < 0;
+    }
+
+    /**
+     * Legt das Intervall eines neuen Blattes echt zwischen die angegebenen
+     * Grenzen.
+     * <p>
+     * Die linke Grenze des Blattes ist die Mediante der unteren und der
+     * oberen Grenze, die rechte Grenze die Mediante der linken und der oberen
+     * Grenze. Auf beiden Seiten bleibt Platz für spätere Einfügungen.
+     * </p>
+     *
+     * @param lowerNumerator   Der Zähler der unteren Grenze.
+     * @param lowerDenominator Der Nenner der unteren Grenze.
+     * @param upperNumerator   Der Zähler der oberen Grenze.
+     * @param upperDenominator Der Nenner der oberen Grenze.
+     * @param leaf             Das neue Blatt.
+     * @throws IllegalStateException Wenn ein Zähler oder Nenner des neuen
+     *                               Intervalls {@link #MAX_TERM} übersteigt.
+     */
+    public static void placeBetween(long lowerNumerator, long lowerDenominator, long upperNumerator, long upperDenominator, NestedIntervalNode leaf) {
+        long leftNumerator = checkTerm(lowerNumerator + upperNumerator);
+        long leftDenominator = checkTerm(lowerDenominator + upperDenominator);
+
+        leaf.setIntervalLeftNumerator(leftNumerator);
+        leaf.setIntervalLeftDenominator(leftDenominator);
+        leaf.setIntervalRightNumerator(checkTerm(leftNumerator + upperNumerator));
+        leaf.setIntervalRightDenominator(checkTerm(leftDenominator + upperDenominator));
+    }
+
+    /**
+     * Ersetzt die Intervalle der angegebenen Knoten durch ganzzahlige
+     * Intervalle mit dem Nenner 1.
+     * <p>
+     * Die Grenzen werden wie NestedSet-Grenzen ab 0 fortlaufend nummeriert;
+     * Reihenfolge und Verschachtelung der Intervalle bleiben erhalten. Danach
+     * liegen zwischen zwei benachbarten Grenzen wieder ganze Zahlen und die
+     * Zähler und Nenner späterer Einfügungen beginnen klein. Die Zähler sind
+     * höchstens doppelt so groß wie die Anzahl der Knoten.
+     * </p>
+     *
+     * @param nodes Alle Knoten eines Baumes in Pre-Order, also sortiert nach
+     *              ihrer linken Grenze.
+     * @param <N>   Der Typ der Knoten.
+     * @throws IllegalStateException Wenn der Baum zu viele Knoten für
+     *                               {@link #MAX_TERM} hat.
+     */
+    public static <N extends NestedIntervalNode> void renormalize(List<N> nodes) {
+        int count = nodes.size();
+        checkTerm(2L * count);
+
+        // Die neuen Grenzen werden erst am Ende gesetzt, da die Vorfahren auf
+        // dem Stack mit den alten Intervallen verglichen werden.
+        long[] lefts = new long[count];
+        long[] rights = new long[count];
+        int[] stack = new int[count];
+        int depth = 0;
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            N node = nodes.get(i);
+            while (depth > 0 && !isDescendant(nodes.get(stack[depth - 1]), node)) {
+                rights[stack[--depth]] = position++;
+            }
+            lefts[i] = position++;
+            stack[depth++] = i;
+        }
+        while (depth > 0) {
+            rights[stack[--depth]] = position++;
+        }
+
+        for (int i = 0; i < count; i++) {
+            N node = nodes.get(i);
+            node.setIntervalLeftNumerator(lefts[i]);
+            node.setIntervalLeftDenominator(1);
+            node.setIntervalRightNumerator(rights[i]);
+            node.setIntervalRightDenominator(1);
+        }
+    }
+
+    /**
+     * Prüft ob der angegebene Zähler oder Nenner in die Genauigkeit der Nested
+     * Intervals passt.
+     *
+     * @param term Der Zähler oder Nenner.
+     * @return Der Zähler oder Nenner.
+     * @throws IllegalStateException Wenn der Betrag {@link #MAX_TERM}
+     *                               übersteigt.
+     */
+    public static long checkTerm(long term) {
+        if (term > MAX_TERM || term < -MAX_TERM) {
+            throw new IllegalStateException("the interval term " + term + " exceeds the limit of " + MAX_TERM);
+        }
+        return term;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+
+/**
+ * Implementiert die {@link TreeEncodingStrategy} für ganzzahlige
+ * NestedSet-Grenzen.
+ * <p>
+ * Ein Kind passt nur in einen freien Platz eines lückenhaften Baumes. In allen
+ * anderen Fällen muss der Aufrufer die Grenzen verschieben oder neu
+ * nummerieren.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 10:40
+ */
+public class NestedSetEncodingStrategy implements TreeEncodingStrategy {
+
+    public void placeRoot(Tree tree, Node formerRoot, Node root) {
+        if (formerRoot == null) {
+            root.setNestedSetLeft(1);
+            root.setNestedSetRight(2);
+        } else {
+            long spacing = tree.getNestedSetGap() + 1;
+            root.setNestedSetLeft(formerRoot.getNestedSetLeft() - spacing);
+            root.setNestedSetRight(formerRoot.getNestedSetRight() + spacing);
+        }
+    }
+
+    public boolean placeChild(Tree tree, Node parent, Node previousSibling, Node nextSibling, Node child) {
+        if (!tree.isSparseNestedSet()) {
+            return false;
+        }
+
+        long lowerBound = (previousSibling == null ? parent.getNestedSetLeft() : previousSibling.getNestedSetRight());
+        long upperBound = (nextSibling == null ? parent.getNestedSetRight() : nextSibling.getNestedSetLeft());
+        long left = NestedSetUtils.findFreeSlot(lowerBound, upperBound, tree.getNestedSetGap());
+        if (left == NestedSetUtils.NO_FREE_SLOT) {
+            return false;
+        }
+        child.setNestedSetLeft(left);
+        child.setNestedSetRight(left + 1);
+        return true;
+    }
+
+    public boolean isDescendant(Node ancestor, Node node) {
+        return node.getNestedSetLeft() > ancestor.getNestedSetLeft() && node.getNestedSetLeft() < ancestor.getNestedSetRight();
+    }
+
+    public int compare(Node o1, Node o2) {
+        return o1.getNestedSetLeft() < o2.getNestedSetLeft() ? -1 : (o1.getNestedSetLeft() == o2.getNestedSetLeft() ? 0 : 1);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Setzt mehrere Verschiebungen von NestedSet-Grenzen zusammen.
+ * <p>
+ * Jede Änderung eines Baumes verschiebt die NestedSet-Grenzen hinter einer
+ * bestimmten Position um einen festen Betrag. Diese Klasse sammelt eine Folge
+ * solcher Verschiebungen und berechnet für jede Grenze der ursprünglichen
+ * Nummerierung ihre Position nach allen Verschiebungen. Das Ergebnis ist eine
+ * Liste von {@link Segment}en mit konstanter Verschiebung, so dass die ganze
+ * Folge mit einem Bereichs-Update je Segment zurückgeschrieben werden kann.
+ * </p>
+ * <p>
+ * Jede Verschiebung bezieht sich auf die Nummerierung, die beim Hinzufügen
+ * der Verschiebung gilt, also nach allen vorher hinzugefügten Verschiebungen.
+ * Bereiche gelöschter Knoten können als tot markiert werden; ihre Grenzen
+ * werden danach ignoriert.
+ * </p>
+ * <p>
+ * Die Implementierung ist nicht threadsicher.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 04.04.13 - 19:32
+ */
+public class NestedSetShift {
+
+    /**
+     * Die Segmente der ursprünglichen Nummerierung in aufsteigender
+     * Reihenfolge. Die Segmente sind lückenlos und decken den ganzen
+     * long-Bereich ab.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    public NestedSetShift() {
+        this.segments.add(new Segment(Long.MIN_VALUE, Long.MAX_VALUE, 0));
+    }
+
+    /**
+     * Fügt eine Verschiebung um <code>delta</code> für alle Grenzen hinzu,
+     * die in der aktuellen Nummerierung größer oder gleich
+     * <code>fromIndex</code> sind.
+     *
+     * @param fromIndex Die erste zu verschiebende Grenze in der aktuellen
+     *                  Nummerierung.
+     * @param delta     Der Betrag der Verschiebung.
+     */
+    public void shift(long fromIndex, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        long originalIndex = firstOriginalAtLeast(fromIndex);
+        if (originalIndex == Long.MAX_VALUE) {
+            return;
+        }
+
+        int from = split(originalIndex);
+        for (int i = from; i < this.segments.size(); i++) {
+            this.segments.get(i).delta += delta;
+        }
+    }
+
+    /**
+     * Fügt eine Verschiebung um <code>delta</code> für alle Grenzen hinzu,
+     * die in der ursprünglichen Nummerierung größer oder gleich
+     * <code>originalFrom</code> und kleiner oder gleich
+     * <code>originalTo</code> sind.
+     *
+     * @param originalFrom Die erste zu verschiebende Grenze in der
+     *                     ursprünglichen Nummerierung.
+     * @param originalTo   Die letzte zu verschiebende Grenze in der
+     *                     ursprünglichen Nummerierung.
+     * @param delta        Der Betrag der Verschiebung.
+     */
+    public void shiftOriginal(long originalFrom, long originalTo, long delta) {
+        if (delta == 0 || originalFrom > originalTo) {
+            return;
+        }
+        int from = split(originalFrom);
+        int to = (originalTo == Long.MAX_VALUE ? this.segments.size() : split(originalTo + 1));
+        for (int i = from; i < to; i++) {
+            this.segments.get(i).delta += delta;
+        }
+    }
+
+    /**
+     * Markiert die Grenzen der ursprünglichen Nummerierung zwischen
+     * <code>originalFrom</code> und <code>originalTo</code> (jeweils
+     * einschließlich) als gelöscht.
+     *
+     * @param originalFrom Die erste gelöschte Grenze in der ursprünglichen
+     *                     Nummerierung.
+     * @param originalTo   Die letzte gelöschte Grenze in der ursprünglichen
+     *                     Nummerierung.
+     */
+    public void markDead(long originalFrom, long originalTo) {
+        if (originalFrom > originalTo) {
+            return;
+        }
+        int from = split(originalFrom);
+        int to = split(originalTo + 1);
+        for (int i = from; i < to; i++) {
+            this.segments.get(i).dead = true;
+        }
+    }
+
+    /**
+     * Prüft, ob die angegebene Grenze der ursprünglichen Nummerierung als
+     * gelöscht markiert wurde.
+     *
+     * @param originalIndex Die Grenze in der ursprünglichen Nummerierung.
+     * @return TRUE wenn die Grenze gelöscht ist.
+     */
+    public boolean isDead(long originalIndex) {
+        return findSegment(originalIndex).dead;
+    }
+
+    /**
+     * Bildet die angegebene Grenze der ursprünglichen Nummerierung auf die
+     * aktuelle Nummerierung ab.
+     *
+     * @param originalIndex Die Grenze in der ursprünglichen Nummerierung.
+     * @return Die Grenze in der aktuellen Nummerierung.
+     */
+    public long map(long originalIndex) {
+        return originalIndex + findSegment(originalIndex).delta;
+    }
+
+    /**
+     * Sucht die kleinste lebende Grenze der ursprünglichen Nummerierung,
+     * deren Position in der aktuellen Nummerierung größer oder gleich
+     * <code>index</code> ist.
+     *
+     * @param index Die Grenze in der aktuellen Nummerierung.
+     * @return Die Grenze in der ursprünglichen Nummerierung oder
+     *         {@link Long#MAX_VALUE}.
+     */
+    public long firstOriginalAtLeast(long index) {
+        for (Segment segment : this.segments) {
+            if (segment.dead) {
+                continue;
+            }
+            long candidate = Math.max(segment.start, index - segment.delta);
+            if (candidate < segment.end) {
+                return candidate;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Sucht die größte lebende Grenze der ursprünglichen Nummerierung, deren
+     * Position in der aktuellen Nummerierung kleiner oder gleich
+     * <code>index</code> ist.
+     *
+     * @param index Die Grenze in der aktuellen Nummerierung.
+     * @return Die Grenze in der ursprünglichen Nummerierung oder
+     *         {@link Long#MIN_VALUE}.
+     */
+    public long lastOriginalAtMost(long index) {
+        for (int i = this.segments.size() - 1; i >= 0; i--) {
+            Segment segment = this.segments.get(i);
+            if (segment.dead) {
+                continue;
+            }
+            long candidate = Math.min(segment.end - 1, index - segment.delta);
+            if (candidate >= segment.start) {
+                return candidate;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Prüft, ob diese Verschiebung eine Grenze bewegt.
+     *
+     * @return TRUE wenn keine Grenze bewegt wird.
+     */
+    public boolean isIdentity() {
+        return getSegments().isEmpty();
+    }
+
+    /**
+     * Liefert die Segmente der ursprünglichen Nummerierung, die von dieser
+     * Verschiebung bewegt werden.
+     * <p>
+     * Benachbarte Segmente mit derselben Verschiebung werden zusammengefasst.
+     * Gelöschte Segmente werden mit ihren Nachbarn zusammengefasst, da ihre
+     * Grenzen keine Rolle mehr spielen. Segmente mit einer Verschiebung von 0
+     * werden nicht geliefert.
+     * </p>
+     *
+     * @return Die bewegten Segmente in aufsteigender Reihenfolge.
+     */
+    public List<Segment> getSegments() {
+        List<Segment> moved = new ArrayList<Segment>();
+
+        Segment current = null;
+        for (Segment segment : this.segments) {
+            if (segment.dead) {
+                if (current != null) {
+                    current.end = segment.end;
+                }
+                continue;
+            }
+            if (current != null && current.delta == segment.delta) {
+                current.end = segment.end;
+            } else {
+                if (current != null && current.delta != 0) {
+                    moved.add(current);
+                }
+                current = new Segment(segment.start, segment.end, segment.delta);
+            }
+        }
+        if (current != null && current.delta != 0) {
+            moved.add(current);
+        }
+
+        return Collections.unmodifiableList(moved);
+    }
+
+    private Segment findSegment(long originalIndex) {
+        return this.segments.get(indexOf(originalIndex));
+    }
+
+    private int indexOf(long originalIndex) {
+        int low = 0;
+        int high = this.segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.segments.get(middle).start <= originalIndex) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Teilt das Segment, das die angegebene Grenze enthält, so dass an der
+     * Grenze ein Segment beginnt.
+     *
+     * @param originalIndex Die Grenze in der ursprünglichen Nummerierung.
+     * @return Der Index des Segments, das an der Grenze beginnt.
+     */
+    private int split(long originalIndex) {
+        int index = indexOf(originalIndex);
+        Segment segment = this.segments.get(index);
+        if (segment.start == originalIndex) {
+            return index;
+        }
+
+        Segment tail = new Segment(originalIndex, segment.end, segment.delta);
+        tail.dead = segment.dead;
+        segment.end = originalIndex;
+        this.segments.add(index + 1, tail);
+        return index + 1;
+    }
+
+    /**
+     * Ein Bereich [start, end) der ursprünglichen Nummerierung, der um
+     * denselben Betrag verschoben wird.
+     */
+    public static class Segment {
+
+        private final long start;
+
+        private long end;
+
+        private long delta;
+
+        private boolean dead;
+
+        private Segment(long start, long end, long delta) {
+            this.start = start;
+            this.end = end;
+            this.delta = delta;
+        }
+
+        /**
+         * Liefert die erste Grenze dieses Segments oder
+         * {@link Long#MIN_VALUE} wenn das Segment nach links unbeschränkt ist.
+         *
+         * @return Die erste Grenze (einschließlich).
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Liefert die Grenze hinter diesem Segment oder
+         * {@link Long#MAX_VALUE} wenn das Segment nach rechts unbeschränkt
+         * ist.
+         *
+         * @return Die Endgrenze (ausschließlich).
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getDelta() {
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.NestedSetNode;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Stellt Hilfsmethoden für die NestedSet-Arithmetik bereit.
+ * <p>
+ * Die Methoden arbeiten auf einfachen {@link NestedSetNode} Instanzen und
+ * werden von der Hibernate- und der Mock-Implementierung des
+ * {@link de.iew.framework.persistence.TreeOperationDao} gemeinsam genutzt.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 02.04.13 - 20:14
+ */
+public class NestedSetUtils {
+
+    /**
+     * Wird von {@link #findFreeSlot(long, long, long)} geliefert, wenn es
+     * zwischen den angegebenen Grenzen keinen freien Platz gibt.
+     */
+    public static final long NO_FREE_SLOT = Long.MIN_VALUE;
+
+    /**
+     * Sucht zwischen den angegebenen Grenzen einen freien Platz für ein neues
+     * Blatt.
+     * <p>
+     * Ein Blatt benötigt zwei freie Positionen. Der Platz liegt hinter
+     * <code>lowerBound</code> und lässt davor höchstens <code>gap</code> freie
+     * Positionen, so dass mehrere nacheinander angehängte Blätter die Lücke
+     * von links nach rechts verbrauchen.
+     * </p>
+     *
+     * @param lowerBound Die Grenze vor dem Platz (die linke Grenze des
+     *                   Elternknotens oder die rechte Grenze des vorherigen
+     *                   Geschwisterknotens).
+     * @param upperBound Die Grenze hinter dem Platz (die linke Grenze des
+     *                   nächsten Geschwisterknotens oder die rechte Grenze des
+     *                   Elternknotens).
+     * @param gap        Die Lücke des Baumes.
+     * @return Die linke Grenze des neuen Blattes oder {@link #NO_FREE_SLOT}.
+     */
+    public static long findFreeSlot(long lowerBound, long upperBound, long gap) {
+        long free = upperBound - lowerBound - 1;
+        if (free < 2) {
+            return NO_FREE_SLOT;
+        }
+        long offset = Math.min((free - 2) / 2, gap);
+        return lowerBound + 1 + offset;
+    }
+
+    /**
+     * Berechnet die Anzahl der Nachfahren eines Knotens in einem dichten Baum
+     * aus seinen NestedSet-Grenzen.
+     *
+     * @param left  Die linke Grenze des Knotens.
+     * @param right Die rechte Grenze des Knotens.
+     * @return Die Anzahl der Nachfahren.
+     */
+    public static long countDescendants(long left, long right) {
+        return (right - left - 1) / 2;
+    }
+
+    /**
+     * Berechnet den Abstand zweier Grenzen, wenn <code>nodeCount</code>
+     * Knoten gleichmäßig im Intervall [<code>left</code>, <code>right</code>]
+     * neu nummeriert werden sollen.
+     * <p>
+     * Der Abstand ist auf <code>gap + 1</code> begrenzt. Ein Ergebnis von 1
+     * bedeutet, dass die Knoten dicht passen, ein Ergebnis von 0 bedeutet,
+     * dass die Knoten nicht passen.
+     * </p>
+     *
+     * @param left      Die linke Grenze des umschließenden Knotens.
+     * @param right     Die rechte Grenze des umschließenden Knotens.
+     * @param nodeCount Die Anzahl der Knoten im umschließenden Knoten.
+     * @param gap       Die Lücke des Baumes.
+     * @return Der Abstand zweier Grenzen.
+     */
+    public static long computeSpacing(long left, long right, long nodeCount, long gap) {
+        long spacing = (right - left) / (2 * nodeCount + 1);
+        return Math.min(spacing, gap + 1);
+    }
+
+    /**
+     * Berechnet die rechte Grenze eines umschließenden Knotens, dessen
+     * Nachfahren mit {@link #renumber(long, long, java.util.List, de.iew.framework.domain.NestedSetNode, long)}
+     * neu nummeriert wurden.
+     *
+     * @param left      Die linke Grenze des umschließenden Knotens.
+     * @param spacing   Der Abstand zweier Grenzen.
+     * @param nodeCount Die Anzahl der Knoten im umschließenden Knoten.
+     * @return Die rechte Grenze des umschließenden Knotens.
+     */
+    public static long computeRight(long left, long spacing, long nodeCount) {
+        return left + spacing * (2 * nodeCount + 1);
+    }
+
+    /**
+     * Berechnet, wie weit sich die Teilbäume von Geschwisterknoten
+     * verschieben, wenn die Geschwister neu angeordnet werden.
+     * <p>
+     * Die Teilbäume werden ab der linken Grenze des ersten Geschwisterknotens
+     * hintereinander angeordnet. Die Abstände zwischen zwei benachbarten
+     * Teilbäumen bleiben an ihrer Stelle, die Geschwister belegen also genau
+     * denselben Bereich wie vorher und keine Grenze außerhalb dieses Bereichs
+     * ändert sich.
+     * </p>
+     *
+     * @param lefts  Die linken Grenzen der Geschwister in aufsteigender
+     *               Reihenfolge.
+     * @param rights Die rechten Grenzen der Geschwister.
+     * @param order  Die Indizes der Geschwister in ihrer neuen Reihenfolge.
+     * @return Die Verschiebung jedes Geschwister-Teilbaumes, indiziert wie
+     *         <code>lefts</code>.
+     */
+    public static long[] computeReorderDeltas(long[] lefts, long[] rights, int[] order) {
+        int count = lefts.length;
+        long[] deltas = new long[count];
+        if (count == 0) {
+            return deltas;
+        }
+
+        long position = lefts[0];
+        for (int i = 0; i < count; i++) {
+            int sibling = order[i];
+            deltas[sibling] = position - lefts[sibling];
+            position += rights[sibling] - lefts[sibling];
+            if (i + 1 < count) {
+                position += lefts[i + 1] - rights[i];
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Bildet eine neue Reihenfolge von Geschwister-Ids auf die Indizes der
+     * Geschwister ab.
+     *
+     * @param siblingIds        Die Ids der Geschwister in ihrer aktuellen
+     *                          Reihenfolge.
+     * @param orderedSiblingIds Dieselben Ids in der neuen Reihenfolge.
+     * @return Die Indizes in <code>siblingIds</code> in der neuen Reihenfolge.
+     * @throws IllegalArgumentException Wenn die neue Reihenfolge keine
+     *                                  Permutation der Geschwister ist.
+     */
+    public static int[] resolveOrder(long[] siblingIds, long[] orderedSiblingIds) {
+        if (siblingIds.length != orderedSiblingIds.length) {
+            throw new IllegalArgumentException("expected " + siblingIds.length + " sibling ids but got " + orderedSiblingIds.length);
+        }
+
+        long[] sortedIds = siblingIds.clone();
+        Arrays.sort(sortedIds);
+        int[] sortedIdIndexes = new int[sortedIds.length];
+        for (int i = 0; i < siblingIds.length; i++) {
+            sortedIdIndexes[Arrays.binarySearch(sortedIds, siblingIds[i])] = i;
+        }
+
+        int[] order = new int[orderedSiblingIds.length];
+        boolean[] used = new boolean[orderedSiblingIds.length];
+        for (int i = 0; i < orderedSiblingIds.length; i++) {
+            int position = Arrays.binarySearch(sortedIds, orderedSiblingIds[i]);
+            if (position < 0 || used[sortedIdIndexes[position]]) {
+                throw new IllegalArgumentException("node " + orderedSiblingIds[i] + " is not a sibling or is listed twice");
+            }
+            order[i] = sortedIdIndexes[position];
+            used[order[i]] = true;
+        }
+        return order;
+    }
+
+    /**
+     * Nummeriert die angegebenen Knoten gleichmäßig neu und fügt den neuen
+     * Knoten als Blatt ein.
+     * <p>
+     * Die Knoten müssen alle Knoten echt innerhalb eines umschließenden
+     * Knotens mit der linken Grenze <code>left</code> sein. Ihre Reihenfolge
+     * bleibt erhalten. Der neue Knoten wird direkt hinter der Grenze
+     * <code>insertAfter</code> eingefügt, die entweder die linke Grenze des
+     * umschließenden Knotens oder eine der Grenzen der angegebenen Knoten ist.
+     * </p>
+     *
+     * @param left        Die linke Grenze des umschließenden Knotens.
+     * @param spacing     Der Abstand zweier Grenzen.
+     * @param nodes       Die Knoten im umschließenden Knoten.
+     * @param newNode     Das neue Blatt.
+     * @param insertAfter Die Grenze, auf die das neue Blatt folgt.
+     * @param <N>         Der Typ der Knoten.
+     */
+    public static <N extends NestedSetNode> void renumber(long left, long spacing, List<N> nodes, N newNode, long insertAfter) {
+        Bound[] bounds = new Bound[nodes.size() * 2];
+        int i = 0;
+        for (N node : nodes) {
+            bounds[i++] = new Bound(node, true, node.getNestedSetLeft());
+            bounds[i++] = new Bound(node, false, node.getNestedSetRight());
+        }
+        Arrays.sort(bounds, Bound.ASCENDING);
+
+        long position = left;
+        if (insertAfter == left) {
+            position = placeLeaf(newNode, position, spacing);
+        }
+        for (Bound bound : bounds) {
+            position += spacing;
+            bound.assign(position);
+
+            if (bound.value == insertAfter) {
+                position = placeLeaf(newNode, position, spacing);
+            }
+        }
+    }
+
+    private static long placeLeaf(NestedSetNode leaf, long position, long spacing) {
+        leaf.setNestedSetLeft(position + spacing);
+        leaf.setNestedSetRight(position + 2 * spacing);
+        return position + 2 * spacing;
+    }
+
+    /**
+     * Eine einzelne NestedSet-Grenze eines Knotens. Wird benutzt, um die
+     * Grenzen in ihrer natürlichen Reihenfolge neu zu nummerieren.
+     */
+    private static class Bound {
+
+        private static final Comparator<Bound> ASCENDING = new Comparator<Bound>() {
+            public int compare(Bound o1, Bound o2) {
+                return o1.value < o2.value ? -1 : (o1.value == o2.value ? 0 : 1);
+            }
+        };
+
+        private final NestedSetNode node;
+
+        private final boolean left;
+
+        private final long value;
+
+        private Bound(NestedSetNode node, boolean left, long value) {
+            this.node = node;
+            this.left = left;
+            this.value = value;
+        }
+
+        private void assign(long position) {
+            if (this.left) {
+                this.node.setNestedSetLeft(position);
+            } else {
+                this.node.setNestedSetRight(position);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+
+import java.util.Comparator;
+
+/**
+ * Beschreibt wie die Position eines Knotens in seinem Baum in den Grenzen des
+ * Knotens kodiert wird.
+ * <p>
+ * Die Implementierungen des
+ * {@link de.iew.framework.persistence.TreeOperationDao} ermitteln die
+ * Strategie eines Baumes über
+ * {@link de.iew.framework.domain.TreeEncoding#getStrategy()}. Der Comparator
+ * sortiert die Knoten nach ihrer linken Grenze, also in Pre-Order.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 10:25
+ */
+public interface TreeEncodingStrategy extends Comparator<Node> {
+
+    /**
+     * Legt die Grenzen einer neuen Wurzel fest.
+     *
+     * @param tree       Der Baum.
+     * @param formerRoot Die bisherige Wurzel, die ein Kind der neuen Wurzel
+     *                   wird, oder NULL wenn der Baum leer ist.
+     * @param root       Die neue Wurzel.
+     */
+    public void placeRoot(Tree tree, Node formerRoot, Node root);
+
+    /**
+     * Legt die Grenzen eines neuen Blattes zwischen die angegebenen
+     * Geschwister, ohne die Grenzen eines anderen Knotens zu ändern.
+     *
+     * @param tree            Der Baum.
+     * @param parent          Der Elternknoten des neuen Blattes.
+     * @param previousSibling Das Geschwister vor dem neuen Blatt oder NULL.
+     * @param nextSibling     Das Geschwister hinter dem neuen Blatt oder NULL.
+     * @param child           Das neue Blatt.
+     * @return FALSE wenn zwischen den Geschwistern kein Platz frei ist; der
+     *         Aufrufer muss den Baum dann neu nummerieren.
+     * @throws IllegalStateException Wenn die Kodierung keine weiteren Grenzen
+     *                               darstellen kann.
+     */
+    public boolean placeChild(Tree tree, Node parent, Node previousSibling, Node nextSibling, Node child);
+
+    /**
+     * Prüft ob ein Knoten innerhalb der Grenzen eines anderen Knotens liegt.
+     *
+     * @param ancestor Der mögliche Vorfahre.
+     * @param node     Der Knoten.
+     * @return TRUE wenn <code>node</code> ein Nachfahre von
+     *         <code>ancestor</code> ist.
+     */
+    public boolean isDescendant(Node ancestor, Node node);
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.mbean;
+
+import de.iew.framework.tree.TreeStatisticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Veröffentlicht die Form-Statistik der Bäume für die Kapazitätsplanung.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeStatisticsService
+ * @since 09.04.13 - 21:10
+ */
+@ManagedResource(objectName = "bean:name=treeStatistics", description = "Shape statistics of the trees")
+@Component
+public class TreeStatisticsMB implements TreeStatisticsMBean {
+
+    @ManagedOperation(description = "Returns the number of nodes of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public long getNodeCount(long treeId) {
+        return this.treeStatisticsService.getStatistics(treeId).getNodeCount();
+    }
+
+    @ManagedOperation(description = "Returns the number of nodes per depth of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public long[] getDepthHistogram(long treeId) {
+        return this.treeStatisticsService.getStatistics(treeId).getDepthHistogram();
+    }
+
+    @ManagedOperation(description = "Returns the maximal number of children of a node of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public int getMaxFanOut(long treeId) {
+        return this.treeStatisticsService.getStatistics(treeId).getMaxFanOut();
+    }
+
+    @ManagedOperation(description = "Returns the average subtree size of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public double getAverageSubtreeSize(long treeId) {
+        return this.treeStatisticsService.getStatistics(treeId).getAverageSubtreeSize();
+    }
+
+    @ManagedOperation(description = "Returns all statistics of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public String describe(long treeId) {
+        return this.treeStatisticsService.getStatistics(treeId).toString();
+    }
+
+    @ManagedOperation(description = "Drops the cached statistics of the tree")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "treeId", description = "The id of the tree")
+    })
+    public void evict(long treeId) {
+        this.treeStatisticsService.evict(treeId);
+    }
+
+    @ManagedAttribute(description = "The ids of the trees with cached statistics")
+    public long[] getCachedTreeIds() {
+        List<Long> treeIds = new ArrayList<Long>(this.treeStatisticsService.getCachedTreeIds());
+        long[] result = new long[treeIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = treeIds.get(i);
+        }
+        return result;
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeStatisticsService treeStatisticsService;
+
+    @Autowired
+    public void setTreeStatisticsService(TreeStatisticsService treeStatisticsService) {
+        this.treeStatisticsService = treeStatisticsService;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.mbean;
+
+/**
+ * MBean-Schnittstelle für die Form-Statistik der Bäume.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 21:10
+ */
+public interface TreeStatisticsMBean {
+
+    public long getNodeCount(long treeId);
+
+    public long[] getDepthHistogram(long treeId);
+
+    public int getMaxFanOut(long treeId);
+
+    public double getAverageSubtreeSize(long treeId);
+
+    public String describe(long treeId);
+
+    public void evict(long treeId);
+
+    public long[] getCachedTreeIds();
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import de.iew.framework.domain.Node;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iteriert seitenweise über die Kinder eines Knotens.
+ * <p>
+ * Jede Seite wird mit
+ * {@link TreeOperationDao#findChildren(long, long, int, int)} geladen, wenn
+ * die vorherige Seite verbraucht ist, beginnend nach der Ordnungszahl des
+ * zuletzt gelieferten Kindes. Zwischen den Seiten bleibt kein
+ * Datenbank-Cursor offen, der Iterator kann also in einer späteren
+ * Transaktion fortgesetzt werden.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeOperationDao#iterateChildren(long, long, int)
+ * @since 09.04.13 - 20:05
+ */
+public class ChildPageIterator implements Iterator<Node> {
+
+    private final TreeOperationDao treeOperationDao;
+
+    private final long treeId;
+
+    private final long parentId;
+
+    private final int pageSize;
+
+    private Iterator<Node> page;
+
+    private int afterOrdinalNumber = -1;
+
+    private boolean lastPage;
+
+    public ChildPageIterator(TreeOperationDao treeOperationDao, long treeId, long parentId, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("the page size must be positive");
+        }
+        this.treeOperationDao = treeOperationDao;
+        this.treeId = treeId;
+        this.parentId = parentId;
+        this.pageSize = pageSize;
+    }
+
+    public boolean hasNext() {
+        if (this.page != null && this.page.hasNext()) {
+            return true;
+        }
+        if (this.lastPage) {
+            return false;
+        }
+
+        List<Node> children = this.treeOperationDao.findChildren(this.treeId, this.parentId, this.afterOrdinalNumber, this.pageSize);
+        this.lastPage = (children.size() < this.pageSize);
+        this.page = children.iterator();
+        return this.page.hasNext();
+    }
+
+    public Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Node child = this.page.next();
+        this.afterOrdinalNumber = child.getOrdinalNumber();
+        return child;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import de.iew.framework.domain.Node;
+
+import java.util.Collection;
+
+/**
+ * Beschreibt einen Loader, der die Datenquellen vieler Knoten auf einmal
+ * lädt.
+ * <p>
+ * {@link Node#getDataSource()} ist eine Lazy-Assoziation. Beim Rendern einer
+ * Liste von Knoten würde sonst jede Datenquelle mit ihren Textelementen in
+ * eigenen Abfragen geladen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 17:05
+ */
+public interface DataSourceBatchLoader {
+
+    /**
+     * Lädt die Datenquellen der angegebenen Knoten einschließlich ihrer
+     * Textelemente und hängt die geladenen Datenquellen an die Knoten.
+     * <p>
+     * Danach liefert {@link Node#getDataSource()} die Instanz der konkreten
+     * Datenquellen-Klasse statt eines nicht initialisierten Proxys.
+     * </p>
+     *
+     * @param nodes Die Knoten.
+     * @return Die Anzahl der geladenen Datenquellen.
+     */
+    public int loadDataSources(Collection<Node> nodes);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+/**
+ * Beschreibt einen Callback, der die Strukturdaten der Knoten eines Baumes
+ * zeilenweise erhält.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeOperationDao#visitNestedSetRows(long, NestedSetRowHandler)
+ * @since 07.04.13 - 10:12
+ */
+public interface NestedSetRowHandler {
+
+    /**
+     * Wird für jeden Knoten des Baumes in der Reihenfolge der linken
+     * NestedSet-Grenzen aufgerufen.
+     *
+     * @param nodeId         Die Id des Knotens.
+     * @param parentId       Die Id des Elternknotens oder NULL für die Wurzel.
+     * @param ordinalNumber  Die Ordnungszahl des Knotens.
+     * @param depth          Die gespeicherte Tiefe des Knotens.
+     * @param nestedSetLeft  Die linke NestedSet-Grenze.
+     * @param nestedSetRight Die rechte NestedSet-Grenze.
+     */
+    public void handleRow(long nodeId, Long parentId, int ordinalNumber, int depth, long nestedSetLeft, long nestedSetRight);
+}
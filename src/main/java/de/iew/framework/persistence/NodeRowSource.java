@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+/**
+ * Beschreibt einen Cursor über Knotenzeilen, die in einen neuen Baum
+ * geschrieben werden.
+ * <p>
+ * Die Zeilen müssen in der Reihenfolge ihrer linken NestedSet-Grenzen
+ * geliefert werden. Elternknoten und Tiefen werden aus den Grenzen
+ * abgeleitet, eine Quelle muss die Ids der Knoten also nicht kennen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeOperationDao#importTree(String, long, NodeRowSource)
+ * @since 08.04.13 - 14:12
+ */
+public interface NodeRowSource {
+
+    /**
+     * Setzt den Cursor auf die nächste Zeile.
+     *
+     * @return FALSE wenn es keine weiteren Zeilen gibt.
+     */
+    public boolean next();
+
+    public long getNestedSetLeft();
+
+    public long getNestedSetRight();
+
+    public int getOrdinalNumber();
+
+    /**
+     * Liefert die Id der Datenquelle der aktuellen Zeile.
+     *
+     * @return Die Id der Datenquelle oder NULL.
+     */
+    public Long getDataSourceId();
+}
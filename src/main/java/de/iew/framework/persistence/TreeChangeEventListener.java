@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import java.util.List;
+
+/**
+ * Beschreibt einen {@link TreeChangeListener}, der die einzelnen Änderungen
+ * eines Baumes benötigt, z.B. um eine Kopie des Baumes im Speicher
+ * anzupassen.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeChangeSupport
+ * @since 09.04.13 - 18:05
+ */
+public interface TreeChangeEventListener extends TreeChangeListener {
+
+    /**
+     * Wird statt {@link #treeChanged(long)} aufgerufen, nachdem die
+     * Änderungen des angegebenen Baumes festgeschrieben wurden.
+     *
+     * @param treeId Die Id des geänderten Baumes.
+     * @param events Die Änderungen in der Reihenfolge, in der sie gemacht
+     *               wurden; ein einzelnes
+     *               {@link TreeChangedEvent.Type#TREE_CHANGED} Ereignis für
+     *               den ganzen Baum, wenn die Transaktion den Baum zu oft
+     *               geändert hat, um jede Änderung aufzuzeichnen.
+     */
+    public void treeChanged(long treeId, List<TreeChangedEvent> events);
+}
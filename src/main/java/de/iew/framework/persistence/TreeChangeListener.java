@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+/**
+ * Beschreibt einen Listener, der benachrichtigt wird, wenn der
+ * {@link TreeOperationDao} einen Baum geändert hat.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 06.04.13 - 14:21
+ */
+public interface TreeChangeListener {
+
+    /**
+     * Wird aufgerufen, nachdem die Änderungen des angegebenen Baumes
+     * festgeschrieben wurden. Wurde die Änderung ohne Transaktion
+     * durchgeführt, wird der Listener sofort aufgerufen.
+     *
+     * @param treeId Die Id des geänderten Baumes.
+     */
+    public void treeChanged(long treeId);
+}
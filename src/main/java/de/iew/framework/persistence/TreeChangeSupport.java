@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.message.GenericMessage;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Verwaltet die {@link TreeChangeListener} einer Implementierung des
+ * {@link TreeOperationDao}.
+ * <p>
+ * Ist eine von Spring verwaltete Transaktion aktiv, werden die Listener nach
+ * dem Commit einmal je geändertem Baum benachrichtigt. Zurückgerollte
+ * Änderungen werden nicht gemeldet. Ohne Transaktion werden die Listener
+ * sofort benachrichtigt. {@link TreeCommitListener} werden zusätzlich vor dem
+ * Commit und nach dem Abschluss der Transaktion benachrichtigt.
+ * </p>
+ * <p>
+ * Ist ein Kanal konfiguriert, wird zu jeder Benachrichtigung zusätzlich ein
+ * {@link TreeChangedEvent} versendet. Hat eine Transaktion einen Baum mehrfach
+ * geändert, beschreibt das Ereignis den ganzen Baum, siehe
+ * {@link #merge(java.util.List)}. {@link TreeChangeEventListener} erhalten
+ * stattdessen die einzelnen Änderungen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 06.04.13 - 14:28
+ */
+public class TreeChangeSupport {
+
+    private static final Log log = LogFactory.getLog(TreeChangeSupport.class);
+
+    /**
+     * Die maximale Anzahl der Änderungen je Baum, die innerhalb einer
+     * Transaktion einzeln aufgezeichnet werden. Darüber hinaus wird nur noch
+     * eine Änderung des ganzen Baumes gemeldet.
+     */
+    private static final int MAX_RECORDED_EVENTS = 32;
+
+    private final List<TreeChangeListener> listeners = new CopyOnWriteArrayList<TreeChangeListener>();
+
+    private final Object eventSource;
+
+    private volatile MessageChannel treeChangedEventChannel;
+
+    public TreeChangeSupport() {
+        this(TreeChangeSupport.class.getName());
+    }
+
+    /**
+     * Erzeugt die Unterstützung für die angegebene Quelle der Ereignisse.
+     *
+     * @param eventSource Die Quelle der {@link TreeChangedEvent}s.
+     */
+    public TreeChangeSupport(Object eventSource) {
+        this.eventSource = eventSource;
+    }
+
+    public void addTreeChangeListener(TreeChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeTreeChangeListener(TreeChangeListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Meldet eine Änderung des angegebenen Baumes.
+     *
+     * @param treeId Die Id des geänderten Baumes.
+     */
+    public void fireTreeChanged(long treeId) {
+        fireTreeChanged(new TreeChangedEvent(this.eventSource, treeId));
+    }
+
+    /**
+     * Meldet eine Änderung im angegebenen Bereich eines Baumes.
+     *
+     * @param treeId              Die Id des geänderten Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des geänderten Teilbaumes.
+     * @param rightNestedSetIndex Die rechte Grenze des geänderten Teilbaumes.
+     */
+    public void fireTreeChanged(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        fireTreeChanged(new TreeChangedEvent(this.eventSource, treeId, leftNestedSetIndex, rightNestedSetIndex));
+    }
+
+    /**
+     * Meldet ein eingefügtes Blatt.
+     *
+     * @param treeId         Die Id des geänderten Baumes.
+     * @param nodeId         Die Id des neuen Blattes.
+     * @param nestedSetLeft  Die linke Grenze des neuen Blattes.
+     * @param nestedSetRight Die rechte Grenze des neuen Blattes.
+     * @param ordinalNumber  Die Position des neuen Blattes.
+     * @param boundShift     Die Verschiebung der folgenden Grenzen.
+     * @see TreeChangedEvent#nodeInserted(Object, long, long, long, long, int, long)
+     */
+    public void fireNodeInserted(long treeId, long nodeId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, long boundShift) {
+        fireTreeChanged(TreeChangedEvent.nodeInserted(this.eventSource, treeId, nodeId, nestedSetLeft, nestedSetRight, ordinalNumber, boundShift));
+    }
+
+    /**
+     * Meldet einen entfernten Teilbaum.
+     *
+     * @param treeId              Die Id des geänderten Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des Teilbaumes.
+     * @param rightNestedSetIndex Die rechte Grenze des Teilbaumes.
+     * @param boundShift          Die Verschiebung der folgenden Grenzen.
+     * @see TreeChangedEvent#subtreeRemoved(Object, long, long, long, long)
+     */
+    public void fireSubtreeRemoved(long treeId, long leftNestedSetIndex, long rightNestedSetIndex, long boundShift) {
+        fireTreeChanged(TreeChangedEvent.subtreeRemoved(this.eventSource, treeId, leftNestedSetIndex, rightNestedSetIndex, boundShift));
+    }
+
+    protected void fireTreeChanged(TreeChangedEvent event) {
+        if (this.listeners.isEmpty() && this.treeChangedEventChannel == null) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            AfterCommitNotification notification = (AfterCommitNotification) TransactionSynchronizationManager.getResource(this);
+            if (notification == null) {
+                notification = new AfterCommitNotification();
+                TransactionSynchronizationManager.bindResource(this, notification);
+                TransactionSynchronizationManager.registerSynchronization(notification);
+            }
+            Map<Long, List<TreeChangedEvent>> changes = notification.changes;
+
+            List<TreeChangedEvent> events = changes.get(event.getTreeId());
+            if (events == null) {
+                events = new ArrayList<TreeChangedEvent>();
+                changes.put(event.getTreeId(), events);
+            } else if (events.size() == 1 && events.get(0).isWholeTree()) {
+                // Der ganze Baum ist bereits als geändert gemeldet.
+                return;
+            }
+            events.add(event);
+            if (events.size() > MAX_RECORDED_EVENTS) {
+                TreeChangedEvent merged = merge(events);
+                events.clear();
+                events.add(merged);
+            }
+        } else {
+            notifyListeners(event.getTreeId(), Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Fasst die angegebenen Änderungen eines Baumes zu einer Änderung
+     * zusammen.
+     * <p>
+     * Die Grenzen jeder Änderung beziehen sich auf den Stand des Baumes nach
+     * den vorherigen Änderungen. Eine Änderung, die Grenzen verschiebt,
+     * ändert also die Nummerierung der folgenden Änderungen; ihre Bereiche
+     * lassen sich nicht vereinigen. Mehrere Änderungen werden daher zu einer
+     * Änderung des ganzen Baumes zusammengefasst.
+     * </p>
+     *
+     * @param events Die Änderungen eines Baumes.
+     * @return Die einzige Änderung oder eine Änderung des ganzen Baumes.
+     */
+    protected TreeChangedEvent merge(List<TreeChangedEvent> events) {
+        if (events.size() == 1) {
+            return events.get(0);
+        }
+        return new TreeChangedEvent(this.eventSource, events.get(0).getTreeId());
+    }
+
+    protected void notifyListeners(long treeId, List<TreeChangedEvent> events) {
+        for (TreeChangeListener listener : this.listeners) {
+            try {
+                if (listener instanceof TreeChangeEventListener) {
+                    ((TreeChangeEventListener) listener).treeChanged(treeId, events);
+                } else {
+                    listener.treeChanged(treeId);
+                }
+            } catch (RuntimeException e) {
+                // Die Änderung ist bereits festgeschrieben; ein fehlerhafter
+                // Listener darf die anderen Listener nicht blockieren.
+                log.error("Der TreeChangeListener " + listener + " ist für Baum " + treeId + " fehlgeschlagen.", e);
+            }
+        }
+
+        MessageChannel messageChannel = this.treeChangedEventChannel;
+        if (messageChannel != null) {
+            TreeChangedEvent event = merge(events);
+            try {
+                messageChannel.send(new GenericMessage<TreeChangedEvent>(event));
+            } catch (RuntimeException e) {
+                log.error("Das Ereignis " + event + " konnte nicht versendet werden.", e);
+            }
+        }
+    }
+
+    /**
+     * Benachrichtigt die {@link TreeCommitListener} über den Beginn oder das
+     * Ende des Commits der angegebenen Bäume.
+     *
+     * @param treeIds   Die Ids der geänderten Bäume.
+     * @param completed FALSE vor dem Commit, TRUE nach dem Abschluss der
+     *                  Transaktion.
+     */
+    protected void notifyCommitListeners(Iterable<Long> treeIds, boolean completed) {
+        for (TreeChangeListener listener : this.listeners) {
+            if (!(listener instanceof TreeCommitListener)) {
+                continue;
+            }
+            for (Long treeId : treeIds) {
+                try {
+                    if (completed) {
+                        ((TreeCommitListener) listener).afterTreeCompletion(treeId);
+                    } else {
+                        ((TreeCommitListener) listener).beforeTreeCommit(treeId);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Der TreeCommitListener " + listener + " ist für Baum " + treeId + " fehlgeschlagen.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sammelt die Änderungen einer Transaktion und benachrichtigt die Listener
+     * nach dem Commit über alle Bäume, die während der Transaktion geändert
+     * wurden. Die Instanz ist für die Dauer der Transaktion als Ressource
+     * an diese {@link TreeChangeSupport} gebunden.
+     */
+    private class AfterCommitNotification extends TransactionSynchronizationAdapter {
+
+        private final Map<Long, List<TreeChangedEvent>> changes = new LinkedHashMap<Long, List<TreeChangedEvent>>();
+
+        private boolean committing;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            this.committing = true;
+            notifyCommitListeners(this.changes.keySet(), false);
+        }
+
+        @Override
+        public void afterCommit() {
+            for (Map.Entry<Long, List<TreeChangedEvent>> change : this.changes.entrySet()) {
+                notifyListeners(change.getKey(), change.getValue());
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TreeChangeSupport.this);
+            if (this.committing) {
+                notifyCommitListeners(this.changes.keySet(), true);
+            }
+        }
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    /**
+     * Setzt den Kanal für die {@link TreeChangedEvent}s.
+     *
+     * @param treeChangedEventChannel Der Kanal oder NULL um die Ereignisse
+     *                                abzuschalten.
+     */
+    public void setTreeChangedEventChannel(MessageChannel treeChangedEventChannel) {
+        this.treeChangedEventChannel = treeChangedEventChannel;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import de.iew.framework.utils.IewApplicationEvent;
+
+import java.io.Serializable;
+
+/**
+ * Meldet eine festgeschriebene Änderung eines Baumes über einen Kanal von
+ * Spring Integration.
+ * <p>
+ * Das Ereignis enthält die NestedSet-Grenzen des eingefügten, geänderten oder
+ * entfernten Teilbaumes. Die Vorfahren dieses Teilbaumes umschließen den
+ * Bereich. Empfänger können daher die zwischengespeicherten Daten aller
+ * Knoten, deren Grenzen den Bereich überlappen, verwerfen oder anpassen und
+ * den Rest behalten. Die Grenzen der Knoten rechts des Bereichs können sich
+ * verschoben haben, ihre Daten aber nicht. Ist der Bereich unbekannt,
+ * umfasst das Ereignis den ganzen Baum.
+ * </p>
+ * <p>
+ * Eingefügte Blätter und entfernte Teilbäume werden durch ihren {@link Type}
+ * genau beschrieben. Eine Kopie im Speicher kann daher angepasst werden, ohne
+ * den Baum erneut zu lesen (siehe {@link de.iew.framework.tree.TreeSnapshot}).
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeChangeSupport
+ * @since 09.04.13 - 16:20
+ */
+public class TreeChangedEvent extends IewApplicationEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Listet die Arten der Änderungen auf.
+     */
+    public static enum Type {
+
+        /**
+         * Eine beliebige Änderung innerhalb des Bereichs; der neue Stand muss
+         * aus der Datenbank gelesen werden.
+         */
+        TREE_CHANGED,
+
+        /**
+         * Ein Blatt mit den Grenzen des Bereichs wurde eingefügt. Alle
+         * Grenzen größer oder gleich der linken Grenze des Bereichs wurden
+         * vorher um die Verschiebung verschoben.
+         */
+        NODE_INSERTED,
+
+        /**
+         * Alle Knoten mit einer linken Grenze im Bereich wurden entfernt.
+         * Alle Grenzen größer als die rechte Grenze des Bereichs wurden danach
+         * um die Verschiebung verschoben.
+         */
+        SUBTREE_REMOVED
+    }
+
+    private final Type type;
+
+    private final long treeId;
+
+    private final long leftNestedSetIndex;
+
+    private final long rightNestedSetIndex;
+
+    private final long boundShift;
+
+    private final long nodeId;
+
+    private final int ordinalNumber;
+
+    public TreeChangedEvent(Object source, long treeId) {
+        this(source, treeId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public TreeChangedEvent(Object source, long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        this(source, Type.TREE_CHANGED, treeId, leftNestedSetIndex, rightNestedSetIndex, 0, 0, 0);
+    }
+
+    private TreeChangedEvent(Object source, Type type, long treeId, long leftNestedSetIndex, long rightNestedSetIndex, long boundShift, long nodeId, int ordinalNumber) {
+        super(source, false);
+        this.type = type;
+        this.treeId = treeId;
+        this.leftNestedSetIndex = leftNestedSetIndex;
+        this.rightNestedSetIndex = rightNestedSetIndex;
+        this.boundShift = boundShift;
+        this.nodeId = nodeId;
+        this.ordinalNumber = ordinalNumber;
+    }
+
+    /**
+     * Erzeugt das Ereignis für ein eingefügtes Blatt. Die Positionen der
+     * folgenden Geschwister wurden erhöht.
+     *
+     * @param source         Die Quelle des Ereignisses.
+     * @param treeId         Die Id des Baumes.
+     * @param nodeId         Die Id des neuen Blattes.
+     * @param nestedSetLeft  Die linke Grenze des neuen Blattes.
+     * @param nestedSetRight Die rechte Grenze des neuen Blattes.
+     * @param ordinalNumber  Die Position des neuen Blattes.
+     * @param boundShift     Die Verschiebung der folgenden Grenzen; 0 wenn
+     *                       das Blatt in eine Lücke gelegt wurde.
+     * @return Das Ereignis.
+     */
+    public static TreeChangedEvent nodeInserted(Object source, long treeId, long nodeId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, long boundShift) {
+        return new TreeChangedEvent(source, Type.NODE_INSERTED, treeId, nestedSetLeft, nestedSetRight, boundShift, nodeId, ordinalNumber);
+    }
+
+    /**
+     * Erzeugt das Ereignis für einen entfernten Teilbaum.
+     *
+     * @param source              Die Quelle des Ereignisses.
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des Teilbaumes.
+     * @param rightNestedSetIndex Die rechte Grenze des Teilbaumes.
+     * @param boundShift          Die Verschiebung der folgenden Grenzen; 0
+     *                            wenn die Lücke frei bleibt.
+     * @return Das Ereignis.
+     */
+    public static TreeChangedEvent subtreeRemoved(Object source, long treeId, long leftNestedSetIndex, long rightNestedSetIndex, long boundShift) {
+        return new TreeChangedEvent(source, Type.SUBTREE_REMOVED, treeId, leftNestedSetIndex, rightNestedSetIndex, boundShift, 0, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    public long getLeftNestedSetIndex() {
+        return leftNestedSetIndex;
+    }
+
+    public long getRightNestedSetIndex() {
+        return rightNestedSetIndex;
+    }
+
+    public long getBoundShift() {
+        return boundShift;
+    }
+
+    /**
+     * Liefert die Id des eingefügten Blattes.
+     *
+     * @return Die Id des Blattes; 0 wenn der Typ nicht
+     *         {@link Type#NODE_INSERTED} ist.
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public int getOrdinalNumber() {
+        return ordinalNumber;
+    }
+
+    /**
+     * Prüft ob dieses Ereignis den ganzen Baum umfasst.
+     *
+     * @return TRUE wenn der betroffene Bereich unbekannt ist.
+     */
+    public boolean isWholeTree() {
+        return this.leftNestedSetIndex == Long.MIN_VALUE && this.rightNestedSetIndex == Long.MAX_VALUE;
+    }
+
+    /**
+     * Prüft ob die angegebenen Grenzen den betroffenen Bereich überlappen.
+     *
+     * @param leftNestedSetIndex  Die linke Grenze eines Knotens.
+     * @param rightNestedSetIndex Die rechte Grenze eines Knotens.
+     * @return TRUE wenn der Knoten von der Änderung betroffen ist.
+     */
+    public boolean overlaps(long leftNestedSetIndex, long rightNestedSetIndex) {
+        return leftNestedSetIndex <= this.rightNestedSetIndex && rightNestedSetIndex >= this.leftNestedSetIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeChangedEvent{type=" + this.type + ", treeId=" + this.treeId + ", leftNestedSetIndex=" + this.leftNestedSetIndex + ", rightNestedSetIndex=" + this.rightNestedSetIndex + "}";
+    }
+}
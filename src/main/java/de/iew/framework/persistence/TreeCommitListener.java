@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+/**
+ * Beschreibt einen {@link TreeChangeEventListener}, der zusätzlich erfährt,
+ * wann eine Transaktion mit Änderungen eines Baumes festgeschrieben wird.
+ * <p>
+ * Zwischen dem Commit und der Benachrichtigung nach dem Commit liest ein
+ * anderer Thread bereits den neuen Stand des Baumes. Ein Cache, der die
+ * gemeldeten Änderungen auf seinen Stand anwendet, kann einen in diesem
+ * Zeitraum geladenen Stand nicht vom alten Stand unterscheiden. Er darf daher
+ * zwischen {@link #beforeTreeCommit(long)} und
+ * {@link #afterTreeCompletion(long)} keinen geladenen Stand übernehmen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeChangeSupport
+ * @since 10.04.13 - 09:30
+ */
+public interface TreeCommitListener extends TreeChangeEventListener {
+
+    /**
+     * Wird vor dem Commit einer Transaktion aufgerufen, die den angegebenen
+     * Baum geändert hat.
+     *
+     * @param treeId Die Id des geänderten Baumes.
+     */
+    public void beforeTreeCommit(long treeId);
+
+    /**
+     * Wird nach dem Abschluss einer Transaktion aufgerufen, für die
+     * {@link #beforeTreeCommit(long)} aufgerufen wurde. Nach einem
+     * erfolgreichen Commit folgt der Aufruf auf
+     * {@link #treeChanged(long, java.util.List)}; er erfolgt auch, wenn der
+     * Commit fehlschlägt.
+     *
+     * @param treeId Die Id des geänderten Baumes.
+     */
+    public void afterTreeCompletion(long treeId);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serialisiert die schreibenden Operationen eines {@link TreeOperationDao} je
+ * Baum.
+ * <p>
+ * Die Bäume werden auf eine feste Anzahl fairer Sperren abgebildet (Lock
+ * Striping). Schreibzugriffe auf verschiedene Bäume laufen in der Regel
+ * parallel; Schreibzugriffe auf denselben Baum werden in der Reihenfolge
+ * ihres Eintreffens abgearbeitet. Eine Sperre wird gehalten, bis die aktuelle
+ * von Spring verwaltete Transaktion abgeschlossen ist, damit der nächste
+ * Schreiber die festgeschriebenen NestedSet-Grenzen sieht. Ohne aktive
+ * Transaktionssynchronisation kann die Sperre nicht freigegeben werden, daher
+ * wird der Aufruf dann abgewiesen.
+ * </p>
+ * <p>
+ * Eine Transaktion, die länger als die eingestellte Wartezeit auf eine
+ * Sperre wartet, scheitert mit einer {@link CannotAcquireLockException}. Das
+ * löst auch Deadlocks zwischen Transaktionen auf, die in unterschiedlicher
+ * Reihenfolge in mehrere Bäume schreiben.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 07.04.13 - 16:20
+ */
+public class TreeLockSupport {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    public static final long DEFAULT_LOCK_TIMEOUT = 30000;
+
+    private final ReentrantLock[] stripes;
+
+    private long lockTimeout = DEFAULT_LOCK_TIMEOUT;
+
+    public TreeLockSupport() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Erzeugt die Sperrverwaltung mit der angegebenen Anzahl von Sperren.
+     *
+     * @param stripes Die Anzahl der Sperren; wird auf eine Zweierpotenz
+     *                aufgerundet.
+     */
+    public TreeLockSupport(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("at least one stripe is required");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock(true);
+        }
+    }
+
+    /**
+     * Sperrt den angegebenen Baum bis zum Abschluss der aktuellen
+     * Transaktion. Mehrfaches Sperren eines Baumes in derselben Transaktion
+     * hat keine weitere Wirkung.
+     *
+     * @param treeId Die Id des Baumes.
+     * @throws CannotAcquireLockException Wenn die Sperre nicht innerhalb der
+     *                                    Wartezeit verfügbar ist.
+     * @throws IllegalStateException      Wenn keine Transaktionssynchronisation
+     *                                    aktiv ist.
+     */
+    public void lockTree(long treeId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Ohne Synchronisation würde die Sperre nie freigegeben. Ein
+            // stilles Überspringen würde dagegen gleichzeitige Schreiber auf
+            // denselben Baum zulassen.
+            throw new IllegalStateException("tree " + treeId + " can only be locked inside a synchronized transaction");
+        }
+
+        HeldStripes heldStripes = (HeldStripes) TransactionSynchronizationManager.getResource(this);
+        if (heldStripes == null) {
+            heldStripes = new HeldStripes();
+            TransactionSynchronizationManager.bindResource(this, heldStripes);
+            TransactionSynchronizationManager.registerSynchronization(heldStripes);
+        }
+
+        int stripe = stripeFor(treeId);
+        if (heldStripes.stripes.get(stripe)) {
+            return;
+        }
+
+        try {
+            if (!this.stripes[stripe].tryLock(this.lockTimeout, TimeUnit.MILLISECONDS)) {
+                throw new CannotAcquireLockException("tree " + treeId + " is locked by another transaction");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException("interrupted while waiting for the lock of tree " + treeId, e);
+        }
+        heldStripes.stripes.set(stripe);
+    }
+
+    /**
+     * Sperrt die angegebenen Bäume bis zum Abschluss der aktuellen
+     * Transaktion. Die Sperren werden in einer festen Reihenfolge geholt,
+     * daher blockieren sich zwei Transaktionen, die dieselben Bäume sperren,
+     * nicht gegenseitig.
+     *
+     * @param treeIds Die Ids der Bäume.
+     * @throws CannotAcquireLockException Wenn eine Sperre nicht innerhalb der
+     *                                    Wartezeit verfügbar ist.
+     * @throws IllegalStateException      Wenn keine Transaktionssynchronisation
+     *                                    aktiv ist.
+     */
+    public void lockTrees(long... treeIds) {
+        long[] sortedTreeIds = treeIds.clone();
+        // Sortiert nach Sperre, dann nach Id.
+        for (int i = 1; i < sortedTreeIds.length; i++) {
+            long treeId = sortedTreeIds[i];
+            int j = i;
+            while (j > 0 && compareStripes(sortedTreeIds[j - 1], treeId) > 0) {
+                sortedTreeIds[j] = sortedTreeIds[j - 1];
+                j--;
+            }
+            sortedTreeIds[j] = treeId;
+        }
+        for (long treeId : sortedTreeIds) {
+            lockTree(treeId);
+        }
+    }
+
+    private int compareStripes(long treeId1, long treeId2) {
+        int stripe1 = stripeFor(treeId1);
+        int stripe2 = stripeFor(treeId2);
+        if (stripe1 != stripe2) {
+            return (stripe1 < stripe2 ? -1 : 1);
+        }
+        return (treeId1 < treeId2 ? -1 : (treeId1 == treeId2 ? 0 : 1));
+    }
+
+    protected int stripeFor(long treeId) {
+        int hash = (int) (treeId ^ (treeId >>> 32));
+        hash ^= (hash >>> 16);
+        return hash & (this.stripes.length - 1);
+    }
+
+    public void setLockTimeout(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Merkt sich die Sperren einer Transaktion und gibt sie beim Abschluss der
+     * Transaktion frei.
+     */
+    private class HeldStripes extends TransactionSynchronizationAdapter {
+
+        private final BitSet stripes = new BitSet();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TreeLockSupport.this);
+
+            for (int stripe = this.stripes.nextSetBit(0); stripe >= 0; stripe = this.stripes.nextSetBit(stripe + 1)) {
+                TreeLockSupport.this.stripes[stripe].unlock();
+            }
+            this.stripes.clear();
+        }
+    }
+}
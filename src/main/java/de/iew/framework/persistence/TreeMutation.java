@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import de.iew.framework.domain.Node;
+
+/**
+ * Beschreibt eine einzelne Änderung eines Baumes für
+ * {@link TreeOperationDao#applyMutations(long, java.util.List)}.
+ * <p>
+ * Jede Änderung hat dieselbe Semantik wie die entsprechende einzelne
+ * Operation des {@link TreeOperationDao}. Die NestedSet-Grenzen einer
+ * Änderung beziehen sich auf die Nummerierung, nachdem alle vorherigen
+ * Änderungen desselben Stapels angewendet wurden.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 04.04.13 - 19:05
+ */
+public class TreeMutation {
+
+    public enum Type {
+        /**
+         * Fügt einen Knoten wie {@link TreeOperationDao#save(de.iew.framework.domain.Node)} ein.
+         */
+        INSERT,
+
+        /**
+         * Löscht einen einzelnen Knoten wie {@link TreeOperationDao#deleteSingleNode(long, long)}.
+         */
+        DELETE_NODE,
+
+        /**
+         * Löscht einen Bereich von Knoten wie {@link TreeOperationDao#deleteNodesBetween(long, long, long)}.
+         */
+        DELETE_RANGE
+    }
+
+    private final Type type;
+
+    private final Node node;
+
+    private final long nodeId;
+
+    private final long leftNestedSetIndex;
+
+    private final long rightNestedSetIndex;
+
+    private TreeMutation(Type type, Node node, long nodeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        this.type = type;
+        this.node = node;
+        this.nodeId = nodeId;
+        this.leftNestedSetIndex = leftNestedSetIndex;
+        this.rightNestedSetIndex = rightNestedSetIndex;
+    }
+
+    /**
+     * Erzeugt eine Änderung, die den angegebenen Knoten einfügt. Die
+     * NestedSet-Grenzen des Knotens müssen gesetzt sein, wenn die Änderung
+     * angewendet wird.
+     *
+     * @param node Der einzufügende Knoten.
+     * @return Die Änderung.
+     */
+    public static TreeMutation insert(Node node) {
+        if (node == null) {
+            throw new IllegalArgumentException("node can't be null");
+        }
+        return new TreeMutation(Type.INSERT, node, 0, 0, 0);
+    }
+
+    /**
+     * Erzeugt eine Änderung, die den Knoten mit der angegebenen Id löscht.
+     *
+     * @param nodeId Die Id des zu löschenden Knotens.
+     * @return Die Änderung.
+     */
+    public static TreeMutation deleteNode(long nodeId) {
+        return new TreeMutation(Type.DELETE_NODE, null, nodeId, 0, 0);
+    }
+
+    /**
+     * Erzeugt eine Änderung, die alle Knoten zwischen den angegebenen Grenzen
+     * löscht.
+     *
+     * @param leftNestedSetIndex  Die linke Grenze (einschließlich).
+     * @param rightNestedSetIndex Die rechte Grenze (einschließlich).
+     * @return Die Änderung.
+     */
+    public static TreeMutation deleteRange(long leftNestedSetIndex, long rightNestedSetIndex) {
+        return new TreeMutation(Type.DELETE_RANGE, null, 0, leftNestedSetIndex, rightNestedSetIndex);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Liefert den einzufügenden Knoten. Nur für {@link Type#INSERT} gesetzt.
+     *
+     * @return Der einzufügende Knoten.
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * Liefert die Id des zu löschenden Knotens. Nur für
+     * {@link Type#DELETE_NODE} gesetzt.
+     *
+     * @return Die Id des zu löschenden Knotens.
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Liefert die linke Grenze des zu löschenden Bereichs. Nur für
+     * {@link Type#DELETE_RANGE} gesetzt.
+     *
+     * @return Die linke Grenze (einschließlich).
+     */
+    public long getLeftNestedSetIndex() {
+        return leftNestedSetIndex;
+    }
+
+    /**
+     * Liefert die rechte Grenze des zu löschenden Bereichs. Nur für
+     * {@link Type#DELETE_RANGE} gesetzt.
+     *
+     * @return Die rechte Grenze (einschließlich).
+     */
+    public long getRightNestedSetIndex() {
+        return rightNestedSetIndex;
+    }
+}
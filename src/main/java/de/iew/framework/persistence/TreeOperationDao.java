@@ -17,6 +17,13 @@
 package de.iew.framework.persistence;
 
 import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.utils.DomainModelVisitor;
+import de.iew.framework.tree.NodeTable;
+import de.iew.framework.tree.TreeSnapshot;
+
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Beschreibt eine DAO-Schnittstelle mit Operationen auf Bäume.
@@ -27,6 +34,31 @@ import de.iew.framework.domain.Node;
  * Domainmodelle verstreut werden und versuchen damit die Redundanz in den
  * Funktionalitäten zu beschränken.
  * </p>
+ * <p>
+ * Die Struktur eines Baumes wird wie in {@link Tree#getEncoding()}
+ * angegeben kodiert. Die Kodierung
+ * {@link de.iew.framework.domain.TreeEncoding#NESTED_INTERVALS} ist
+ * experimentell und kann über die öffentliche API nicht gewählt werden. Bäume
+ * mit dieser Kodierung unterstützen
+ * das Einfügen von Knoten und Wurzeln, die lesenden Operationen, die Knoten
+ * laden, suchen oder zählen, sowie {@link #deleteSingleNode(long, long)} und
+ * das Löschen über markierte Teilbäume. Das Blättern über die linke
+ * NestedSet-Grenze steht für sie nicht zur Verfügung. Alle anderen
+ * Operationen, die Knoten verschieben, löschen oder direkt auf den
+ * NestedSet-Grenzen arbeiten, werfen für solche Bäume eine
+ * {@link UnsupportedOperationException}.
+ * </p>
+ * <p>
+ * Die Zähler und Nenner der Intervalle sind auf
+ * {@link de.iew.framework.domain.utils.NestedIntervalUtils#MAX_TERM}
+ * beschränkt, damit sie exakt in SQL verglichen werden können. Sie wachsen
+ * mit jeder Ebene und mit jedem Einfügen zwischen denselben Nachbarn. Ist die
+ * Grenze erreicht, normalisieren {@link #insertNode(long, long, int, Node)}
+ * und {@link #insertRoot(long, Node)} die Intervalle des ganzen Baumes auf
+ * ganze Zahlen und legen den Knoten erneut an. Das ändert die Intervalle
+ * aller Knoten; tiefe Bäume oder häufiges Einfügen an derselben Stelle
+ * führen daher zu wiederholten Schreibzugriffen auf den ganzen Baum.
+ * </p>
  *
  * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
  * @since 17.11.12 - 10:07
@@ -36,11 +68,59 @@ public interface TreeOperationDao {
     /**
      * Verschiebt die NestedSet-Grenzen aller Knoten im angegebenen Baum um
      * 1.
+     * <p>
+     * Um einen neuen Wurzelknoten einzufügen, sollte
+     * {@link #insertRoot(long, Node)} verwendet werden. Diese Methode
+     * schreibt jeden Knoten des Baumes neu.
+     * </p>
      *
      * @param treeId Die Id des Baumes.
      */
     public void incNestedSetBorders(long treeId);
 
+    /**
+     * Fügt einen neuen Wurzelknoten oberhalb des aktuellen Wurzelknotens des
+     * angegebenen Baumes ein.
+     * <p>
+     * Die Grenzen der neuen Wurzel umschließen die Grenzen der bisherigen
+     * Wurzel, daher ändert sich keine Grenze eines bestehenden Knotens. Die
+     * bestehenden Knoten rutschen eine Ebene tiefer, indem der Tiefen-Offset
+     * des Baumes statt ihrer Tiefen erhöht wird. Unabhängig von der Größe des
+     * Baumes werden nur der neue Knoten, der Elternknoten der bisherigen
+     * Wurzel und der Baum geschrieben.
+     * </p>
+     * <p>
+     * Wiederholtes Einfügen schiebt die Grenzen der Wurzel unter 1. Das ist
+     * unproblematisch, da alle NestedSet-Abfragen die Grenzen nur vergleichen.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param node   Der neue Wurzelknoten.
+     * @return Der gespeicherte Wurzelknoten.
+     * @throws IllegalArgumentException Wenn der Baum nicht existiert.
+     * @throws IllegalStateException    Wenn der Baum auch nach dem
+     *                                  Normalisieren seiner Nested Intervals
+     *                                  zu viele Knoten hat.
+     * @see #foldDepthOffset(long)
+     */
+    public Node insertRoot(long treeId, Node node);
+
+    /**
+     * Addiert den Tiefen-Offset des angegebenen Baumes auf die gespeicherten
+     * Tiefen seiner Knoten und setzt den Offset auf 0 zurück.
+     * <p>
+     * Dabei wird jeder Knoten des Baumes mit einem Bulk-Update neu
+     * geschrieben; die Methode ist für Wartungsfenster gedacht. Lesende
+     * Zugriffe sind nicht darauf angewiesen, da das DAO den Offset selbst
+     * berücksichtigt.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Anzahl der aktualisierten Knoten.
+     * @see Tree#getDepthOffset()
+     */
+    public int foldDepthOffset(long treeId);
+
     /**
      * Verschiebt die NestedSet-Grenzen um 2 aller Knoten im angegebenen
      * Baum, die größer sind als <code>fromNestedSetIndex</code>.
@@ -56,16 +136,224 @@ public interface TreeOperationDao {
      * <p>
      * Hat keinen Effekt wenn der Knoten nicht existiert.
      * </p>
+     * <p>
+     * Die Kinder des Knotens rücken an seine Stelle in der Liste der Kinder
+     * seines Elternknotens, alle Nachfahren rücken eine Ebene nach oben. In
+     * Bäumen mit Nested Intervals bleiben die Intervalle unverändert; die
+     * Wurzel kann dort nicht gelöscht werden.
+     * </p>
      *
      * @param treeId Die Id des Baumes.
      * @param nodeId Die Id des zu löschenden Knotens.
+     * @throws IllegalArgumentException Wenn der Knoten die Wurzel eines Baumes
+     *                                  mit Nested Intervals ist oder eine
+     *                                  Wurzel mit Kindern.
      */
     public void deleteSingleNode(long treeId, long nodeId);
 
     public void deleteNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex);
 
+    /**
+     * Markiert den Teilbaum des angegebenen Knotens als gelöscht, ohne eine
+     * Zeile zu löschen.
+     * <p>
+     * Es wird nur der Knoten selbst aktualisiert. Ab sofort überspringen die
+     * lesenden Operationen dieses DAOs, die Knoten eines Bereichs liefern, den
+     * Teilbaum. Die Zeilen werden später mit
+     * {@link #deleteTombstoneChunk(long, long, int)} und
+     * {@link #removeTombstone(long, long)} entfernt.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id der Wurzel des Teilbaumes.
+     * @throws IllegalArgumentException Wenn der Knoten nicht existiert, die
+     *                                  Wurzel des Baumes ist oder bereits zu
+     *                                  einem markierten Teilbaum gehört.
+     */
+    public void markTombstone(long treeId, long nodeId);
+
+    /**
+     * Löscht bis zu <code>maxNodes</code> Nachfahren des angegebenen
+     * markierten Knotens.
+     * <p>
+     * Die tiefsten Nachfahren werden zuerst gelöscht, damit die übrigen
+     * Knoten verbunden bleiben. Es werden keine NestedSet-Grenzen verschoben.
+     * </p>
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id des markierten Knotens.
+     * @param maxNodes Die maximale Anzahl zu löschender Knoten.
+     * @return Die Anzahl der gelöschten Knoten; 0 wenn kein Nachfahre mehr
+     *         übrig ist.
+     */
+    public int deleteTombstoneChunk(long treeId, long nodeId, int maxNodes);
+
+    /**
+     * Löscht den angegebenen markierten Knoten mit seinen restlichen
+     * Nachfahren und schließt die Lücke in den NestedSet-Grenzen. In Bäumen
+     * mit Nested Intervals bleibt die Lücke frei.
+     * <p>
+     * Hat keinen Effekt wenn der Knoten nicht mehr existiert.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des markierten Knotens.
+     */
+    public void removeTombstone(long treeId, long nodeId);
+
+    /**
+     * Liefert die Ids der markierten Knoten des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Ids der markierten Knoten.
+     */
+    public long[] findTombstones(long treeId);
+
     public Node save(Node node);
 
+    /**
+     * Fügt den angegebenen Knoten als Blatt unterhalb des angegebenen
+     * Elternknotens ein.
+     * <p>
+     * Der Knoten wird das Kind an der Position <code>ordinalNumber</code>.
+     * Die Positionen der folgenden Geschwister werden erhöht. Ist
+     * <code>ordinalNumber</code> größer als die Anzahl der Kinder, wird der
+     * Knoten als letztes Kind angehängt.
+     * </p>
+     * <p>
+     * Die NestedSet-Grenzen des Knotens werden von dieser Methode berechnet.
+     * Bei Bäumen mit einem {@link de.iew.framework.domain.Tree#getNestedSetGap()}
+     * von 0 werden die Grenzen aller Knoten rechts des neuen Knotens wie bei
+     * {@link #save(de.iew.framework.domain.Node)} verschoben. Lückenhafte Bäume
+     * legen den Knoten in einen freien Platz. Ist kein Platz mehr frei, wird
+     * nur der kleinste umschließende Teilbaum mit genügend Platz neu
+     * nummeriert. Nur der Wurzelknoten darf dafür wachsen.
+     * </p>
+     *
+     * @param treeId        Die Id des Baumes.
+     * @param parentId      Die Id des Elternknotens.
+     * @param ordinalNumber Die Position des Knotens in der Liste der Kinder.
+     * @param node          Der einzufügende Knoten.
+     * @return Der gespeicherte Knoten.
+     * @throws IllegalArgumentException Wenn der Elternknoten nicht existiert.
+     * @throws IllegalStateException    Wenn der Baum auch nach dem
+     *                                  Normalisieren seiner Nested Intervals
+     *                                  zu viele Knoten hat.
+     */
+    public Node insertNode(long treeId, long parentId, int ordinalNumber, Node node);
+
+    /**
+     * Verschiebt den Teilbaum des angegebenen Knotens unter einen neuen
+     * Elternknoten.
+     * <p>
+     * Der Knoten wird das Kind an der Position <code>ordinalNumber</code> des
+     * neuen Elternknotens. Die Position bezieht sich auf die Liste der Kinder
+     * ohne den verschobenen Knoten. Ist <code>ordinalNumber</code> größer als
+     * die Anzahl der Kinder, wird der Knoten als letztes Kind angehängt. Die
+     * Positionen der alten und neuen Geschwister werden entsprechend
+     * angepasst.
+     * </p>
+     * <p>
+     * Die Knoten behalten ihre Ids. Die NestedSet-Grenzen des ganzen Baumes
+     * werden mit einer konstanten Anzahl von Update-Anweisungen angepasst.
+     * </p>
+     *
+     * @param treeId        Die Id des Baumes.
+     * @param nodeId        Die Id der Wurzel des zu verschiebenden Teilbaumes.
+     * @param newParentId   Die Id des neuen Elternknotens.
+     * @param ordinalNumber Die Position des Knotens in der neuen Liste der
+     *                      Kinder.
+     * @throws IllegalArgumentException Wenn einer der Knoten nicht existiert,
+     *                                  der Knoten die Wurzel ist oder der neue
+     *                                  Elternknoten zum verschobenen Teilbaum
+     *                                  gehört.
+     */
+    public void moveSubtree(long treeId, long nodeId, long newParentId, int ordinalNumber);
+
+    /**
+     * Bringt die Kinder des angegebenen Knotens in eine neue Reihenfolge.
+     * <p>
+     * Die Teilbäume der Kinder tauschen ihre NestedSet-Bereiche innerhalb des
+     * Bereichs des Elternknotens und die Kinder erhalten die Positionen 0 bis
+     * <code>n - 1</code>. Die Hibernate-Implementierung benötigt unabhängig
+     * von Anzahl und Größe der Teilbäume eine Update-Anweisung für die Grenzen
+     * und eine für die Positionen.
+     * </p>
+     *
+     * @param treeId          Die Id des Baumes.
+     * @param parentId        Die Id des Elternknotens.
+     * @param orderedChildIds Die Ids aller Kinder des Elternknotens in ihrer
+     *                        neuen Reihenfolge.
+     * @throws IllegalArgumentException Wenn der Elternknoten nicht existiert
+     *                                  oder die Ids nicht genau die Ids seiner
+     *                                  Kinder sind.
+     */
+    public void reorderChildren(long treeId, long parentId, long[] orderedChildIds);
+
+    /**
+     * Kopiert den angegebenen Baum in einen neuen Baum.
+     * <p>
+     * Die Knoten werden mit einer konstanten Anzahl von Anweisungen innerhalb
+     * der Datenbank dupliziert; sie werden nicht in die Session geladen. Die
+     * Kopien behalten NestedSet-Grenzen, Tiefen und Positionen der Originale.
+     * Die Datenquellen der Knoten werden nicht kopiert, da eine Datenquelle
+     * genau einem Knoten gehört. Der Quellbaum wird bis zum Abschluss der
+     * Transaktion gesperrt.
+     * </p>
+     * <p>
+     * Markierte Teilbäume bleiben in der Kopie markiert und werden von den
+     * lesenden Operationen übersprungen. Sie können mit
+     * {@link de.iew.framework.tree.TreeDeletionService#resumeDeletions(long)}
+     * auch in der Kopie entfernt werden.
+     * </p>
+     *
+     * @param sourceTreeId Die Id des zu kopierenden Baumes.
+     * @param newLookupKey Der Lookup-Key des neuen Baumes.
+     * @return Der neue Baum.
+     * @throws IllegalArgumentException Wenn der Quellbaum nicht existiert.
+     */
+    public Tree copyTree(long sourceTreeId, String newLookupKey);
+
+    /**
+     * Kopiert den Teilbaum des angegebenen Knotens unter einen Elternknoten
+     * desselben oder eines anderen Baumes.
+     * <p>
+     * Die Kopie wird das Kind an der Position <code>ordinalNumber</code> des
+     * Zielknotens. Ist <code>ordinalNumber</code> größer als die Anzahl der
+     * Kinder, wird die Kopie als letztes Kind angehängt. Wie bei
+     * {@link #copyTree(long, String)} werden die Knoten innerhalb der
+     * Datenbank dupliziert und die Datenquellen nicht kopiert. Quell- und
+     * Zielbaum werden bis zum Abschluss der Transaktion gesperrt.
+     * </p>
+     *
+     * @param sourceTreeId   Die Id des Baumes mit dem zu kopierenden Teilbaum.
+     * @param nodeId         Die Id der Wurzel des zu kopierenden Teilbaumes.
+     * @param targetTreeId   Die Id des Zielbaumes.
+     * @param targetParentId Die Id des Elternknotens der Kopie.
+     * @param ordinalNumber  Die Position der Kopie in der Liste der Kinder.
+     * @return Die Wurzel der Kopie.
+     * @throws IllegalArgumentException Wenn einer der Knoten nicht existiert,
+     *                                  die Bäume verschiedene NestedSet-Abstände
+     *                                  verwenden oder der Zielknoten zum
+     *                                  kopierten Teilbaum gehört.
+     */
+    public Node copySubtree(long sourceTreeId, long nodeId, long targetTreeId, long targetParentId, int ordinalNumber);
+
+    /**
+     * Wendet die angegebenen Änderungen auf den angegebenen Baum an.
+     * <p>
+     * Das Ergebnis entspricht dem Aufruf der einzelnen Operationen
+     * nacheinander. Die Implementierung berechnet die gesamte Verschiebung
+     * der NestedSet-Grenzen jedoch im Speicher und schreibt sie mit möglichst
+     * wenigen Bereichs-Updates zurück. Die Methode muss innerhalb einer
+     * einzigen Transaktion aufgerufen werden.
+     * </p>
+     *
+     * @param treeId    Die Id des Baumes.
+     * @param mutations Die Änderungen in der Reihenfolge ihrer Anwendung.
+     */
+    public void applyMutations(long treeId, List<TreeMutation> mutations);
+
     /**
      * Liefert die Wurzel für den angegebenen Baum.
      *
@@ -84,4 +372,362 @@ public interface TreeOperationDao {
      *         ermittelt werden kann.
      */
     public Node findNodeForTreeAndId(long treeId, long nodeId);
+
+    /**
+     * Lädt den ganzen Baum mit einer einzigen Abfrage und liefert seine
+     * Wurzel.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Wurzel oder NULL wenn der Baum keine Knoten hat.
+     * @see #loadSubtree(long, long)
+     */
+    public Node loadTree(long treeId);
+
+    /**
+     * Lädt den Teilbaum des angegebenen Knotens mit einer einzigen Abfrage.
+     * <p>
+     * Alle Knoten innerhalb der NestedSet-Grenzen des Knotens werden nach
+     * ihrer linken Grenze sortiert geladen. Die Assoziationen
+     * <code>parent</code> und <code>children</code> der geladenen Knoten
+     * werden in einem Durchlauf verbunden, daher löst das Durchlaufen des
+     * Graphen keine weiteren Abfragen aus. Die Hibernate-Implementierung löst
+     * die neu geladenen Knoten von der Session; Änderungen an ihnen werden
+     * nicht gespeichert. Zum Ändern des Baumes müssen die Knoten über
+     * {@link #findNodeForTreeAndId(long, long)} geladen werden.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id der Wurzel des Teilbaumes.
+     * @return Die Wurzel des Teilbaumes oder NULL wenn der Knoten nicht
+     *         existiert.
+     */
+    public Node loadSubtree(long treeId, long nodeId);
+
+    /**
+     * Lädt die oberen Ebenen des Teilbaumes des angegebenen Knotens mit einer
+     * einzigen Abfrage.
+     * <p>
+     * Es werden nur Knoten bis zu <code>maxDepth</code> Ebenen unterhalb des
+     * angegebenen Knotens geladen; die Abfrage wird über die NestedSet-Grenzen
+     * und die gespeicherte Tiefe der Knoten eingeschränkt. Der Graph wird wie
+     * bei {@link #loadSubtree(long, long)} verbunden. Die Kinderlisten der
+     * Knoten auf der letzten geladenen Ebene sind leer.
+     * </p>
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id der Wurzel des Teilbaumes.
+     * @param maxDepth Die Anzahl der Ebenen unterhalb der Wurzel des
+     *                 Teilbaumes.
+     * @return Die Wurzel des Teilbaumes oder NULL wenn der Knoten nicht
+     *         existiert.
+     */
+    public Node findSubtreeToDepth(long treeId, long nodeId, int maxDepth);
+
+    /**
+     * Liefert die Nachfahren des angegebenen Knotens in Pre-Order.
+     * <p>
+     * Es werden nur Nachfahren bis zu <code>maxDepth</code> Ebenen unterhalb
+     * des Knotens geliefert, eine Tiefe von 1 liefert also die Kinder. Eine
+     * negative Tiefe liefert alle Nachfahren.
+     * </p>
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id des Knotens.
+     * @param maxDepth Die maximale Tiefe relativ zum Knoten oder -1.
+     * @return Die Nachfahren sortiert nach ihrer linken Grenze; leer wenn der
+     *         Knoten nicht existiert.
+     */
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth);
+
+    /**
+     * Liefert eine Seite der Nachfahren des angegebenen Knotens in Pre-Order.
+     * <p>
+     * Geblättert wird über die linke Grenze als Schlüssel: die nächste Seite
+     * wird mit der linken Grenze des letzten Knotens der vorherigen Seite
+     * angefordert. Für die erste Seite wird {@link Long#MIN_VALUE} übergeben.
+     * </p>
+     *
+     * @param treeId             Die Id des Baumes.
+     * @param nodeId             Die Id des Knotens.
+     * @param maxDepth           Die maximale Tiefe relativ zum Knoten oder -1.
+     * @param afterNestedSetLeft Es werden nur Nachfahren mit einer größeren
+     *                           linken Grenze geliefert.
+     * @param maxResults         Die maximale Größe der Seite.
+     * @return Die Nachfahren sortiert nach ihrer linken Grenze.
+     * @see #findDescendants(long, long, int)
+     */
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth, long afterNestedSetLeft, int maxResults);
+
+    /**
+     * Reicht die Nachfahren des angegebenen Knotens in Pre-Order an den
+     * angegebenen Visitor weiter.
+     * <p>
+     * Diese Methode ist für sehr große Teilbäume gedacht. Die
+     * Hibernate-Implementierung scrollt durch das Ergebnis und löst jeden
+     * Knoten nach dem Besuch von der Session, damit der Speicherverbrauch
+     * nicht mit der Größe des Teilbaumes wächst. Die Knoten dürfen nicht
+     * verändert werden.
+     * </p>
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id des Knotens.
+     * @param maxDepth Die maximale Tiefe relativ zum Knoten oder -1.
+     * @param visitor  Der Visitor; seine Ergebnisse werden ignoriert.
+     */
+    public void visitDescendants(long treeId, long nodeId, int maxDepth, DomainModelVisitor<Node, ?> visitor);
+
+    /**
+     * Liefert eine Seite der Kinder des angegebenen Knotens.
+     * <p>
+     * Für Knoten mit vielen Kindern sollte diese Methode statt
+     * {@link Node#getChildren()} verwendet werden. Die Seite wird über die
+     * Positionen der Kinder gefunden (Keyset-Paging), daher wachsen die
+     * Kosten nicht mit der Position der Seite. Für die nächste Seite wird die
+     * Position des letzten Kindes der vorherigen Seite übergeben.
+     * </p>
+     *
+     * @param treeId             Die Id des Baumes.
+     * @param parentId           Die Id des Elternknotens.
+     * @param afterOrdinalNumber Es werden nur Kinder mit einer größeren
+     *                           Position geliefert; -1 für die erste Seite.
+     * @param maxResults         Die maximale Größe der Seite oder -1.
+     * @return Die Kinder sortiert nach ihrer Position.
+     */
+    public List<Node> findChildren(long treeId, long parentId, int afterOrdinalNumber, int maxResults);
+
+    /**
+     * Iteriert über die Kinder des angegebenen Knotens, ohne alle auf einmal
+     * zu laden. Die Kinder werden seitenweise mit
+     * {@link #findChildren(long, long, int, int)} geladen.
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param parentId Die Id des Elternknotens.
+     * @param pageSize Die Größe der geladenen Seiten.
+     * @return Der Iterator über die Kinder sortiert nach ihrer Position.
+     * @see ChildPageIterator
+     */
+    public Iterator<Node> iterateChildren(long treeId, long parentId, int pageSize);
+
+    /**
+     * Liefert die Vorfahren des angegebenen Knotens.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return Die Vorfahren; die Wurzel zuerst, der Elternknoten zuletzt.
+     */
+    public List<Node> findAncestors(long treeId, long nodeId);
+
+    /**
+     * Liefert den Pfad von der Wurzel bis zum angegebenen Knoten, z.B. um
+     * eine Breadcrumb darzustellen oder Berechtigungen zu vererben.
+     * <p>
+     * Die Hibernate-Implementierung verwendet statt einer Abfrage pro Ebene
+     * eine einzige Bereichsabfrage auf den NestedSet-Grenzen.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return Die Vorfahren und der Knoten selbst; die Wurzel zuerst, der
+     *         Knoten zuletzt. Leer wenn der Knoten nicht existiert.
+     */
+    public List<Node> pathToRoot(long treeId, long nodeId);
+
+    /**
+     * Liefert den tiefsten Knoten, der Vorfahre von oder gleich beiden
+     * angegebenen Knoten ist.
+     * <p>
+     * Die Hibernate-Implementierung liest die Grenzen beider Knoten und findet
+     * den tiefsten umschließenden Knoten mit einer einzigen Bereichsabfrage.
+     * </p>
+     *
+     * @param treeId  Die Id des Baumes.
+     * @param nodeId1 Die Id des ersten Knotens.
+     * @param nodeId2 Die Id des zweiten Knotens.
+     * @return Der tiefste gemeinsame Vorfahre oder NULL wenn ein Knoten nicht
+     *         existiert.
+     */
+    public Node lowestCommonAncestor(long treeId, long nodeId1, long nodeId2);
+
+    /**
+     * Liefert die Blätter unterhalb des angegebenen Knotens in Pre-Order.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return Die Blätter sortiert nach ihrer linken Grenze.
+     */
+    public List<Node> findLeaves(long treeId, long nodeId);
+
+    /**
+     * Liefert eine Seite der Blätter unterhalb des angegebenen Knotens in
+     * Pre-Order. Geblättert wird wie bei
+     * {@link #findDescendants(long, long, int, long, int)}.
+     *
+     * @param treeId             Die Id des Baumes.
+     * @param nodeId             Die Id des Knotens.
+     * @param afterNestedSetLeft Es werden nur Blätter mit einer größeren
+     *                           linken Grenze geliefert.
+     * @param maxResults         Die maximale Größe der Seite.
+     * @return Die Blätter sortiert nach ihrer linken Grenze.
+     */
+    public List<Node> findLeaves(long treeId, long nodeId, long afterNestedSetLeft, int maxResults);
+
+    /**
+     * Zählt die Nachfahren des angegebenen Knotens.
+     * <p>
+     * In dichten Bäumen wird die Anzahl aus den NestedSet-Grenzen als
+     * <code>(right - left - 1) / 2</code> berechnet. Lückenhafte Bäume
+     * benötigen eine Count-Abfrage.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return Die Anzahl der Nachfahren; 0 wenn der Knoten nicht existiert.
+     */
+    public long countDescendants(long treeId, long nodeId);
+
+    /**
+     * Lädt die Struktur des angegebenen Baumes in einen unveränderlichen
+     * {@link TreeSnapshot}.
+     * <p>
+     * Die Hibernate-Implementierung verwendet eine einzige
+     * Projektionsabfrage und lädt keine {@link Node}-Entität.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Der Snapshot; leer wenn der Baum keine Knoten hat.
+     */
+    public TreeSnapshot loadTreeSnapshot(long treeId);
+
+    /**
+     * Reicht die Strukturdaten aller Knoten des angegebenen Baumes in der
+     * Reihenfolge der linken NestedSet-Grenzen an den angegebenen Handler
+     * weiter.
+     * <p>
+     * Die Hibernate-Implementierung streamt eine Projektion und lädt keine
+     * {@link Node}-Entität, daher hängt der Speicherverbrauch nicht von der
+     * Größe des Baumes ab.
+     * </p>
+     * <p>
+     * Die übergebenen Tiefen enthalten den Tiefen-Offset des Baumes, die
+     * Wurzel hat also immer die Tiefe 0.
+     * </p>
+     *
+     * @param treeId  Die Id des Baumes.
+     * @param handler Der Handler für die Zeilen.
+     */
+    public void visitNestedSetRows(long treeId, NestedSetRowHandler handler);
+
+    /**
+     * Streamt die übertragbaren Daten aller Knoten des angegebenen Baumes in
+     * der Reihenfolge ihrer linken NestedSet-Grenzen.
+     * <p>
+     * Die Zeilen werden mit einem Forward-Only-Cursor gelesen; die Knoten
+     * werden nicht in die Session geladen.
+     * </p>
+     *
+     * @param treeId  Die Id des Baumes.
+     * @param handler Der Callback für die Zeilen.
+     */
+    public void visitNodeRows(long treeId, NodeRowHandler handler);
+
+    /**
+     * Lädt die Strukturdaten aller Knoten des angegebenen Baumes in eine
+     * {@link NodeTable}.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Tabelle; leer wenn der Baum keine Knoten hat.
+     * @see #loadNodeTable(long, long)
+     */
+    public NodeTable loadNodeTable(long treeId);
+
+    /**
+     * Lädt die Strukturdaten des angegebenen Knotens und seiner Nachfahren in
+     * eine {@link NodeTable}.
+     * <p>
+     * Rein lesende Verwender sollten die Tabelle den Knoten-Entitäten
+     * vorziehen. Die Hibernate-Implementierung streamt eine schreibgeschützte
+     * Projektion, die den Second-Level-Cache umgeht und keine
+     * {@link Node}-Entität in die Session legt; später muss also nichts auf
+     * Änderungen geprüft oder aufgeräumt werden.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id der Wurzel des Teilbaumes.
+     * @return Die Tabelle; leer wenn der Knoten nicht existiert.
+     */
+    public NodeTable loadNodeTable(long treeId, long nodeId);
+
+    /**
+     * Erstellt einen neuen Baum aus den angegebenen Zeilen.
+     * <p>
+     * Die Knoten erhalten neue Ids. Ihre Elternknoten und Tiefen werden aus
+     * den NestedSet-Grenzen abgeleitet; die Grenzen bestehender Knoten werden
+     * nie verschoben. Die Zeilen werden beim Lesen in JDBC-Batches
+     * geschrieben, daher hängt der Speicherverbrauch nur von der Tiefe des
+     * Baumes ab.
+     * </p>
+     *
+     * @param lookupKey    Der Lookup-Key des neuen Baumes.
+     * @param nestedSetGap Der Abstand zwischen den NestedSet-Grenzen der
+     *                     Zeilen.
+     * @param source       Die Zeilen in der Reihenfolge ihrer linken
+     *                     NestedSet-Grenzen.
+     * @return Der neue Baum.
+     * @throws IllegalArgumentException Wenn die Zeilen nicht nach ihren linken
+     *                                  Grenzen sortiert sind.
+     */
+    public Tree importTree(String lookupKey, long nestedSetGap, NodeRowSource source);
+
+    /**
+     * Sperrt den angegebenen Baum für andere Schreiber bis zum Abschluss der
+     * aktuellen Transaktion.
+     * <p>
+     * Die schreibenden Operationen dieses DAOs sperren den Baum selbst. Wer
+     * den Baum liest und aus dem Gelesenen Änderungen berechnet, muss ihn
+     * vor dem Lesen sperren, damit kein anderer Schreiber dazwischen kommt.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @throws IllegalStateException Wenn keine Transaktion aktiv ist.
+     * @see TreeLockSupport
+     */
+    public void lockTree(long treeId);
+
+    /**
+     * Schreibt neue NestedSet-Grenzen und Tiefen für die angegebenen Knoten.
+     * <p>
+     * Die Hibernate-Implementierung verwendet JDBC-Batch-Updates.
+     * Knoten-Entitäten, die bereits in der aktuellen Session liegen, werden
+     * nicht aktualisiert.
+     * </p>
+     * <p>
+     * Die Tiefen werden so erwartet, wie sie an
+     * {@link #visitNestedSetRows(long, NestedSetRowHandler)} übergeben werden;
+     * der Tiefen-Offset des Baumes wird vor dem Speichern abgezogen.
+     * </p>
+     *
+     * @param treeId          Die Id des Baumes.
+     * @param nodeIds         Die Ids der zu aktualisierenden Knoten.
+     * @param nestedSetLefts  Die neuen linken Grenzen.
+     * @param nestedSetRights Die neuen rechten Grenzen.
+     * @param depths          Die neuen Tiefen.
+     * @param count           Die Anzahl der zu schreibenden Einträge.
+     * @return Die Anzahl der aktualisierten Knoten.
+     */
+    public int updateNestedSets(long treeId, long[] nodeIds, long[] nestedSetLefts, long[] nestedSetRights, int[] depths, int count);
+
+    /**
+     * Registriert einen Listener, der benachrichtigt wird, nachdem ein Baum
+     * durch eine der schreibenden Operationen dieses DAOs geändert wurde.
+     *
+     * @param listener Der Listener.
+     */
+    public void addTreeChangeListener(TreeChangeListener listener);
+
+    /**
+     * Entfernt einen zuvor registrierten Listener.
+     *
+     * @param listener Der Listener.
+     */
+    public void removeTreeChangeListener(TreeChangeListener listener);
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence.hibernate;
+
+import de.iew.framework.domain.DataSource;
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.TextItemCollection;
+import de.iew.framework.persistence.DataSourceBatchLoader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.stereotype.Repository;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hibernate Implementierung der {@link DataSourceBatchLoader}-Schnittstelle.
+ * <p>
+ * Die Datenquellen werden mit einer Abfrage je konkreter Datenquellen-Klasse
+ * geladen. Jede Abfrage lädt die {@link TextItemCollection}s der Klasse und
+ * deren Textelemente per Join mit, so dass die Eager-Assoziationen keine
+ * weiteren Abfragen auslösen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 17:20
+ */
+@Repository(value = "dataSourceBatchLoader")
+public class HbmDataSourceBatchLoaderImpl extends AbstractHbmDao implements DataSourceBatchLoader {
+
+    private static final Log log = LogFactory.getLog(HbmDataSourceBatchLoaderImpl.class);
+
+    /**
+     * Die maximale Anzahl der Ids in einer IN-Liste. Manche Datenbanken
+     * begrenzen die Länge von IN-Listen.
+     */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    public int loadDataSources(Collection<Node> nodes) {
+        Map<Long, List<Node>> nodesByDataSourceId = new HashMap<Long, List<Node>>();
+        for (Node node : nodes) {
+            DataSource dataSource = node.getDataSource();
+            if (!(dataSource instanceof HibernateProxy)) {
+                continue;
+            }
+
+            LazyInitializer lazyInitializer = ((HibernateProxy) dataSource).getHibernateLazyInitializer();
+            if (!lazyInitializer.isUninitialized()) {
+                node.setDataSource((DataSource) lazyInitializer.getImplementation());
+                continue;
+            }
+
+            Long dataSourceId = (Long) lazyInitializer.getIdentifier();
+            List<Node> dataSourceNodes = nodesByDataSourceId.get(dataSourceId);
+            if (dataSourceNodes == null) {
+                dataSourceNodes = new ArrayList<Node>(1);
+                nodesByDataSourceId.put(dataSourceId, dataSourceNodes);
+            }
+            dataSourceNodes.add(node);
+        }
+        if (nodesByDataSourceId.isEmpty()) {
+            return 0;
+        }
+
+        Session session = getCurrentSession();
+        Set<Long> missingIds = new LinkedHashSet<Long>(nodesByDataSourceId.keySet());
+        int loaded = 0;
+        int queries = 0;
+
+        for (ClassMetadata metadata : session.getSessionFactory().getAllClassMetadata().values()) {
+            if (missingIds.isEmpty()) {
+                break;
+            }
+            Class<?> mappedClass = metadata.getMappedClass();
+            if (!DataSource.class.isAssignableFrom(mappedClass) || Modifier.isAbstract(mappedClass.getModifiers())) {
+                continue;
+            }
+
+            String hql = createFetchQuery(metadata);
+            List<Long> ids = new ArrayList<Long>(missingIds);
+            for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+                Query query = session.createQuery(hql);
+                query.setParameterList("ids", ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size())));
+                queries++;
+
+                for (Object result : query.list()) {
+                    DataSource dataSource = (DataSource) result;
+                    if (!missingIds.remove(dataSource.getId())) {
+                        continue;
+                    }
+                    for (Node node : nodesByDataSourceId.get(dataSource.getId())) {
+                        node.setDataSource(dataSource);
+                    }
+                    loaded++;
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden " + loaded + " Datenquellen mit " + queries + " Abfragen geladen.");
+        }
+        return loaded;
+    }
+
+    /**
+     * Erzeugt die Abfrage für die angegebene Datenquellen-Klasse. Alle
+     * Assoziationen zu einer {@link TextItemCollection} werden zusammen mit
+     * ihren Textelementen geladen.
+     *
+     * @param metadata Die Hibernate-Metadaten der Datenquellen-Klasse.
+     * @return Die HQL-Abfrage mit dem Parameter <code>ids</code>.
+     */
+    protected String createFetchQuery(ClassMetadata metadata) {
+        StringBuilder hql = new StringBuilder("SELECT DISTINCT d FROM ").append(metadata.getEntityName()).append(" d");
+
+        String[] propertyNames = metadata.getPropertyNames();
+        Type[] propertyTypes = metadata.getPropertyTypes();
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (propertyTypes[i].isEntityType()
+                    && TextItemCollection.class.getName().equals(((EntityType) propertyTypes[i]).getAssociatedEntityName())) {
+                hql.append(" LEFT JOIN FETCH d.").append(propertyNames[i]).append(" c").append(i)
+                        .append(" LEFT JOIN FETCH c").append(i).append(".textItems");
+            }
+        }
+        return hql.append(" WHERE d.id IN (:ids)").toString();
+    }
+}
@@ -18,19 +18,64 @@ package de.iew.framework.persistence.hibernate;
 
 import de.iew.framework.domain.Node;
 import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.TreeEncoding;
+import de.iew.framework.domain.utils.DomainModelVisitor;
+import de.iew.framework.domain.utils.NestedIntervalUtils;
+import de.iew.framework.domain.utils.NestedSetShift;
+import de.iew.framework.domain.utils.NestedSetUtils;
+import de.iew.framework.domain.utils.TreeEncodingStrategy;
+import de.iew.framework.persistence.ChildPageIterator;
+import de.iew.framework.persistence.NestedSetRowHandler;
 import de.iew.framework.persistence.NodeDao;
+import de.iew.framework.persistence.NodeRowHandler;
+import de.iew.framework.persistence.NodeRowSource;
+import de.iew.framework.persistence.TreeChangeListener;
+import de.iew.framework.persistence.TreeChangeSupport;
 import de.iew.framework.persistence.TreeDao;
+import de.iew.framework.persistence.TreeLockSupport;
+import de.iew.framework.persistence.TreeMutation;
 import de.iew.framework.persistence.TreeOperationDao;
+import de.iew.framework.tree.NodeTable;
+import de.iew.framework.tree.TreeSnapshot;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.sql.JoinType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.integration.MessageChannel;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Hibernate Implementierung der {@link de.iew.framework.persistence.TreeOperationDao}-Schnittstelle.
  *
@@ -42,20 +87,383 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
 
     private static final Log log = LogFactory.getLog(HbmNodeDaoImpl.class);
 
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final int JDBC_BATCH_SIZE = 100;
+
+    /**
+     * Schließt die Knoten markierter Teilbäume aus. Erwartet den Alias
+     * <code>n</code> für die abgefragten Knoten.
+     */
+    private static final String TOMBSTONE_FILTER = " AND NOT EXISTS (SELECT t.id FROM Node t WHERE t.tree = n.tree AND t.tombstone = true"
+            + " AND n.nestedSetLeft BETWEEN t.nestedSetLeft AND t.nestedSetRight)";
+
+    /**
+     * Schließt die Knoten markierter Teilbäume in Bäumen mit Nested Intervals
+     * aus. Erwartet den Alias <code>n</code> für die abgefragten Knoten.
+     */
+    private static final String INTERVAL_TOMBSTONE_FILTER = " AND NOT EXISTS (SELECT t.id FROM Node t WHERE t.tree = n.tree AND t.tombstone = true"
+            + " AND n.intervalLeftNumerator * t.intervalLeftDenominator >= t.intervalLeftNumerator * n.intervalLeftDenominator"
+            + " AND n.intervalLeftNumerator * t.intervalRightDenominator < t.intervalRightNumerator * n.intervalLeftDenominator)";
+
     private NodeDao nodeDao;
 
     private TreeDao treeDao;
 
+    private final TreeChangeSupport treeChangeSupport = new TreeChangeSupport(this);
+
+    private final TreeLockSupport treeLockSupport = new TreeLockSupport();
+
     public Node save(Node domainModel) {
         Tree tree = domainModel.getTree();
+        lockTree(tree.getId());
+        requireNestedSet(tree.getId());
 
         long nestedSetRightToShiftFrom = domainModel.getNestedSetRight() - 2;
 
-        moveNestedSetBorder(tree.getId(), nestedSetRightToShiftFrom);
+        domainModel.setDepth(depthBelow(tree, domainModel.getParent()));
+        moveNestedSetBorderImpl(tree.getId(), nestedSetRightToShiftFrom);
+        this.treeChangeSupport.fireTreeChanged(tree.getId(), domainModel.getNestedSetLeft(), domainModel.getNestedSetRight());
         return this.nodeDao.save(domainModel);
     }
 
+    public Node insertNode(long treeId, long parentId, int ordinalNumber, Node node) {
+        lockTree(treeId);
+
+        Node parent = findNodeForTreeAndId(treeId, parentId);
+        if (parent == null) {
+            throw new IllegalArgumentException("parent node " + parentId + " does not exist in tree " + treeId);
+        }
+        Tree tree = parent.getTree();
+
+        Node previousSibling = findPreviousSibling(parentId, ordinalNumber);
+        Node nextSibling = findNextSibling(parentId, ordinalNumber);
+
+        if (nextSibling != null) {
+            ordinalNumber = nextSibling.getOrdinalNumber();
+        } else if (previousSibling != null) {
+            ordinalNumber = previousSibling.getOrdinalNumber() + 1;
+        } else {
+            ordinalNumber = 0;
+        }
+
+        node.setTree(tree);
+        node.setParent(parent);
+        node.setOrdinalNumber(ordinalNumber);
+        node.setDepth(parent.getDepth() + 1);
+
+        // Die Kodierung platziert den Knoten ohne andere Knoten zu ändern,
+        // sofern Platz ist. Sonst verschieben wir die NestedSet-Grenzen.
+        boolean renumbered = false;
+        long boundShift = 0;
+        if (!placeChild(tree, parent, previousSibling, nextSibling, node)) {
+            long lowerBound = (previousSibling == null ? parent.getNestedSetLeft() : previousSibling.getNestedSetRight());
+            long upperBound = (nextSibling == null ? parent.getNestedSetRight() : nextSibling.getNestedSetLeft());
+
+            if (tree.isSparseNestedSet()) {
+                renumberForInsert(tree, parent, lowerBound, node);
+                renumbered = true;
+            } else {
+                node.setNestedSetLeft(upperBound);
+                node.setNestedSetRight(upperBound + 1);
+                moveNestedSetBorderImpl(treeId, upperBound - 1);
+                boundShift = 2;
+            }
+        }
+
+        if (nextSibling != null) {
+            // Die Änderungen an den Grenzen müssen geschrieben sein bevor wir
+            // die Ordnungszahlen per HQL aktualisieren. Sonst überschreibt
+            // Hibernate die Ordnungszahl mit dem alten Wert.
+            getCurrentSession().flush();
+            incOrdinalNumbers(parentId, ordinalNumber);
+        }
+
+        node = this.nodeDao.save(node);
+
+        // Nach einer Neunummerierung stimmen die Grenzen der Abonnenten
+        // nicht mehr, deshalb melden wir dann den ganzen Baum. In Bäumen mit
+        // Grabsteinen kann der neue Knoten verborgen sein.
+        if (renumbered || tree.getEncoding() != TreeEncoding.NESTED_SET) {
+            this.treeChangeSupport.fireTreeChanged(treeId);
+        } else if (tree.getTombstoneCount() > 0) {
+            this.treeChangeSupport.fireTreeChanged(treeId, node.getNestedSetLeft(), node.getNestedSetRight());
+        } else {
+            this.treeChangeSupport.fireNodeInserted(treeId, node.getId(), node.getNestedSetLeft(), node.getNestedSetRight(), node.getOrdinalNumber(), boundShift);
+        }
+        return node;
+    }
+
+    /**
+     * Platziert ein neues Kind mit der Kodierung des Baumes.
+     * <p>
+     * Sind die Nested Intervals zwischen den Nachbarn erschöpft, werden die
+     * Intervalle des Baumes mit {@link #renormalizeIntervals(long, Node...)}
+     * normalisiert und das Kind erneut platziert.
+     * </p>
+     *
+     * @param tree            Der Baum.
+     * @param parent          Der Elternknoten.
+     * @param previousSibling Der vorherige Geschwisterknoten oder NULL.
+     * @param nextSibling     Der nächste Geschwisterknoten oder NULL.
+     * @param node            Das neue Kind.
+     * @return TRUE wenn das Kind ohne Verschieben anderer Knoten platziert
+     *         wurde.
+     */
+    protected boolean placeChild(Tree tree, Node parent, Node previousSibling, Node nextSibling, Node node) {
+        TreeEncodingStrategy strategy = tree.getEncoding().getStrategy();
+        try {
+            return strategy.placeChild(tree, parent, previousSibling, nextSibling, node);
+        } catch (IllegalStateException e) {
+            if (tree.getEncoding() != TreeEncoding.NESTED_INTERVALS) {
+                throw e;
+            }
+            renormalizeIntervals(tree.getId(), parent, previousSibling, nextSibling);
+            return strategy.placeChild(tree, parent, previousSibling, nextSibling, node);
+        }
+    }
+
+    /**
+     * Ersetzt die Intervalle aller Knoten eines Baumes mit Nested Intervals
+     * durch kleine ganzzahlige Intervalle.
+     * <p>
+     * Die Intervalle werden mit {@link NestedIntervalUtils#renormalize(List)}
+     * berechnet und in JDBC-Batches geschrieben. Wie nach den anderen
+     * Bulk-Updates dieses DAOs sind die Intervalle der Knoten in der Session
+     * danach veraltet; nur die angegebenen Knoten werden neu geladen.
+     * </p>
+     *
+     * @param treeId       Die Id des Baumes.
+     * @param managedNodes Die Knoten der Session, die der Aufrufer weiter
+     *                     verwendet. NULL-Einträge werden übersprungen.
+     */
+    protected void renormalizeIntervals(long treeId, Node... managedNodes) {
+        Session session = getCurrentSession();
+        session.flush();
+
+        String hql = "SELECT id, intervalLeftNumerator, intervalLeftDenominator, intervalRightNumerator, intervalRightDenominator FROM Node WHERE tree.id = :treeId";
+        Query query = session.createQuery(hql);
+        query.setLong("treeId", treeId);
+        List<Object[]> rows = query.list();
+
+        // Die Intervalle werden auf ungespeicherten Kopien berechnet, damit
+        // Hibernate die Knoten der Session nicht selbst schreibt.
+        final List<Node> nodes = new ArrayList<Node>(rows.size());
+        for (Object[] row : rows) {
+            Node node = new Node();
+            node.setId((Long) row[0]);
+            node.setIntervalLeftNumerator((Long) row[1]);
+            node.setIntervalLeftDenominator((Long) row[2]);
+            node.setIntervalRightNumerator((Long) row[3]);
+            node.setIntervalRightDenominator((Long) row[4]);
+            nodes.add(node);
+        }
+        NestedIntervalUtils.renormalize(sortByInterval(nodes));
+
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getSessionFactory().getClassMetadata(Node.class);
+        final String sql = "UPDATE " + persister.getTableName()
+                + " SET " + persister.getPropertyColumnNames("intervalLeftNumerator")[0] + " = ?, "
+                + persister.getPropertyColumnNames("intervalLeftDenominator")[0] + " = ?, "
+                + persister.getPropertyColumnNames("intervalRightNumerator")[0] + " = ?, "
+                + persister.getPropertyColumnNames("intervalRightDenominator")[0] + " = ?"
+                + " WHERE " + persister.getIdentifierColumnNames()[0] + " = ?";
+
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    int count = nodes.size();
+                    for (int i = 0; i < count; i++) {
+                        Node node = nodes.get(i);
+                        statement.setLong(1, node.getIntervalLeftNumerator());
+                        statement.setLong(2, node.getIntervalLeftDenominator());
+                        statement.setLong(3, node.getIntervalRightNumerator());
+                        statement.setLong(4, node.getIntervalRightDenominator());
+                        statement.setLong(5, node.getId());
+                        statement.addBatch();
+
+                        if ((i + 1) % JDBC_BATCH_SIZE == 0 || i + 1 == count) {
+                            statement.executeBatch();
+                        }
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+
+        for (Node managedNode : managedNodes) {
+            if (managedNode != null) {
+                session.refresh(managedNode);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Die Intervalle der " + nodes.size() + " Knoten von Baum " + treeId + " wurden normalisiert.");
+        }
+    }
+
+    /**
+     * Liefert die zu speichernde Tiefe eines neuen Kindes des angegebenen
+     * Elternknotens.
+     *
+     * @param tree   Der Baum des Kindes.
+     * @param parent Der Elternknoten oder NULL für einen Wurzelknoten.
+     * @return Die Tiefe des Kindes.
+     */
+    protected static int depthBelow(Tree tree, Node parent) {
+        return (parent == null ? -tree.getDepthOffset() : parent.getDepth() + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gleichzeitige Schreiber in dieser JVM warten auf die Sperre des Baumes,
+     * bis die aktuelle Transaktion abgeschlossen ist. Die Version des Baumes
+     * wird beim Commit erhöht, daher scheitern Schreiber in anderen JVMs, die
+     * den Baum vorher geladen haben, mit einem Optimistic-Locking-Fehler.
+     * </p>
+     */
+    public void lockTree(long treeId) {
+        this.treeLockSupport.lockTree(treeId);
+
+        Session session = getCurrentSession();
+        Tree tree = (Tree) session.get(Tree.class, treeId);
+        if (tree != null) {
+            session.buildLockRequest(new LockOptions(LockMode.OPTIMISTIC_FORCE_INCREMENT)).lock(tree);
+        }
+    }
+
+    /**
+     * Prüft ob der angegebene Baum mit Nested Intervals kodiert ist.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return TRUE wenn der Baum {@link TreeEncoding#NESTED_INTERVALS}
+     *         verwendet.
+     */
+    protected boolean isNestedIntervalTree(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        return tree != null && tree.getEncoding() == TreeEncoding.NESTED_INTERVALS;
+    }
+
+    /**
+     * Weist Operationen, die die NestedSet-Grenzen neu schreiben oder lesen,
+     * für Bäume mit einer anderen Kodierung zurück.
+     *
+     * @param treeId Die Id des Baumes.
+     * @throws UnsupportedOperationException Wenn der Baum nicht mit Nested
+     *                                       Sets kodiert ist.
+     */
+    protected void requireNestedSet(long treeId) {
+        if (isNestedIntervalTree(treeId)) {
+            throw new UnsupportedOperationException("tree " + treeId + " is encoded with nested intervals");
+        }
+    }
+
+    /**
+     * Nummeriert den kleinsten umschließenden Teilbaum von
+     * <code>parent</code> mit genügend Platz für den neuen Knoten neu und fügt
+     * den neuen Knoten ein.
+     * <p>
+     * Die Vorfahren werden von unten nach oben geprüft. Die Wurzel kann den
+     * neuen Knoten immer aufnehmen, da ihre rechte Grenze wachsen darf.
+     * </p>
+     *
+     * @param tree        Der lückenhafte Baum.
+     * @param parent      Der Elternknoten des neuen Knotens.
+     * @param insertAfter Die Grenze, der der neue Knoten folgt.
+     * @param node        Der neue Knoten.
+     */
+    protected void renumberForInsert(Tree tree, Node parent, long insertAfter, Node node) {
+        long treeId = tree.getId();
+        long gap = tree.getNestedSetGap();
+
+        String hql = "FROM Node WHERE tree.id = :treeId AND nestedSetLeft <= :nestedSetLeft AND nestedSetRight >= :nestedSetRight ORDER BY nestedSetLeft DESC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("nestedSetLeft", parent.getNestedSetLeft());
+        query.setLong("nestedSetRight", parent.getNestedSetRight());
+
+        List<Node> ancestors = query.list();
+        for (Node ancestor : ancestors) {
+            boolean root = ancestor.getParent() == null;
+            long nodeCount = countNodesInside(treeId, ancestor.getNestedSetLeft(), ancestor.getNestedSetRight()) + 1;
+
+            long spacing;
+            if (root) {
+                spacing = gap + 1;
+            } else {
+                spacing = NestedSetUtils.computeSpacing(ancestor.getNestedSetLeft(), ancestor.getNestedSetRight(), nodeCount, gap);
+                if (spacing < 2) {
+                    continue;
+                }
+            }
+
+            hql = "FROM Node WHERE tree.id = :treeId AND nestedSetLeft > :nestedSetLeft AND nestedSetRight < :nestedSetRight";
+            query = getCurrentSession().createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("nestedSetLeft", ancestor.getNestedSetLeft());
+            query.setLong("nestedSetRight", ancestor.getNestedSetRight());
+
+            List<Node> nodes = query.list();
+            NestedSetUtils.renumber(ancestor.getNestedSetLeft(), spacing, nodes, node, insertAfter);
+            if (root) {
+                ancestor.setNestedSetRight(NestedSetUtils.computeRight(ancestor.getNestedSetLeft(), spacing, nodeCount));
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Es wurden " + nodes.size() + " Knoten unterhalb von Knoten " + ancestor.getId() + " neu nummeriert.");
+            }
+            return;
+        }
+    }
+
+    protected long countNodesInside(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        String hql = "SELECT COUNT(*) FROM Node WHERE tree.id = :treeId AND nestedSetLeft > :leftNestedSetIndex AND nestedSetRight < :rightNestedSetIndex";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+
+        return (Long) query.uniqueResult();
+    }
+
+    protected Node findPreviousSibling(long parentId, int ordinalNumber) {
+        String hql = "FROM Node WHERE parent.id = :parentId AND ordinalNumber < :ordinalNumber ORDER BY ordinalNumber DESC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("parentId", parentId);
+        query.setInteger("ordinalNumber", ordinalNumber);
+        query.setMaxResults(1);
+
+        return (Node) query.uniqueResult();
+    }
+
+    protected Node findNextSibling(long parentId, int ordinalNumber) {
+        String hql = "FROM Node WHERE parent.id = :parentId AND ordinalNumber >= :ordinalNumber ORDER BY ordinalNumber ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("parentId", parentId);
+        query.setInteger("ordinalNumber", ordinalNumber);
+        query.setMaxResults(1);
+
+        return (Node) query.uniqueResult();
+    }
+
+    protected void incOrdinalNumbers(long parentId, int fromOrdinalNumber) {
+        String hql = "UPDATE Node SET ordinalNumber = ordinalNumber + 1 WHERE parent.id = :parentId AND ordinalNumber >= :fromOrdinalNumber";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("parentId", parentId);
+        query.setInteger("fromOrdinalNumber", fromOrdinalNumber);
+
+        int update = query.executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + update + " Knoten, die Ordnungszahl aktualisiert.");
+        }
+    }
+
     public void incNestedSetBorders(long treeId) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
         String hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft + 1, nestedSetRight = nestedSetRight + 1 WHERE tree.id = :treeId";
 
         Query query = getCurrentSession().createQuery(hql);
@@ -65,9 +473,99 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
         if (log.isDebugEnabled()) {
             log.debug("Es wurden " + updated + " Knoten aktualisiert.");
         }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public Node insertRoot(long treeId, Node node) {
+        lockTree(treeId);
+
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null) {
+            throw new IllegalArgumentException("tree " + treeId + " does not exist");
+        }
+
+        node.setTree(tree);
+        node.setParent(null);
+        node.setOrdinalNumber(0);
+
+        Node formerRoot = findRootNodeForTree(treeId);
+        try {
+            tree.getEncoding().getStrategy().placeRoot(tree, formerRoot, node);
+        } catch (IllegalStateException e) {
+            if (tree.getEncoding() != TreeEncoding.NESTED_INTERVALS) {
+                throw e;
+            }
+            renormalizeIntervals(treeId, formerRoot);
+            tree.getEncoding().getStrategy().placeRoot(tree, formerRoot, node);
+        }
+        if (formerRoot == null) {
+            node.setDepth(-tree.getDepthOffset());
+        } else {
+            // Die neue Wurzel umschließt die alte Wurzel. Die Grenzen der
+            // vorhandenen Knoten bleiben unverändert; die Tiefen werden über
+            // den Tiefenversatz des Baumes angepasst.
+            node.setDepth(formerRoot.getDepth() - 1);
+            tree.setDepthOffset(tree.getDepthOffset() + 1);
+        }
+
+        node = this.nodeDao.save(node);
+        if (formerRoot != null) {
+            formerRoot.setParent(node);
+            formerRoot.setOrdinalNumber(0);
+        }
+        tree.setRoot(node);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Baum " + treeId + " hat die neue Wurzel " + node.getId() + "; der Tiefenversatz ist " + tree.getDepthOffset() + ".");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return node;
+    }
+
+    public int foldDepthOffset(long treeId) {
+        lockTree(treeId);
+
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null || tree.getDepthOffset() == 0) {
+            return 0;
+        }
+
+        Session session = getCurrentSession();
+        session.flush();
+
+        String hql = "UPDATE Node SET depth = depth + :depthOffset WHERE tree.id = :treeId";
+        Query query = session.createQuery(hql);
+        query.setInteger("depthOffset", tree.getDepthOffset());
+        query.setLong("treeId", treeId);
+
+        int updated = query.executeUpdate();
+        tree.setDepthOffset(0);
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + updated + " Knoten, der Tiefenversatz übernommen.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return updated;
     }
 
     public void moveNestedSetBorder(long treeId, long fromNestedSetIndex) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
+        moveNestedSetBorderImpl(treeId, fromNestedSetIndex);
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    /**
+     * Verschiebt jede Grenze größer als <code>fromNestedSetIndex</code> um 2,
+     * ohne die Änderung zu melden.
+     *
+     * @param treeId             Die Id des Baumes.
+     * @param fromNestedSetIndex Die Grenze.
+     */
+    protected void moveNestedSetBorderImpl(long treeId, long fromNestedSetIndex) {
         String hql = "UPDATE Node SET nestedSetRight = nestedSetRight + 2 WHERE tree.id = :treeId AND nestedSetRight > :fromNestedSetIndex";
         Query query = getCurrentSession().createQuery(hql);
         query.setLong("treeId", treeId);
@@ -90,6 +588,12 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
     }
 
     public void deleteSingleNode(long treeId, long nodeId) {
+        lockTree(treeId);
+        if (isNestedIntervalTree(treeId)) {
+            deleteIntervalNode(treeId, nodeId);
+            return;
+        }
+
         Node nodeToDelete = findNodeForTreeAndId(treeId, nodeId);
         if (nodeToDelete == null) {
             return;
@@ -97,8 +601,11 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
 
         long leftNestedSetIndex = nodeToDelete.getNestedSetLeft();
         long rightNestedSetIndex = nodeToDelete.getNestedSetRight();
+        boolean sparse = nodeToDelete.getTree().isSparseNestedSet();
 
+        reparentChildren(treeId, nodeId);
         this.nodeDao.remove(nodeToDelete);
+        this.treeChangeSupport.fireTreeChanged(treeId, leftNestedSetIndex, rightNestedSetIndex);
 
         Session session = getCurrentSession();
 
@@ -106,117 +613,1183 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
         Query query;
         int update;
 
-        hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft - 1, nestedSetRight = nestedSetRight - 1 WHERE tree.id = :treeId AND nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
+        if (sparse) {
+            // Die Kinder liegen weiterhin innerhalb des Vaters; die Lücke
+            // bleibt frei. Die Kinder rücken nur eine Ebene nach oben.
+            hql = "UPDATE Node SET depth = depth - 1 WHERE tree.id = :treeId AND nestedSetLeft > :leftNestedSetIndex AND nestedSetLeft < :rightNestedSetIndex";
+            query = session.createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+            query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+            query.executeUpdate();
+            return;
+        }
+
+        hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft - 1, nestedSetRight = nestedSetRight - 1, depth = depth - 1 WHERE tree.id = :treeId AND nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
         query = session.createQuery(hql);
         query.setLong("treeId", treeId);
         query.setLong("leftNestedSetIndex", leftNestedSetIndex);
         query.setLong("rightNestedSetIndex", rightNestedSetIndex);
         update = query.executeUpdate();
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, die nestedSetLeft und nestedSetRight Eigenschaft aktualisiert.");
+            log.debug("Es wurde, für " + update + " Knoten, die nestedSetLeft, nestedSetRight und depth Eigenschaft aktualisiert.");
         }
 
         long delta = 2;
         updateNestedSetIndexImpl(treeId, delta, rightNestedSetIndex);
     }
 
-    public void deleteNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+    /**
+     * Löscht einen einzelnen Knoten eines Baumes mit Nested Intervals.
+     * <p>
+     * Die Kinder rücken an die Stelle des Knotens in der Liste der Kinder
+     * seines Elternknotens, alle Nachfahren rücken eine Ebene nach oben. Ihre
+     * Intervalle liegen weiterhin innerhalb des Elternknotens und zwischen
+     * den Geschwistern des gelöschten Knotens, daher bleiben alle Intervalle
+     * unverändert.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des zu löschenden Knotens.
+     * @throws IllegalArgumentException Wenn der Knoten die Wurzel ist.
+     */
+    protected void deleteIntervalNode(long treeId, long nodeId) {
+        Node nodeToDelete = findNodeForTreeAndId(treeId, nodeId);
+        if (nodeToDelete == null) {
+            return;
+        }
+        if (nodeToDelete.getParent() == null) {
+            throw new IllegalArgumentException("the root node " + nodeId + " of tree " + treeId + " can't be deleted");
+        }
+        if (reparentChildren(treeId, nodeId)) {
+            String hql = "UPDATE Node SET depth = depth - 1 WHERE tree.id = :treeId" + intervalCondition("", false);
+            Query query = getCurrentSession().createQuery(hql);
+            query.setLong("treeId", treeId);
+            setIntervalParameters(query, nodeToDelete);
+            int update = query.executeUpdate();
+            if (log.isDebugEnabled()) {
+                log.debug("Es wurde, für " + update + " Knoten, die depth Eigenschaft aktualisiert.");
+            }
+        }
+
+        this.nodeDao.remove(nodeToDelete);
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    /**
+     * Hängt die Kinder des angegebenen Knotens an seinen Elternknoten, bevor
+     * der Knoten gelöscht wird.
+     * <p>
+     * Die Kinder rücken an die Stelle des Knotens in der Liste der Kinder
+     * seines Elternknotens. Elternknoten und Position des Knotens werden aus
+     * der Datenbank gelesen, da sie in derselben Session bereits per
+     * Bulk-Update geändert worden sein können. Grenzen und Tiefen bleiben
+     * unverändert.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return TRUE wenn der Knoten Kinder hatte.
+     * @throws IllegalArgumentException Wenn der Knoten die Wurzel ist und
+     *                                  Kinder hat.
+     */
+    protected boolean reparentChildren(long treeId, long nodeId) {
         Session session = getCurrentSession();
+        session.flush();
+
+        String hql = "SELECT MIN(ordinalNumber), MAX(ordinalNumber) FROM Node WHERE parent.id = :nodeId";
+        Query query = session.createQuery(hql);
+        query.setLong("nodeId", nodeId);
+        Object[] ordinalNumbers = (Object[]) query.uniqueResult();
+        if (ordinalNumbers[0] == null) {
+            return false;
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState[3] == null) {
+            throw new IllegalArgumentException("the root node " + nodeId + " of tree " + treeId + " can't be deleted while it has children");
+        }
+        int ordinalNumber = (Integer) nodeState[2];
+        long parentId = (Long) nodeState[3];
+        int firstOrdinalNumber = (Integer) ordinalNumbers[0];
+        int lastOrdinalNumber = (Integer) ordinalNumbers[1];
+
+        // Die folgenden Geschwister machen Platz für die Kinder.
+        hql = "UPDATE Node SET ordinalNumber = ordinalNumber + :delta WHERE parent.id = :parentId AND ordinalNumber > :ordinalNumber";
+        query = session.createQuery(hql);
+        query.setInteger("delta", lastOrdinalNumber - firstOrdinalNumber);
+        query.setLong("parentId", parentId);
+        query.setInteger("ordinalNumber", ordinalNumber);
+        query.executeUpdate();
+
+        hql = "UPDATE Node SET parent = :parent, ordinalNumber = ordinalNumber + :delta WHERE parent.id = :nodeId";
+        query = session.createQuery(hql);
+        query.setEntity("parent", session.load(Node.class, parentId));
+        query.setInteger("delta", ordinalNumber - firstOrdinalNumber);
+        query.setLong("nodeId", nodeId);
+        int update = query.executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + update + " Knoten, der Vaterknoten auf Knoten " + parentId + " gesetzt.");
+        }
+        return true;
+    }
+
+    public void deleteNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
+        removeNodesBetween(treeId, leftNestedSetIndex, rightNestedSetIndex);
+
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree != null && tree.isSparseNestedSet()) {
+            this.treeChangeSupport.fireSubtreeRemoved(treeId, leftNestedSetIndex, rightNestedSetIndex, 0);
+            return;
+        }
+
+        long delta = Math.round(rightNestedSetIndex - leftNestedSetIndex + 1);
+        updateNestedSetIndexImpl(treeId, delta, rightNestedSetIndex);
+        this.treeChangeSupport.fireSubtreeRemoved(treeId, leftNestedSetIndex, rightNestedSetIndex, -delta);
+    }
 
+    public void markTombstone(long treeId, long nodeId) {
+        lockTree(treeId);
+
+        Session session = getCurrentSession();
         String hql;
         Query query;
-        int update;
 
-        hql = "UPDATE Node SET parent = NULL WHERE tree.id = :treeId AND nestedSetLeft = :leftNestedSetIndex AND nestedSetRight = :rightNestedSetIndex";
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                throw new IllegalArgumentException("node " + nodeId + " does not exist in tree " + treeId);
+            }
+            if (node.getParent() == null) {
+                throw new IllegalArgumentException("the root node " + nodeId + " can't be tombstoned");
+            }
+            session.flush();
+
+            // Sucht markierte Knoten, in deren Intervall die linke Grenze des
+            // Knotens liegt, den Knoten selbst eingeschlossen.
+            hql = "SELECT COUNT(*) FROM Node WHERE tree.id = :treeId AND tombstone = true"
+                    + " AND :leftNumerator * intervalLeftDenominator >= intervalLeftNumerator * :leftDenominator"
+                    + " AND :leftNumerator * intervalRightDenominator < intervalRightNumerator * :leftDenominator";
+            query = session.createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNumerator", node.getIntervalLeftNumerator());
+            query.setLong("leftDenominator", node.getIntervalLeftDenominator());
+        } else {
+            Object[] nodeState = findNestedSetState(treeId, nodeId);
+            if (nodeState == null) {
+                throw new IllegalArgumentException("node " + nodeId + " does not exist in tree " + treeId);
+            }
+            if (nodeState[3] == null) {
+                throw new IllegalArgumentException("the root node " + nodeId + " can't be tombstoned");
+            }
+            session.flush();
+
+            hql = "SELECT COUNT(*) FROM Node WHERE tree.id = :treeId AND tombstone = true AND nestedSetLeft <= :leftNestedSetIndex AND nestedSetRight >= :rightNestedSetIndex";
+            query = session.createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", (Long) nodeState[0]);
+            query.setLong("rightNestedSetIndex", (Long) nodeState[1]);
+        }
+        if ((Long) query.uniqueResult() > 0) {
+            throw new IllegalArgumentException("node " + nodeId + " is already part of a tombstoned subtree");
+        }
+
+        hql = "UPDATE Node SET tombstone = true WHERE id = :nodeId";
         query = session.createQuery(hql);
-        query.setLong("treeId", treeId);
-        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
-        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        query.setLong("nodeId", nodeId);
+        query.executeUpdate();
 
-        update = query.executeUpdate();
+        updateTombstoneCount(treeId);
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, die parentId Eigenschaft auf NULL gesetzt.");
+            log.debug("Der Teilbaum von Knoten " + nodeId + " wurde zum Löschen markiert.");
         }
 
-        hql = "DELETE FROM Node WHERE tree.id = :treeId AND nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public int deleteTombstoneChunk(long treeId, long nodeId, int maxNodes) {
+        lockTree(treeId);
+
+        Session session = getCurrentSession();
+        String hql;
+        Query query;
+
+        // Die tiefsten Knoten zuerst, damit kein verbleibender Knoten auf
+        // einen gelöschten Elternknoten verweist.
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return 0;
+            }
+            session.flush();
+
+            hql = "SELECT id FROM Node WHERE tree.id = :treeId" + intervalCondition("", false) + " ORDER BY depth DESC";
+            query = session.createQuery(hql);
+            query.setLong("treeId", treeId);
+            setIntervalParameters(query, node);
+        } else {
+            Object[] nodeState = findNestedSetState(treeId, nodeId);
+            if (nodeState == null) {
+                return 0;
+            }
+            session.flush();
+
+            hql = "SELECT id FROM Node WHERE tree.id = :treeId AND nestedSetLeft > :leftNestedSetIndex AND nestedSetLeft < :rightNestedSetIndex ORDER BY depth DESC";
+            query = session.createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", (Long) nodeState[0]);
+            query.setLong("rightNestedSetIndex", (Long) nodeState[1]);
+        }
+        query.setMaxResults(maxNodes);
+        List<Long> nodeIds = query.list();
+        if (nodeIds.isEmpty()) {
+            return 0;
+        }
+
+        hql = "DELETE FROM Node WHERE id IN (:nodeIds)";
         query = session.createQuery(hql);
-        query.setLong("treeId", treeId);
-        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
-        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        query.setParameterList("nodeIds", nodeIds);
 
         int deleted = query.executeUpdate();
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde " + deleted + " Knoten zwischen " + leftNestedSetIndex + " und " + rightNestedSetIndex + " gelöscht.");
+            log.debug("Es wurden " + deleted + " Knoten unterhalb von Knoten " + nodeId + " gelöscht.");
         }
+        return deleted;
+    }
 
-        long delta = Math.round(rightNestedSetIndex - leftNestedSetIndex + 1);
-        updateNestedSetIndexImpl(treeId, delta, rightNestedSetIndex);
-/*
-        hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft - :delta WHERE tree.id = :treeId AND nestedSetLeft > :rightNestedSetIndex";
-        query = session.createQuery(hql);
-        query.setLong("delta", delta);
+    public void removeTombstone(long treeId, long nodeId) {
+        lockTree(treeId);
+
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node != null) {
+                removeNodesInInterval(node);
+            }
+        } else {
+            Object[] nodeState = findNestedSetState(treeId, nodeId);
+            if (nodeState != null) {
+                deleteNodesBetween(treeId, (Long) nodeState[0], (Long) nodeState[1]);
+            }
+        }
+        updateTombstoneCount(treeId);
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public long[] findTombstones(long treeId) {
+        String hql = "SELECT id FROM Node WHERE tree.id = :treeId AND tombstone = true ORDER BY nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
         query.setLong("treeId", treeId);
-        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
 
-        update = query.executeUpdate();
-        if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, der nestedSetLeft Wert aktualisiert.");
+        List<Long> nodeIds = query.list();
+        long[] result = new long[nodeIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = nodeIds.get(i);
         }
+        return result;
+    }
 
+    /**
+     * Zählt die markierten Teilbäume des angegebenen Baumes neu. Markierte
+     * Knoten können auch mit einem umschließenden Teilbaum verschwinden,
+     * daher wird die Anzahl nicht inkrementell gepflegt.
+     *
+     * @param treeId Die Id des Baumes.
+     */
+    protected void updateTombstoneCount(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null) {
+            return;
+        }
 
-        hql = "UPDATE Node SET nestedSetRight = nestedSetRight - :delta WHERE tree.id = :treeId AND nestedSetRight > :rightNestedSetIndex";
-        query = session.createQuery(hql);
-        query.setLong("delta", delta);
+        String hql = "SELECT COUNT(*) FROM Node WHERE tree.id = :treeId AND tombstone = true";
+        Query query = getCurrentSession().createQuery(hql);
         query.setLong("treeId", treeId);
-        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        tree.setTombstoneCount(((Long) query.uniqueResult()).intValue());
+    }
 
-        update = query.executeUpdate();
+    /**
+     * Prüft ob die lesenden Operationen markierte Teilbäume ausfiltern müssen.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return TRUE wenn der Baum markierte Teilbäume hat.
+     */
+    protected boolean hasTombstones(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        return (tree != null && tree.getTombstoneCount() > 0);
+    }
+
+    /**
+     * Liefert den Filter für markierte Teilbäume passend zur Kodierung des
+     * angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Der Filter oder ein leerer String, wenn der Baum keine
+     *         markierten Teilbäume hat.
+     */
+    protected String tombstoneFilter(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null || tree.getTombstoneCount() == 0) {
+            return "";
+        }
+        return (tree.getEncoding() == TreeEncoding.NESTED_INTERVALS ? INTERVAL_TOMBSTONE_FILTER : TOMBSTONE_FILTER);
+    }
+
+    /**
+     * Löscht den angegebenen Knoten eines Baumes mit Nested Intervals samt
+     * seinen Nachfahren. Die Lücke in den Intervallen bleibt frei.
+     *
+     * @param node Der Knoten.
+     */
+    protected void removeNodesInInterval(Node node) {
+        Session session = getCurrentSession();
+        session.flush();
+        // Die Zeilen werden an der Session vorbei gelöscht.
+        session.evict(node);
+
+        String hql = "UPDATE Node SET parent = NULL WHERE id = :nodeId";
+        Query query = session.createQuery(hql);
+        query.setLong("nodeId", node.getId());
+        query.executeUpdate();
+
+        hql = "DELETE FROM Node WHERE tree.id = :treeId" + intervalCondition("", true);
+        query = session.createQuery(hql);
+        query.setLong("treeId", node.getTree().getId());
+        setIntervalParameters(query, node);
+
+        int deleted = query.executeUpdate();
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, der nestedSetRight Wert aktualisiert.");
+            log.debug("Es wurden " + deleted + " Knoten im Intervall von Knoten " + node.getId() + " gelöscht.");
         }
-        */
     }
 
-    protected void updateNestedSetIndexImpl(long treeId, long delta, long nestedSetRight) {
+    protected void removeNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
         Session session = getCurrentSession();
 
         String hql;
         Query query;
         int update;
 
-        hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft - :delta WHERE tree.id = :treeId AND nestedSetLeft > :rightNestedSetIndex";
+        hql = "UPDATE Node SET parent = NULL WHERE tree.id = :treeId AND nestedSetLeft = :leftNestedSetIndex AND nestedSetRight = :rightNestedSetIndex";
         query = session.createQuery(hql);
-        query.setLong("delta", delta);
         query.setLong("treeId", treeId);
-        query.setLong("rightNestedSetIndex", nestedSetRight);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
 
         update = query.executeUpdate();
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, der nestedSetLeft Wert aktualisiert.");
+            log.debug("Es wurde, für " + update + " Knoten, die parentId Eigenschaft auf NULL gesetzt.");
         }
 
-
-        hql = "UPDATE Node SET nestedSetRight = nestedSetRight - :delta WHERE tree.id = :treeId AND nestedSetRight > :rightNestedSetIndex";
+        hql = "DELETE FROM Node WHERE tree.id = :treeId AND nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
         query = session.createQuery(hql);
-        query.setLong("delta", delta);
         query.setLong("treeId", treeId);
-        query.setLong("rightNestedSetIndex", nestedSetRight);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
 
-        update = query.executeUpdate();
+        int deleted = query.executeUpdate();
         if (log.isDebugEnabled()) {
-            log.debug("Es wurde, für " + update + " Knoten, der nestedSetRight Wert aktualisiert.");
+            log.debug("Es wurde " + deleted + " Knoten zwischen " + leftNestedSetIndex + " und " + rightNestedSetIndex + " gelöscht.");
         }
     }
 
-    public Node findRootNodeForTree(long treeId) {
-        Criteria crit = getCurrentSession().createCriteria(Node.class);
-        crit.add(Restrictions.eq("tree.id", treeId))
-                .add(Restrictions.isNull("parent"));
+    public void applyMutations(long treeId, List<TreeMutation> mutations) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
 
-        return (Node) crit.uniqueResult();
-    }
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null) {
+            throw new IllegalArgumentException("tree " + treeId + " does not exist");
+        }
+        boolean sparse = tree.isSparseNestedSet();
 
-    public Node findNodeForTreeAndId(long treeId, long nodeId) {
+        NestedSetShift shift = new NestedSetShift();
+        List<Node> insertedNodes = new ArrayList<Node>();
+        List<Node> deletedNodes = new ArrayList<Node>();
+        List<long[]> deletedRanges = new ArrayList<long[]>();
+        List<long[]> raisedRanges = new ArrayList<long[]>();
+
+        for (TreeMutation mutation : mutations) {
+            switch (mutation.getType()) {
+                case INSERT:
+                    Node node = mutation.getNode();
+                    long fromNestedSetIndex = node.getNestedSetRight() - 1;
+                    node.setDepth(depthBelow(tree, node.getParent()));
+                    if (node.getParent() != null && !insertedNodes.contains(node.getParent())) {
+                        // Die Tiefe des gespeicherten Elternknotens wird erst
+                        // am Ende um die gelöschten Vorfahren verringert.
+                        node.setDepth(node.getDepth() - countEnclosingRanges(raisedRanges, node.getParent()));
+                    }
+
+                    shift.shift(fromNestedSetIndex, 2);
+                    shiftNodes(insertedNodes, fromNestedSetIndex, Long.MAX_VALUE, 2);
+                    insertedNodes.add(node);
+                    break;
+
+                case DELETE_NODE:
+                    Node nodeToDelete = findNodeForTreeAndId(treeId, mutation.getNodeId());
+                    if (nodeToDelete == null || deletedNodes.contains(nodeToDelete) || shift.isDead(nodeToDelete.getNestedSetLeft())) {
+                        break;
+                    }
+                    deletedNodes.add(nodeToDelete);
+                    raisedRanges.add(new long[]{nodeToDelete.getNestedSetLeft(), nodeToDelete.getNestedSetRight()});
+
+                    long left = shift.map(nodeToDelete.getNestedSetLeft());
+                    long right = shift.map(nodeToDelete.getNestedSetRight());
+                    shift.markDead(nodeToDelete.getNestedSetLeft(), nodeToDelete.getNestedSetLeft());
+                    shift.markDead(nodeToDelete.getNestedSetRight(), nodeToDelete.getNestedSetRight());
+
+                    // Die Nachfahren rücken eine Ebene nach oben. Bereits
+                    // eingefügte Knoten liegen in der aktuellen Nummerierung.
+                    for (Node insertedNode : insertedNodes) {
+                        if (insertedNode.getNestedSetLeft() > left && insertedNode.getNestedSetLeft() < right) {
+                            insertedNode.setDepth(insertedNode.getDepth() - 1);
+                        }
+                    }
+
+                    if (!sparse) {
+                        shift.shift(left, -1);
+                        shift.shift(right, -1);
+                        shiftNodes(insertedNodes, left, right, -1);
+                        shiftNodes(insertedNodes, right + 1, Long.MAX_VALUE, -2);
+                    }
+                    break;
+
+                case DELETE_RANGE:
+                    long leftNestedSetIndex = mutation.getLeftNestedSetIndex();
+                    long rightNestedSetIndex = mutation.getRightNestedSetIndex();
+
+                    long originalLeft = shift.firstOriginalAtLeast(leftNestedSetIndex);
+                    long originalRight = shift.lastOriginalAtMost(rightNestedSetIndex);
+                    if (originalLeft <= originalRight) {
+                        deletedRanges.add(new long[]{originalLeft, originalRight});
+                        shift.markDead(originalLeft, originalRight);
+                    }
+
+                    for (Iterator<Node> iterator = insertedNodes.iterator(); iterator.hasNext(); ) {
+                        Node insertedNode = iterator.next();
+                        if (insertedNode.getNestedSetLeft() >= leftNestedSetIndex && insertedNode.getNestedSetLeft() <= rightNestedSetIndex) {
+                            iterator.remove();
+                        }
+                    }
+
+                    if (!sparse) {
+                        long delta = rightNestedSetIndex - leftNestedSetIndex + 1;
+                        shift.shift(rightNestedSetIndex + 1, -delta);
+                        shiftNodes(insertedNodes, rightNestedSetIndex + 1, Long.MAX_VALUE, -delta);
+                    }
+                    break;
+            }
+        }
+
+        // Die Kinder eines gelöschten Knotens rücken an seine Stelle, bevor
+        // er gelöscht wird. Neue Kinder eines gelöschten Knotens erhalten
+        // dessen Elternknoten.
+        Map<Long, Long> deletedParentIds = new HashMap<Long, Long>();
+        for (Node nodeToDelete : deletedNodes) {
+            reparentChildren(treeId, nodeToDelete.getId());
+            deletedParentIds.put(nodeToDelete.getId(), (Long) findNestedSetState(treeId, nodeToDelete.getId())[3]);
+            this.nodeDao.remove(nodeToDelete);
+        }
+        for (Node insertedNode : insertedNodes) {
+            Node parent = insertedNode.getParent();
+            while (parent != null && deletedParentIds.containsKey(parent.getId())) {
+                Long parentId = deletedParentIds.get(parent.getId());
+                parent = (parentId == null ? null : (Node) getCurrentSession().load(Node.class, parentId));
+            }
+            insertedNode.setParent(parent);
+        }
+        getCurrentSession().flush();
+
+        for (long[] deletedRange : deletedRanges) {
+            removeNodesBetween(treeId, deletedRange[0], deletedRange[1]);
+        }
+
+        // Die Bereiche der gelöschten Knoten liegen in der ursprünglichen
+        // Nummerierung, daher vor dem Verschieben der Grenzen.
+        for (long[] raisedRange : raisedRanges) {
+            Query query = getCurrentSession().createQuery("UPDATE Node SET depth = depth - 1 WHERE tree.id = :treeId AND nestedSetLeft > :leftNestedSetIndex AND nestedSetLeft < :rightNestedSetIndex");
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", raisedRange[0]);
+            query.setLong("rightNestedSetIndex", raisedRange[1]);
+            query.executeUpdate();
+        }
+
+        shiftNestedSets(treeId, shift);
+
+        for (Node insertedNode : insertedNodes) {
+            this.nodeDao.save(insertedNode);
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public void moveSubtree(long treeId, long nodeId, long newParentId, int ordinalNumber) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
+        // Wir lesen die Grenzen per Projektion, damit veraltete Exemplare aus
+        // der Hibernate Sitzung keine Rolle spielen.
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        Object[] newParentState = findNestedSetState(treeId, newParentId);
+        if (nodeState == null || newParentState == null) {
+            throw new IllegalArgumentException("node " + nodeId + " or parent node " + newParentId + " does not exist in tree " + treeId);
+        }
+        if (nodeState[3] == null) {
+            throw new IllegalArgumentException("the root node " + nodeId + " can't be moved");
+        }
+
+        long left = (Long) nodeState[0];
+        long right = (Long) nodeState[1];
+        int oldOrdinalNumber = (Integer) nodeState[2];
+        long oldParentId = (Long) nodeState[3];
+        int oldDepth = (Integer) nodeState[4];
+        long parentLeft = (Long) newParentState[0];
+        long parentRight = (Long) newParentState[1];
+        int newDepth = (Integer) newParentState[4] + 1;
+
+        if (parentLeft >= left && parentRight <= right) {
+            throw new IllegalArgumentException("node " + nodeId + " can't be moved below its own subtree");
+        }
+
+        boolean sameParent = (oldParentId == newParentId);
+        Session session = getCurrentSession();
+
+        // Die Position ist ohne den verschobenen Knoten angegeben.
+        int searchOrdinalNumber = (sameParent && ordinalNumber >= oldOrdinalNumber ? ordinalNumber + 1 : ordinalNumber);
+        Query query = session.createQuery("SELECT nestedSetLeft, ordinalNumber FROM Node WHERE parent.id = :parentId AND id <> :nodeId AND ordinalNumber >= :ordinalNumber ORDER BY ordinalNumber ASC");
+        query.setLong("parentId", newParentId);
+        query.setLong("nodeId", nodeId);
+        query.setInteger("ordinalNumber", searchOrdinalNumber);
+        query.setMaxResults(1);
+        Object[] nextSiblingState = (Object[]) query.uniqueResult();
+
+        long targetNestedSetIndex;
+        int newOrdinalNumber;
+        if (nextSiblingState != null) {
+            targetNestedSetIndex = (Long) nextSiblingState[0];
+            newOrdinalNumber = (Integer) nextSiblingState[1];
+        } else {
+            query = session.createQuery("SELECT MAX(ordinalNumber) FROM Node WHERE parent.id = :parentId AND id <> :nodeId");
+            query.setLong("parentId", newParentId);
+            query.setLong("nodeId", nodeId);
+            Integer lastOrdinalNumber = (Integer) query.uniqueResult();
+
+            targetNestedSetIndex = parentRight;
+            newOrdinalNumber = (lastOrdinalNumber == null ? 0 : lastOrdinalNumber + 1);
+        }
+        if (sameParent && newOrdinalNumber > oldOrdinalNumber) {
+            newOrdinalNumber--;
+        }
+
+        session.flush();
+
+        String hql;
+        if (newDepth != oldDepth) {
+            // Die Tiefe wird vor dem Verschieben angepasst, solange der
+            // Teilbaum noch über seine alten Grenzen adressiert werden kann.
+            hql = "UPDATE Node SET depth = depth + :delta WHERE tree.id = :treeId AND nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
+            query = session.createQuery(hql);
+            query.setInteger("delta", newDepth - oldDepth);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", left);
+            query.setLong("rightNestedSetIndex", right);
+            query.executeUpdate();
+        }
+
+        shiftNestedSets(treeId, createMoveShift(left, right, targetNestedSetIndex));
+
+        hql = "UPDATE Node SET ordinalNumber = ordinalNumber - 1 WHERE parent.id = :parentId AND ordinalNumber > :ordinalNumber";
+        query = session.createQuery(hql);
+        query.setLong("parentId", oldParentId);
+        query.setInteger("ordinalNumber", oldOrdinalNumber);
+        query.executeUpdate();
+
+        hql = "UPDATE Node SET ordinalNumber = ordinalNumber + 1 WHERE parent.id = :parentId AND ordinalNumber >= :ordinalNumber AND id <> :nodeId";
+        query = session.createQuery(hql);
+        query.setLong("parentId", newParentId);
+        query.setInteger("ordinalNumber", newOrdinalNumber);
+        query.setLong("nodeId", nodeId);
+        query.executeUpdate();
+
+        hql = "UPDATE Node SET parent = :parent, ordinalNumber = :ordinalNumber WHERE id = :nodeId";
+        query = session.createQuery(hql);
+        query.setEntity("parent", session.load(Node.class, newParentId));
+        query.setInteger("ordinalNumber", newOrdinalNumber);
+        query.setLong("nodeId", nodeId);
+        query.executeUpdate();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Knoten " + nodeId + " wurde unter Knoten " + newParentId + " an Position " + newOrdinalNumber + " verschoben.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public void reorderChildren(long treeId, long parentId, long[] orderedChildIds) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
+        if (findNestedSetState(treeId, parentId) == null) {
+            throw new IllegalArgumentException("parent node " + parentId + " does not exist in tree " + treeId);
+        }
+
+        Session session = getCurrentSession();
+        session.flush();
+
+        Query query = session.createQuery("SELECT id, nestedSetLeft, nestedSetRight FROM Node WHERE tree.id = :treeId AND parent.id = :parentId ORDER BY nestedSetLeft ASC");
+        query.setLong("treeId", treeId);
+        query.setLong("parentId", parentId);
+        List<Object[]> children = query.list();
+
+        int count = children.size();
+        long[] childIds = new long[count];
+        long[] lefts = new long[count];
+        long[] rights = new long[count];
+        for (int i = 0; i < count; i++) {
+            Object[] child = children.get(i);
+            childIds[i] = (Long) child[0];
+            lefts[i] = (Long) child[1];
+            rights[i] = (Long) child[2];
+        }
+        int[] order = NestedSetUtils.resolveOrder(childIds, orderedChildIds);
+        if (count == 0) {
+            return;
+        }
+
+        // Die Teilbäume tauschen ihre Bereiche innerhalb des Elternknotens.
+        // Alle Bereiche werden in einer Anweisung verschoben, damit sich
+        // verschobene und noch nicht verschobene Grenzen nicht vermischen.
+        long[] deltas = NestedSetUtils.computeReorderDeltas(lefts, rights, order);
+        NestedSetShift shift = new NestedSetShift();
+        for (int i = 0; i < count; i++) {
+            shift.shiftOriginal(lefts[i], rights[i], deltas[i]);
+        }
+        shiftNestedSets(treeId, shift);
+
+        StringBuilder hql = new StringBuilder("UPDATE Node SET ordinalNumber = CASE");
+        for (int i = 0; i < count; i++) {
+            hql.append(" WHEN id = :childId").append(i).append(" THEN ").append(i);
+        }
+        hql.append(" ELSE ordinalNumber END WHERE parent.id = :parentId");
+        query = session.createQuery(hql.toString());
+        for (int i = 0; i < count; i++) {
+            query.setLong("childId" + i, orderedChildIds[i]);
+        }
+        query.setLong("parentId", parentId);
+        query.executeUpdate();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Die " + count + " Kinder von Knoten " + parentId + " wurden neu angeordnet.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public Tree copyTree(long sourceTreeId, String newLookupKey) {
+        // Die Quelle wird gesperrt, damit kein Schreiber sie während des
+        // Kopierens ändert.
+        lockTree(sourceTreeId);
+        Tree sourceTree = this.treeDao.findById(sourceTreeId);
+        if (sourceTree == null) {
+            throw new IllegalArgumentException("tree " + sourceTreeId + " does not exist");
+        }
+        requireNestedSet(sourceTreeId);
+
+        Tree tree = new Tree();
+        tree.setLookupKey(newLookupKey);
+        tree.setNestedSetGap(sourceTree.getNestedSetGap());
+        tree.setDepthOffset(sourceTree.getDepthOffset());
+        tree = this.treeDao.save(tree);
+
+        Session session = getCurrentSession();
+        session.flush();
+
+        String hql = "SELECT MIN(nestedSetLeft), MAX(nestedSetRight) FROM Node WHERE tree.id = :treeId";
+        Query query = session.createQuery(hql);
+        query.setLong("treeId", sourceTreeId);
+        Object[] bounds = (Object[]) query.uniqueResult();
+        if (bounds == null || bounds[0] == null) {
+            return tree;
+        }
+
+        long leftNestedSetIndex = (Long) bounds[0];
+        long rightNestedSetIndex = (Long) bounds[1];
+        copyNodesBetween(sourceTreeId, leftNestedSetIndex, rightNestedSetIndex, tree.getId(), 0, 0);
+
+        tree.setRoot(findNodeForTreeAndLeft(tree.getId(), leftNestedSetIndex));
+
+        if (log.isDebugEnabled()) {
+            log.debug("Baum " + sourceTreeId + " wurde nach Baum " + tree.getId() + " kopiert.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(tree.getId());
+        return tree;
+    }
+
+    public Node copySubtree(long sourceTreeId, long nodeId, long targetTreeId, long targetParentId, int ordinalNumber) {
+        // Beide Bäume werden in einer festen Reihenfolge gesperrt, damit sich
+        // zwei Kopien in entgegengesetzter Richtung nicht gegenseitig
+        // blockieren.
+        this.treeLockSupport.lockTrees(sourceTreeId, targetTreeId);
+        lockTree(sourceTreeId);
+        lockTree(targetTreeId);
+        requireNestedSet(sourceTreeId);
+        requireNestedSet(targetTreeId);
+
+        Object[] nodeState = findNestedSetState(sourceTreeId, nodeId);
+        Object[] parentState = findNestedSetState(targetTreeId, targetParentId);
+        if (nodeState == null || parentState == null) {
+            throw new IllegalArgumentException("node " + nodeId + " or parent node " + targetParentId + " does not exist");
+        }
+
+        Tree sourceTree = this.treeDao.findById(sourceTreeId);
+        Tree targetTree = this.treeDao.findById(targetTreeId);
+        if (sourceTree.getNestedSetGap() != targetTree.getNestedSetGap()) {
+            throw new IllegalArgumentException("tree " + sourceTreeId + " and tree " + targetTreeId + " use different nested set gaps");
+        }
+
+        long left = (Long) nodeState[0];
+        long right = (Long) nodeState[1];
+        int depth = (Integer) nodeState[4];
+        long parentLeft = (Long) parentState[0];
+        long parentRight = (Long) parentState[1];
+        int parentDepth = (Integer) parentState[4];
+
+        boolean sameTree = (sourceTreeId == targetTreeId);
+        if (sameTree && parentLeft >= left && parentRight <= right) {
+            throw new IllegalArgumentException("node " + nodeId + " can't be copied below its own subtree");
+        }
+
+        Session session = getCurrentSession();
+
+        Query query = session.createQuery("SELECT nestedSetLeft, ordinalNumber FROM Node WHERE parent.id = :parentId AND ordinalNumber >= :ordinalNumber ORDER BY ordinalNumber ASC");
+        query.setLong("parentId", targetParentId);
+        query.setInteger("ordinalNumber", ordinalNumber);
+        query.setMaxResults(1);
+        Object[] nextSiblingState = (Object[]) query.uniqueResult();
+
+        long targetNestedSetIndex;
+        int newOrdinalNumber;
+        if (nextSiblingState != null) {
+            targetNestedSetIndex = (Long) nextSiblingState[0];
+            newOrdinalNumber = (Integer) nextSiblingState[1];
+        } else {
+            query = session.createQuery("SELECT MAX(ordinalNumber) FROM Node WHERE parent.id = :parentId");
+            query.setLong("parentId", targetParentId);
+            Integer lastOrdinalNumber = (Integer) query.uniqueResult();
+
+            targetNestedSetIndex = parentRight;
+            newOrdinalNumber = (lastOrdinalNumber == null ? 0 : lastOrdinalNumber + 1);
+        }
+
+        // Die Kopie belegt dieselbe Breite wie das Original; dahinter bleibt
+        // der übliche Abstand zur nächsten Grenze.
+        long delta = right - left + targetTree.getNestedSetGap() + 1;
+
+        session.flush();
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(targetNestedSetIndex, delta);
+        shiftNestedSets(targetTreeId, shift);
+        if (nextSiblingState != null) {
+            incOrdinalNumbers(targetParentId, newOrdinalNumber);
+        }
+
+        if (sameTree && left >= targetNestedSetIndex) {
+            left += delta;
+            right += delta;
+        }
+        copyNodesBetween(sourceTreeId, left, right, targetTreeId, targetNestedSetIndex - left, parentDepth + 1 - depth);
+
+        String hql = "UPDATE Node SET parent = :parent, ordinalNumber = :ordinalNumber WHERE tree.id = :treeId AND nestedSetLeft = :leftNestedSetIndex";
+        query = session.createQuery(hql);
+        query.setEntity("parent", session.load(Node.class, targetParentId));
+        query.setInteger("ordinalNumber", newOrdinalNumber);
+        query.setLong("treeId", targetTreeId);
+        query.setLong("leftNestedSetIndex", targetNestedSetIndex);
+        query.executeUpdate();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Knoten " + nodeId + " wurde unter Knoten " + targetParentId + " an Position " + newOrdinalNumber + " kopiert.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(targetTreeId);
+        return findNodeForTreeAndLeft(targetTreeId, targetNestedSetIndex);
+    }
+
+    /**
+     * Dupliziert alle Knoten zwischen den angegebenen Grenzen in den
+     * Zielbaum.
+     * <p>
+     * Die Knoten werden mit einer einzigen <code>INSERT ... SELECT</code>
+     * Anweisung eingefügt. Die Elternknoten der Kopien werden danach mit
+     * {@link #connectParents(long, long, long)} gesetzt. Die Wurzel des
+     * kopierten Bereichs erhält keinen Elternknoten; der Aufrufer muss sie
+     * selbst verbinden.
+     * </p>
+     *
+     * @param sourceTreeId        Die Id des Quellbaumes.
+     * @param leftNestedSetIndex  Die linke Grenze des kopierten Bereichs.
+     * @param rightNestedSetIndex Die rechte Grenze des kopierten Bereichs.
+     * @param targetTreeId        Die Id des Zielbaumes.
+     * @param offset              Der Abstand zwischen den Grenzen einer Kopie
+     *                            und ihres Originals.
+     * @param depthOffset         Der Abstand zwischen der Tiefe einer Kopie
+     *                            und ihres Originals.
+     * @return Die Anzahl der kopierten Knoten.
+     */
+    protected int copyNodesBetween(long sourceTreeId, long leftNestedSetIndex, long rightNestedSetIndex, long targetTreeId, long offset, int depthOffset) {
+        Session session = getCurrentSession();
+
+        // Markierte Teilbäume werden mit ihrer Markierung kopiert. Ohne sie
+        // wären gelöschte Knoten in der Kopie wieder sichtbar. Die Intervalle
+        // werden unverändert übernommen; in NestedSet-Bäumen sind sie 0.
+        String hql = "INSERT INTO Node (tree, ordinalNumber, nestedSetLeft, nestedSetRight, depth, tombstone,"
+                + " intervalLeftNumerator, intervalLeftDenominator, intervalRightNumerator, intervalRightDenominator)"
+                + " SELECT t, n.ordinalNumber, n.nestedSetLeft + :offset, n.nestedSetRight + :offset, n.depth + :depthOffset, n.tombstone,"
+                + " n.intervalLeftNumerator, n.intervalLeftDenominator, n.intervalRightNumerator, n.intervalRightDenominator"
+                + " FROM Node n, Tree t WHERE t.id = :targetTreeId AND n.tree.id = :sourceTreeId AND n.nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex";
+        Query query = session.createQuery(hql);
+        query.setLong("offset", offset);
+        query.setInteger("depthOffset", depthOffset);
+        query.setLong("targetTreeId", targetTreeId);
+        query.setLong("sourceTreeId", sourceTreeId);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        int copied = query.executeUpdate();
+
+        connectParents(targetTreeId, leftNestedSetIndex + offset, rightNestedSetIndex + offset);
+        updateTombstoneCount(targetTreeId);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden " + copied + " Knoten von Baum " + sourceTreeId + " nach Baum " + targetTreeId + " kopiert.");
+        }
+        return copied;
+    }
+
+    /**
+     * Setzt den Elternknoten jedes Knotens mit einer linken Grenze im
+     * angegebenen Bereich auf den umschließenden Knoten eine Ebene darüber.
+     * <p>
+     * Der Bereich muss ein vollständiger Teilbaum sein, dessen Wurzel die
+     * linke Grenze <code>leftNestedSetIndex</code> hat, oder der ganze Baum.
+     * Alle Elternknoten werden mit einem einzigen korrelierten Update
+     * gesetzt. MySQL lehnt eine Unterabfrage auf die geänderte Tabelle ab
+     * (Fehler 1093); unterstützt der Dialekt temporäre Tabellen, liest die
+     * Unterabfrage deshalb aus einer temporären Kopie der Grenzen des
+     * Bereichs.
+     * </p>
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des Bereichs (exklusiv).
+     * @param rightNestedSetIndex Die rechte Grenze des Bereichs (inklusiv).
+     */
+    protected void connectParents(final long treeId, final long leftNestedSetIndex, final long rightNestedSetIndex) {
+        Session session = getCurrentSession();
+        session.flush();
+
+        // Die Spaltennamen kommen aus den Hibernate Metadaten.
+        final Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getSessionFactory().getClassMetadata(Node.class);
+        String table = persister.getTableName();
+        String id = persister.getIdentifierColumnNames()[0];
+        String tree = persister.getPropertyColumnNames("tree")[0];
+        String left = persister.getPropertyColumnNames("nestedSetLeft")[0];
+        String right = persister.getPropertyColumnNames("nestedSetRight")[0];
+        String depth = persister.getPropertyColumnNames("depth")[0];
+        String range = " WHERE " + tree + " = ? AND " + left + " >= ? AND " + left + " <= ?";
+
+        // Die temporäre Tabelle wird wie die Id-Tabellen von Hibernate in der
+        // laufenden Transaktion angelegt.
+        final boolean useTemporaryTable = dialect.supportsTemporaryTables() && !Boolean.TRUE.equals(dialect.performTemporaryTableDDLInIsolation());
+        String boundsTable = (useTemporaryTable ? dialect.generateTemporaryTableName(table + "_bounds") : table);
+
+        final String createSql = dialect.getCreateTemporaryTableString() + " " + boundsTable + " ("
+                + id + " " + dialect.getTypeName(Types.BIGINT) + " not null, "
+                + left + " " + dialect.getTypeName(Types.BIGINT) + " not null, "
+                + right + " " + dialect.getTypeName(Types.BIGINT) + " not null, "
+                + depth + " " + dialect.getTypeName(Types.INTEGER) + " not null, "
+                + "primary key (" + depth + ", " + left + ")) " + dialect.getCreateTemporaryTablePostfix();
+        final String insertSql = "INSERT INTO " + boundsTable + " (" + id + ", " + left + ", " + right + ", " + depth + ")"
+                + " SELECT " + id + ", " + left + ", " + right + ", " + depth + " FROM " + table + range;
+        final String cleanUpSql = (dialect.dropTemporaryTableAfterUse() ? dialect.getDropTemporaryTableString() + " " + boundsTable : "DELETE FROM " + boundsTable);
+        final String updateSql = "UPDATE " + table + " SET " + persister.getPropertyColumnNames("parent")[0] + " = ("
+                + "SELECT b." + id + " FROM " + boundsTable + " b"
+                + " WHERE " + (useTemporaryTable ? "" : "b." + tree + " = " + table + "." + tree + " AND ")
+                + "b." + depth + " = " + table + "." + depth + " - 1"
+                + " AND b." + left + " < " + table + "." + left + " AND b." + right + " > " + table + "." + right + ")"
+                + " WHERE " + tree + " = ? AND " + left + " > ? AND " + left + " <= ?";
+
+        final int[] updated = new int[1];
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                if (useTemporaryTable) {
+                    Statement statement = connection.createStatement();
+                    try {
+                        statement.executeUpdate(createSql);
+                    } catch (SQLException e) {
+                        // Wie bei Hibernate kann die Tabelle bereits
+                        // existieren, wenn der Dialekt sie nicht entfernt.
+                        if (log.isDebugEnabled()) {
+                            log.debug("Die temporäre Tabelle konnte nicht angelegt werden.", e);
+                        }
+                    } finally {
+                        statement.close();
+                    }
+                    executeRangeUpdate(connection, insertSql, treeId, leftNestedSetIndex, rightNestedSetIndex);
+                }
+                try {
+                    updated[0] = executeRangeUpdate(connection, updateSql, treeId, leftNestedSetIndex, rightNestedSetIndex);
+                } finally {
+                    if (useTemporaryTable) {
+                        Statement statement = connection.createStatement();
+                        try {
+                            statement.executeUpdate(cleanUpSql);
+                        } finally {
+                            statement.close();
+                        }
+                    }
+                }
+            }
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + updated[0] + " Knoten, der Vaterknoten gesetzt.");
+        }
+    }
+
+    /**
+     * Führt eine Anweisung mit den Parametern Baum, linke Grenze und rechte
+     * Grenze aus.
+     *
+     * @param connection          Die Verbindung.
+     * @param sql                 Die Anweisung.
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze.
+     * @param rightNestedSetIndex Die rechte Grenze.
+     * @return Die Anzahl der geänderten Zeilen.
+     * @throws SQLException Wenn die Anweisung fehlschlägt.
+     */
+    private static int executeRangeUpdate(Connection connection, String sql, long treeId, long leftNestedSetIndex, long rightNestedSetIndex) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            statement.setLong(1, treeId);
+            statement.setLong(2, leftNestedSetIndex);
+            statement.setLong(3, rightNestedSetIndex);
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    protected Node findNodeForTreeAndLeft(long treeId, long nestedSetLeft) {
+        String hql = "FROM Node WHERE tree.id = :treeId AND nestedSetLeft = :nestedSetLeft";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("nestedSetLeft", nestedSetLeft);
+
+        return (Node) query.uniqueResult();
+    }
+
+    /**
+     * Erzeugt die Verschiebung, die das Intervall [<code>left</code>,
+     * <code>right</code>] vor die Grenze <code>targetNestedSetIndex</code>
+     * bewegt.
+     *
+     * @param left                 Die linke Grenze des verschobenen Teilbaumes.
+     * @param right                Die rechte Grenze des verschobenen Teilbaumes.
+     * @param targetNestedSetIndex Die Grenze, vor die der Teilbaum bewegt wird.
+     * @return Die Verschiebung.
+     */
+    protected static NestedSetShift createMoveShift(long left, long right, long targetNestedSetIndex) {
+        long width = right - left + 1;
+
+        NestedSetShift shift = new NestedSetShift();
+        if (targetNestedSetIndex > right) {
+            shift.shiftOriginal(left, right, targetNestedSetIndex - right - 1);
+            shift.shiftOriginal(right + 1, targetNestedSetIndex - 1, -width);
+        } else if (targetNestedSetIndex < left) {
+            shift.shiftOriginal(left, right, targetNestedSetIndex - left);
+            shift.shiftOriginal(targetNestedSetIndex, left - 1, width);
+        }
+        return shift;
+    }
+
+    /**
+     * Liest den NestedSet-Zustand des angegebenen Knotens aus der Datenbank.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des Knotens.
+     * @return Linke Grenze, rechte Grenze, Position, Id des Elternknotens und
+     *         Tiefe des Knotens oder NULL wenn der Knoten nicht existiert.
+     */
+    protected Object[] findNestedSetState(long treeId, long nodeId) {
+        String hql = "SELECT n.nestedSetLeft, n.nestedSetRight, n.ordinalNumber, p.id, n.depth FROM Node n LEFT JOIN n.parent p WHERE n.tree.id = :treeId AND n.id = :nodeId";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("nodeId", nodeId);
+
+        return (Object[]) query.uniqueResult();
+    }
+
+    /**
+     * Schreibt die angegebene Verschiebung der NestedSet-Grenzen mit einer
+     * einzigen Update-Anweisung zurück.
+     * <p>
+     * Alle Segmente werden in einer Anweisung verschoben, damit sich
+     * verschobene und noch nicht verschobene Grenzen nicht vermischen. HQL
+     * erlaubt in der SET-Klausel keinen CASE-Ausdruck mit Arithmetik, daher
+     * wird die Anweisung in SQL formuliert. Die Spaltennamen kommen aus den
+     * Hibernate Metadaten.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @param shift  Die Verschiebung in der Nummerierung der Datenbank.
+     */
+    protected void shiftNestedSets(long treeId, NestedSetShift shift) {
+        List<NestedSetShift.Segment> segments = shift.getSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        Session session = getCurrentSession();
+        session.flush();
+
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getSessionFactory().getClassMetadata(Node.class);
+        String left = persister.getPropertyColumnNames("nestedSetLeft")[0];
+        String right = persister.getPropertyColumnNames("nestedSetRight")[0];
+
+        final List<Long> parameters = new ArrayList<Long>();
+        StringBuilder sql = new StringBuilder("UPDATE ").append(persister.getTableName()).append(" SET ").append(left).append(" = ");
+        appendShiftExpression(sql, parameters, left, segments);
+        sql.append(", ").append(right).append(" = ");
+        appendShiftExpression(sql, parameters, right, segments);
+        sql.append(" WHERE ").append(persister.getPropertyColumnNames("tree")[0]).append(" = ?");
+        parameters.add(treeId);
+
+        long fromNestedSetIndex = segments.get(0).getStart();
+        if (fromNestedSetIndex != Long.MIN_VALUE) {
+            sql.append(" AND ").append(right).append(" >= ?");
+            parameters.add(fromNestedSetIndex);
+        }
+
+        final String updateSql = sql.toString();
+        final int[] updated = new int[1];
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement update = connection.prepareStatement(updateSql);
+                try {
+                    for (int i = 0; i < parameters.size(); i++) {
+                        update.setLong(i + 1, parameters.get(i));
+                    }
+                    updated[0] = update.executeUpdate();
+                } finally {
+                    update.close();
+                }
+            }
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden, für " + updated[0] + " Knoten, die NestedSet-Grenzen in " + segments.size() + " Bereichen verschoben.");
+        }
+    }
+
+    private static void appendShiftExpression(StringBuilder sql, List<Long> parameters, String column, List<NestedSetShift.Segment> segments) {
+        sql.append("CASE");
+        for (NestedSetShift.Segment segment : segments) {
+            sql.append(" WHEN ");
+            if (segment.getStart() == Long.MIN_VALUE && segment.getEnd() == Long.MAX_VALUE) {
+                sql.append("1 = 1");
+            }
+            if (segment.getStart() != Long.MIN_VALUE) {
+                sql.append(column).append(" >= ?");
+                parameters.add(segment.getStart());
+            }
+            if (segment.getStart() != Long.MIN_VALUE && segment.getEnd() != Long.MAX_VALUE) {
+                sql.append(" AND ");
+            }
+            if (segment.getEnd() != Long.MAX_VALUE) {
+                sql.append(column).append(" < ?");
+                parameters.add(segment.getEnd());
+            }
+            sql.append(" THEN ").append(column).append(" + ?");
+            parameters.add(segment.getDelta());
+        }
+        sql.append(" ELSE ").append(column).append(" END");
+    }
+
+    /**
+     * Zählt die Bereiche, die den angegebenen gespeicherten Knoten echt
+     * umschließen.
+     *
+     * @param ranges Die Bereiche in der ursprünglichen Nummerierung.
+     * @param node   Der Knoten.
+     * @return Die Anzahl der umschließenden Bereiche.
+     */
+    private static int countEnclosingRanges(List<long[]> ranges, Node node) {
+        int count = 0;
+        for (long[] range : ranges) {
+            if (range[0] < node.getNestedSetLeft() && node.getNestedSetRight() < range[1]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void shiftNodes(List<Node> nodes, long fromNestedSetIndex, long toNestedSetIndex, long delta) {
+        for (Node node : nodes) {
+            if (node.getNestedSetLeft() >= fromNestedSetIndex && node.getNestedSetLeft() <= toNestedSetIndex) {
+                node.setNestedSetLeft(node.getNestedSetLeft() + delta);
+            }
+            if (node.getNestedSetRight() >= fromNestedSetIndex && node.getNestedSetRight() <= toNestedSetIndex) {
+                node.setNestedSetRight(node.getNestedSetRight() + delta);
+            }
+        }
+    }
+
+    protected void updateNestedSetIndexImpl(long treeId, long delta, long nestedSetRight) {
+        Session session = getCurrentSession();
+
+        String hql;
+        Query query;
+        int update;
+
+        hql = "UPDATE Node SET nestedSetLeft = nestedSetLeft - :delta WHERE tree.id = :treeId AND nestedSetLeft > :rightNestedSetIndex";
+        query = session.createQuery(hql);
+        query.setLong("delta", delta);
+        query.setLong("treeId", treeId);
+        query.setLong("rightNestedSetIndex", nestedSetRight);
+
+        update = query.executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + update + " Knoten, der nestedSetLeft Wert aktualisiert.");
+        }
+
+
+        hql = "UPDATE Node SET nestedSetRight = nestedSetRight - :delta WHERE tree.id = :treeId AND nestedSetRight > :rightNestedSetIndex";
+        query = session.createQuery(hql);
+        query.setLong("delta", delta);
+        query.setLong("treeId", treeId);
+        query.setLong("rightNestedSetIndex", nestedSetRight);
+
+        update = query.executeUpdate();
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde, für " + update + " Knoten, der nestedSetRight Wert aktualisiert.");
+        }
+    }
+
+    public Node findRootNodeForTree(long treeId) {
+        Criteria crit = getCurrentSession().createCriteria(Node.class);
+        crit.add(Restrictions.eq("tree.id", treeId))
+                .add(Restrictions.isNull("parent"));
+
+        return (Node) crit.uniqueResult();
+    }
+
+    public Node findNodeForTreeAndId(long treeId, long nodeId) {
         Criteria crit = getCurrentSession().createCriteria(Node.class);
         crit.createAlias("tree", "tree", JoinType.INNER_JOIN)
                 .add(Restrictions.eq("id", nodeId))
@@ -224,6 +1797,867 @@ public class HbmTreeOperationDaoImpl extends AbstractHbmDao implements TreeOpera
         return (Node) crit.uniqueResult();
     }
 
+    public Node loadTree(long treeId) {
+        if (isNestedIntervalTree(treeId)) {
+            Node root = findRootNodeForTree(treeId);
+            return (root == null ? null : loadNodesInInterval(root, -1));
+        }
+
+        String hql = "SELECT MIN(nestedSetLeft), MAX(nestedSetRight) FROM Node WHERE tree.id = :treeId";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+
+        Object[] bounds = (Object[]) query.uniqueResult();
+        if (bounds == null || bounds[0] == null) {
+            return null;
+        }
+        return loadNodesBetween(treeId, (Long) bounds[0], (Long) bounds[1], -1);
+    }
+
+    public Node loadSubtree(long treeId, long nodeId) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            return (node == null ? null : loadNodesInInterval(node, -1));
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null) {
+            return null;
+        }
+        return loadNodesBetween(treeId, (Long) nodeState[0], (Long) nodeState[1], -1);
+    }
+
+    public Node findSubtreeToDepth(long treeId, long nodeId, int maxDepth) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            return (node == null ? null : loadNodesInInterval(node, (maxDepth < 0 ? -1 : node.getDepth() + maxDepth)));
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null) {
+            return null;
+        }
+        int depth = (Integer) nodeState[4];
+        return loadNodesBetween(treeId, (Long) nodeState[0], (Long) nodeState[1], (maxDepth < 0 ? -1 : depth + maxDepth));
+    }
+
+    /**
+     * Lädt alle Knoten zwischen den angegebenen Grenzen, löst sie von der
+     * Session und verbindet die Assoziationen zu Eltern und Kindern.
+     * <p>
+     * Ist eine maximale Tiefe angegeben, werden tiefere Knoten übersprungen.
+     * Die geladenen Knoten bilden trotzdem einen zusammenhängenden Graphen,
+     * da alle Vorfahren eines Knotens weniger tief liegen als der Knoten.
+     * </p>
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze der Wurzel des Teilbaumes.
+     * @param rightNestedSetIndex Die rechte Grenze der Wurzel des Teilbaumes.
+     * @param maxDepth            Die maximale absolute Tiefe oder -1.
+     * @return Die Wurzel des Teilbaumes.
+     */
+    protected Node loadNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex, int maxDepth) {
+        String hql = "FROM Node n WHERE n.tree.id = :treeId AND n.nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex"
+                + (maxDepth < 0 ? "" : " AND n.depth <= :maxDepth")
+                + (hasTombstones(treeId) ? TOMBSTONE_FILTER : "")
+                + " ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        if (maxDepth >= 0) {
+            query.setInteger("maxDepth", maxDepth);
+        }
+        query.setReadOnly(true);
+
+        List<Node> nodes = query.list();
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        detachLoadedNodes(nodes);
+        connectNodes(nodes, TreeEncoding.NESTED_SET.getStrategy());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden " + nodes.size() + " Knoten zwischen " + leftNestedSetIndex + " und " + rightNestedSetIndex + " geladen.");
+        }
+        return nodes.get(0);
+    }
+
+    /**
+     * Lädt den angegebenen Knoten und seine Nachfahren aus einem Baum mit
+     * Nested Intervals und verbindet die Assoziationen zu Eltern und Kindern.
+     *
+     * @param subtreeRoot Die Wurzel des Teilbaumes.
+     * @param maxDepth    Die maximale absolute Tiefe oder -1.
+     * @return Die Wurzel des Teilbaumes.
+     */
+    protected Node loadNodesInInterval(Node subtreeRoot, int maxDepth) {
+        Query query = createIntervalQuery("SELECT n", subtreeRoot, true, maxDepth, false);
+        query.setReadOnly(true);
+
+        List<Node> nodes = sortByInterval(query.list());
+        detachLoadedNodes(nodes);
+        connectNodes(nodes, TreeEncoding.NESTED_INTERVALS.getStrategy());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden " + nodes.size() + " Knoten unterhalb von Knoten " + subtreeRoot.getId() + " geladen.");
+        }
+        return nodes.get(0);
+    }
+
+    /**
+     * Löst die von einer schreibgeschützten Abfrage neu geladenen Knoten von
+     * der Session.
+     * <p>
+     * Die Assoziationen dieser Knoten werden anschließend für die Sicht
+     * umgehängt. Blieben sie schreibgeschützt in der Session, würde eine
+     * spätere Änderung an ihnen in derselben Session (z.B. der Elternknoten
+     * der bisherigen Wurzel in {@link #insertRoot(long, Node)}) stillschweigend
+     * nicht geschrieben. Nach dem Lösen lädt die Session solche Knoten neu.
+     * Knoten, die schon vor der Abfrage in der Session lagen, sind nicht
+     * schreibgeschützt und bleiben verwaltet; das Verbinden ändert an ihnen
+     * nur die inverse Kinder-Collection und setzt den Elternknoten auf einen
+     * Knoten mit derselben Id.
+     * </p>
+     *
+     * @param nodes Die geladenen Knoten.
+     */
+    protected void detachLoadedNodes(List<Node> nodes) {
+        Session session = getCurrentSession();
+        for (Node node : nodes) {
+            if (session.isReadOnly(node)) {
+                session.evict(node);
+            }
+        }
+    }
+
+    /**
+     * Verbindet die Assoziationen zu Eltern und Kindern der angegebenen
+     * Knoten.
+     * <p>
+     * Die Kinderlisten werden durch einfache Listen ersetzt, damit Hibernate
+     * die Lazy-Collections nicht einzeln initialisiert. Die Collection ist
+     * die inverse Seite der Eltern-Assoziation und wird nie geschrieben.
+     * </p>
+     *
+     * @param nodes    Die Knoten eines Teilbaumes in Pre-Order.
+     * @param strategy Die Kodierung des Baumes.
+     */
+    protected static void connectNodes(List<Node> nodes, TreeEncodingStrategy strategy) {
+        List<Node> path = new ArrayList<Node>();
+        for (Node node : nodes) {
+            while (!path.isEmpty() && !strategy.isDescendant(path.get(path.size() - 1), node)) {
+                path.remove(path.size() - 1);
+            }
+            node.setChildren(new ArrayList<Node>());
+            if (!path.isEmpty()) {
+                Node parent = path.get(path.size() - 1);
+                node.setParent(parent);
+                parent.getChildren().add(node);
+            }
+            path.add(node);
+        }
+    }
+
+    /**
+     * Erzeugt die Abfrage für die Knoten innerhalb des Intervalls eines
+     * Knotens in einem Baum mit Nested Intervals.
+     * <p>
+     * Die Brüche werden über ihre Kreuzprodukte verglichen, der Vergleich ist
+     * also exakt. HQL kann nicht nach den Brüchen sortieren; das Ergebnis
+     * muss mit {@link #sortByInterval(List)} sortiert werden. Die Knoten
+     * markierter Teilbäume werden ausgeschlossen.
+     * </p>
+     *
+     * @param select     Die Select-Klausel für den Alias <code>n</code>.
+     * @param node       Der Knoten.
+     * @param inclusive  TRUE um den Knoten selbst einzuschließen.
+     * @param maxDepth   Die maximale absolute Tiefe oder -1.
+     * @param leavesOnly TRUE um nur Blätter zu liefern.
+     * @return Die Abfrage.
+     */
+    protected Query createIntervalQuery(String select, Node node, boolean inclusive, int maxDepth, boolean leavesOnly) {
+        long treeId = node.getTree().getId();
+        String hql = select + " FROM Node n WHERE n.tree.id = :treeId"
+                + intervalCondition("n.", inclusive)
+                + (maxDepth < 0 ? "" : " AND n.depth <= :maxDepth")
+                + (leavesOnly ? " AND n.children IS EMPTY" : "")
+                + tombstoneFilter(treeId);
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        setIntervalParameters(query, node);
+        if (maxDepth >= 0) {
+            query.setInteger("maxDepth", maxDepth);
+        }
+        return query;
+    }
+
+    /**
+     * Liefert die Bedingung für die Knoten, deren linke Grenze im Intervall
+     * eines Knotens liegt. Die Grenzen des Intervalls werden mit
+     * {@link #setIntervalParameters(Query, Node)} gebunden.
+     *
+     * @param alias     Der Alias der Knoten samt Punkt oder ein leerer
+     *                  String.
+     * @param inclusive TRUE um den Knoten selbst einzuschließen.
+     * @return Die Bedingung, beginnend mit <code>AND</code>.
+     */
+    private static String intervalCondition(String alias, boolean inclusive) {
+        return " AND " + alias + "intervalLeftNumerator * :leftDenominator " + (inclusive ? ">=" : ">") + " :leftNumerator * " + alias + "intervalLeftDenominator"
+                + " AND " + alias + "intervalLeftNumerator * :rightDenominator < :rightNumerator * " + alias + "intervalLeftDenominator";
+    }
+
+    private static void setIntervalParameters(Query query, Node node) {
+        query.setLong("leftNumerator", node.getIntervalLeftNumerator());
+        query.setLong("leftDenominator", node.getIntervalLeftDenominator());
+        query.setLong("rightNumerator", node.getIntervalRightNumerator());
+        query.setLong("rightDenominator", node.getIntervalRightDenominator());
+    }
+
+    /**
+     * Sortiert die angegebenen Knoten eines Baumes mit Nested Intervals in
+     * Pre-Order.
+     *
+     * @param nodes Die Knoten.
+     * @return Die sortierten Knoten.
+     */
+    protected static List<Node> sortByInterval(List<Node> nodes) {
+        Collections.sort(nodes, TreeEncoding.NESTED_INTERVALS.getStrategy());
+        return nodes;
+    }
+
+    /**
+     * Wendet das Blättern der NestedSet-Abfragen auf das sortierte Ergebnis
+     * einer Nested-Interval-Abfrage an.
+     *
+     * @param nodes              Die sortierten Knoten.
+     * @param afterNestedSetLeft Muss {@link Long#MIN_VALUE} sein; Nested
+     *                           Intervals haben keine ganzzahligen Grenzen,
+     *                           an denen fortgesetzt werden kann.
+     * @param maxResults         Die maximale Anzahl der Knoten oder ein Wert
+     *                           kleiner als 1.
+     * @return Die ersten Knoten.
+     */
+    private static List<Node> limitIntervalResult(List<Node> nodes, long afterNestedSetLeft, int maxResults) {
+        if (afterNestedSetLeft != Long.MIN_VALUE) {
+            throw new UnsupportedOperationException("nested intervals cannot be paged by their left nested set bound");
+        }
+        if (maxResults > 0 && nodes.size() > maxResults) {
+            return new ArrayList<Node>(nodes.subList(0, maxResults));
+        }
+        return nodes;
+    }
+
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth) {
+        return findDescendants(treeId, nodeId, maxDepth, Long.MIN_VALUE, -1);
+    }
+
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth, long afterNestedSetLeft, int maxResults) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null || maxDepth == 0) {
+                return Collections.emptyList();
+            }
+            Query query = createIntervalQuery("SELECT n", node, false, (maxDepth > 0 ? node.getDepth() + maxDepth : -1), false);
+            return limitIntervalResult(sortByInterval(query.list()), afterNestedSetLeft, maxResults);
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null || maxDepth == 0) {
+            return Collections.emptyList();
+        }
+
+        Query query = createDescendantsQuery(getCurrentSession(), treeId, (Long) nodeState[0], (Long) nodeState[1], (Integer) nodeState[4], maxDepth, afterNestedSetLeft);
+        if (maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+        return query.list();
+    }
+
+    public void visitDescendants(final long treeId, long nodeId, final int maxDepth, final DomainModelVisitor<Node, ?> visitor) {
+        if (isNestedIntervalTree(treeId)) {
+            // Die Intervalle lassen sich nur in Java sortieren, deshalb
+            // können wir hier nicht streamen.
+            for (Node node : findDescendants(treeId, nodeId, maxDepth)) {
+                visitor.visit(node);
+            }
+            return;
+        }
+
+        final Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null || maxDepth == 0) {
+            return;
+        }
+
+        // Wir lesen über eine zustandslose Sitzung auf derselben Verbindung.
+        // So sehen wir die Änderungen der laufenden Transaktion, ohne die
+        // Hibernate Sitzung mit den besuchten Knoten zu füllen.
+        final Session session = getCurrentSession();
+        session.flush();
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                StatelessSession statelessSession = session.getSessionFactory().openStatelessSession(connection);
+                try {
+                    Query query = createDescendantsQuery(statelessSession, treeId, (Long) nodeState[0], (Long) nodeState[1], (Integer) nodeState[4], maxDepth, Long.MIN_VALUE);
+                    query.setFetchSize(STREAM_FETCH_SIZE);
+
+                    ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+                    try {
+                        while (results.next()) {
+                            visitor.visit((Node) results.get(0));
+                        }
+                    } finally {
+                        results.close();
+                    }
+                } finally {
+                    statelessSession.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Erzeugt die Abfrage für die Nachfahren eines Knotens.
+     * <p>
+     * Die Tiefe wird über die gespeicherte Tiefe der Nachfahren
+     * eingeschränkt, die Abfrage ist also eine reine Bereichsabfrage auf den
+     * NestedSet-Grenzen.
+     * </p>
+     *
+     * @param session             Die Hibernate-Session.
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des Knotens.
+     * @param rightNestedSetIndex Die rechte Grenze des Knotens.
+     * @param depth               Die Tiefe des Knotens.
+     * @param maxDepth            Die maximale Tiefe relativ zum Knoten oder -1.
+     * @param afterNestedSetLeft  Es werden nur Nachfahren mit einer größeren
+     *                            linken Grenze geliefert.
+     * @return Die Abfrage.
+     */
+    protected Query createDescendantsQuery(SharedSessionContract session, long treeId, long leftNestedSetIndex, long rightNestedSetIndex, int depth, int maxDepth, long afterNestedSetLeft) {
+        StringBuilder hql = new StringBuilder("SELECT n FROM Node n JOIN FETCH n.tree WHERE n.tree.id = :treeId AND n.nestedSetLeft > :fromNestedSetIndex AND n.nestedSetLeft < :rightNestedSetIndex");
+        if (maxDepth > 0) {
+            hql.append(" AND n.depth <= :maxDepth");
+        }
+        if (hasTombstones(treeId)) {
+            hql.append(TOMBSTONE_FILTER);
+        }
+        hql.append(" ORDER BY n.nestedSetLeft ASC");
+
+        Query query = session.createQuery(hql.toString());
+        query.setLong("treeId", treeId);
+        query.setLong("fromNestedSetIndex", Math.max(leftNestedSetIndex, afterNestedSetLeft));
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        if (maxDepth > 0) {
+            query.setInteger("maxDepth", depth + maxDepth);
+        }
+        return query;
+    }
+
+    public List<Node> findChildren(long treeId, long parentId, int afterOrdinalNumber, int maxResults) {
+        // Der Index über (parent_id, ordinalNumber) liefert die Seite, ohne
+        // die vorderen Kinder zu lesen.
+        String hql = "FROM Node n WHERE n.tree.id = :treeId AND n.parent.id = :parentId AND n.ordinalNumber > :afterOrdinalNumber"
+                + tombstoneFilter(treeId)
+                + " ORDER BY n.ordinalNumber ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("parentId", parentId);
+        query.setInteger("afterOrdinalNumber", afterOrdinalNumber);
+        if (maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+        return query.list();
+    }
+
+    public Iterator<Node> iterateChildren(long treeId, long parentId, int pageSize) {
+        return new ChildPageIterator(this, treeId, parentId, pageSize);
+    }
+
+    public List<Node> findAncestors(long treeId, long nodeId) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return Collections.emptyList();
+            }
+
+            String hql = "FROM Node n WHERE n.tree.id = :treeId"
+                    + " AND :leftNumerator * n.intervalLeftDenominator > n.intervalLeftNumerator * :leftDenominator"
+                    + " AND :leftNumerator * n.intervalRightDenominator < n.intervalRightNumerator * :leftDenominator";
+            Query query = getCurrentSession().createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNumerator", node.getIntervalLeftNumerator());
+            query.setLong("leftDenominator", node.getIntervalLeftDenominator());
+            return sortByInterval(query.list());
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null) {
+            return Collections.emptyList();
+        }
+
+        String hql = "FROM Node WHERE tree.id = :treeId AND nestedSetLeft < :leftNestedSetIndex AND nestedSetRight > :rightNestedSetIndex ORDER BY nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("leftNestedSetIndex", (Long) nodeState[0]);
+        query.setLong("rightNestedSetIndex", (Long) nodeState[1]);
+
+        return query.list();
+    }
+
+    public List<Node> pathToRoot(long treeId, long nodeId) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return Collections.emptyList();
+            }
+            List<Node> path = new ArrayList<Node>(findAncestors(treeId, nodeId));
+            path.add(node);
+            return path;
+        }
+
+        String hql = "SELECT p FROM Node p, Node n WHERE n.id = :nodeId AND n.tree.id = :treeId AND p.tree.id = :treeId"
+                + " AND p.nestedSetLeft <= n.nestedSetLeft AND p.nestedSetRight >= n.nestedSetRight ORDER BY p.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("nodeId", nodeId);
+
+        return query.list();
+    }
+
+    public Node lowestCommonAncestor(long treeId, long nodeId1, long nodeId2) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node2 = findNodeForTreeAndId(treeId, nodeId2);
+            if (node2 == null) {
+                return null;
+            }
+            List<Node> path = pathToRoot(treeId, nodeId1);
+            for (int i = path.size() - 1; i >= 0; i--) {
+                Node ancestor = path.get(i);
+                if (ancestor.getId() == nodeId2 || NestedIntervalUtils.isDescendant(ancestor, node2)) {
+                    return ancestor;
+                }
+            }
+            return null;
+        }
+
+        // Der gesuchte Knoten umschließt beide Knoten und hat unter diesen
+        // die größte linke Grenze.
+        String hql = "SELECT p FROM Node p, Node a, Node b WHERE a.id = :nodeId1 AND b.id = :nodeId2"
+                + " AND a.tree.id = :treeId AND b.tree.id = :treeId AND p.tree.id = :treeId"
+                + " AND p.nestedSetLeft <= a.nestedSetLeft AND p.nestedSetRight >= a.nestedSetRight"
+                + " AND p.nestedSetLeft <= b.nestedSetLeft AND p.nestedSetRight >= b.nestedSetRight"
+                + " ORDER BY p.nestedSetLeft DESC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("nodeId1", nodeId1);
+        query.setLong("nodeId2", nodeId2);
+        query.setMaxResults(1);
+
+        return (Node) query.uniqueResult();
+    }
+
+    public List<Node> findLeaves(long treeId, long nodeId) {
+        return findLeaves(treeId, nodeId, Long.MIN_VALUE, -1);
+    }
+
+    public List<Node> findLeaves(long treeId, long nodeId, long afterNestedSetLeft, int maxResults) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return Collections.emptyList();
+            }
+            Query query = createIntervalQuery("SELECT n", node, false, -1, true);
+            return limitIntervalResult(sortByInterval(query.list()), afterNestedSetLeft, maxResults);
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        Tree tree = this.treeDao.findById(treeId);
+        if (nodeState == null || tree == null) {
+            return Collections.emptyList();
+        }
+        long leftNestedSetIndex = (Long) nodeState[0];
+
+        // In dünn besetzten Bäumen ist nicht jeder Knoten mit right = left + 1
+        // ein Blatt und umgekehrt.
+        String hql = "FROM Node n WHERE n.tree.id = :treeId AND n.nestedSetLeft > :fromNestedSetIndex AND n.nestedSetLeft < :rightNestedSetIndex AND "
+                + (tree.isSparseNestedSet() ? "n.children IS EMPTY" : "n.nestedSetRight = n.nestedSetLeft + 1")
+                + (tree.getTombstoneCount() > 0 ? TOMBSTONE_FILTER : "")
+                + " ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("fromNestedSetIndex", Math.max(leftNestedSetIndex, afterNestedSetLeft));
+        query.setLong("rightNestedSetIndex", (Long) nodeState[1]);
+        if (maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+
+        return query.list();
+    }
+
+    public long countDescendants(long treeId, long nodeId) {
+        if (isNestedIntervalTree(treeId)) {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return 0;
+            }
+            return (Long) createIntervalQuery("SELECT COUNT(*)", node, false, -1, false).uniqueResult();
+        }
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        Tree tree = this.treeDao.findById(treeId);
+        if (nodeState == null || tree == null) {
+            return 0;
+        }
+
+        long leftNestedSetIndex = (Long) nodeState[0];
+        long rightNestedSetIndex = (Long) nodeState[1];
+        if (tree.getTombstoneCount() > 0) {
+            String hql = "SELECT COUNT(*) FROM Node n WHERE n.tree.id = :treeId AND n.nestedSetLeft > :leftNestedSetIndex AND n.nestedSetRight < :rightNestedSetIndex" + TOMBSTONE_FILTER;
+            Query query = getCurrentSession().createQuery(hql);
+            query.setLong("treeId", treeId);
+            query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+            query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+            return (Long) query.uniqueResult();
+        }
+        if (tree.isSparseNestedSet()) {
+            return countNodesInside(treeId, leftNestedSetIndex, rightNestedSetIndex);
+        }
+        return NestedSetUtils.countDescendants(leftNestedSetIndex, rightNestedSetIndex);
+    }
+
+    public TreeSnapshot loadTreeSnapshot(long treeId) {
+        requireNestedSet(treeId);
+
+        String hql = "SELECT n.id, n.nestedSetLeft, n.nestedSetRight, n.ordinalNumber FROM Node n WHERE n.tree.id = :treeId"
+                + (hasTombstones(treeId) ? TOMBSTONE_FILTER : "")
+                + " ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setReadOnly(true);
+
+        List<Object[]> rows = query.list();
+        int size = rows.size();
+
+        long[] ids = new long[size];
+        long[] nestedSetLefts = new long[size];
+        long[] nestedSetRights = new long[size];
+        int[] ordinalNumbers = new int[size];
+        for (int i = 0; i < size; i++) {
+            Object[] row = rows.get(i);
+            ids[i] = (Long) row[0];
+            nestedSetLefts[i] = (Long) row[1];
+            nestedSetRights[i] = (Long) row[2];
+            ordinalNumbers[i] = (Integer) row[3];
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde ein Schnappschuss von Baum " + treeId + " mit " + size + " Knoten geladen.");
+        }
+        return TreeSnapshot.create(treeId, ids, nestedSetLefts, nestedSetRights, ordinalNumbers);
+    }
+
+    public void visitNestedSetRows(long treeId, NestedSetRowHandler handler) {
+        requireNestedSet(treeId);
+        int depthOffset = findDepthOffset(treeId);
+
+        String hql = "SELECT n.id, p.id, n.ordinalNumber, n.depth, n.nestedSetLeft, n.nestedSetRight FROM Node n LEFT JOIN n.parent p WHERE n.tree.id = :treeId ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setReadOnly(true);
+        query.setFetchSize(STREAM_FETCH_SIZE);
+
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                handler.handleRow(results.getLong(0), results.getLong(1), results.getInteger(2), results.getInteger(3) + depthOffset, results.getLong(4), results.getLong(5));
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Liefert den Tiefen-Offset des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Der Tiefen-Offset; 0 wenn der Baum nicht existiert.
+     */
+    protected int findDepthOffset(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        return (tree == null ? 0 : tree.getDepthOffset());
+    }
+
+    public void visitNodeRows(long treeId, NodeRowHandler handler) {
+        requireNestedSet(treeId);
+
+        String hql = "SELECT n.id, n.nestedSetLeft, n.nestedSetRight, n.ordinalNumber, n.dataSource.id FROM Node n WHERE n.tree.id = :treeId"
+                + (hasTombstones(treeId) ? TOMBSTONE_FILTER : "")
+                + " ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setReadOnly(true);
+        query.setFetchSize(STREAM_FETCH_SIZE);
+
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                handler.handleRow(results.getLong(0), results.getLong(1), results.getLong(2), results.getInteger(3), results.getLong(4));
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    public NodeTable loadNodeTable(long treeId) {
+        requireNestedSet(treeId);
+
+        return loadNodeTableBetween(treeId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public NodeTable loadNodeTable(long treeId, long nodeId) {
+        requireNestedSet(treeId);
+
+        Object[] nodeState = findNestedSetState(treeId, nodeId);
+        if (nodeState == null) {
+            return new NodeTable.Builder(treeId).build();
+        }
+        return loadNodeTableBetween(treeId, (Long) nodeState[0], (Long) nodeState[1]);
+    }
+
+    /**
+     * Streamt die Projektion aller Knoten zwischen den angegebenen Grenzen in
+     * eine {@link NodeTable}.
+     * <p>
+     * Die Abfrage selektiert nur skalare Werte, daher wird keine Entität
+     * erzeugt oder in der Session registriert. Weder der Query-Cache noch der
+     * Second-Level-Cache werden gelesen oder befüllt.
+     * </p>
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param leftNestedSetIndex  Die linke Grenze des Bereichs (inklusiv).
+     * @param rightNestedSetIndex Die rechte Grenze des Bereichs (inklusiv).
+     * @return Die Tabelle.
+     */
+    protected NodeTable loadNodeTableBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        String hql = "SELECT n.id, p.id, n.nestedSetLeft, n.nestedSetRight, n.ordinalNumber, d.id FROM Node n LEFT JOIN n.parent p LEFT JOIN n.dataSource d"
+                + " WHERE n.tree.id = :treeId AND n.nestedSetLeft BETWEEN :leftNestedSetIndex AND :rightNestedSetIndex"
+                + (hasTombstones(treeId) ? TOMBSTONE_FILTER : "")
+                + " ORDER BY n.nestedSetLeft ASC";
+        Query query = getCurrentSession().createQuery(hql);
+        query.setLong("treeId", treeId);
+        query.setLong("leftNestedSetIndex", leftNestedSetIndex);
+        query.setLong("rightNestedSetIndex", rightNestedSetIndex);
+        query.setReadOnly(true);
+        query.setCacheable(false);
+        query.setCacheMode(CacheMode.IGNORE);
+        query.setFetchSize(STREAM_FETCH_SIZE);
+
+        NodeTable.Builder builder = new NodeTable.Builder(treeId);
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                Long parentId = results.getLong(1);
+                Long dataSourceId = results.getLong(5);
+                builder.addRow(results.getLong(0), (parentId == null ? NodeTable.NO_ID : parentId), results.getLong(2), results.getLong(3),
+                        results.getInteger(4), (dataSourceId == null ? NodeTable.NO_ID : dataSourceId));
+            }
+        } finally {
+            results.close();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurde eine Knotentabelle von Baum " + treeId + " mit " + builder.size() + " Zeilen geladen.");
+        }
+        return builder.build();
+    }
+
+    public Tree importTree(String lookupKey, long nestedSetGap, final NodeRowSource source) {
+        Tree tree = new Tree();
+        tree.setLookupKey(lookupKey);
+        tree.setNestedSetGap(nestedSetGap);
+        tree = this.treeDao.save(tree);
+
+        final Session session = getCurrentSession();
+        session.flush();
+
+        // Die Ids werden vom Generator der Knoten erzeugt. Bei IDENTITY
+        // Spalten vergibt die Datenbank die Id.
+        final IdentifierGenerator generator = ((SessionFactoryImplementor) session.getSessionFactory()).getIdentifierGenerator(Node.class.getName());
+        final boolean postInsertId = (generator instanceof PostInsertIdentifierGenerator);
+
+        // Importierte Bäume sind NestedSet-Bäume; die Intervalle bleiben 0.
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getSessionFactory().getClassMetadata(Node.class);
+        final String sql = "INSERT INTO " + persister.getTableName() + " ("
+                + (postInsertId ? "" : persister.getIdentifierColumnNames()[0] + ", ")
+                + persister.getPropertyColumnNames("tree")[0] + ", "
+                + persister.getPropertyColumnNames("ordinalNumber")[0] + ", "
+                + persister.getPropertyColumnNames("nestedSetLeft")[0] + ", "
+                + persister.getPropertyColumnNames("nestedSetRight")[0] + ", "
+                + persister.getPropertyColumnNames("depth")[0] + ", "
+                + persister.getPropertyColumnNames("tombstone")[0] + ", "
+                + persister.getPropertyColumnNames("intervalLeftNumerator")[0] + ", "
+                + persister.getPropertyColumnNames("intervalLeftDenominator")[0] + ", "
+                + persister.getPropertyColumnNames("intervalRightNumerator")[0] + ", "
+                + persister.getPropertyColumnNames("intervalRightDenominator")[0] + ", "
+                + persister.getPropertyColumnNames("dataSource")[0]
+                + ") VALUES (" + (postInsertId ? "" : "?, ") + "?, ?, ?, ?, ?, ?, 0, 0, 0, 0, ?)";
+
+        final long treeId = tree.getId();
+        final long[] firstNestedSetLeft = new long[1];
+        final int[] inserted = new int[1];
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    // Der Stack enthält die rechten Grenzen der offenen Vorfahren.
+                    long[] nestedSetRights = new long[16];
+                    int depth = 0;
+                    long lastNestedSetLeft = Long.MIN_VALUE;
+
+                    while (source.next()) {
+                        long nestedSetLeft = source.getNestedSetLeft();
+                        long nestedSetRight = source.getNestedSetRight();
+                        if (nestedSetLeft <= lastNestedSetLeft || nestedSetRight <= nestedSetLeft) {
+                            throw new IllegalArgumentException("the rows must be ordered by their left bound and have valid bounds; found [" + nestedSetLeft + ", " + nestedSetRight + "] after " + lastNestedSetLeft);
+                        }
+                        if (inserted[0] == 0) {
+                            firstNestedSetLeft[0] = nestedSetLeft;
+                        }
+                        lastNestedSetLeft = nestedSetLeft;
+
+                        while (depth > 0 && nestedSetRights[depth - 1] < nestedSetLeft) {
+                            depth--;
+                        }
+
+                        int column = 1;
+                        if (!postInsertId) {
+                            statement.setLong(column++, ((Number) generator.generate((SessionImplementor) session, null)).longValue());
+                        }
+                        statement.setLong(column++, treeId);
+                        statement.setInt(column++, source.getOrdinalNumber());
+                        statement.setLong(column++, nestedSetLeft);
+                        statement.setLong(column++, nestedSetRight);
+                        statement.setInt(column++, depth);
+                        statement.setBoolean(column++, false);
+                        Long dataSourceId = source.getDataSourceId();
+                        if (dataSourceId == null) {
+                            statement.setNull(column, Types.BIGINT);
+                        } else {
+                            statement.setLong(column, dataSourceId);
+                        }
+                        statement.addBatch();
+                        inserted[0]++;
+
+                        if (depth == nestedSetRights.length) {
+                            nestedSetRights = Arrays.copyOf(nestedSetRights, depth * 2);
+                        }
+                        nestedSetRights[depth++] = nestedSetRight;
+
+                        if (inserted[0] % JDBC_BATCH_SIZE == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+                    if (inserted[0] % JDBC_BATCH_SIZE != 0) {
+                        statement.executeBatch();
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+
+        if (inserted[0] > 0) {
+            connectParents(treeId, Long.MIN_VALUE, Long.MAX_VALUE);
+            tree.setRoot(findNodeForTreeAndLeft(treeId, firstNestedSetLeft[0]));
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden " + inserted[0] + " Knoten in Baum " + treeId + " importiert.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return tree;
+    }
+
+    public int updateNestedSets(long treeId, final long[] nodeIds, final long[] nestedSetLefts, final long[] nestedSetRights, final int[] depths, final int count) {
+        lockTree(treeId);
+        requireNestedSet(treeId);
+
+        final int depthOffset = findDepthOffset(treeId);
+
+        Session session = getCurrentSession();
+        session.flush();
+
+        // Die Spaltennamen werden aus den Hibernate Metadaten gelesen, damit
+        // die Namensstrategie der Anwendung berücksichtigt wird.
+        AbstractEntityPersister persister = (AbstractEntityPersister) session.getSessionFactory().getClassMetadata(Node.class);
+        final String sql = "UPDATE " + persister.getTableName()
+                + " SET " + persister.getPropertyColumnNames("nestedSetLeft")[0] + " = ?, "
+                + persister.getPropertyColumnNames("nestedSetRight")[0] + " = ?, "
+                + persister.getPropertyColumnNames("depth")[0] + " = ?"
+                + " WHERE " + persister.getIdentifierColumnNames()[0] + " = ?";
+
+        final int[] updated = new int[1];
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        statement.setLong(1, nestedSetLefts[i]);
+                        statement.setLong(2, nestedSetRights[i]);
+                        statement.setInt(3, depths[i] - depthOffset);
+                        statement.setLong(4, nodeIds[i]);
+                        statement.addBatch();
+
+                        if ((i + 1) % JDBC_BATCH_SIZE == 0 || i + 1 == count) {
+                            for (int result : statement.executeBatch()) {
+                                updated[0] += (result == PreparedStatement.SUCCESS_NO_INFO ? 1 : result);
+                            }
+                        }
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug("Es wurden, für " + updated[0] + " Knoten, die NestedSet-Grenzen und Tiefen neu geschrieben.");
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return updated[0];
+    }
+
+    public void addTreeChangeListener(TreeChangeListener listener) {
+        this.treeChangeSupport.addTreeChangeListener(listener);
+    }
+
+    public void removeTreeChangeListener(TreeChangeListener listener) {
+        this.treeChangeSupport.removeTreeChangeListener(listener);
+    }
+
+    /**
+     * Setzt die Zeit, die ein Schreiber auf die Sperre eines Baumes wartet.
+     *
+     * @param lockTimeout Die Wartezeit in Millisekunden.
+     */
+    public void setLockTimeout(long lockTimeout) {
+        this.treeLockSupport.setLockTimeout(lockTimeout);
+    }
+
+    /**
+     * Setzt den Kanal für die {@link de.iew.framework.persistence.TreeChangedEvent}s,
+     * die nach dem Commit einer Änderung eines Baumes gesendet werden.
+     *
+     * @param treeChangedEventChannel Der Kanal oder NULL um die Events
+     *                                abzuschalten.
+     */
+    public void setTreeChangedEventChannel(MessageChannel treeChangedEventChannel) {
+        this.treeChangeSupport.setTreeChangedEventChannel(treeChangedEventChannel);
+    }
+
     @Autowired
     public void setNodeDao(NodeDao nodeDao) {
         this.nodeDao = nodeDao;
@@ -29,7 +29,8 @@ import java.util.*;
  * Die Mock-Implementierungen sollen das Schreiben von Unittests erleichtern.
  * </p>
  * <p>
- * Die Implementierung ist nicht Thread-Safe.
+ * Die Methoden dürfen parallel aufgerufen werden. Die gespeicherten
+ * Domainmodelle selbst werden nicht synchronisiert.
  * </p>
  *
  * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
@@ -48,7 +49,7 @@ public abstract class AbstractMockDomainModelDaoImpl<M extends AbstractModel> im
      */
     private final Hashtable<Long, M> models = new Hashtable<Long, M>();
 
-    public M save(M domainModel) {
+    public synchronized M save(M domainModel) {
         if (domainModel.getId() == null) {
             domainModel.setId(newId());
         }
@@ -94,7 +95,7 @@ public abstract class AbstractMockDomainModelDaoImpl<M extends AbstractModel> im
     public void refresh(M domainModel) {
     }
 
-    protected long newId() {
+    protected synchronized long newId() {
         return ++this.lastIdUsed;
     }
 }
@@ -17,16 +17,50 @@
 package de.iew.framework.persistence.mock;
 
 import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Order;
 import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.TreeEncoding;
+import de.iew.framework.domain.utils.DomainModelVisitor;
+import de.iew.framework.domain.utils.NestedIntervalUtils;
+import de.iew.framework.domain.utils.NestedSetUtils;
+import de.iew.framework.domain.utils.TreeEncodingStrategy;
+import de.iew.framework.persistence.ChildPageIterator;
+import de.iew.framework.persistence.NestedSetRowHandler;
 import de.iew.framework.persistence.NodeDao;
+import de.iew.framework.persistence.NodeRowHandler;
+import de.iew.framework.persistence.NodeRowSource;
+import de.iew.framework.persistence.TreeChangeListener;
+import de.iew.framework.persistence.TreeChangeSupport;
 import de.iew.framework.persistence.TreeDao;
+import de.iew.framework.persistence.TreeMutation;
 import de.iew.framework.persistence.TreeOperationDao;
+import de.iew.framework.tree.NodeTable;
+import de.iew.framework.tree.TreeSnapshot;
+import org.springframework.integration.MessageChannel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Mock-Implementierung der {@link de.iew.framework.persistence.TreeOperationDao}-Schnittstelle.
+ * <p>
+ * Die Knoten jedes Baumes werden in einem {@link NestedSetIndex} nach der
+ * linken NestedSet-Grenze sortiert gehalten. Lookups über die Id und die
+ * Bereichsabfragen benötigen damit O(log n) statt eines Durchlaufs über alle
+ * Knoten. Jeder Baum hat eine eigene Lese-/Schreibsperre; die Implementierung
+ * darf parallel verwendet werden. Wird ein Baum an diesem DAO vorbei
+ * verändert, muss {@link #clearIndexes()} aufgerufen werden.
+ * </p>
  *
  * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
  * @since 17.11.12 - 10:08
@@ -37,131 +71,1438 @@ public class MockTreeOperationDaoImpl implements TreeOperationDao {
 
     private NodeDao nodeDao;
 
+    private final TreeChangeSupport treeChangeSupport = new TreeChangeSupport(this);
+
+    private final ConcurrentMap<Long, NestedSetIndex> indexes = new ConcurrentHashMap<Long, NestedSetIndex>();
+
     public Node save(Node domainModel) {
         Tree tree = domainModel.getTree();
+        requireNestedSet(tree.getId());
+        NestedSetIndex index = getIndex(tree.getId());
+
+        index.getLock().writeLock().lock();
+        try {
+            long nestedSetRightToShiftFrom = domainModel.getNestedSetRight() - 2;
 
-        long nestedSetRightToShiftFrom = domainModel.getNestedSetRight() - 2;
+            Node parent = domainModel.getParent();
+            domainModel.setDepth(parent == null ? -tree.getDepthOffset() : parent.getDepth() + 1);
+            index.ensureBuilt(tree);
+            index.shiftBounds(nestedSetRightToShiftFrom, 2);
+            Node savedNode = this.nodeDao.save(domainModel);
+            tree.getNodes().add(savedNode);
+            index.insert(savedNode);
 
-        moveNestedSetBorder(tree.getId(), nestedSetRightToShiftFrom);
-        return this.nodeDao.save(domainModel);
+            this.treeChangeSupport.fireTreeChanged(tree.getId(), savedNode.getNestedSetLeft(), savedNode.getNestedSetRight());
+            return savedNode;
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
     }
 
-    public void incNestedSetBorders(long treeId) {
-        for (Node node : this.nodeDao.findAll()) {
-            if (node.getTree().getId() == treeId) {
-                node.setNestedSetLeft(node.getNestedSetLeft() + 1);
-                node.setNestedSetRight(node.getNestedSetRight() + 1);
+    public Node insertNode(long treeId, long parentId, int ordinalNumber, Node node) {
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            Node parent = findNodeForTreeAndId(treeId, parentId);
+            if (parent == null) {
+                throw new IllegalArgumentException("parent node " + parentId + " does not exist in tree " + treeId);
             }
+            Tree tree = parent.getTree();
+
+            List<Node> children = parent.getChildren();
+            Collections.sort(children, Order.ASCENDING);
+
+            int position = 0;
+            while (position < children.size() && children.get(position).getOrdinalNumber() < ordinalNumber) {
+                position++;
+            }
+            Node previousSibling = (position > 0 ? children.get(position - 1) : null);
+            Node nextSibling = (position < children.size() ? children.get(position) : null);
+
+            if (nextSibling != null) {
+                ordinalNumber = nextSibling.getOrdinalNumber();
+            } else if (previousSibling != null) {
+                ordinalNumber = previousSibling.getOrdinalNumber() + 1;
+            } else {
+                ordinalNumber = 0;
+            }
+
+            node.setTree(tree);
+            node.setParent(parent);
+            node.setOrdinalNumber(ordinalNumber);
+            node.setDepth(parent.getDepth() + 1);
+
+            boolean renumbered = false;
+            long boundShift = 0;
+            if (!placeChild(tree, parent, previousSibling, nextSibling, node)) {
+                long lowerBound = (previousSibling == null ? parent.getNestedSetLeft() : previousSibling.getNestedSetRight());
+                long upperBound = (nextSibling == null ? parent.getNestedSetRight() : nextSibling.getNestedSetLeft());
+
+                if (tree.isSparseNestedSet()) {
+                    renumberForInsert(tree, parent, lowerBound, node);
+                    renumbered = true;
+                } else {
+                    index.ensureBuilt(tree);
+                    index.shiftBounds(upperBound - 1, 2);
+                    node.setNestedSetLeft(upperBound);
+                    node.setNestedSetRight(upperBound + 1);
+                    boundShift = 2;
+                }
+            }
+
+            for (int i = position; i < children.size(); i++) {
+                Node sibling = children.get(i);
+                sibling.setOrdinalNumber(sibling.getOrdinalNumber() + 1);
+            }
+
+            Node savedNode = this.nodeDao.save(node);
+            tree.getNodes().add(savedNode);
+            children.add(position, savedNode);
+            index.insert(savedNode);
+
+            if (renumbered || tree.getEncoding() != TreeEncoding.NESTED_SET) {
+                this.treeChangeSupport.fireTreeChanged(treeId);
+            } else if (tree.getTombstoneCount() > 0) {
+                this.treeChangeSupport.fireTreeChanged(treeId, savedNode.getNestedSetLeft(), savedNode.getNestedSetRight());
+            } else {
+                this.treeChangeSupport.fireNodeInserted(treeId, savedNode.getId(), savedNode.getNestedSetLeft(), savedNode.getNestedSetRight(), savedNode.getOrdinalNumber(), boundShift);
+            }
+            return savedNode;
+        } finally {
+            index.getLock().writeLock().unlock();
         }
     }
 
-    public void moveNestedSetBorder(long treeId, long fromNestedSetIndex) {
-        for (Node node : this.nodeDao.findAll()) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetRight() > fromNestedSetIndex) {
-                    node.setNestedSetRight(node.getNestedSetRight() + 2);
+    /**
+     * Platziert ein neues Kind mit der Kodierung des Baumes. Sind die Nested
+     * Intervals zwischen den Nachbarn erschöpft, werden die Intervalle des
+     * Baumes normalisiert und das Kind erneut platziert.
+     *
+     * @param tree            Der Baum.
+     * @param parent          Der Elternknoten.
+     * @param previousSibling Der vorherige Geschwisterknoten oder NULL.
+     * @param nextSibling     Der nächste Geschwisterknoten oder NULL.
+     * @param node            Das neue Kind.
+     * @return TRUE wenn das Kind ohne Verschieben anderer Knoten platziert
+     *         wurde.
+     */
+    private boolean placeChild(Tree tree, Node parent, Node previousSibling, Node nextSibling, Node node) {
+        TreeEncodingStrategy strategy = tree.getEncoding().getStrategy();
+        try {
+            return strategy.placeChild(tree, parent, previousSibling, nextSibling, node);
+        } catch (IllegalStateException e) {
+            if (tree.getEncoding() != TreeEncoding.NESTED_INTERVALS) {
+                throw e;
+            }
+            renormalizeIntervals(tree);
+            return strategy.placeChild(tree, parent, previousSibling, nextSibling, node);
+        }
+    }
+
+    /**
+     * Ersetzt die Intervalle aller Knoten eines Baumes mit Nested Intervals
+     * durch kleine ganzzahlige Intervalle.
+     *
+     * @param tree Der Baum.
+     */
+    private static void renormalizeIntervals(Tree tree) {
+        List<Node> nodes = new ArrayList<Node>(tree.getNodes());
+        Collections.sort(nodes, tree.getEncoding().getStrategy());
+        NestedIntervalUtils.renormalize(nodes);
+    }
+
+    protected void renumberForInsert(Tree tree, Node parent, long insertAfter, Node node) {
+        long gap = tree.getNestedSetGap();
+        NestedSetIndex index = getIndex(tree.getId());
+        index.ensureBuilt(tree);
+
+        // Die Vorfahren von unten nach oben; ihre Nachfahren liegen im Index
+        // zwischen ihrer linken und rechten Grenze.
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            boolean root = ancestor.getParent() == null;
+
+            int from = index.firstAfter(ancestor.getNestedSetLeft());
+            int to = index.firstAfter(ancestor.getNestedSetRight());
+            List<Node> nodes = new ArrayList<Node>(to - from);
+            for (int position = from; position < to; position++) {
+                nodes.add(index.get(position));
+            }
+            long nodeCount = nodes.size() + 1;
+
+            long spacing;
+            if (root) {
+                spacing = gap + 1;
+            } else {
+                spacing = NestedSetUtils.computeSpacing(ancestor.getNestedSetLeft(), ancestor.getNestedSetRight(), nodeCount, gap);
+                if (spacing < 2) {
+                    continue;
                 }
+            }
+
+            NestedSetUtils.renumber(ancestor.getNestedSetLeft(), spacing, nodes, node, insertAfter);
+            index.refreshBounds(from, to);
+            if (root) {
+                ancestor.setNestedSetRight(NestedSetUtils.computeRight(ancestor.getNestedSetLeft(), spacing, nodeCount));
+            }
+            return;
+        }
+    }
+
+    public void incNestedSetBorders(long treeId) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+            index.shiftBounds(Long.MIN_VALUE, 1);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public Node insertRoot(long treeId, Node node) {
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null) {
+            throw new IllegalArgumentException("tree " + treeId + " does not exist");
+        }
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            node.setTree(tree);
+            node.setParent(null);
+            node.setOrdinalNumber(0);
 
-                if (node.getNestedSetLeft() > fromNestedSetIndex) {
-                    node.setNestedSetLeft(node.getNestedSetLeft() + 2);
+            Node formerRoot = tree.getRoot();
+            try {
+                tree.getEncoding().getStrategy().placeRoot(tree, formerRoot, node);
+            } catch (IllegalStateException e) {
+                if (tree.getEncoding() != TreeEncoding.NESTED_INTERVALS) {
+                    throw e;
                 }
+                renormalizeIntervals(tree);
+                tree.getEncoding().getStrategy().placeRoot(tree, formerRoot, node);
             }
+            if (formerRoot == null) {
+                node.setDepth(-tree.getDepthOffset());
+            } else {
+                node.setDepth(formerRoot.getDepth() - 1);
+                tree.setDepthOffset(tree.getDepthOffset() + 1);
+            }
+
+            node = this.nodeDao.save(node);
+            tree.getNodes().add(node);
+            if (formerRoot != null) {
+                formerRoot.setParent(node);
+                formerRoot.setOrdinalNumber(0);
+                node.getChildren().add(formerRoot);
+            }
+            tree.setRoot(node);
+            index.insert(node);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return node;
+    }
+
+    public int foldDepthOffset(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree == null || tree.getDepthOffset() == 0) {
+            return 0;
+        }
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            index.ensureBuilt(tree);
+            for (int i = 0; i < index.size(); i++) {
+                Node node = index.get(i);
+                node.setDepth(node.getDepth() + tree.getDepthOffset());
+            }
+            tree.setDepthOffset(0);
+        } finally {
+            index.getLock().writeLock().unlock();
         }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return index.size();
+    }
+
+    public void moveNestedSetBorder(long treeId, long fromNestedSetIndex) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+            index.shiftBounds(fromNestedSetIndex, 2);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
     }
 
     public void deleteSingleNode(long treeId, long nodeId) {
-        Node deleteNode = this.nodeDao.findById(nodeId);
+        NestedSetIndex index = getIndex(treeId);
 
-        deleteNode.getTree().getNodes().remove(deleteNode);
-        deleteNode.setTree(null);
+        index.getLock().writeLock().lock();
+        try {
+            Tree tree = this.treeDao.findById(treeId);
+            index.ensureBuilt(tree);
+
+            Node deleteNode = index.findById(nodeId);
+            if (deleteNode == null) {
+                return;
+            }
+            if (tree.getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                deleteIntervalNode(tree, index, deleteNode);
+                this.treeChangeSupport.fireTreeChanged(treeId);
+                return;
+            }
+            int position = index.indexOf(deleteNode);
+
+            reparentChildren(deleteNode);
+            deleteNode.getTree().getNodes().remove(deleteNode);
+            deleteNode.setTree(null);
+
+            this.nodeDao.remove(deleteNode);
+            index.removeAt(position);
+            this.treeChangeSupport.fireTreeChanged(treeId, deleteNode.getNestedSetLeft(), deleteNode.getNestedSetRight());
 
+            // Die Nachfahren rücken um eine Ebene nach oben.
+            long rightNestedSetIndex = deleteNode.getNestedSetRight();
+            int to = index.firstAfter(rightNestedSetIndex);
+            for (int i = position; i < to; i++) {
+                Node descendant = index.get(i);
+                descendant.setDepth(descendant.getDepth() - 1);
+            }
+
+            if (tree.isSparseNestedSet()) {
+                return;
+            }
+
+            // Alle folgenden Grenzen rücken um 2 nach links.
+            index.shiftNodes(position, to, -1);
+            index.shiftBounds(rightNestedSetIndex, -2);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Löscht einen einzelnen Knoten eines Baumes mit Nested Intervals. Die
+     * Kinder rücken an seine Stelle in der Liste der Kinder seines
+     * Elternknotens; die Intervalle bleiben unverändert.
+     *
+     * @param tree       Der Baum.
+     * @param index      Der aufgebaute Index des Baumes.
+     * @param deleteNode Der zu löschende Knoten.
+     * @throws IllegalArgumentException Wenn der Knoten die Wurzel ist.
+     */
+    private void deleteIntervalNode(Tree tree, NestedSetIndex index, Node deleteNode) {
+        if (deleteNode.getParent() == null) {
+            throw new IllegalArgumentException("the root node " + deleteNode.getId() + " of tree " + tree.getId() + " can't be deleted");
+        }
+
+        for (Node descendant : findInsideInterval(index, deleteNode)) {
+            descendant.setDepth(descendant.getDepth() - 1);
+        }
+        reparentChildren(deleteNode);
+
+        // Die Intervalle der übrigen Knoten bleiben unverändert, daher bleibt
+        // auch ihre Reihenfolge im Index erhalten.
+        index.removeAt(index.indexOf(deleteNode));
+        tree.getNodes().remove(deleteNode);
+        deleteNode.setTree(null);
         this.nodeDao.remove(deleteNode);
+    }
+
+    /**
+     * Hängt die Kinder des angegebenen Knotens an seinen Elternknoten. Die
+     * Kinder rücken an die Stelle des Knotens in der Liste der Kinder seines
+     * Elternknotens; der Knoten selbst wird aus dieser Liste entfernt.
+     *
+     * @param deleteNode Der zu löschende Knoten.
+     * @throws IllegalArgumentException Wenn der Knoten die Wurzel ist und
+     *                                  Kinder hat.
+     */
+    private void reparentChildren(Node deleteNode) {
+        Node parent = deleteNode.getParent();
+        List<Node> children = new ArrayList<Node>(deleteNode.getChildren());
+        if (parent == null) {
+            if (!children.isEmpty()) {
+                throw new IllegalArgumentException("the root node " + deleteNode.getId() + " can't be deleted while it has children");
+            }
+            return;
+        }
+        Collections.sort(children, Order.ASCENDING);
+
+        List<Node> siblings = parent.getChildren();
+        int position = siblings.indexOf(deleteNode);
+        if (position < 0) {
+            position = siblings.size();
+        } else {
+            siblings.remove(position);
+        }
+        if (!children.isEmpty()) {
+            int firstOrdinalNumber = children.get(0).getOrdinalNumber();
+            int lastOrdinalNumber = children.get(children.size() - 1).getOrdinalNumber();
+
+            // Die folgenden Geschwister machen Platz für die Kinder.
+            for (Node sibling : siblings) {
+                if (sibling.getOrdinalNumber() > deleteNode.getOrdinalNumber()) {
+                    sibling.setOrdinalNumber(sibling.getOrdinalNumber() + lastOrdinalNumber - firstOrdinalNumber);
+                }
+            }
+            for (Node child : children) {
+                child.setParent(parent);
+                child.setOrdinalNumber(child.getOrdinalNumber() + deleteNode.getOrdinalNumber() - firstOrdinalNumber);
+            }
+            siblings.addAll(position, children);
+            deleteNode.getChildren().clear();
+        }
+    }
+
+    public void deleteNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+        long boundShift = 0;
+
+        index.getLock().writeLock().lock();
+        try {
+            Tree tree = this.treeDao.findById(treeId);
+            index.ensureBuilt(tree);
+
+            int from = index.firstAfter(leftNestedSetIndex - 1);
+            int to = index.firstAfter(rightNestedSetIndex);
+
+            Set<Node> deleteCandidates = new HashSet<Node>();
+            for (int position = from; position < to; position++) {
+                Node node = index.get(position);
+                if (node.getNestedSetRight() <= rightNestedSetIndex) {
+                    if (node.equals(tree.getRoot())) {
+                        tree.setRoot(null);
+                    }
 
-        Node[] nodes = this.nodeDao.findAll().toArray(new Node[0]);
-        for (Node node : nodes) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetLeft() >= deleteNode.getNestedSetLeft() && node.getNestedSetLeft() <= deleteNode.getNestedSetRight()) {
-                    node.setNestedSetLeft(node.getNestedSetLeft() - 1);
-                    node.setNestedSetRight(node.getNestedSetRight() - 1);
+                    deleteCandidates.add(node);
+                    this.nodeDao.remove(node);
                 }
             }
+            index.removeAll(from, to, deleteCandidates);
+
+            if (!tree.isSparseNestedSet()) {
+                boundShift = -(rightNestedSetIndex - leftNestedSetIndex + 1);
+                index.shiftBounds(rightNestedSetIndex, boundShift);
+            }
+
+            for (Node node : deleteCandidates) {
+                tree.getNodes().remove(node);
+                node.setTree(null);
+            }
+        } finally {
+            index.getLock().writeLock().unlock();
         }
 
-        for (Node node : nodes) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetLeft() > deleteNode.getNestedSetRight()) {
-                    node.setNestedSetLeft(node.getNestedSetLeft() - 2);
+        this.treeChangeSupport.fireSubtreeRemoved(treeId, leftNestedSetIndex, rightNestedSetIndex, boundShift);
+    }
+
+    public void markTombstone(long treeId, long nodeId) {
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                throw new IllegalArgumentException("node " + nodeId + " does not exist in tree " + treeId);
+            }
+            if (node.getParent() == null) {
+                throw new IllegalArgumentException("the root node " + nodeId + " can't be tombstoned");
+            }
+            if (isTombstoned(node)) {
+                throw new IllegalArgumentException("node " + nodeId + " is already part of a tombstoned subtree");
+            }
+
+            node.setTombstone(true);
+            updateTombstoneCount(node.getTree(), index);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+    }
+
+    public int deleteTombstoneChunk(long treeId, long nodeId, int maxNodes) {
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node == null) {
+                return 0;
+            }
+            Tree tree = node.getTree();
+
+            List<Node> descendants = new ArrayList<Node>();
+            if (tree.getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                descendants.addAll(findInsideInterval(index, node));
+            } else {
+                int to = index.firstAfter(node.getNestedSetRight());
+                for (int position = index.firstAfter(node.getNestedSetLeft()); position < to; position++) {
+                    descendants.add(index.get(position));
+                }
+            }
+            Collections.sort(descendants, new Comparator<Node>() {
+                public int compare(Node o1, Node o2) {
+                    return o2.getDepth() - o1.getDepth();
                 }
+            });
+
+            int deleted = Math.min(maxNodes, descendants.size());
+            for (Node descendant : descendants.subList(0, deleted)) {
+                descendant.getParent().getChildren().remove(descendant);
+                tree.getNodes().remove(descendant);
+                this.nodeDao.remove(descendant);
+                descendant.setTree(null);
             }
+            index.invalidate();
+            return deleted;
+        } finally {
+            index.getLock().writeLock().unlock();
         }
+    }
+
+    public void removeTombstone(long treeId, long nodeId) {
+        NestedSetIndex index = getIndex(treeId);
 
-        for (Node node : nodes) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetRight() > deleteNode.getNestedSetRight()) {
-                    node.setNestedSetRight(node.getNestedSetRight() - 2);
+        index.getLock().writeLock().lock();
+        try {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            if (node != null) {
+                node.getParent().getChildren().remove(node);
+                if (node.getTree().getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                    // Die Lücke in den Intervallen bleibt frei.
+                    List<Node> removedNodes = findInsideInterval(index, node);
+                    removedNodes.add(node);
+                    for (Node removedNode : removedNodes) {
+                        removedNode.getTree().getNodes().remove(removedNode);
+                        this.nodeDao.remove(removedNode);
+                        removedNode.setTree(null);
+                    }
+                    index.invalidate();
+                } else {
+                    deleteNodesBetween(treeId, node.getNestedSetLeft(), node.getNestedSetRight());
                 }
             }
+            Tree tree = this.treeDao.findById(treeId);
+            if (tree != null) {
+                updateTombstoneCount(tree, index);
+            }
+        } finally {
+            index.getLock().writeLock().unlock();
         }
 
+        this.treeChangeSupport.fireTreeChanged(treeId);
     }
 
-    public void deleteNodesBetween(long treeId, long leftNestedSetIndex, long rightNestedSetIndex) {
-        List<Node> deleteCandidates = new ArrayList<Node>();
-
-        Node[] nodes = this.nodeDao.findAll().toArray(new Node[0]);
-        for (Node node : nodes) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetLeft() >= leftNestedSetIndex && node.getNestedSetRight() <= rightNestedSetIndex) {
-                    if (node.equals(node.getTree().getRoot())) {
-                        node.getTree().setRoot(null);
+    public long[] findTombstones(long treeId) {
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            List<Long> nodeIds = new ArrayList<Long>();
+            for (int i = 0; i < index.size(); i++) {
+                if (index.get(i).isTombstone()) {
+                    nodeIds.add(index.get(i).getId());
+                }
+            }
+            long[] result = new long[nodeIds.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = nodeIds.get(i);
+            }
+            return result;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    private void updateTombstoneCount(Tree tree, NestedSetIndex index) {
+        index.ensureBuilt(tree);
+
+        int tombstoneCount = 0;
+        for (int i = 0; i < index.size(); i++) {
+            if (index.get(i).isTombstone()) {
+                tombstoneCount++;
+            }
+        }
+        tree.setTombstoneCount(tombstoneCount);
+    }
+
+    /**
+     * Prüft ob der angegebene Knoten oder einer seiner Vorfahren markiert ist.
+     *
+     * @param node Der Knoten.
+     * @return TRUE wenn der Knoten zu einem markierten Teilbaum gehört.
+     */
+    private static boolean isTombstoned(Node node) {
+        if (node.getTree() == null || node.getTree().getTombstoneCount() == 0) {
+            return node.isTombstone();
+        }
+        for (Node ancestor = node; ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.isTombstone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void moveSubtree(long treeId, long nodeId, long newParentId, int ordinalNumber) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            Node node = findNodeForTreeAndId(treeId, nodeId);
+            Node newParent = findNodeForTreeAndId(treeId, newParentId);
+            if (node == null || newParent == null) {
+                throw new IllegalArgumentException("node " + nodeId + " or parent node " + newParentId + " does not exist in tree " + treeId);
+            }
+            if (node.getParent() == null) {
+                throw new IllegalArgumentException("the root node " + nodeId + " can't be moved");
+            }
+            if (newParent.getNestedSetLeft() >= node.getNestedSetLeft() && newParent.getNestedSetRight() <= node.getNestedSetRight()) {
+                throw new IllegalArgumentException("node " + nodeId + " can't be moved below its own subtree");
+            }
+
+            List<Node> oldSiblings = node.getParent().getChildren();
+            oldSiblings.remove(node);
+            for (Node sibling : oldSiblings) {
+                if (sibling.getOrdinalNumber() > node.getOrdinalNumber()) {
+                    sibling.setOrdinalNumber(sibling.getOrdinalNumber() - 1);
+                }
+            }
+
+            List<Node> newSiblings = newParent.getChildren();
+            Collections.sort(newSiblings, Order.ASCENDING);
+            int position = Math.max(0, Math.min(ordinalNumber, newSiblings.size()));
+
+            long targetNestedSetIndex = (position < newSiblings.size() ? newSiblings.get(position).getNestedSetLeft() : newParent.getNestedSetRight());
+            long left = node.getNestedSetLeft();
+            long right = node.getNestedSetRight();
+            long width = right - left + 1;
+            int depthDelta = newParent.getDepth() + 1 - node.getDepth();
+
+            for (Node candidate : node.getTree().getNodes()) {
+                if (candidate.getNestedSetLeft() >= left && candidate.getNestedSetLeft() <= right) {
+                    candidate.setDepth(candidate.getDepth() + depthDelta);
+                }
+                candidate.setNestedSetLeft(moveNestedSetIndex(candidate.getNestedSetLeft(), left, right, width, targetNestedSetIndex));
+                candidate.setNestedSetRight(moveNestedSetIndex(candidate.getNestedSetRight(), left, right, width, targetNestedSetIndex));
+            }
+
+            for (int i = position; i < newSiblings.size(); i++) {
+                newSiblings.get(i).setOrdinalNumber(i + 1);
+            }
+            node.setParent(newParent);
+            node.setOrdinalNumber(position);
+            newSiblings.add(position, node);
+            index.invalidate();
+
+            this.treeChangeSupport.fireTreeChanged(treeId);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+    }
+
+    public void reorderChildren(long treeId, long parentId, long[] orderedChildIds) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().writeLock().lock();
+        try {
+            Node parent = findNodeForTreeAndId(treeId, parentId);
+            if (parent == null) {
+                throw new IllegalArgumentException("parent node " + parentId + " does not exist in tree " + treeId);
+            }
+
+            List<Node> children = parent.getChildren();
+            Collections.sort(children, Order.ASCENDING);
+            int count = children.size();
+            long[] childIds = new long[count];
+            long[] lefts = new long[count];
+            long[] rights = new long[count];
+            for (int i = 0; i < count; i++) {
+                Node child = children.get(i);
+                childIds[i] = child.getId();
+                lefts[i] = child.getNestedSetLeft();
+                rights[i] = child.getNestedSetRight();
+            }
+            int[] order = NestedSetUtils.resolveOrder(childIds, orderedChildIds);
+            long[] deltas = NestedSetUtils.computeReorderDeltas(lefts, rights, order);
+
+            for (Node candidate : parent.getTree().getNodes()) {
+                for (int i = 0; i < count; i++) {
+                    if (candidate.getNestedSetLeft() >= lefts[i] && candidate.getNestedSetRight() <= rights[i]) {
+                        candidate.setNestedSetLeft(candidate.getNestedSetLeft() + deltas[i]);
+                        candidate.setNestedSetRight(candidate.getNestedSetRight() + deltas[i]);
+                        break;
                     }
+                }
+            }
 
-                    deleteCandidates.add(node);
-                    this.nodeDao.remove(node);
+            List<Node> reordered = new ArrayList<Node>(count);
+            for (int i = 0; i < count; i++) {
+                Node child = children.get(order[i]);
+                child.setOrdinalNumber(i);
+                reordered.add(child);
+            }
+            children.clear();
+            children.addAll(reordered);
+            index.invalidate();
+
+            this.treeChangeSupport.fireTreeChanged(treeId);
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+    }
+
+    public Tree copyTree(long sourceTreeId, String newLookupKey) {
+        requireNestedSet(sourceTreeId);
+        Tree sourceTree = this.treeDao.findById(sourceTreeId);
+        if (sourceTree == null) {
+            throw new IllegalArgumentException("tree " + sourceTreeId + " does not exist");
+        }
+
+        Tree tree = new Tree();
+        tree.setLookupKey(newLookupKey);
+        tree.setNestedSetGap(sourceTree.getNestedSetGap());
+        tree.setDepthOffset(sourceTree.getDepthOffset());
+        tree = this.treeDao.save(tree);
+
+        NestedSetIndex index = getIndex(sourceTreeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(sourceTree);
+            if (index.size() > 0) {
+                List<Node> originals = new ArrayList<Node>();
+                for (int i = 0; i < index.size(); i++) {
+                    originals.add(index.get(i));
                 }
+                tree.setRoot(copyNodes(originals, collectNestedSetBounds(originals), tree, null, 0, 0));
             }
+        } finally {
+            index.getLock().readLock().unlock();
         }
 
-        for (Node node : nodes) {
-            if (node.getTree().getId() == treeId) {
-                if (node.getNestedSetLeft() > rightNestedSetIndex) {
-                    node.setNestedSetLeft(node.getNestedSetLeft() - Math.round(rightNestedSetIndex - leftNestedSetIndex + 1));
+        this.treeChangeSupport.fireTreeChanged(tree.getId());
+        return tree;
+    }
+
+    public Node copySubtree(long sourceTreeId, long nodeId, long targetTreeId, long targetParentId, int ordinalNumber) {
+        requireNestedSet(sourceTreeId);
+        requireNestedSet(targetTreeId);
+        NestedSetIndex targetIndex = getIndex(targetTreeId);
+
+        targetIndex.getLock().writeLock().lock();
+        try {
+            Node node = findNodeForTreeAndId(sourceTreeId, nodeId);
+            Node targetParent = findNodeForTreeAndId(targetTreeId, targetParentId);
+            if (node == null || targetParent == null) {
+                throw new IllegalArgumentException("node " + nodeId + " or parent node " + targetParentId + " does not exist");
+            }
+            Tree targetTree = targetParent.getTree();
+            if (node.getTree().getNestedSetGap() != targetTree.getNestedSetGap()) {
+                throw new IllegalArgumentException("tree " + sourceTreeId + " and tree " + targetTreeId + " use different nested set gaps");
+            }
+            if (sourceTreeId == targetTreeId && targetParent.getNestedSetLeft() >= node.getNestedSetLeft() && targetParent.getNestedSetRight() <= node.getNestedSetRight()) {
+                throw new IllegalArgumentException("node " + nodeId + " can't be copied below its own subtree");
+            }
+
+            // Die Originale werden vor dem Verschieben der Grenzen gesammelt,
+            // damit eine Kopie innerhalb desselben Baumes keine Rolle spielt.
+            List<Node> originals = findDescendants(sourceTreeId, nodeId, -1);
+            originals.add(0, node);
+            long[] nestedSetBounds = collectNestedSetBounds(originals);
+
+            List<Node> siblings = targetParent.getChildren();
+            Collections.sort(siblings, Order.ASCENDING);
+            int position = 0;
+            while (position < siblings.size() && siblings.get(position).getOrdinalNumber() < ordinalNumber) {
+                position++;
+            }
+
+            long targetNestedSetIndex = (position < siblings.size() ? siblings.get(position).getNestedSetLeft() : targetParent.getNestedSetRight());
+            int newOrdinalNumber;
+            if (position < siblings.size()) {
+                newOrdinalNumber = siblings.get(position).getOrdinalNumber();
+            } else {
+                newOrdinalNumber = (siblings.isEmpty() ? 0 : siblings.get(siblings.size() - 1).getOrdinalNumber() + 1);
+            }
+
+            long offset = targetNestedSetIndex - node.getNestedSetLeft();
+            long delta = node.getNestedSetRight() - node.getNestedSetLeft() + targetTree.getNestedSetGap() + 1;
+            for (Node candidate : targetTree.getNodes()) {
+                if (candidate.getNestedSetLeft() >= targetNestedSetIndex) {
+                    candidate.setNestedSetLeft(candidate.getNestedSetLeft() + delta);
                 }
-                if (node.getNestedSetRight() > rightNestedSetIndex) {
-                    node.setNestedSetRight(node.getNestedSetRight() - Math.round(rightNestedSetIndex - leftNestedSetIndex + 1));
+                if (candidate.getNestedSetRight() >= targetNestedSetIndex) {
+                    candidate.setNestedSetRight(candidate.getNestedSetRight() + delta);
                 }
             }
+            for (int i = position; i < siblings.size(); i++) {
+                Node sibling = siblings.get(i);
+                sibling.setOrdinalNumber(sibling.getOrdinalNumber() + 1);
+            }
+
+            Node copy = copyNodes(originals, nestedSetBounds, targetTree, targetParent, offset, targetParent.getDepth() + 1 - node.getDepth());
+            copy.setOrdinalNumber(newOrdinalNumber);
+            siblings.add(position, copy);
+            targetIndex.invalidate();
+
+            this.treeChangeSupport.fireTreeChanged(targetTreeId);
+            return copy;
+        } finally {
+            targetIndex.getLock().writeLock().unlock();
         }
+    }
 
-        for (Node node : deleteCandidates) {
-            node.getTree().getNodes().remove(node);
-            node.setTree(null);
+    private static long[] collectNestedSetBounds(List<Node> nodes) {
+        long[] nestedSetBounds = new long[nodes.size() * 2];
+        for (int i = 0; i < nodes.size(); i++) {
+            nestedSetBounds[2 * i] = nodes.get(i).getNestedSetLeft();
+            nestedSetBounds[2 * i + 1] = nodes.get(i).getNestedSetRight();
         }
+        return nestedSetBounds;
     }
 
-    public Node findRootNodeForTree(long treeId) {
-        Node treeRoot = null;
+    /**
+     * Kopiert die angegebenen Knoten in den angegebenen Baum. Die kopierte
+     * Wurzel wird nicht zu den Kindern ihres Elternknotens hinzugefügt.
+     *
+     * @param originals       Die zu kopierenden Knoten in Pre-Order; der erste
+     *                        Knoten ist die Wurzel des kopierten Teilbaumes.
+     * @param nestedSetBounds Die linken und rechten Grenzen der Originale.
+     * @param tree            Der Zielbaum.
+     * @param parent          Der Elternknoten der kopierten Wurzel oder NULL.
+     * @param offset          Der Abstand zwischen den Grenzen einer Kopie und
+     *                        ihres Originals.
+     * @param depthOffset     Der Abstand zwischen der Tiefe einer Kopie und
+     *                        ihres Originals.
+     * @return Die Kopie des ersten Knotens.
+     */
+    private Node copyNodes(List<Node> originals, long[] nestedSetBounds, Tree tree, Node parent, long offset, int depthOffset) {
+        Map<Node, Node> copies = new HashMap<Node, Node>();
+        List<Node> created = new ArrayList<Node>();
+        int tombstones = 0;
+        for (int i = 0; i < originals.size(); i++) {
+            Node original = originals.get(i);
+            Node copy = new Node();
+            copy.setTree(tree);
+            copy.setOrdinalNumber(original.getOrdinalNumber());
+            copy.setNestedSetLeft(nestedSetBounds[2 * i] + offset);
+            copy.setNestedSetRight(nestedSetBounds[2 * i + 1] + offset);
+            copy.setDepth(original.getDepth() + depthOffset);
+            copy.setTombstone(original.isTombstone());
+            copy.setIntervalLeftNumerator(original.getIntervalLeftNumerator());
+            copy.setIntervalLeftDenominator(original.getIntervalLeftDenominator());
+            copy.setIntervalRightNumerator(original.getIntervalRightNumerator());
+            copy.setIntervalRightDenominator(original.getIntervalRightDenominator());
+            if (copy.isTombstone()) {
+                tombstones++;
+            }
+
+            Node copyParent = (i == 0 ? parent : copies.get(original.getParent()));
+            copy.setParent(copyParent);
+            copy = this.nodeDao.save(copy);
+            if (i > 0) {
+                copyParent.getChildren().add(copy);
+            }
+
+            copies.put(original, copy);
+            created.add(copy);
+        }
+        tree.getNodes().addAll(created);
+        tree.setTombstoneCount(tree.getTombstoneCount() + tombstones);
+        return created.get(0);
+    }
+
+    private static long moveNestedSetIndex(long nestedSetIndex, long left, long right, long width, long targetNestedSetIndex) {
+        if (targetNestedSetIndex > right) {
+            if (nestedSetIndex >= left && nestedSetIndex <= right) {
+                return nestedSetIndex + targetNestedSetIndex - right - 1;
+            } else if (nestedSetIndex > right && nestedSetIndex < targetNestedSetIndex) {
+                return nestedSetIndex - width;
+            }
+        } else if (targetNestedSetIndex < left) {
+            if (nestedSetIndex >= left && nestedSetIndex <= right) {
+                return nestedSetIndex + targetNestedSetIndex - left;
+            } else if (nestedSetIndex >= targetNestedSetIndex && nestedSetIndex < left) {
+                return nestedSetIndex + width;
+            }
+        }
+        return nestedSetIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung wendet die Änderungen nacheinander an.
+     * </p>
+     */
+    public void applyMutations(long treeId, List<TreeMutation> mutations) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
 
-        for (Tree tree : this.treeDao.findAll()) {
-            if (tree.getId() == treeId) {
-                treeRoot = tree.getRoot();
+        index.getLock().writeLock().lock();
+        try {
+            for (TreeMutation mutation : mutations) {
+                switch (mutation.getType()) {
+                    case INSERT:
+                        save(mutation.getNode());
+                        break;
+
+                    case DELETE_NODE:
+                        if (findNodeForTreeAndId(treeId, mutation.getNodeId()) != null) {
+                            deleteSingleNode(treeId, mutation.getNodeId());
+                        }
+                        break;
+
+                    case DELETE_RANGE:
+                        deleteNodesBetween(treeId, mutation.getLeftNestedSetIndex(), mutation.getRightNestedSetIndex());
+                        break;
+                }
             }
+        } finally {
+            index.getLock().writeLock().unlock();
         }
+    }
 
-        return treeRoot;
+    public Node findRootNodeForTree(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        return (tree == null ? null : tree.getRoot());
     }
 
     public Node findNodeForTreeAndId(long treeId, long nodeId) {
-        for (Tree tree : this.treeDao.findAll()) {
-            if (tree.getId() == treeId) {
-                for (Node node : tree.getNodes()) {
-                    if (node.getId() == nodeId) {
-                        return node;
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+            return index.findById(nodeId);
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung liefert den bestehenden Objektgraphen.
+     * </p>
+     */
+    public Node loadTree(long treeId) {
+        return findRootNodeForTree(treeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung liefert den bestehenden Objektgraphen.
+     * </p>
+     */
+    public Node loadSubtree(long treeId, long nodeId) {
+        return findNodeForTreeAndId(treeId, nodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung liefert den bestehenden Objektgraphen; die
+     * Ebenen unterhalb von <code>maxDepth</code> werden nicht abgeschnitten.
+     * </p>
+     */
+    public Node findSubtreeToDepth(long treeId, long nodeId, int maxDepth) {
+        return findNodeForTreeAndId(treeId, nodeId);
+    }
+
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth) {
+        return findDescendants(treeId, nodeId, maxDepth, Long.MIN_VALUE, -1);
+    }
+
+    public List<Node> findDescendants(long treeId, long nodeId, int maxDepth, long afterNestedSetLeft, int maxResults) {
+        NestedSetIndex index = getIndex(treeId);
+        List<Node> descendants = new ArrayList<Node>();
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node node = index.findById(nodeId);
+            if (node == null) {
+                return descendants;
+            }
+            if (node.getTree().getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                for (Node candidate : findInsideInterval(index, node)) {
+                    if (maxResults > 0 && descendants.size() == maxResults) {
+                        break;
+                    }
+                    if ((maxDepth < 0 || candidate.getDepth() - node.getDepth() <= maxDepth) && !isTombstoned(candidate)) {
+                        descendants.add(candidate);
+                    }
+                }
+                return descendants;
+            }
+
+            int to = index.firstAfter(node.getNestedSetRight());
+            for (int position = index.firstAfter(Math.max(node.getNestedSetLeft(), afterNestedSetLeft)); position < to; position++) {
+                if (maxResults > 0 && descendants.size() == maxResults) {
+                    break;
+                }
+                Node candidate = index.get(position);
+                if ((maxDepth < 0 || candidate.getDepth() - node.getDepth() <= maxDepth) && !isTombstoned(candidate)) {
+                    descendants.add(candidate);
+                }
+            }
+            return descendants;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public void visitDescendants(long treeId, long nodeId, int maxDepth, DomainModelVisitor<Node, ?> visitor) {
+        for (Node node : findDescendants(treeId, nodeId, maxDepth)) {
+            visitor.visit(node);
+        }
+    }
+
+    public List<Node> findChildren(long treeId, long parentId, int afterOrdinalNumber, int maxResults) {
+        NestedSetIndex index = getIndex(treeId);
+        List<Node> children = new ArrayList<Node>();
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node parent = index.findById(parentId);
+            if (parent == null) {
+                return children;
+            }
+
+            List<Node> candidates = new ArrayList<Node>(parent.getChildren());
+            Collections.sort(candidates, Order.ASCENDING);
+            for (Node candidate : candidates) {
+                if (maxResults > 0 && children.size() == maxResults) {
+                    break;
+                }
+                if (candidate.getOrdinalNumber() > afterOrdinalNumber && !isTombstoned(candidate)) {
+                    children.add(candidate);
+                }
+            }
+            return children;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public Iterator<Node> iterateChildren(long treeId, long parentId, int pageSize) {
+        return new ChildPageIterator(this, treeId, parentId, pageSize);
+    }
+
+    public List<Node> findAncestors(long treeId, long nodeId) {
+        NestedSetIndex index = getIndex(treeId);
+        List<Node> ancestors = new ArrayList<Node>();
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node node = index.findById(nodeId);
+            if (node != null) {
+                for (Node ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                    ancestors.add(ancestor);
+                }
+                Collections.reverse(ancestors);
+            }
+            return ancestors;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public List<Node> pathToRoot(long treeId, long nodeId) {
+        Node node = findNodeForTreeAndId(treeId, nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<Node> path = findAncestors(treeId, nodeId);
+        path.add(node);
+        return path;
+    }
+
+    public Node lowestCommonAncestor(long treeId, long nodeId1, long nodeId2) {
+        List<Node> path1 = pathToRoot(treeId, nodeId1);
+        List<Node> path2 = pathToRoot(treeId, nodeId2);
+
+        Node ancestor = null;
+        for (int i = 0; i < path1.size() && i < path2.size() && path1.get(i) == path2.get(i); i++) {
+            ancestor = path1.get(i);
+        }
+        return ancestor;
+    }
+
+    public List<Node> findLeaves(long treeId, long nodeId) {
+        return findLeaves(treeId, nodeId, Long.MIN_VALUE, -1);
+    }
+
+    public List<Node> findLeaves(long treeId, long nodeId, long afterNestedSetLeft, int maxResults) {
+        NestedSetIndex index = getIndex(treeId);
+        List<Node> leaves = new ArrayList<Node>();
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node node = index.findById(nodeId);
+            if (node == null) {
+                return leaves;
+            }
+            if (node.getTree().getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                for (Node candidate : findInsideInterval(index, node)) {
+                    if (maxResults > 0 && leaves.size() == maxResults) {
+                        break;
+                    }
+                    if (candidate.getChildren().isEmpty() && !isTombstoned(candidate)) {
+                        leaves.add(candidate);
                     }
                 }
+                return leaves;
+            }
+
+            int to = index.firstAfter(node.getNestedSetRight());
+            for (int position = index.firstAfter(Math.max(node.getNestedSetLeft(), afterNestedSetLeft)); position < to; position++) {
+                if (maxResults > 0 && leaves.size() == maxResults) {
+                    break;
+                }
+                Node candidate = index.get(position);
+                if (candidate.getChildren().isEmpty() && !isTombstoned(candidate)) {
+                    leaves.add(candidate);
+                }
+            }
+            return leaves;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public long countDescendants(long treeId, long nodeId) {
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node node = index.findById(nodeId);
+            if (node == null) {
+                return 0;
+            }
+            if (node.getTree().getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+                long count = 0;
+                for (Node candidate : findInsideInterval(index, node)) {
+                    if (!isTombstoned(candidate)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+
+            int from = index.firstAfter(node.getNestedSetLeft());
+            int to = index.firstAfter(node.getNestedSetRight());
+            int count = to - from;
+            if (node.getTree().getTombstoneCount() > 0) {
+                for (int position = from; position < to; position++) {
+                    if (isTombstoned(index.get(position))) {
+                        count--;
+                    }
+                }
+            }
+            return count;
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public TreeSnapshot loadTreeSnapshot(long treeId) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            int size = 0;
+            long[] ids = new long[index.size()];
+            long[] nestedSetLefts = new long[index.size()];
+            long[] nestedSetRights = new long[index.size()];
+            int[] ordinalNumbers = new int[index.size()];
+            for (int i = 0; i < index.size(); i++) {
+                Node node = index.get(i);
+                if (isTombstoned(node)) {
+                    continue;
+                }
+                ids[size] = node.getId();
+                nestedSetLefts[size] = node.getNestedSetLeft();
+                nestedSetRights[size] = node.getNestedSetRight();
+                ordinalNumbers[size] = node.getOrdinalNumber();
+                size++;
+            }
+            return TreeSnapshot.create(treeId, Arrays.copyOf(ids, size), Arrays.copyOf(nestedSetLefts, size), Arrays.copyOf(nestedSetRights, size), Arrays.copyOf(ordinalNumbers, size));
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public void visitNestedSetRows(long treeId, NestedSetRowHandler handler) {
+        requireNestedSet(treeId);
+        Tree tree = this.treeDao.findById(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(tree);
+
+            for (int i = 0; i < index.size(); i++) {
+                Node node = index.get(i);
+                Long parentId = (node.getParent() == null ? null : node.getParent().getId());
+                handler.handleRow(node.getId(), parentId, node.getOrdinalNumber(), node.getDepth() + tree.getDepthOffset(), node.getNestedSetLeft(), node.getNestedSetRight());
+            }
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public void visitNodeRows(long treeId, NodeRowHandler handler) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            for (int i = 0; i < index.size(); i++) {
+                Node node = index.get(i);
+                if (isTombstoned(node)) {
+                    continue;
+                }
+                Long dataSourceId = (node.getDataSource() == null ? null : node.getDataSource().getId());
+                handler.handleRow(node.getId(), node.getNestedSetLeft(), node.getNestedSetRight(), node.getOrdinalNumber(), dataSourceId);
+            }
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    public NodeTable loadNodeTable(long treeId) {
+        Node root = findRootNodeForTree(treeId);
+        if (root == null) {
+            return new NodeTable.Builder(treeId).build();
+        }
+        return loadNodeTable(treeId, root.getId());
+    }
+
+    public NodeTable loadNodeTable(long treeId, long nodeId) {
+        requireNestedSet(treeId);
+        NestedSetIndex index = getIndex(treeId);
+        NodeTable.Builder builder = new NodeTable.Builder(treeId);
+
+        index.getLock().readLock().lock();
+        try {
+            index.ensureBuilt(this.treeDao.findById(treeId));
+
+            Node node = index.findById(nodeId);
+            if (node == null) {
+                return builder.build();
+            }
+
+            int to = index.firstAfter(node.getNestedSetRight());
+            for (int position = index.indexOf(node); position < to; position++) {
+                Node candidate = index.get(position);
+                if (isTombstoned(candidate)) {
+                    continue;
+                }
+                long parentId = (candidate.getParent() == null ? NodeTable.NO_ID : candidate.getParent().getId());
+                long dataSourceId = (candidate.getDataSource() == null ? NodeTable.NO_ID : candidate.getDataSource().getId());
+                builder.addRow(candidate.getId(), parentId, candidate.getNestedSetLeft(), candidate.getNestedSetRight(), candidate.getOrdinalNumber(), dataSourceId);
+            }
+            return builder.build();
+        } finally {
+            index.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung verknüpft die Datenquellen nicht.
+     * </p>
+     */
+    public Tree importTree(String lookupKey, long nestedSetGap, NodeRowSource source) {
+        Tree tree = new Tree();
+        tree.setLookupKey(lookupKey);
+        tree.setNestedSetGap(nestedSetGap);
+        tree = this.treeDao.save(tree);
+
+        List<Node> path = new ArrayList<Node>();
+        long lastNestedSetLeft = Long.MIN_VALUE;
+        while (source.next()) {
+            if (source.getNestedSetLeft() <= lastNestedSetLeft || source.getNestedSetRight() <= source.getNestedSetLeft()) {
+                throw new IllegalArgumentException("the rows must be ordered by their left bound and have valid bounds; found [" + source.getNestedSetLeft() + ", " + source.getNestedSetRight() + "] after " + lastNestedSetLeft);
+            }
+            lastNestedSetLeft = source.getNestedSetLeft();
+
+            while (!path.isEmpty() && path.get(path.size() - 1).getNestedSetRight() < source.getNestedSetLeft()) {
+                path.remove(path.size() - 1);
+            }
+
+            Node node = new Node();
+            node.setTree(tree);
+            node.setOrdinalNumber(source.getOrdinalNumber());
+            node.setNestedSetLeft(source.getNestedSetLeft());
+            node.setNestedSetRight(source.getNestedSetRight());
+            node.setDepth(path.size());
+            node = this.nodeDao.save(node);
+            tree.getNodes().add(node);
+
+            if (path.isEmpty()) {
+                if (tree.getRoot() == null) {
+                    tree.setRoot(node);
+                }
+            } else {
+                Node parent = path.get(path.size() - 1);
+                node.setParent(parent);
+                parent.getChildren().add(node);
+            }
+            path.add(node);
+        }
+
+        this.treeChangeSupport.fireTreeChanged(tree.getId());
+        return tree;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Die Mock-Implementierung sperrt nur während einer einzelnen Operation
+     * über den {@link NestedSetIndex} des Baumes; diese Methode hat keine
+     * Wirkung.
+     * </p>
+     */
+    public void lockTree(long treeId) {
+    }
+
+    public int updateNestedSets(long treeId, long[] nodeIds, long[] nestedSetLefts, long[] nestedSetRights, int[] depths, int count) {
+        requireNestedSet(treeId);
+        Tree tree = this.treeDao.findById(treeId);
+        NestedSetIndex index = getIndex(treeId);
+        int updated = 0;
+
+        index.getLock().writeLock().lock();
+        try {
+            index.ensureBuilt(tree);
+
+            for (int i = 0; i < count; i++) {
+                Node node = index.findById(nodeIds[i]);
+                if (node != null) {
+                    node.setNestedSetLeft(nestedSetLefts[i]);
+                    node.setNestedSetRight(nestedSetRights[i]);
+                    node.setDepth(depths[i] - tree.getDepthOffset());
+                    updated++;
+                }
+            }
+            index.invalidate();
+        } finally {
+            index.getLock().writeLock().unlock();
+        }
+
+        this.treeChangeSupport.fireTreeChanged(treeId);
+        return updated;
+    }
+
+    public void addTreeChangeListener(TreeChangeListener listener) {
+        this.treeChangeSupport.addTreeChangeListener(listener);
+    }
+
+    public void removeTreeChangeListener(TreeChangeListener listener) {
+        this.treeChangeSupport.removeTreeChangeListener(listener);
+    }
+
+    /**
+     * Liefert die Nachfahren eines Knotens in einem Baum mit Nested Intervals
+     * in Pre-Order. Der {@link NestedSetIndex} sortiert solche Bäume nach
+     * ihren Intervallen, daher folgen die Nachfahren im Index direkt auf den
+     * Knoten.
+     *
+     * @param index Der aufgebaute Index des Baumes.
+     * @param node  Der Knoten.
+     * @return Die Nachfahren des Knotens.
+     */
+    private static List<Node> findInsideInterval(NestedSetIndex index, Node node) {
+        TreeEncodingStrategy strategy = node.getTree().getEncoding().getStrategy();
+
+        List<Node> descendants = new ArrayList<Node>();
+        int position = index.indexOf(node);
+        if (position < 0) {
+            return descendants;
+        }
+        for (position++; position < index.size() && strategy.isDescendant(node, index.get(position)); position++) {
+            descendants.add(index.get(position));
+        }
+        return descendants;
+    }
+
+    private void requireNestedSet(long treeId) {
+        Tree tree = this.treeDao.findById(treeId);
+        if (tree != null && tree.getEncoding() == TreeEncoding.NESTED_INTERVALS) {
+            throw new UnsupportedOperationException("tree " + treeId + " is encoded with nested intervals");
+        }
+    }
+
+    /**
+     * Setzt den Kanal für die {@link de.iew.framework.persistence.TreeChangedEvent}s.
+     *
+     * @param treeChangedEventChannel Der Kanal oder NULL um die Events
+     *                                abzuschalten.
+     */
+    public void setTreeChangedEventChannel(MessageChannel treeChangedEventChannel) {
+        this.treeChangeSupport.setTreeChangedEventChannel(treeChangedEventChannel);
+    }
+
+    /**
+     * Verwirft die Indizes aller Bäume. Muss aufgerufen werden, nachdem ein
+     * Baum ohne dieses DAO verändert wurde, z.B. durch eine Fixture.
+     */
+    public void clearIndexes() {
+        this.indexes.clear();
+    }
+
+    private NestedSetIndex getIndex(long treeId) {
+        NestedSetIndex index = this.indexes.get(treeId);
+        if (index == null) {
+            NestedSetIndex newIndex = new NestedSetIndex();
+            index = this.indexes.putIfAbsent(treeId, newIndex);
+            if (index == null) {
+                index = newIndex;
             }
         }
-        return null;
+        return index;
     }
 
     public void setTreeDao(TreeDao treeDao) {
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence.mock;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.TreeEncoding;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indiziert die Knoten eines einzelnen Baumes für das
+ * {@link MockTreeOperationDaoImpl}.
+ * <p>
+ * Die Knoten werden in einem nach der Kodierung des Baumes sortierten Array
+ * gehalten, also in Pre-Order. Daneben liegen ein primitives Array der linken
+ * NestedSet-Grenzen für die binäre Suche und eine Map nach Id. Der Index wird
+ * bei Bedarf aus {@link Tree#getNodes()} aufgebaut. Neue Knoten und
+ * Operationen, die die Reihenfolge der Knoten erhalten, passen den Index
+ * direkt an; alle anderen schreibenden Operationen verwerfen ihn.
+ * </p>
+ * <p>
+ * Leser müssen die Lese-Sperre halten, Schreiber die Schreib-Sperre des
+ * Index.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 09:35
+ */
+class NestedSetIndex {
+
+    private static final Comparator<Node> NESTED_SET_LEFT_ORDER = new Comparator<Node>() {
+        public int compare(Node o1, Node o2) {
+            return Long.valueOf(o1.getNestedSetLeft()).compareTo(o2.getNestedSetLeft());
+        }
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Comparator<Node> order = NESTED_SET_LEFT_ORDER;
+
+    private boolean built;
+
+    private Node[] nodes;
+
+    private long[] nestedSetLefts;
+
+    private int size;
+
+    private Map<Long, Node> nodesById;
+
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Baut den Index bei Bedarf auf. Mehrere Leser dürfen diese Methode
+     * gleichzeitig aufrufen; der Index wird nur einmal aufgebaut.
+     *
+     * @param tree Der indizierte Baum oder NULL wenn der Baum nicht existiert.
+     */
+    public synchronized void ensureBuilt(Tree tree) {
+        if (this.built) {
+            return;
+        }
+
+        // Bäume mit Nested Intervals werden nach ihren Intervallen sortiert.
+        // Ihre NestedSet-Grenzen sind bedeutungslos.
+        this.order = (tree != null && tree.getEncoding() == TreeEncoding.NESTED_INTERVALS ? tree.getEncoding().getStrategy() : NESTED_SET_LEFT_ORDER);
+        Collection<Node> treeNodes = (tree == null ? null : tree.getNodes());
+        this.nodes = (treeNodes == null ? new Node[0] : treeNodes.toArray(new Node[treeNodes.size()]));
+        Arrays.sort(this.nodes, this.order);
+
+        this.size = this.nodes.length;
+        this.nestedSetLefts = new long[this.size];
+        this.nodesById = new HashMap<Long, Node>(this.size * 2);
+        for (int i = 0; i < this.size; i++) {
+            this.nestedSetLefts[i] = this.nodes[i].getNestedSetLeft();
+            this.nodesById.put(this.nodes[i].getId(), this.nodes[i]);
+        }
+        this.built = true;
+    }
+
+    public synchronized void invalidate() {
+        this.built = false;
+        this.nodes = null;
+        this.nestedSetLefts = null;
+        this.nodesById = null;
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public Node get(int position) {
+        return this.nodes[position];
+    }
+
+    public Node findById(long nodeId) {
+        return this.nodesById.get(nodeId);
+    }
+
+    /**
+     * Liefert die Position des ersten Knotens mit einer linken Grenze größer
+     * als die angegebene Grenze.
+     *
+     * @param nestedSetIndex Die Grenze.
+     * @return Die Position; {@link #size()} wenn es keinen solchen Knoten
+     *         gibt.
+     */
+    public int firstAfter(long nestedSetIndex) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.nestedSetLefts[middle] <= nestedSetIndex) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Liefert die Position des angegebenen Knotens.
+     *
+     * @param node Der Knoten.
+     * @return Die Position oder -1 wenn der Knoten nicht im Index liegt.
+     */
+    public int indexOf(Node node) {
+        for (int position = search(node, false); position < this.size && this.order.compare(this.nodes[position], node) == 0; position++) {
+            if (this.nodes[position] == node) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fügt einen neuen Knoten an seiner Position in den Index ein. Ist der
+     * Index nicht aufgebaut, enthält ihn der nächste Aufbau aus
+     * {@link Tree#getNodes()}.
+     *
+     * @param node Der neue Knoten.
+     */
+    public synchronized void insert(Node node) {
+        if (!this.built) {
+            return;
+        }
+
+        if (this.size == this.nodes.length) {
+            int capacity = Math.max(16, this.size * 2);
+            this.nodes = Arrays.copyOf(this.nodes, capacity);
+            this.nestedSetLefts = Arrays.copyOf(this.nestedSetLefts, capacity);
+        }
+        int position = search(node, true);
+        int moved = this.size - position;
+        System.arraycopy(this.nodes, position, this.nodes, position + 1, moved);
+        System.arraycopy(this.nestedSetLefts, position, this.nestedSetLefts, position + 1, moved);
+        this.nodes[position] = node;
+        this.nestedSetLefts[position] = node.getNestedSetLeft();
+        this.nodesById.put(node.getId(), node);
+        this.size++;
+    }
+
+    /**
+     * Übernimmt die linken Grenzen der Knoten zwischen den angegebenen
+     * Positionen, nachdem sie unter Erhalt ihrer Reihenfolge neu nummeriert
+     * wurden.
+     *
+     * @param from Die erste Position (inklusiv).
+     * @param to   Die letzte Position (exklusiv).
+     */
+    public void refreshBounds(int from, int to) {
+        for (int i = from; i < to; i++) {
+            this.nestedSetLefts[i] = this.nodes[i].getNestedSetLeft();
+        }
+    }
+
+    /**
+     * Sucht per binärer Suche die erste Position, deren Knoten nicht vor dem
+     * angegebenen Knoten liegt.
+     *
+     * @param node  Der Knoten.
+     * @param after TRUE um auch gleich sortierte Knoten zu überspringen.
+     * @return Die Position.
+     */
+    private int search(Node node, boolean after) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = this.order.compare(this.nodes[middle], node);
+            if (comparison < 0 || (after && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Addiert <code>delta</code> auf jede linke und rechte Grenze größer als
+     * <code>fromNestedSetIndex</code>. Die Reihenfolge der linken Grenzen
+     * ändert sich nicht.
+     * <p>
+     * Die Knoten mit einer größeren linken Grenze werden per binärer Suche
+     * gefunden. Die übrigen Knoten mit einer größeren rechten Grenze
+     * umschließen die Grenze und werden über die Elternknoten des letzten
+     * Knotens davor erreicht.
+     * </p>
+     *
+     * @param fromNestedSetIndex Die Grenze.
+     * @param delta              Die Verschiebung.
+     */
+    public void shiftBounds(long fromNestedSetIndex, long delta) {
+        int from = firstAfter(fromNestedSetIndex);
+        for (int i = from; i < this.size; i++) {
+            Node node = this.nodes[i];
+            node.setNestedSetLeft(node.getNestedSetLeft() + delta);
+            node.setNestedSetRight(node.getNestedSetRight() + delta);
+            this.nestedSetLefts[i] += delta;
+        }
+
+        if (from > 0) {
+            for (Node node = this.nodes[from - 1]; node != null; node = node.getParent()) {
+                if (node.getNestedSetRight() > fromNestedSetIndex) {
+                    node.setNestedSetRight(node.getNestedSetRight() + delta);
+                }
+            }
+        }
+    }
+
+    /**
+     * Addiert <code>delta</code> auf beide Grenzen der Knoten zwischen den
+     * angegebenen Positionen. Der Aufrufer muss die Reihenfolge der linken
+     * Grenzen erhalten.
+     *
+     * @param from  Die erste Position (inklusiv).
+     * @param to    Die letzte Position (exklusiv).
+     * @param delta Die Verschiebung.
+     */
+    public void shiftNodes(int from, int to, long delta) {
+        for (int i = from; i < to; i++) {
+            Node node = this.nodes[i];
+            node.setNestedSetLeft(node.getNestedSetLeft() + delta);
+            node.setNestedSetRight(node.getNestedSetRight() + delta);
+            this.nestedSetLefts[i] += delta;
+        }
+    }
+
+    /**
+     * Entfernt den Knoten an der angegebenen Position aus dem Index.
+     *
+     * @param position Die Position.
+     */
+    public void removeAt(int position) {
+        this.nodesById.remove(this.nodes[position].getId());
+
+        int moved = this.size - position - 1;
+        System.arraycopy(this.nodes, position + 1, this.nodes, position, moved);
+        System.arraycopy(this.nestedSetLefts, position + 1, this.nestedSetLefts, position, moved);
+        this.size--;
+        this.nodes[this.size] = null;
+    }
+
+    /**
+     * Entfernt die angegebenen Knoten von den Positionen zwischen
+     * <code>from</code> und <code>to</code>.
+     *
+     * @param from         Die erste Position (inklusiv).
+     * @param to           Die letzte Position (exklusiv).
+     * @param removedNodes Die zu entfernenden Knoten.
+     */
+    public void removeAll(int from, int to, Set<Node> removedNodes) {
+        int target = from;
+        for (int i = from; i < to; i++) {
+            if (removedNodes.contains(this.nodes[i])) {
+                this.nodesById.remove(this.nodes[i].getId());
+            } else {
+                this.nodes[target] = this.nodes[i];
+                this.nestedSetLefts[target] = this.nestedSetLefts[i];
+                target++;
+            }
+        }
+
+        int moved = this.size - to;
+        System.arraycopy(this.nodes, to, this.nodes, target, moved);
+        System.arraycopy(this.nestedSetLefts, to, this.nestedSetLefts, target, moved);
+        Arrays.fill(this.nodes, target + moved, this.size, null);
+        this.size = target + moved;
+    }
+}
@@ -61,6 +61,7 @@ public class TreeFixture1 {
         child1 = this.nodeDao.save(child1);
         child1.setNestedSetLeft(4);
         child1.setNestedSetRight(5);
+        child1.setDepth(1);
 
         Node child2 = new Node();
         child2.setId(3l);
@@ -68,6 +69,7 @@ public class TreeFixture1 {
         child2 = this.nodeDao.save(child2);
         child2.setNestedSetLeft(2);
         child2.setNestedSetRight(3);
+        child2.setDepth(1);
 
         // Wurzel für den Baum setzen
         tree.setRoot(rootNode);
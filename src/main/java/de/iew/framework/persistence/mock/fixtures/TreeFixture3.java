@@ -71,6 +71,7 @@ public class TreeFixture3 {
         child1 = this.nodeDao.save(child1);
         child1.setNestedSetLeft(8);
         child1.setNestedSetRight(9);
+        child1.setDepth(1);
         child1.setOrdinalNumber(1);
 
         Node child2 = new Node();
@@ -78,6 +79,7 @@ public class TreeFixture3 {
         child2 = this.nodeDao.save(child2);
         child2.setNestedSetLeft(2);
         child2.setNestedSetRight(7);
+        child2.setDepth(1);
         child2.setOrdinalNumber(0);
 
         Node child3 = new Node();
@@ -85,6 +87,7 @@ public class TreeFixture3 {
         child3 = this.nodeDao.save(child3);
         child3.setNestedSetLeft(5);
         child3.setNestedSetRight(6);
+        child3.setDepth(2);
         child3.setOrdinalNumber(1);
 
         Node child4 = new Node();
@@ -92,6 +95,7 @@ public class TreeFixture3 {
         child4 = this.nodeDao.save(child4);
         child4.setNestedSetLeft(3);
         child4.setNestedSetRight(4);
+        child4.setDepth(2);
         child4.setOrdinalNumber(0);
 
         // Wurzel für den Baum setzen
@@ -144,6 +148,7 @@ public class TreeFixture3 {
         child5 = this.nodeDao.save(child5);
         child5.setNestedSetLeft(4);
         child5.setNestedSetRight(5);
+        child5.setDepth(1);
         child5.setOrdinalNumber(1);
 
         Node child6 = new Node();
@@ -151,6 +156,7 @@ public class TreeFixture3 {
         child6 = this.nodeDao.save(child6);
         child6.setNestedSetLeft(2);
         child6.setNestedSetRight(3);
+        child6.setDepth(1);
         child6.setOrdinalNumber(0);
 
         // Wurzel für den Baum setzen
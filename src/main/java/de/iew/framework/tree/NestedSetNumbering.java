@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import java.util.Arrays;
+
+/**
+ * Berechnet NestedSet-Grenzen aus Adjazenzdaten in einer Tiefensuche.
+ * <p>
+ * Die Knoten werden über ihren Index angesprochen. Die Kinder jedes Knotens
+ * werden im CSR-Format gehalten (ein Offset-Array und ein Array der
+ * Kind-Indizes) und nach Ordnungszahl sortiert; bei gleichen Ordnungszahlen
+ * kommt der kleinere Index zuerst. Die Tiefensuche benutzt primitive Stapel,
+ * so dass tiefe Bäume den Aufrufstapel nicht überlaufen lassen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 18:10
+ */
+final class NestedSetNumbering {
+
+    /**
+     * Der Eltern-Index einer Wurzel.
+     */
+    static final int ROOT = -1;
+
+    /**
+     * Der Eltern-Index eines Knotens, dessen Elternknoten unbekannt ist.
+     */
+    static final int DETACHED = -2;
+
+    final long[] nestedSetLefts;
+
+    final long[] nestedSetRights;
+
+    final int[] depths;
+
+    /**
+     * Die Position jedes Knotens unter seinen Geschwistern, beginnend bei 0.
+     */
+    final int[] siblingPositions;
+
+    /**
+     * Die Indizes der erreichten Knoten in Pre-Order.
+     */
+    final int[] preOrder;
+
+    /**
+     * Die Anzahl der von den Wurzeln aus erreichten Knoten.
+     */
+    final int count;
+
+    private NestedSetNumbering(long[] nestedSetLefts, long[] nestedSetRights, int[] depths, int[] siblingPositions, int[] preOrder, int count) {
+        this.nestedSetLefts = nestedSetLefts;
+        this.nestedSetRights = nestedSetRights;
+        this.depths = depths;
+        this.siblingPositions = siblingPositions;
+        this.preOrder = preOrder;
+        this.count = count;
+    }
+
+    boolean isNumbered(int index) {
+        return this.depths[index] >= 0;
+    }
+
+    /**
+     * Nummeriert die angegebenen Knoten.
+     *
+     * @param size               Die Anzahl der Knoten.
+     * @param parentIndexes      Der Index des Elternknotens jedes Knotens,
+     *                           {@link #ROOT} oder {@link #DETACHED}.
+     * @param ordinalNumbers     Die Ordnungszahl jedes Knotens.
+     * @param firstNestedSetLeft Die linke Grenze der ersten Wurzel.
+     * @param spacing            Der Abstand zweier Grenzen.
+     * @return Die Nummerierung; Knoten, die von keiner Wurzel aus erreichbar
+     *         sind, werden nicht nummeriert.
+     */
+    static NestedSetNumbering number(int size, int[] parentIndexes, int[] ordinalNumbers, long firstNestedSetLeft, long spacing) {
+        // Der Index size steht für die virtuelle Wurzel über allen
+        // Wurzelknoten.
+        int[] childOffsets = new int[size + 3];
+        for (int i = 0; i < size; i++) {
+            int parentIndex = parentIndexes[i];
+            if (parentIndex != DETACHED) {
+                childOffsets[(parentIndex == ROOT ? size : parentIndex) + 2]++;
+            }
+        }
+        for (int i = 2; i < childOffsets.length; i++) {
+            childOffsets[i] += childOffsets[i - 1];
+        }
+
+        long[] childKeys = new long[childOffsets[size + 2]];
+        for (int i = 0; i < size; i++) {
+            int parentIndex = parentIndexes[i];
+            if (parentIndex != DETACHED) {
+                childKeys[childOffsets[(parentIndex == ROOT ? size : parentIndex) + 1]++] = ((long) ordinalNumbers[i] << 32) | i;
+            }
+        }
+        for (int parent = 0; parent <= size; parent++) {
+            Arrays.sort(childKeys, childOffsets[parent], childOffsets[parent + 1]);
+        }
+
+        long[] nestedSetLefts = new long[size];
+        long[] nestedSetRights = new long[size];
+        int[] depths = new int[size];
+        Arrays.fill(depths, -1);
+        int[] siblingPositions = new int[size];
+        int[] preOrder = new int[size];
+        int count = 0;
+
+        int[] stack = new int[16];
+        int[] cursors = new int[16];
+        int stackSize = 1;
+        stack[0] = size;
+        cursors[0] = childOffsets[size];
+
+        long nestedSetIndex = firstNestedSetLeft;
+        while (stackSize > 0) {
+            int top = stackSize - 1;
+            int parent = stack[top];
+            if (cursors[top] < childOffsets[parent + 1]) {
+                int position = cursors[top]++;
+                int child = (int) childKeys[position];
+                if (depths[child] >= 0) {
+                    continue;
+                }
+                nestedSetLefts[child] = nestedSetIndex;
+                depths[child] = stackSize - 1;
+                siblingPositions[child] = position - childOffsets[parent];
+                preOrder[count++] = child;
+                nestedSetIndex += spacing;
+
+                if (stackSize == stack.length) {
+                    stack = Arrays.copyOf(stack, stackSize * 2);
+                    cursors = Arrays.copyOf(cursors, stackSize * 2);
+                }
+                stack[stackSize] = child;
+                cursors[stackSize] = childOffsets[child];
+                stackSize++;
+            } else {
+                if (parent < size) {
+                    nestedSetRights[parent] = nestedSetIndex;
+                    nestedSetIndex += spacing;
+                }
+                stackSize--;
+            }
+        }
+
+        return new NestedSetNumbering(nestedSetLefts, nestedSetRights, depths, siblingPositions, preOrder, count);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import java.util.Arrays;
+
+/**
+ * Implementiert eine unveränderliche, spaltenorientierte Projektion der
+ * Knoten eines Baumes.
+ * <p>
+ * Jede Spalte ist ein primitives Array; ein Knoten wird über seinen Index in
+ * diesen Arrays angesprochen. Die Zeilen sind nach der linken NestedSet-Grenze
+ * sortiert (Pre-Order). Im Vergleich zu einer Liste von
+ * {@link de.iew.framework.domain.Node} Entitäten benötigt eine Tabelle je
+ * Knoten wenig und konstanten Speicher und enthält keine Objekte, die der
+ * Garbage Collector verfolgen muss.
+ * </p>
+ * <p>
+ * Instanzen sind threadsicher.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see de.iew.framework.persistence.TreeOperationDao#loadNodeTable(long, long)
+ * @since 09.04.13 - 14:05
+ */
+public final class NodeTable {
+
+    /**
+     * Kennzeichnet einen fehlenden Elternknoten oder eine fehlende
+     * Datenquelle.
+     */
+    public static final long NO_ID = -1;
+
+    private final long treeId;
+
+    private final int size;
+
+    private final long[] ids;
+
+    private final long[] parentIds;
+
+    private final long[] nestedSetLefts;
+
+    private final long[] nestedSetRights;
+
+    private final int[] ordinalNumbers;
+
+    private final long[] dataSourceIds;
+
+    private NodeTable(Builder builder) {
+        this.treeId = builder.treeId;
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, builder.size);
+        this.parentIds = Arrays.copyOf(builder.parentIds, builder.size);
+        this.nestedSetLefts = Arrays.copyOf(builder.nestedSetLefts, builder.size);
+        this.nestedSetRights = Arrays.copyOf(builder.nestedSetRights, builder.size);
+        this.ordinalNumbers = Arrays.copyOf(builder.ordinalNumbers, builder.size);
+        this.dataSourceIds = Arrays.copyOf(builder.dataSourceIds, builder.size);
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * Liefert die Anzahl der Zeilen dieser Tabelle.
+     *
+     * @return Die Anzahl der Zeilen.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public long getId(int index) {
+        return this.ids[index];
+    }
+
+    /**
+     * Liefert die Id des Elternknotens des angegebenen Knotens.
+     *
+     * @param index Der Index des Knotens.
+     * @return Die Id des Elternknotens oder {@link #NO_ID} für die Wurzel.
+     */
+    public long getParentId(int index) {
+        return this.parentIds[index];
+    }
+
+    public long getNestedSetLeft(int index) {
+        return this.nestedSetLefts[index];
+    }
+
+    public long getNestedSetRight(int index) {
+        return this.nestedSetRights[index];
+    }
+
+    public int getOrdinalNumber(int index) {
+        return this.ordinalNumbers[index];
+    }
+
+    /**
+     * Liefert die Id der Datenquelle des angegebenen Knotens.
+     *
+     * @param index Der Index des Knotens.
+     * @return Die Id der Datenquelle oder {@link #NO_ID} wenn der Knoten keine
+     *         Datenquelle hat.
+     */
+    public long getDataSourceId(int index) {
+        return this.dataSourceIds[index];
+    }
+
+    /**
+     * Sammelt die Zeilen einer {@link NodeTable}. Die Zeilen müssen in der
+     * Reihenfolge ihrer linken NestedSet-Grenzen hinzugefügt werden.
+     * <p>
+     * Instanzen sind nicht threadsicher.
+     * </p>
+     */
+    public static class Builder {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final long treeId;
+
+        private int size;
+
+        private long[] ids;
+
+        private long[] parentIds;
+
+        private long[] nestedSetLefts;
+
+        private long[] nestedSetRights;
+
+        private int[] ordinalNumbers;
+
+        private long[] dataSourceIds;
+
+        public Builder(long treeId) {
+            this(treeId, INITIAL_CAPACITY);
+        }
+
+        /**
+         * Erzeugt einen Builder für ungefähr die angegebene Anzahl Zeilen.
+         *
+         * @param treeId           Die Id des Baumes.
+         * @param expectedRowCount Die erwartete Anzahl der Zeilen.
+         */
+        public Builder(long treeId, int expectedRowCount) {
+            int capacity = Math.max(expectedRowCount, 1);
+            this.treeId = treeId;
+            this.ids = new long[capacity];
+            this.parentIds = new long[capacity];
+            this.nestedSetLefts = new long[capacity];
+            this.nestedSetRights = new long[capacity];
+            this.ordinalNumbers = new int[capacity];
+            this.dataSourceIds = new long[capacity];
+        }
+
+        /**
+         * Hängt eine Zeile an.
+         *
+         * @param nodeId         Die Id des Knotens.
+         * @param parentId       Die Id des Elternknotens oder {@link NodeTable#NO_ID}.
+         * @param nestedSetLeft  Die linke NestedSet-Grenze.
+         * @param nestedSetRight Die rechte NestedSet-Grenze.
+         * @param ordinalNumber  Die Ordnungszahl des Knotens.
+         * @param dataSourceId   Die Id der Datenquelle oder {@link NodeTable#NO_ID}.
+         * @return Dieser Builder.
+         */
+        public Builder addRow(long nodeId, long parentId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, long dataSourceId) {
+            if (this.size == this.ids.length) {
+                int capacity = this.size * 2;
+                this.ids = Arrays.copyOf(this.ids, capacity);
+                this.parentIds = Arrays.copyOf(this.parentIds, capacity);
+                this.nestedSetLefts = Arrays.copyOf(this.nestedSetLefts, capacity);
+                this.nestedSetRights = Arrays.copyOf(this.nestedSetRights, capacity);
+                this.ordinalNumbers = Arrays.copyOf(this.ordinalNumbers, capacity);
+                this.dataSourceIds = Arrays.copyOf(this.dataSourceIds, capacity);
+            }
+            this.ids[this.size] = nodeId;
+            this.parentIds[this.size] = parentId;
+            this.nestedSetLefts[this.size] = nestedSetLeft;
+            this.nestedSetRights[this.size] = nestedSetRight;
+            this.ordinalNumbers[this.size] = ordinalNumber;
+            this.dataSourceIds[this.size] = dataSourceId;
+            this.size++;
+            return this;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Erzeugt die Tabelle. Der Builder kann weiter benutzt werden; die
+         * Tabelle sieht später hinzugefügte Zeilen nicht.
+         *
+         * @return Die Tabelle.
+         */
+        public NodeTable build() {
+            return new NodeTable(this);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.domain.DataSource;
+import de.iew.framework.domain.Tree;
+import de.iew.framework.persistence.NodeRowSource;
+import de.iew.framework.persistence.TreeOperationDao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Baut einen vollständigen Baum aus Adjazenzdatensätzen auf.
+ * <p>
+ * Jeder Datensatz benennt einen Knoten über eine externe Id und verweist über
+ * die externe Id des Elternknotens auf diesen. Die Datensätze können in
+ * beliebiger Reihenfolge hinzugefügt werden. Die NestedSet-Grenzen werden im
+ * Speicher in einer iterativen Tiefensuche berechnet; danach werden die
+ * Knoten mit {@link TreeOperationDao#importTree(String, long, NodeRowSource)}
+ * in JDBC-Batches geschrieben. Beim Aufbau werden keine NestedSet-Grenzen
+ * verschoben.
+ * </p>
+ * <p>
+ * Die Geschwister werden nach den Ordnungszahlen der Datensätze sortiert; bei
+ * gleichen Ordnungszahlen kommt der zuerst hinzugefügte Datensatz zuerst. Die
+ * gespeicherten Ordnungszahlen sind die Positionen unter den Geschwistern,
+ * beginnend bei 0.
+ * </p>
+ * <p>
+ * Instanzen sind nicht threadsicher. {@link #build(String, long)} muss
+ * innerhalb einer Transaktion aufgerufen werden.
+ * </p>
+ * <p>
+ * Beispiel:
+ * <pre>
+ * Tree tree = new TreeBuilder&lt;String&gt;(treeOperationDao)
+ *     .add("root", null, 0, rootDataSource)
+ *     .add("a", "root", 0, aDataSource)
+ *     .add("b", "root", 1, null)
+ *     .build("navigation", 0);
+ * </pre>
+ * </p>
+ *
+ * @param <K> Der Typ der externen Ids.
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 18:25
+ */
+public class TreeBuilder<K> {
+
+    private static final long NO_DATA_SOURCE = -1;
+
+    private final TreeOperationDao treeOperationDao;
+
+    private final Map<K, Integer> indexes = new HashMap<K, Integer>();
+
+    private int size;
+
+    private Object[] parentExternalIds = new Object[64];
+
+    private int[] ordinalNumbers = new int[64];
+
+    private long[] dataSourceIds = new long[64];
+
+    public TreeBuilder(TreeOperationDao treeOperationDao) {
+        if (treeOperationDao == null) {
+            throw new IllegalArgumentException("treeOperationDao must not be null");
+        }
+        this.treeOperationDao = treeOperationDao;
+    }
+
+    /**
+     * Fügt einen Knoten hinzu.
+     *
+     * @param externalId       Die externe Id des Knotens.
+     * @param parentExternalId Die externe Id des Elternknotens oder NULL für
+     *                         die Wurzel.
+     * @param ordinalNumber    Die Ordnungszahl unter den Geschwistern.
+     * @param dataSource       Die gespeicherte Datenquelle des Knotens oder
+     *                         NULL.
+     * @return Dieser Builder.
+     * @throws IllegalArgumentException Wenn die externe Id NULL ist oder
+     *                                  bereits hinzugefügt wurde oder wenn
+     *                                  die Datenquelle noch nicht gespeichert
+     *                                  wurde.
+     */
+    public TreeBuilder<K> add(K externalId, K parentExternalId, int ordinalNumber, DataSource dataSource) {
+        if (externalId == null) {
+            throw new IllegalArgumentException("externalId must not be null");
+        }
+        if (dataSource != null && dataSource.getId() == null) {
+            throw new IllegalArgumentException("the data source of node " + externalId + " was not persisted yet");
+        }
+        if (this.indexes.containsKey(externalId)) {
+            throw new IllegalArgumentException("node " + externalId + " was already added");
+        }
+
+        if (this.size == this.ordinalNumbers.length) {
+            int capacity = this.size * 2;
+            this.parentExternalIds = Arrays.copyOf(this.parentExternalIds, capacity);
+            this.ordinalNumbers = Arrays.copyOf(this.ordinalNumbers, capacity);
+            this.dataSourceIds = Arrays.copyOf(this.dataSourceIds, capacity);
+        }
+        this.indexes.put(externalId, this.size);
+        this.parentExternalIds[this.size] = parentExternalId;
+        this.ordinalNumbers[this.size] = ordinalNumber;
+        this.dataSourceIds[this.size] = (dataSource == null ? NO_DATA_SOURCE : dataSource.getId());
+        this.size++;
+        return this;
+    }
+
+    /**
+     * Liefert die Anzahl der hinzugefügten Knoten.
+     *
+     * @return Die Anzahl der Knoten.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Speichert die hinzugefügten Knoten als neuen Baum.
+     *
+     * @param lookupKey    Der Lookup-Key des neuen Baumes.
+     * @param nestedSetGap Die Lücke zwischen zwei NestedSet-Grenzen.
+     * @return Der neue Baum mit seiner Wurzel.
+     * @throws IllegalArgumentException Wenn kein Knoten hinzugefügt wurde,
+     *                                  wenn es nicht genau eine Wurzel gibt,
+     *                                  wenn ein Elternknoten nicht
+     *                                  hinzugefügt wurde oder wenn die
+     *                                  Datensätze einen Zyklus enthalten.
+     */
+    public Tree build(String lookupKey, long nestedSetGap) {
+        if (this.size == 0) {
+            throw new IllegalArgumentException("the tree has no nodes");
+        }
+        if (nestedSetGap < 0) {
+            throw new IllegalArgumentException("nestedSetGap must not be negative");
+        }
+
+        int[] parentIndexes = new int[this.size];
+        int rootCount = 0;
+        for (int i = 0; i < this.size; i++) {
+            Object parentExternalId = this.parentExternalIds[i];
+            if (parentExternalId == null) {
+                parentIndexes[i] = NestedSetNumbering.ROOT;
+                rootCount++;
+            } else {
+                Integer parentIndex = this.indexes.get(parentExternalId);
+                if (parentIndex == null) {
+                    throw new IllegalArgumentException("the parent " + parentExternalId + " was not added");
+                }
+                parentIndexes[i] = parentIndex;
+            }
+        }
+        if (rootCount != 1) {
+            throw new IllegalArgumentException("the tree must have exactly one root node but has " + rootCount);
+        }
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(this.size, parentIndexes, this.ordinalNumbers, 1, nestedSetGap + 1);
+        if (numbering.count < this.size) {
+            throw new IllegalArgumentException((this.size - numbering.count) + " nodes are part of a cycle");
+        }
+
+        return this.treeOperationDao.importTree(lookupKey, nestedSetGap, new NumberingRowSource(numbering, this.dataSourceIds));
+    }
+
+    /**
+     * Liefert die nummerierten Knoten in Pre-Order.
+     */
+    private static class NumberingRowSource implements NodeRowSource {
+
+        private final NestedSetNumbering numbering;
+
+        private final long[] dataSourceIds;
+
+        private int position = -1;
+
+        private int index;
+
+        private NumberingRowSource(NestedSetNumbering numbering, long[] dataSourceIds) {
+            this.numbering = numbering;
+            this.dataSourceIds = dataSourceIds;
+        }
+
+        public boolean next() {
+            if (this.position + 1 >= this.numbering.count) {
+                return false;
+            }
+            this.position++;
+            this.index = this.numbering.preOrder[this.position];
+            return true;
+        }
+
+        public long getNestedSetLeft() {
+            return this.numbering.nestedSetLefts[this.index];
+        }
+
+        public long getNestedSetRight() {
+            return this.numbering.nestedSetRights[this.index];
+        }
+
+        public int getOrdinalNumber() {
+            return this.numbering.siblingPositions[this.index];
+        }
+
+        public Long getDataSourceId() {
+            long dataSourceId = this.dataSourceIds[this.index];
+            return (dataSourceId == NO_DATA_SOURCE ? null : dataSourceId);
+        }
+    }
+}
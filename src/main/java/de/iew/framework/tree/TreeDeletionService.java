@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.persistence.TreeOperationDao;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Löscht große Teilbäume im Hintergrund.
+ * <p>
+ * {@link #deleteSubtree(long, long)} markiert den Teilbaum nur als gelöscht
+ * und schreibt die Markierung fest; ab dann sehen Leser den Teilbaum nicht
+ * mehr. Ein Hintergrund-Thread löscht die Knoten in kleinen Portionen, jede
+ * in einer eigenen kurzen Transaktion, entfernt zuletzt die Wurzel des
+ * Teilbaumes und schließt die Lücke in den NestedSet-Grenzen. Andere
+ * schreibende Zugriffe warten so nur auf eine einzelne Portion statt auf das
+ * ganze Löschen.
+ * </p>
+ * <p>
+ * Löschvorgänge, die durch ein Herunterfahren unterbrochen wurden, werden mit
+ * {@link #resumeDeletions(long)} fortgesetzt.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 21:40
+ */
+@Component
+public class TreeDeletionService implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(TreeDeletionService.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private int poolSize = 1;
+
+    private ExecutorService executorService;
+
+    private TransactionTemplate transactionTemplate;
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeOperationDao);
+        Assert.notNull(this.transactionManager);
+        Assert.isTrue(this.chunkSize > 0);
+        Assert.isTrue(this.poolSize > 0);
+
+        // Jeder Schritt wird sofort festgeschrieben, auch wenn der Aufrufer
+        // bereits eine Transaktion geöffnet hat.
+        this.transactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        this.executorService = Executors.newFixedThreadPool(this.poolSize);
+    }
+
+    public void destroy() throws Exception {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Markiert den Teilbaum des angegebenen Knotens als gelöscht und löscht
+     * ihn im Hintergrund.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id der Wurzel des Teilbaumes.
+     * @return Die Anzahl der gelöschten Knoten, sobald das Löschen
+     *         abgeschlossen ist.
+     * @throws IllegalArgumentException Wenn der Knoten nicht existiert, die
+     *                                  Wurzel ist oder bereits gelöscht wird.
+     */
+    public Future<Long> deleteSubtree(final long treeId, final long nodeId) {
+        this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                treeOperationDao.markTombstone(treeId, nodeId);
+            }
+        });
+        return submit(treeId, nodeId);
+    }
+
+    /**
+     * Setzt das Löschen aller als gelöscht markierten Teilbäume des
+     * angegebenen Baumes fort.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Anzahl der gelöschten Knoten je Teilbaum, sobald die
+     *         Löschvorgänge abgeschlossen sind.
+     */
+    public List<Future<Long>> resumeDeletions(final long treeId) {
+        long[] nodeIds = this.transactionTemplate.execute(new TransactionCallback<long[]>() {
+            public long[] doInTransaction(TransactionStatus status) {
+                return treeOperationDao.findTombstones(treeId);
+            }
+        });
+
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(nodeIds.length);
+        for (long nodeId : nodeIds) {
+            futures.add(submit(treeId, nodeId));
+        }
+        return futures;
+    }
+
+    private Future<Long> submit(final long treeId, final long nodeId) {
+        return this.executorService.submit(new Callable<Long>() {
+            public Long call() throws Exception {
+                return purge(treeId, nodeId);
+            }
+        });
+    }
+
+    /**
+     * Löscht den angegebenen, als gelöscht markierten Teilbaum portionsweise.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id des markierten Knotens.
+     * @return Die Anzahl der gelöschten Knoten.
+     */
+    protected long purge(final long treeId, final long nodeId) {
+        long deleted = 0;
+        int chunk;
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                log.warn("Das Löschen von Knoten " + nodeId + " in Baum " + treeId + " wurde nach " + deleted + " Knoten unterbrochen.");
+                return deleted;
+            }
+
+            chunk = this.transactionTemplate.execute(new TransactionCallback<Integer>() {
+                public Integer doInTransaction(TransactionStatus status) {
+                    return treeOperationDao.deleteTombstoneChunk(treeId, nodeId, chunkSize);
+                }
+            });
+            deleted += chunk;
+        } while (chunk > 0);
+
+        this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                treeOperationDao.removeTombstone(treeId, nodeId);
+            }
+        });
+        deleted++;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Der Teilbaum von Knoten " + nodeId + " in Baum " + treeId + " wurde mit " + deleted + " Knoten gelöscht.");
+        }
+        return deleted;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeOperationDao treeOperationDao;
+
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+}
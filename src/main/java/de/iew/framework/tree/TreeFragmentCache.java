@@ -0,0 +1,455 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.persistence.TreeChangedEvent;
+import de.iew.framework.persistence.TreeCommitListener;
+import de.iew.framework.persistence.TreeOperationDao;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hält serialisierte Teilbäume (Fragmente) je Baum, Knoten, Locale und Tiefe
+ * vor.
+ * <p>
+ * Jeder Baum hat eine eigene, nach dem letzten Zugriff sortierte Liste seiner
+ * Fragmente mit einer eigenen Sperre. Zugriffe auf verschiedene Bäume
+ * blockieren sich daher nicht, und eine Änderung eines Baumes prüft nur die
+ * Fragmente dieses Baumes. Zusammen belegen die Fragmente höchstens
+ * {@link #setMaxBytes(long)} Bytes. Wird die Grenze überschritten, verwirft
+ * der Cache reihum das am längsten nicht benutzte Fragment jedes Baumes.
+ * </p>
+ * <p>
+ * Jedes Fragment merkt sich die NestedSet-Grenzen seines Knotens. Nachdem
+ * eine Änderung eines Baumes festgeschrieben wurde, werden nur die Fragmente
+ * verworfen, deren Grenzen den geänderten Bereich überlappen, also die
+ * Fragmente des geänderten Teilbaumes und seiner Vorfahren. Die Grenzen der
+ * übrigen Fragmente werden mit dem Baum verschoben. Meldet eine Änderung die
+ * Verschiebung der folgenden Grenzen nicht, werden auch die Fragmente rechts
+ * des Bereichs verworfen. Änderungen des ganzen Baumes verwerfen alle
+ * Fragmente des Baumes.
+ * </p>
+ * <p>
+ * Vom Beginn des Commits bis zum Abschluss der Transaktion liefert der Cache
+ * keine Fragmente des Baumes, da sie nach dem Commit veraltet sein könnten,
+ * und nimmt keine auf, da ihre Grenzen bereits den neuen Stand haben könnten
+ * und danach noch einmal verschoben würden. Die Fragmente bleiben erhalten;
+ * nach dem Abschluss der Transaktion werden nur die geänderten verworfen.
+ * </p>
+ * <p>
+ * Das Erzeugen eines Fragments benötigt eine aktive Hibernate-Session,
+ * {@link #getFragment(long, long, Locale, int, TreeFragmentRenderer)} sollte
+ * also innerhalb einer Transaktion aufgerufen werden.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 19:15
+ */
+@Component
+public class TreeFragmentCache implements TreeCommitListener, InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(TreeFragmentCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+    private final ConcurrentMap<Long, TreeFragments> trees = new ConcurrentHashMap<Long, TreeFragments>();
+
+    private final AtomicLong byteSize = new AtomicLong();
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeOperationDao);
+        Assert.isTrue(this.maxBytes > 0);
+        this.treeOperationDao.addTreeChangeListener(this);
+    }
+
+    public void destroy() throws Exception {
+        this.treeOperationDao.removeTreeChangeListener(this);
+    }
+
+    /**
+     * Liefert das zwischengespeicherte Fragment.
+     *
+     * @param treeId Die Id des Baumes.
+     * @param nodeId Die Id der Wurzel des Fragments.
+     * @param locale Die Locale des Fragments.
+     * @param depth  Die Tiefe des Fragments.
+     * @return Das Fragment oder NULL wenn es nicht zwischengespeichert ist.
+     */
+    public byte[] getFragment(long treeId, long nodeId, Locale locale, int depth) {
+        TreeFragments fragments = this.trees.get(treeId);
+        if (fragments == null) {
+            return null;
+        }
+        Fragment fragment = fragments.get(new FragmentKey(nodeId, locale, depth));
+        return (fragment == null ? null : fragment.data);
+    }
+
+    /**
+     * Liefert das zwischengespeicherte Fragment oder erzeugt es und nimmt es
+     * auf. Ein Fragment, das erzeugt wurde, während eine Änderung des Baumes
+     * festgeschrieben wurde, wird geliefert, aber nicht aufgenommen.
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id der Wurzel des Fragments.
+     * @param locale   Die Locale des Fragments.
+     * @param depth    Die Tiefe des Fragments.
+     * @param renderer Der Renderer des Fragments.
+     * @return Das Fragment oder NULL wenn der Knoten nicht existiert.
+     */
+    public byte[] getFragment(long treeId, long nodeId, Locale locale, int depth, TreeFragmentRenderer renderer) {
+        FragmentKey key = new FragmentKey(nodeId, locale, depth);
+        TreeFragments fragments = getTreeFragments(treeId);
+
+        long generation;
+        synchronized (fragments) {
+            Fragment fragment = fragments.get(key);
+            if (fragment != null) {
+                return fragment.data;
+            }
+            generation = fragments.generation;
+        }
+
+        Node node = this.treeOperationDao.findNodeForTreeAndId(treeId, nodeId);
+        if (node == null) {
+            return null;
+        }
+        byte[] data = renderer.render(node, locale, depth);
+
+        if (data.length <= this.maxBytes && fragments.put(generation, key, new Fragment(node.getNestedSetLeft(), node.getNestedSetRight(), data))) {
+            trim();
+        }
+        return data;
+    }
+
+    public void treeChanged(long treeId) {
+        TreeFragments fragments = this.trees.get(treeId);
+        if (fragments != null) {
+            fragments.evictAll();
+        }
+    }
+
+    public void treeChanged(long treeId, List<TreeChangedEvent> events) {
+        TreeFragments fragments = this.trees.get(treeId);
+        if (fragments != null) {
+            fragments.apply(events);
+        }
+    }
+
+    public void beforeTreeCommit(long treeId) {
+        getTreeFragments(treeId).beginCommit();
+    }
+
+    public void afterTreeCompletion(long treeId) {
+        TreeFragments fragments = this.trees.get(treeId);
+        if (fragments != null) {
+            fragments.endCommit();
+        }
+    }
+
+    /**
+     * Verwirft alle Fragmente.
+     */
+    public void clear() {
+        for (TreeFragments fragments : this.trees.values()) {
+            fragments.evictAll();
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der zwischengespeicherten Fragmente.
+     *
+     * @return Die Anzahl der Fragmente.
+     */
+    public int size() {
+        int size = 0;
+        for (TreeFragments fragments : this.trees.values()) {
+            size += fragments.size();
+        }
+        return size;
+    }
+
+    /**
+     * Liefert die Größe der zwischengespeicherten Fragmente.
+     *
+     * @return Die Größe in Bytes.
+     */
+    public long getByteSize() {
+        return this.byteSize.get();
+    }
+
+    /**
+     * Verwirft reihum das älteste Fragment jedes Baumes, bis die Fragmente
+     * wieder in {@link #setMaxBytes(long)} passen.
+     */
+    private void trim() {
+        while (this.byteSize.get() > this.maxBytes) {
+            boolean evicted = false;
+            for (TreeFragments fragments : this.trees.values()) {
+                if (this.byteSize.get() <= this.maxBytes) {
+                    return;
+                }
+                evicted |= fragments.evictEldest();
+            }
+            if (!evicted) {
+                return;
+            }
+        }
+    }
+
+    private TreeFragments getTreeFragments(long treeId) {
+        TreeFragments fragments = this.trees.get(treeId);
+        if (fragments == null) {
+            TreeFragments newFragments = new TreeFragments(treeId);
+            fragments = this.trees.putIfAbsent(treeId, newFragments);
+            if (fragments == null) {
+                fragments = newFragments;
+            }
+        }
+        return fragments;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Hält die Fragmente eines Baumes in der Reihenfolge des letzten Zugriffs.
+     * Alle Methoden sind über diese Instanz synchronisiert. Die Generation
+     * wird bei jeder Änderung sowie zu Beginn und am Ende jedes Commits
+     * erhöht; ein Fragment, das vorher erzeugt wurde, wird nicht mehr
+     * aufgenommen.
+     */
+    private class TreeFragments {
+
+        private final long treeId;
+
+        private final LinkedHashMap<FragmentKey, Fragment> fragments = new LinkedHashMap<FragmentKey, Fragment>(16, 0.75f, true);
+
+        private long generation;
+
+        /**
+         * Die Anzahl der laufenden Commits.
+         */
+        private int commits;
+
+        private TreeFragments(long treeId) {
+            this.treeId = treeId;
+        }
+
+        /**
+         * Liefert das angegebene Fragment. Während eines Commits liefert der
+         * Baum keine Fragmente.
+         *
+         * @param key Der Schlüssel des Fragments.
+         * @return Das Fragment oder NULL.
+         */
+        private synchronized Fragment get(FragmentKey key) {
+            return (this.commits > 0 ? null : this.fragments.get(key));
+        }
+
+        private synchronized int size() {
+            return this.fragments.size();
+        }
+
+        /**
+         * Nimmt das angegebene Fragment auf, wenn sich der Baum seit dem
+         * Lesen der Generation nicht geändert hat.
+         *
+         * @param generation Die Generation vor dem Erzeugen des Fragments.
+         * @param key        Der Schlüssel des Fragments.
+         * @param fragment   Das Fragment.
+         * @return TRUE wenn das Fragment aufgenommen wurde.
+         */
+        private synchronized boolean put(long generation, FragmentKey key, Fragment fragment) {
+            if (this.generation != generation || this.commits > 0) {
+                return false;
+            }
+
+            Fragment replaced = this.fragments.put(key, fragment);
+            byteSize.addAndGet(fragment.data.length - (replaced == null ? 0 : replaced.data.length));
+            return true;
+        }
+
+        private synchronized boolean evictEldest() {
+            Iterator<Fragment> iterator = this.fragments.values().iterator();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            byteSize.addAndGet(-iterator.next().data.length);
+            iterator.remove();
+            return true;
+        }
+
+        private synchronized void evictAll() {
+            this.generation++;
+            evict(Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        private synchronized void apply(List<TreeChangedEvent> events) {
+            this.generation++;
+            for (TreeChangedEvent event : events) {
+                long leftNestedSetIndex = event.getLeftNestedSetIndex();
+                long rightNestedSetIndex = event.getRightNestedSetIndex();
+
+                switch (event.getType()) {
+                    case NODE_INSERTED:
+                        shift(leftNestedSetIndex, event.getBoundShift());
+                        evict(leftNestedSetIndex, rightNestedSetIndex);
+                        break;
+                    case SUBTREE_REMOVED:
+                        evict(leftNestedSetIndex, rightNestedSetIndex);
+                        shift(rightNestedSetIndex + 1, event.getBoundShift());
+                        break;
+                    default:
+                        // Die Verschiebung der folgenden Grenzen ist unbekannt.
+                        evict(leftNestedSetIndex, Long.MAX_VALUE);
+                        break;
+                }
+            }
+        }
+
+        private synchronized void beginCommit() {
+            this.commits++;
+            this.generation++;
+        }
+
+        private synchronized void endCommit() {
+            if (this.commits > 0) {
+                this.commits--;
+            }
+            this.generation++;
+        }
+
+        private void evict(long leftNestedSetIndex, long rightNestedSetIndex) {
+            int evicted = 0;
+            Iterator<Fragment> iterator = this.fragments.values().iterator();
+            while (iterator.hasNext()) {
+                Fragment fragment = iterator.next();
+                if (fragment.nestedSetLeft <= rightNestedSetIndex && fragment.nestedSetRight >= leftNestedSetIndex) {
+                    byteSize.addAndGet(-fragment.data.length);
+                    iterator.remove();
+                    evicted++;
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Es wurden " + evicted + " Fragmente von Baum " + this.treeId + " verworfen.");
+            }
+        }
+
+        private void shift(long fromNestedSetIndex, long delta) {
+            if (delta == 0) {
+                return;
+            }
+
+            for (Fragment fragment : this.fragments.values()) {
+                if (fragment.nestedSetLeft >= fromNestedSetIndex) {
+                    fragment.nestedSetLeft += delta;
+                }
+                if (fragment.nestedSetRight >= fromNestedSetIndex) {
+                    fragment.nestedSetRight += delta;
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifiziert ein Fragment innerhalb seines Baumes.
+     */
+    private static class FragmentKey {
+
+        private final long nodeId;
+
+        private final Locale locale;
+
+        private final int depth;
+
+        private FragmentKey(long nodeId, Locale locale, int depth) {
+            this.nodeId = nodeId;
+            this.locale = locale;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FragmentKey)) {
+                return false;
+            }
+            FragmentKey other = (FragmentKey) o;
+            return this.nodeId == other.nodeId
+                    && this.depth == other.depth
+                    && ObjectUtils.nullSafeEquals(this.locale, other.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = ObjectUtils.hashCode(this.nodeId);
+            result = 31 * result + ObjectUtils.nullSafeHashCode(this.locale);
+            result = 31 * result + this.depth;
+            return result;
+        }
+    }
+
+    /**
+     * Hält ein Fragment und die aktuellen Grenzen seines Knotens. Die Grenzen
+     * werden über die {@link TreeFragments} des Baumes synchronisiert.
+     */
+    private static class Fragment {
+
+        private long nestedSetLeft;
+
+        private long nestedSetRight;
+
+        private final byte[] data;
+
+        private Fragment(long nestedSetLeft, long nestedSetRight, byte[] data) {
+            this.nestedSetLeft = nestedSetLeft;
+            this.nestedSetRight = nestedSetRight;
+            this.data = data;
+        }
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeOperationDao treeOperationDao;
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.domain.Node;
+
+import java.util.Locale;
+
+/**
+ * Beschreibt einen Callback, der einen Teilbaum serialisiert, z.B. als JSON
+ * oder HTML.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeFragmentCache#getFragment(long, long, Locale, int, TreeFragmentRenderer)
+ * @since 09.04.13 - 19:10
+ */
+public interface TreeFragmentRenderer {
+
+    /**
+     * Serialisiert den Teilbaum des angegebenen Knotens.
+     *
+     * @param node   Die Wurzel des Teilbaumes.
+     * @param locale Die Locale des Fragments.
+     * @param depth  Die maximale Tiefe der serialisierten Nachfahren relativ
+     *               zum Knoten.
+     * @return Der serialisierte Teilbaum.
+     */
+    public byte[] render(Node node, Locale locale, int depth);
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Beschreibt das Ergebnis der NestedSet-Prüfung eines Baumes.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeRepairService#verify(long)
+ * @since 07.04.13 - 10:48
+ */
+public class TreeIntegrityReport {
+
+    private final long treeId;
+
+    private final long nodeCount;
+
+    private final long rootCount;
+
+    private final long overlapCount;
+
+    private final long gapCount;
+
+    private final long parentMismatchCount;
+
+    private final long orderMismatchCount;
+
+    private final long depthMismatchCount;
+
+    private final List<String> problems;
+
+    public TreeIntegrityReport(long treeId, long nodeCount, long rootCount, long overlapCount, long gapCount, long parentMismatchCount, long orderMismatchCount, long depthMismatchCount, List<String> problems) {
+        this.treeId = treeId;
+        this.nodeCount = nodeCount;
+        this.rootCount = rootCount;
+        this.overlapCount = overlapCount;
+        this.gapCount = gapCount;
+        this.parentMismatchCount = parentMismatchCount;
+        this.orderMismatchCount = orderMismatchCount;
+        this.depthMismatchCount = depthMismatchCount;
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * Prüft, ob die NestedSet-Grenzen des Baumes zu seinen Adjazenzdaten
+     * passen.
+     *
+     * @return TRUE wenn kein Problem gefunden wurde.
+     */
+    public boolean isValid() {
+        return this.rootCount <= 1 && this.overlapCount == 0 && this.gapCount == 0
+                && this.parentMismatchCount == 0 && this.orderMismatchCount == 0 && this.depthMismatchCount == 0;
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getRootCount() {
+        return rootCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Grenzen, die in Pre-Order nicht echt größer als
+     * die vorherige Grenze sind, also überlappende oder ungültige Intervalle.
+     *
+     * @return Die Anzahl der Überlappungen.
+     */
+    public long getOverlapCount() {
+        return overlapCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Lücken in der Nummerierung. Nur dichte Bäume
+     * werden auf Lücken geprüft.
+     *
+     * @return Die Anzahl der Lücken.
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Knoten, deren Elternknoten nicht zum
+     * umschließenden Intervall passt.
+     *
+     * @return Die Anzahl der abweichenden Elternknoten.
+     */
+    public long getParentMismatchCount() {
+        return parentMismatchCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Knoten, deren Ordnungszahl nicht zu ihrer
+     * Position unter ihren Geschwistern passt.
+     *
+     * @return Die Anzahl der abweichenden Ordnungszahlen.
+     */
+    public long getOrderMismatchCount() {
+        return orderMismatchCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Knoten, deren gespeicherte Tiefe nicht zur
+     * Anzahl der umschließenden Intervalle passt.
+     *
+     * @return Die Anzahl der abweichenden Tiefen.
+     */
+    public long getDepthMismatchCount() {
+        return depthMismatchCount;
+    }
+
+    /**
+     * Liefert Beschreibungen der ersten gefundenen Probleme.
+     *
+     * @return Die Beschreibungen der Probleme.
+     */
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeIntegrityReport{" +
+                "treeId=" + treeId +
+                ", nodeCount=" + nodeCount +
+                ", rootCount=" + rootCount +
+                ", overlapCount=" + overlapCount +
+                ", gapCount=" + gapCount +
+                ", parentMismatchCount=" + parentMismatchCount +
+                ", orderMismatchCount=" + orderMismatchCount +
+                ", depthMismatchCount=" + depthMismatchCount +
+                '}';
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.domain.Tree;
+import de.iew.framework.persistence.NestedSetRowHandler;
+import de.iew.framework.persistence.TreeDao;
+import de.iew.framework.persistence.TreeOperationDao;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prüft und repariert die NestedSet-Grenzen von Bäumen.
+ * <p>
+ * Maßgeblich sind die Adjazenzdaten (<code>parent</code> und
+ * <code>ordinalNumber</code>) der Knoten. Hat eine unterbrochene Verschiebung
+ * die NestedSet-Grenzen oder Tiefen inkonsistent hinterlassen, berechnet
+ * {@link #rebuild(long)} sie mit einer Tiefensuche aus den Adjazenzdaten neu.
+ * </p>
+ * <p>
+ * Jede Operation läuft in einer eigenen Transaktion. Die Operationen für
+ * mehrere Bäume laufen parallel in einem begrenzten Thread-Pool.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 07.04.13 - 11:05
+ */
+@Component
+public class TreeRepairService implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(TreeRepairService.class);
+
+    private static final int MAX_PROBLEMS = 50;
+
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService executorService;
+
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeDao);
+        Assert.notNull(this.treeOperationDao);
+        Assert.notNull(this.transactionManager);
+        Assert.isTrue(this.poolSize > 0);
+
+        this.transactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+
+        this.executorService = Executors.newFixedThreadPool(this.poolSize);
+    }
+
+    public void destroy() throws Exception {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Prüft die NestedSet-Grenzen des angegebenen Baumes in einem Durchlauf
+     * über seine Knoten.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Das Ergebnis der Prüfung.
+     */
+    public TreeIntegrityReport verify(final long treeId) {
+        return this.readOnlyTransactionTemplate.execute(new TransactionCallback<TreeIntegrityReport>() {
+            public TreeIntegrityReport doInTransaction(TransactionStatus status) {
+                Tree tree = treeDao.findById(treeId);
+                if (tree == null) {
+                    throw new IllegalArgumentException("tree " + treeId + " does not exist");
+                }
+
+                NestedSetVerifier verifier = new NestedSetVerifier(treeId, !tree.isSparseNestedSet());
+                treeOperationDao.visitNestedSetRows(treeId, verifier);
+                return verifier.createReport();
+            }
+        });
+    }
+
+    /**
+     * Berechnet die NestedSet-Grenzen des angegebenen Baumes aus seinen
+     * Adjazenzdaten neu und schreibt die geänderten Grenzen zurück.
+     * <p>
+     * Geschwister werden nach ihrer Ordnungszahl sortiert. Die Nummerierung
+     * beginnt bei der aktuellen linken Grenze der Wurzel und berücksichtigt
+     * die Lücke von Bäumen mit Lücken. Knoten, die von der Wurzel aus nicht
+     * erreichbar sind, bleiben unverändert.
+     * </p>
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Anzahl der Knoten, deren Grenzen geändert wurden.
+     */
+    public int rebuild(final long treeId) {
+        return this.transactionTemplate.execute(new TransactionCallback<Integer>() {
+            public Integer doInTransaction(TransactionStatus status) {
+                Tree tree = treeDao.findById(treeId);
+                if (tree == null) {
+                    throw new IllegalArgumentException("tree " + treeId + " does not exist");
+                }
+
+                // Die Sperre muss vor dem Lesen genommen werden. Sonst könnte
+                // ein anderer Schreiber die Grenzen zwischen dem Lesen und dem
+                // Zurückschreiben ändern und wir würden seine Änderung mit
+                // veralteten Grenzen überschreiben.
+                treeOperationDao.lockTree(treeId);
+
+                NestedSetRows rows = new NestedSetRows();
+                treeOperationDao.visitNestedSetRows(treeId, rows);
+                return rebuildImpl(treeId, rows, tree.getNestedSetGap() + 1);
+            }
+        });
+    }
+
+    /**
+     * Prüft die angegebenen Bäume parallel.
+     *
+     * @param treeIds Die Ids der Bäume.
+     * @return Die Ergebnisse der Prüfung je Baum-Id; Bäume, deren Prüfung
+     *         fehlgeschlagen ist, fehlen.
+     */
+    public Map<Long, TreeIntegrityReport> verifyAll(Collection<Long> treeIds) {
+        Map<Long, Callable<TreeIntegrityReport>> tasks = new LinkedHashMap<Long, Callable<TreeIntegrityReport>>();
+        for (final Long treeId : treeIds) {
+            tasks.put(treeId, new Callable<TreeIntegrityReport>() {
+                public TreeIntegrityReport call() throws Exception {
+                    return verify(treeId);
+                }
+            });
+        }
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Baut die angegebenen Bäume parallel neu auf.
+     *
+     * @param treeIds Die Ids der Bäume.
+     * @return Die Anzahl der geänderten Knoten je Baum-Id; Bäume, deren
+     *         Neuaufbau fehlgeschlagen ist, fehlen.
+     */
+    public Map<Long, Integer> rebuildAll(Collection<Long> treeIds) {
+        Map<Long, Callable<Integer>> tasks = new LinkedHashMap<Long, Callable<Integer>>();
+        for (final Long treeId : treeIds) {
+            tasks.put(treeId, new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return rebuild(treeId);
+                }
+            });
+        }
+        return invokeAll(tasks);
+    }
+
+    private <T> Map<Long, T> invokeAll(Map<Long, Callable<T>> tasks) {
+        Map<Long, Future<T>> futures = new LinkedHashMap<Long, Future<T>>();
+        for (Map.Entry<Long, Callable<T>> task : tasks.entrySet()) {
+            futures.put(task.getKey(), this.executorService.submit(task.getValue()));
+        }
+
+        Map<Long, T> results = new LinkedHashMap<Long, T>();
+        try {
+            for (Map.Entry<Long, Future<T>> future : futures.entrySet()) {
+                try {
+                    results.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    // Ein fehlerhafter Baum soll die Bearbeitung der anderen
+                    // Bäume nicht abbrechen.
+                    log.error("Die Bearbeitung von Baum " + future.getKey() + " ist fehlgeschlagen.", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<T> future : futures.values()) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    protected int rebuildImpl(long treeId, NestedSetRows rows, long spacing) {
+        int size = rows.size;
+        if (size == 0) {
+            return 0;
+        }
+
+        // Die Knoten werden über ihren Index in den Zeilen adressiert.
+        long[] sortedIds = Arrays.copyOf(rows.ids, size);
+        Arrays.sort(sortedIds);
+        int[] sortedIdIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIdIndexes[Arrays.binarySearch(sortedIds, rows.ids[i])] = i;
+        }
+
+        int[] parentIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (rows.parentIds[i] == null) {
+                parentIndexes[i] = NestedSetNumbering.ROOT;
+            } else {
+                int position = Arrays.binarySearch(sortedIds, rows.parentIds[i]);
+                parentIndexes[i] = (position < 0 ? NestedSetNumbering.DETACHED : sortedIdIndexes[position]);
+            }
+        }
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(size, parentIndexes, rows.ordinalNumbers, rows.nestedSetLefts[0], spacing);
+        long[] nestedSetLefts = numbering.nestedSetLefts;
+        long[] nestedSetRights = numbering.nestedSetRights;
+        int[] depths = numbering.depths;
+
+        long[] changedIds = new long[size];
+        long[] changedLefts = new long[size];
+        long[] changedRights = new long[size];
+        int[] changedDepths = new int[size];
+        int changed = 0;
+        int unreachable = 0;
+        for (int i = 0; i < size; i++) {
+            if (!numbering.isNumbered(i)) {
+                unreachable++;
+            } else if (nestedSetLefts[i] != rows.nestedSetLefts[i] || nestedSetRights[i] != rows.nestedSetRights[i] || depths[i] != rows.depths[i]) {
+                changedIds[changed] = rows.ids[i];
+                changedLefts[changed] = nestedSetLefts[i];
+                changedRights[changed] = nestedSetRights[i];
+                changedDepths[changed] = depths[i];
+                changed++;
+            }
+        }
+
+        if (unreachable > 0) {
+            log.warn("Baum " + treeId + " enthält " + unreachable + " Knoten, die von keinem Wurzelknoten aus erreichbar sind.");
+        }
+        if (changed > 0) {
+            this.treeOperationDao.updateNestedSets(treeId, changedIds, changedLefts, changedRights, changedDepths, changed);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Baum " + treeId + " wurde neu nummeriert; " + changed + " von " + size + " Knoten wurden geändert.");
+        }
+        return changed;
+    }
+
+    /**
+     * Sammelt die Strukturdaten der Knoten eines Baumes in primitiven Arrays.
+     */
+    protected static class NestedSetRows implements NestedSetRowHandler {
+
+        private int size;
+
+        private long[] ids = new long[64];
+
+        private Long[] parentIds = new Long[64];
+
+        private int[] ordinalNumbers = new int[64];
+
+        private int[] depths = new int[64];
+
+        private long[] nestedSetLefts = new long[64];
+
+        private long[] nestedSetRights = new long[64];
+
+        public void handleRow(long nodeId, Long parentId, int ordinalNumber, int depth, long nestedSetLeft, long nestedSetRight) {
+            if (this.size == this.ids.length) {
+                int capacity = this.size * 2;
+                this.ids = Arrays.copyOf(this.ids, capacity);
+                this.parentIds = Arrays.copyOf(this.parentIds, capacity);
+                this.ordinalNumbers = Arrays.copyOf(this.ordinalNumbers, capacity);
+                this.depths = Arrays.copyOf(this.depths, capacity);
+                this.nestedSetLefts = Arrays.copyOf(this.nestedSetLefts, capacity);
+                this.nestedSetRights = Arrays.copyOf(this.nestedSetRights, capacity);
+            }
+            this.ids[this.size] = nodeId;
+            this.parentIds[this.size] = parentId;
+            this.ordinalNumbers[this.size] = ordinalNumber;
+            this.depths[this.size] = depth;
+            this.nestedSetLefts[this.size] = nestedSetLeft;
+            this.nestedSetRights[this.size] = nestedSetRight;
+            this.size++;
+        }
+    }
+
+    /**
+     * Prüft die NestedSet-Grenzen, während die Knoten in der Reihenfolge
+     * ihrer linken Grenzen gelesen werden.
+     * <p>
+     * Die offenen Intervalle liegen auf einem Stapel. Jede Grenze wird in
+     * Pre-Order ausgegeben; die Folge muss streng monoton steigen und bei
+     * dichten Bäumen lückenlos sein.
+     * </p>
+     */
+    protected static class NestedSetVerifier implements NestedSetRowHandler {
+
+        private final long treeId;
+
+        private final boolean dense;
+
+        private long[] stackIds = new long[16];
+
+        private long[] stackRights = new long[16];
+
+        private long[] stackLastOrdinals = new long[16];
+
+        private int stackSize;
+
+        private boolean hasBound;
+
+        private long lastBound;
+
+        private long nodeCount;
+
+        private long rootCount;
+
+        private long overlapCount;
+
+        private long gapCount;
+
+        private long parentMismatchCount;
+
+        private long orderMismatchCount;
+
+        private long depthMismatchCount;
+
+        private final List<String> problems = new ArrayList<String>();
+
+        protected NestedSetVerifier(long treeId, boolean dense) {
+            this.treeId = treeId;
+            this.dense = dense;
+        }
+
+        public void handleRow(long nodeId, Long parentId, int ordinalNumber, int depth, long nestedSetLeft, long nestedSetRight) {
+            this.nodeCount++;
+
+            if (nestedSetLeft >= nestedSetRight) {
+                this.overlapCount++;
+                addProblem("node " + nodeId + " has invalid bounds [" + nestedSetLeft + ", " + nestedSetRight + "]");
+                return;
+            }
+
+            while (this.stackSize > 0 && this.stackRights[this.stackSize - 1] < nestedSetLeft) {
+                this.stackSize--;
+                emitBound(this.stackIds[this.stackSize], this.stackRights[this.stackSize]);
+            }
+
+            if (this.stackSize == 0) {
+                this.rootCount++;
+                if (parentId != null) {
+                    this.parentMismatchCount++;
+                    addProblem("node " + nodeId + " is not enclosed by its parent " + parentId);
+                } else if (this.rootCount > 1) {
+                    addProblem("node " + nodeId + " is an additional root node");
+                }
+            } else {
+                int top = this.stackSize - 1;
+                if (parentId == null || parentId != this.stackIds[top]) {
+                    this.parentMismatchCount++;
+                    addProblem("node " + nodeId + " references parent " + parentId + " but is enclosed by node " + this.stackIds[top]);
+                }
+                if (this.stackLastOrdinals[top] != Long.MIN_VALUE && ordinalNumber <= this.stackLastOrdinals[top]) {
+                    this.orderMismatchCount++;
+                    addProblem("node " + nodeId + " has ordinal number " + ordinalNumber + " but follows a sibling with ordinal number " + this.stackLastOrdinals[top]);
+                }
+                this.stackLastOrdinals[top] = ordinalNumber;
+            }
+
+            if (depth != this.stackSize) {
+                this.depthMismatchCount++;
+                addProblem("node " + nodeId + " has depth " + depth + " but is enclosed by " + this.stackSize + " nodes");
+            }
+
+            emitBound(nodeId, nestedSetLeft);
+
+            if (this.stackSize == this.stackIds.length) {
+                this.stackIds = Arrays.copyOf(this.stackIds, this.stackSize * 2);
+                this.stackRights = Arrays.copyOf(this.stackRights, this.stackSize * 2);
+                this.stackLastOrdinals = Arrays.copyOf(this.stackLastOrdinals, this.stackSize * 2);
+            }
+            this.stackIds[this.stackSize] = nodeId;
+            this.stackRights[this.stackSize] = nestedSetRight;
+            this.stackLastOrdinals[this.stackSize] = Long.MIN_VALUE;
+            this.stackSize++;
+        }
+
+        private void emitBound(long nodeId, long bound) {
+            if (this.hasBound) {
+                if (bound <= this.lastBound) {
+                    this.overlapCount++;
+                    addProblem("bound " + bound + " of node " + nodeId + " overlaps with bound " + this.lastBound);
+                    return;
+                }
+                if (this.dense && bound != this.lastBound + 1) {
+                    this.gapCount++;
+                    addProblem("gap between bound " + this.lastBound + " and bound " + bound + " of node " + nodeId);
+                }
+            }
+            this.hasBound = true;
+            this.lastBound = bound;
+        }
+
+        private void addProblem(String problem) {
+            if (this.problems.size() < MAX_PROBLEMS) {
+                this.problems.add(problem);
+            }
+        }
+
+        protected TreeIntegrityReport createReport() {
+            while (this.stackSize > 0) {
+                this.stackSize--;
+                emitBound(this.stackIds[this.stackSize], this.stackRights[this.stackSize]);
+            }
+            return new TreeIntegrityReport(this.treeId, this.nodeCount, this.rootCount, this.overlapCount, this.gapCount,
+                    this.parentMismatchCount, this.orderMismatchCount, this.depthMismatchCount, this.problems);
+        }
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeDao treeDao;
+
+    private TreeOperationDao treeOperationDao;
+
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public void setTreeDao(TreeDao treeDao) {
+        this.treeDao = treeDao;
+    }
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+}
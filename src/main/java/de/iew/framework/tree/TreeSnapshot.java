@@ -0,0 +1,543 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import java.util.Arrays;
+
+/**
+ * Implementiert eine unveränderliche Momentaufnahme der Struktur eines Baumes
+ * im Speicher.
+ * <p>
+ * Die Knoten liegen in primitiven Arrays in der Reihenfolge ihrer linken
+ * NestedSet-Grenze (Pre-Order). Jeder Knoten wird über seinen Index in diesen
+ * Arrays angesprochen. Da der Teilbaum eines Knotens einen zusammenhängenden
+ * Bereich von Indizes belegt, werden Abfragen nach Kindern, Vorfahren und
+ * Nachfahren ohne die Persistenzschicht beantwortet.
+ * </p>
+ * <p>
+ * Instanzen sind thread-sicher. Änderungen des Baumes erzeugen neue
+ * Momentaufnahmen mit einer höheren Version; siehe
+ * {@link #insertLeaf(long, long, long, int, long)} und
+ * {@link #removeSubtree(long, long, long)}.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 06.04.13 - 15:02
+ */
+public final class TreeSnapshot {
+
+    private static final long[] NO_IDS = new long[0];
+
+    private final long treeId;
+
+    private final long version;
+
+    private final long[] ids;
+
+    private final long[] nestedSetLefts;
+
+    private final long[] nestedSetRights;
+
+    private final int[] ordinalNumbers;
+
+    private final int[] parentIndexes;
+
+    private final int[] depths;
+
+    /**
+     * Der Index hinter dem letzten Nachfahren eines Knotens.
+     */
+    private final int[] subtreeEnds;
+
+    /**
+     * Die Ids der Knoten in aufsteigender Reihenfolge, um den Index eines
+     * Knotens binär zu suchen.
+     */
+    private final long[] sortedIds;
+
+    private final int[] sortedIdIndexes;
+
+    /**
+     * Der Index für die Suche nach dem tiefsten gemeinsamen Vorfahren. Er
+     * wird bei der ersten Verwendung aufgebaut; gleichzeitige Aufbauten
+     * liefern gleiche Indizes.
+     */
+    private volatile AncestorIndex ancestorIndex;
+
+    private TreeSnapshot(long treeId, long version, long[] ids, long[] nestedSetLefts, long[] nestedSetRights, int[] ordinalNumbers) {
+        this.treeId = treeId;
+        this.version = version;
+        this.ids = ids;
+        this.nestedSetLefts = nestedSetLefts;
+        this.nestedSetRights = nestedSetRights;
+        this.ordinalNumbers = ordinalNumbers;
+
+        int size = ids.length;
+        this.parentIndexes = new int[size];
+        this.depths = new int[size];
+        this.subtreeEnds = new int[size];
+
+        // Die Knoten sind nach der linken Grenze sortiert. Der Stack enthält
+        // immer den Pfad von der Wurzel zum aktuellen Knoten.
+        int[] stack = new int[16];
+        int stackSize = 0;
+        for (int i = 0; i < size; i++) {
+            while (stackSize > 0 && nestedSetRights[stack[stackSize - 1]] < nestedSetLefts[i]) {
+                this.subtreeEnds[stack[--stackSize]] = i;
+            }
+            this.parentIndexes[i] = (stackSize > 0 ? stack[stackSize - 1] : -1);
+            this.depths[i] = stackSize;
+
+            if (stackSize == stack.length) {
+                stack = Arrays.copyOf(stack, stackSize * 2);
+            }
+            stack[stackSize++] = i;
+        }
+        while (stackSize > 0) {
+            this.subtreeEnds[stack[--stackSize]] = size;
+        }
+
+        this.sortedIds = ids.clone();
+        Arrays.sort(this.sortedIds);
+        this.sortedIdIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.sortedIdIndexes[Arrays.binarySearch(this.sortedIds, ids[i])] = i;
+        }
+    }
+
+    private TreeSnapshot(TreeSnapshot snapshot, long version) {
+        this.treeId = snapshot.treeId;
+        this.version = version;
+        this.ids = snapshot.ids;
+        this.nestedSetLefts = snapshot.nestedSetLefts;
+        this.nestedSetRights = snapshot.nestedSetRights;
+        this.ordinalNumbers = snapshot.ordinalNumbers;
+        this.parentIndexes = snapshot.parentIndexes;
+        this.depths = snapshot.depths;
+        this.subtreeEnds = snapshot.subtreeEnds;
+        this.sortedIds = snapshot.sortedIds;
+        this.sortedIdIndexes = snapshot.sortedIdIndexes;
+        this.ancestorIndex = snapshot.ancestorIndex;
+    }
+
+    /**
+     * Erzeugt eine Momentaufnahme aus den angegebenen Daten der Knoten.
+     * <p>
+     * Alle Arrays müssen gleich lang und nach der linken NestedSet-Grenze
+     * sortiert sein. Die Momentaufnahme übernimmt die Arrays; sie dürfen
+     * danach nicht mehr verändert werden.
+     * </p>
+     *
+     * @param treeId          Die Id des Baumes.
+     * @param ids             Die Ids der Knoten.
+     * @param nestedSetLefts  Die linken NestedSet-Grenzen.
+     * @param nestedSetRights Die rechten NestedSet-Grenzen.
+     * @param ordinalNumbers  Die Positionen der Knoten.
+     * @return Die Momentaufnahme.
+     * @throws IllegalArgumentException Wenn die Arrays verschieden lang sind.
+     */
+    public static TreeSnapshot create(long treeId, long[] ids, long[] nestedSetLefts, long[] nestedSetRights, int[] ordinalNumbers) {
+        if (ids.length != nestedSetLefts.length || ids.length != nestedSetRights.length || ids.length != ordinalNumbers.length) {
+            throw new IllegalArgumentException("the node data arrays must have the same length");
+        }
+        return new TreeSnapshot(treeId, 0, ids, nestedSetLefts, nestedSetRights, ordinalNumbers);
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * Liefert die Version dieser Momentaufnahme. Jede übernommene Änderung
+     * erhöht die Version.
+     *
+     * @return Die Version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Liefert diese Momentaufnahme mit der angegebenen Version. Die neue
+     * Momentaufnahme teilt alle Daten mit dieser.
+     *
+     * @param version Die Version.
+     * @return Die Momentaufnahme mit der angegebenen Version.
+     */
+    public TreeSnapshot withVersion(long version) {
+        return (version == this.version ? this : new TreeSnapshot(this, version));
+    }
+
+    /**
+     * Erzeugt die nächste Version dieser Momentaufnahme mit einem neuen
+     * Blatt.
+     * <p>
+     * Zuerst werden alle Grenzen größer oder gleich der linken Grenze des
+     * Blattes um <code>boundShift</code> verschoben. Die Positionen der
+     * Geschwister hinter dem Blatt werden erhöht. Diese Momentaufnahme wird
+     * nicht verändert.
+     * </p>
+     *
+     * @param nodeId         Die Id des neuen Blattes.
+     * @param nestedSetLeft  Die linke Grenze des neuen Blattes.
+     * @param nestedSetRight Die rechte Grenze des neuen Blattes.
+     * @param ordinalNumber  Die Position des neuen Blattes.
+     * @param boundShift     Die Verschiebung der folgenden Grenzen; 0 wenn
+     *                       das Blatt in eine Lücke gelegt wurde.
+     * @return Die neue Momentaufnahme.
+     * @throws IllegalArgumentException Wenn das Blatt bereits Teil dieser
+     *                                  Momentaufnahme ist oder darin keinen
+     *                                  Elternknoten hat.
+     */
+    public TreeSnapshot insertLeaf(long nodeId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, long boundShift) {
+        if (indexOf(nodeId) >= 0) {
+            throw new IllegalArgumentException("node " + nodeId + " is already part of the snapshot");
+        }
+
+        int size = this.ids.length;
+        int position = 0;
+        while (position < size && this.nestedSetLefts[position] < nestedSetLeft) {
+            position++;
+        }
+
+        // Der Vater ist der nächste Knoten vor der Einfügeposition, dessen
+        // verschobene rechte Grenze hinter dem neuen Blatt liegt.
+        int parent = position - 1;
+        while (parent >= 0 && shift(this.nestedSetRights[parent], nestedSetLeft, boundShift) < nestedSetRight) {
+            parent = this.parentIndexes[parent];
+        }
+        if (parent < 0) {
+            throw new IllegalArgumentException("the leaf " + nodeId + " has no parent in the snapshot");
+        }
+
+        long[] newIds = new long[size + 1];
+        long[] newNestedSetLefts = new long[size + 1];
+        long[] newNestedSetRights = new long[size + 1];
+        int[] newOrdinalNumbers = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            int target = (i < position ? i : i + 1);
+            newIds[target] = this.ids[i];
+            newNestedSetLefts[target] = shift(this.nestedSetLefts[i], nestedSetLeft, boundShift);
+            newNestedSetRights[target] = shift(this.nestedSetRights[i], nestedSetLeft, boundShift);
+            newOrdinalNumbers[target] = this.ordinalNumbers[i];
+        }
+        newIds[position] = nodeId;
+        newNestedSetLefts[position] = nestedSetLeft;
+        newNestedSetRights[position] = nestedSetRight;
+        newOrdinalNumbers[position] = ordinalNumber;
+
+        for (int child = parent + 1; child < this.subtreeEnds[parent]; child = this.subtreeEnds[child]) {
+            int target = (child < position ? child : child + 1);
+            if (newOrdinalNumbers[target] >= ordinalNumber) {
+                newOrdinalNumbers[target]++;
+            }
+        }
+
+        return new TreeSnapshot(this.treeId, this.version + 1, newIds, newNestedSetLefts, newNestedSetRights, newOrdinalNumbers);
+    }
+
+    /**
+     * Erzeugt die nächste Version dieser Momentaufnahme ohne die Knoten,
+     * deren linke Grenze im angegebenen Bereich liegt.
+     * <p>
+     * Danach werden alle Grenzen größer als <code>rightNestedSetIndex</code>
+     * um <code>boundShift</code> verschoben. Diese Momentaufnahme wird nicht
+     * verändert.
+     * </p>
+     *
+     * @param leftNestedSetIndex  Die linke Grenze des entfernten Teilbaumes.
+     * @param rightNestedSetIndex Die rechte Grenze des entfernten Teilbaumes.
+     * @param boundShift          Die Verschiebung der folgenden Grenzen; 0
+     *                            wenn die Lücke frei bleibt.
+     * @return Die neue Momentaufnahme.
+     */
+    public TreeSnapshot removeSubtree(long leftNestedSetIndex, long rightNestedSetIndex, long boundShift) {
+        int size = this.ids.length;
+        int from = 0;
+        while (from < size && this.nestedSetLefts[from] < leftNestedSetIndex) {
+            from++;
+        }
+        int to = from;
+        while (to < size && this.nestedSetLefts[to] <= rightNestedSetIndex) {
+            to++;
+        }
+
+        int newSize = size - (to - from);
+        long[] newIds = new long[newSize];
+        long[] newNestedSetLefts = new long[newSize];
+        long[] newNestedSetRights = new long[newSize];
+        int[] newOrdinalNumbers = new int[newSize];
+        for (int i = 0, target = 0; i < size; i++) {
+            if (i >= from && i < to) {
+                continue;
+            }
+            newIds[target] = this.ids[i];
+            newNestedSetLefts[target] = shift(this.nestedSetLefts[i], rightNestedSetIndex + 1, boundShift);
+            newNestedSetRights[target] = shift(this.nestedSetRights[i], rightNestedSetIndex + 1, boundShift);
+            newOrdinalNumbers[target] = this.ordinalNumbers[i];
+            target++;
+        }
+
+        return new TreeSnapshot(this.treeId, this.version + 1, newIds, newNestedSetLefts, newNestedSetRights, newOrdinalNumbers);
+    }
+
+    private static long shift(long bound, long fromNestedSetIndex, long delta) {
+        return (bound >= fromNestedSetIndex ? bound + delta : bound);
+    }
+
+    /**
+     * Liefert die Anzahl der Knoten in dieser Momentaufnahme.
+     *
+     * @return Die Anzahl der Knoten.
+     */
+    public int size() {
+        return this.ids.length;
+    }
+
+    /**
+     * Liefert den Index des Knotens mit der angegebenen Id.
+     *
+     * @param nodeId Die Id des Knotens.
+     * @return Der Index des Knotens oder -1 wenn der Knoten nicht Teil dieser
+     *         Momentaufnahme ist.
+     */
+    public int indexOf(long nodeId) {
+        int position = Arrays.binarySearch(this.sortedIds, nodeId);
+        return (position < 0 ? -1 : this.sortedIdIndexes[position]);
+    }
+
+    /**
+     * Liefert den Index der Wurzel.
+     *
+     * @return Der Index der Wurzel oder -1 wenn diese Momentaufnahme leer
+     *         ist.
+     */
+    public int getRootIndex() {
+        return (this.ids.length > 0 ? 0 : -1);
+    }
+
+    public long getId(int index) {
+        return this.ids[index];
+    }
+
+    public long getNestedSetLeft(int index) {
+        return this.nestedSetLefts[index];
+    }
+
+    public long getNestedSetRight(int index) {
+        return this.nestedSetRights[index];
+    }
+
+    public int getOrdinalNumber(int index) {
+        return this.ordinalNumbers[index];
+    }
+
+    /**
+     * Liefert den Index des Elternknotens des angegebenen Knotens.
+     *
+     * @param index Der Index des Knotens.
+     * @return Der Index des Elternknotens oder -1 für die Wurzel.
+     */
+    public int getParentIndex(int index) {
+        return this.parentIndexes[index];
+    }
+
+    /**
+     * Liefert die Tiefe des angegebenen Knotens. Die Wurzel hat die Tiefe 0.
+     *
+     * @param index Der Index des Knotens.
+     * @return Die Tiefe des Knotens.
+     */
+    public int getDepth(int index) {
+        return this.depths[index];
+    }
+
+    /**
+     * Liefert die Anzahl der Nachfahren des angegebenen Knotens.
+     *
+     * @param index Der Index des Knotens.
+     * @return Die Anzahl der Nachfahren.
+     */
+    public int countDescendants(int index) {
+        return this.subtreeEnds[index] - index - 1;
+    }
+
+    /**
+     * Liefert die Ids der Kinder des angegebenen Knotens in der Reihenfolge
+     * ihrer Positionen.
+     *
+     * @param nodeId Die Id des Knotens.
+     * @return Die Ids der Kinder; leer wenn der Knoten unbekannt oder ein
+     *         Blatt ist.
+     */
+    public long[] findChildren(long nodeId) {
+        int index = indexOf(nodeId);
+        if (index < 0) {
+            return NO_IDS;
+        }
+
+        int count = 0;
+        for (int child = index + 1; child < this.subtreeEnds[index]; child = this.subtreeEnds[child]) {
+            count++;
+        }
+        long[] children = new long[count];
+        count = 0;
+        for (int child = index + 1; child < this.subtreeEnds[index]; child = this.subtreeEnds[child]) {
+            children[count++] = this.ids[child];
+        }
+        return children;
+    }
+
+    /**
+     * Liefert die Ids der Vorfahren des angegebenen Knotens. Die Wurzel kommt
+     * zuerst, der Elternknoten zuletzt.
+     *
+     * @param nodeId Die Id des Knotens.
+     * @return Die Ids der Vorfahren; leer wenn der Knoten unbekannt oder die
+     *         Wurzel ist.
+     */
+    public long[] findAncestors(long nodeId) {
+        int index = indexOf(nodeId);
+        if (index < 0) {
+            return NO_IDS;
+        }
+
+        long[] ancestors = new long[this.depths[index]];
+        for (int ancestor = this.parentIndexes[index], i = ancestors.length - 1; ancestor >= 0; ancestor = this.parentIndexes[ancestor], i--) {
+            ancestors[i] = this.ids[ancestor];
+        }
+        return ancestors;
+    }
+
+    /**
+     * Liefert die Ids der Nachfahren des angegebenen Knotens in Pre-Order.
+     *
+     * @param nodeId Die Id des Knotens.
+     * @return Die Ids der Nachfahren; leer wenn der Knoten unbekannt oder ein
+     *         Blatt ist.
+     */
+    public long[] findDescendants(long nodeId) {
+        int index = indexOf(nodeId);
+        if (index < 0) {
+            return NO_IDS;
+        }
+        return Arrays.copyOfRange(this.ids, index + 1, this.subtreeEnds[index]);
+    }
+
+    /**
+     * Liefert den tiefsten gemeinsamen Vorfahren der angegebenen Knoten in
+     * konstanter Zeit.
+     * <p>
+     * Ein Knoten gilt als sein eigener Vorfahre; ist einer der Knoten ein
+     * Vorfahre des anderen, ist er das Ergebnis.
+     * </p>
+     *
+     * @param index1 Der Index des ersten Knotens.
+     * @param index2 Der Index des zweiten Knotens.
+     * @return Der Index des tiefsten Knotens, der beide Knoten umschließt.
+     */
+    public int lowestCommonAncestor(int index1, int index2) {
+        if (index1 == index2) {
+            return index1;
+        }
+
+        AncestorIndex ancestorIndex = this.ancestorIndex;
+        if (ancestorIndex == null) {
+            ancestorIndex = new AncestorIndex(this.depths);
+            this.ancestorIndex = ancestorIndex;
+        }
+
+        // Der flachste Knoten zwischen den beiden Knoten (in Pre-Order) ist
+        // ein Kind des gemeinsamen Vorfahren.
+        int shallowest = ancestorIndex.findShallowest(Math.min(index1, index2) + 1, Math.max(index1, index2), this.depths);
+        return this.parentIndexes[shallowest];
+    }
+
+    /**
+     * Liefert die Id des tiefsten gemeinsamen Vorfahren der angegebenen
+     * Knoten.
+     *
+     * @param nodeId1 Die Id des ersten Knotens.
+     * @param nodeId2 Die Id des zweiten Knotens.
+     * @return Die Id des tiefsten gemeinsamen Vorfahren oder -1 wenn ein
+     *         Knoten unbekannt ist.
+     * @see #lowestCommonAncestor(int, int)
+     */
+    public long findLowestCommonAncestor(long nodeId1, long nodeId2) {
+        int index1 = indexOf(nodeId1);
+        int index2 = indexOf(nodeId2);
+        if (index1 < 0 || index2 < 0) {
+            return -1;
+        }
+        return this.ids[lowestCommonAncestor(index1, index2)];
+    }
+
+    /**
+     * Implementiert eine Sparse Table über die Tiefen der Knoten in
+     * Pre-Order.
+     * <p>
+     * Zwischen zwei Knoten liegen in Pre-Order die restlichen Nachfahren des
+     * ersten Knotens und die Teilbäume auf dem Pfad zum zweiten Knoten. Der
+     * flachste von ihnen ist ein Kind des tiefsten gemeinsamen Vorfahren, die
+     * Suche nach dem Minimum eines Bereichs beantwortet also die Suche nach
+     * dem Vorfahren. Gegenüber einer Euler-Tour braucht die Tabelle nur halb
+     * so viele Einträge. Ebene <code>k</code> der Tabelle enthält den
+     * flachsten Knoten jedes Bereichs der Länge <code>2^(k + 1)</code>; die
+     * Bereiche der Länge 1 sind die Knoten selbst.
+     * </p>
+     */
+    private static class AncestorIndex {
+
+        private final int[][] levels;
+
+        private AncestorIndex(int[] depths) {
+            int size = depths.length;
+            int levelCount = Math.max(0, 31 - Integer.numberOfLeadingZeros(size));
+            this.levels = new int[levelCount][];
+
+            for (int level = 0; level < levelCount; level++) {
+                int half = 1 << level;
+                int[] ranges = new int[size - 2 * half + 1];
+                for (int i = 0; i < ranges.length; i++) {
+                    int left = (level == 0 ? i : this.levels[level - 1][i]);
+                    int right = (level == 0 ? i + 1 : this.levels[level - 1][i + half]);
+                    ranges[i] = (depths[right] < depths[left] ? right : left);
+                }
+                this.levels[level] = ranges;
+            }
+        }
+
+        /**
+         * Sucht den flachsten Knoten im angegebenen Bereich von Indizes.
+         *
+         * @param from   Der erste Index (inklusiv).
+         * @param to     Der letzte Index (inklusiv).
+         * @param depths Die Tiefen der Knoten.
+         * @return Der Index des flachsten Knotens.
+         */
+        private int findShallowest(int from, int to, int[] depths) {
+            int length = to - from + 1;
+            if (length == 1) {
+                return from;
+            }
+            int level = 30 - Integer.numberOfLeadingZeros(length);
+            int left = this.levels[level][from];
+            int right = this.levels[level][to - (2 << level) + 1];
+            return (depths[right] < depths[left] ? right : left);
+        }
+    }
+}
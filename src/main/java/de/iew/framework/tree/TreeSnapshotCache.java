@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.persistence.TreeChangedEvent;
+import de.iew.framework.persistence.TreeCommitListener;
+import de.iew.framework.persistence.TreeOperationDao;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hält je Baum eine Momentaufnahme ({@link TreeSnapshot}) vor.
+ * <p>
+ * Eine Momentaufnahme wird bei der ersten Anfrage mit einer einzigen Abfrage
+ * geladen. Der Cache meldet sich als {@link TreeCommitListener} an. Nachdem
+ * eine Änderung eines Baumes festgeschrieben wurde, werden die
+ * aufgezeichneten Einfügungen und entfernten Teilbäume copy-on-write auf die
+ * aktuelle Momentaufnahme angewendet; das ergibt ihre nächste Version. Jede
+ * andere Änderung verwirft die Momentaufnahme, die nächste Anfrage lädt und
+ * veröffentlicht eine neue. Lesende Threads warten nie auf schreibende und
+ * sehen immer eine vollständige Momentaufnahme.
+ * </p>
+ * <p>
+ * Vom Beginn des Commits bis zum Abschluss der Transaktion werden geladene
+ * Momentaufnahmen nicht veröffentlicht. Sie können den Stand vor oder nach
+ * dem Commit enthalten; die Änderungen dürfen aber nur auf den alten Stand
+ * angewendet werden.
+ * </p>
+ * <p>
+ * Ein Thread kann die Versionen mit {@link #pinVersions()} festhalten, z.B.
+ * für die Dauer eines Requests. Bis {@link #releaseVersions()} aufgerufen
+ * wird, liefert {@link #getSnapshot(long)} die Version eines Baumes, die der
+ * Thread zuerst gesehen hat.
+ * </p>
+ * <p>
+ * Das Laden einer Momentaufnahme benötigt eine aktive Hibernate-Session,
+ * {@link #getSnapshot(long)} sollte also innerhalb einer Transaktion
+ * aufgerufen werden.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 06.04.13 - 16:40
+ */
+@Component
+public class TreeSnapshotCache implements TreeCommitListener, InitializingBean, DisposableBean {
+
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+
+    private final ThreadLocal<Map<Long, TreeSnapshot>> pinnedSnapshots = new ThreadLocal<Map<Long, TreeSnapshot>>();
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeOperationDao);
+        this.treeOperationDao.addTreeChangeListener(this);
+    }
+
+    public void destroy() throws Exception {
+        this.treeOperationDao.removeTreeChangeListener(this);
+    }
+
+    /**
+     * Liefert die Momentaufnahme des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Momentaufnahme des Baumes.
+     */
+    public TreeSnapshot getSnapshot(long treeId) {
+        Map<Long, TreeSnapshot> pinned = this.pinnedSnapshots.get();
+        if (pinned != null) {
+            TreeSnapshot snapshot = pinned.get(treeId);
+            if (snapshot == null) {
+                snapshot = getCurrentSnapshot(treeId);
+                pinned.put(treeId, snapshot);
+            }
+            return snapshot;
+        }
+        return getCurrentSnapshot(treeId);
+    }
+
+    /**
+     * Hält die Versionen für den aktuellen Thread fest. Jeder danach
+     * angefragte Baum behält die Version seiner ersten Anfrage, bis
+     * {@link #releaseVersions()} aufgerufen wird. Hat keinen Effekt, wenn die
+     * Versionen bereits festgehalten sind.
+     */
+    public void pinVersions() {
+        if (this.pinnedSnapshots.get() == null) {
+            this.pinnedSnapshots.set(new HashMap<Long, TreeSnapshot>());
+        }
+    }
+
+    /**
+     * Gibt die vom aktuellen Thread festgehaltenen Versionen frei.
+     */
+    public void releaseVersions() {
+        this.pinnedSnapshots.remove();
+    }
+
+    public void treeChanged(long treeId) {
+        evict(treeId);
+    }
+
+    public void treeChanged(long treeId, List<TreeChangedEvent> events) {
+        Entry entry = this.entries.get(treeId);
+        if (entry != null) {
+            entry.apply(events);
+        }
+    }
+
+    public void beforeTreeCommit(long treeId) {
+        // Der Eintrag muss auch für bisher ungeladene Bäume existieren, damit
+        // kein Leser während des Commits veröffentlicht.
+        getEntry(treeId).beginCommit();
+    }
+
+    public void afterTreeCompletion(long treeId) {
+        Entry entry = this.entries.get(treeId);
+        if (entry != null) {
+            entry.endCommit();
+        }
+    }
+
+    /**
+     * Verwirft die Momentaufnahme des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     */
+    public void evict(long treeId) {
+        Entry entry = this.entries.get(treeId);
+        if (entry != null) {
+            entry.invalidate();
+        }
+    }
+
+    /**
+     * Verwirft alle Momentaufnahmen.
+     */
+    public void clear() {
+        for (Entry entry : this.entries.values()) {
+            entry.invalidate();
+        }
+    }
+
+    private TreeSnapshot getCurrentSnapshot(long treeId) {
+        Entry entry = getEntry(treeId);
+
+        TreeSnapshot snapshot = entry.snapshot;
+        if (snapshot == null) {
+            long generation = entry.getGeneration();
+            snapshot = entry.publish(generation, this.treeOperationDao.loadTreeSnapshot(treeId));
+        }
+        return snapshot;
+    }
+
+    private Entry getEntry(long treeId) {
+        Entry entry = this.entries.get(treeId);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = this.entries.putIfAbsent(treeId, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Hält die aktuelle Momentaufnahme eines Baumes. Die Generation wird bei
+     * jeder Änderung sowie zu Beginn und am Ende jedes Commits erhöht. Eine
+     * Momentaufnahme, die vor oder während eines Commits geladen wurde, wird
+     * daher nie veröffentlicht. Die Version wird bei jeder veröffentlichten
+     * Momentaufnahme erhöht.
+     */
+    private static class Entry {
+
+        private volatile TreeSnapshot snapshot;
+
+        private long generation;
+
+        private long version;
+
+        /**
+         * Die Anzahl der laufenden Commits.
+         */
+        private int commits;
+
+        private synchronized long getGeneration() {
+            return this.generation;
+        }
+
+        private synchronized TreeSnapshot publish(long generation, TreeSnapshot snapshot) {
+            if (this.generation != generation || this.commits > 0) {
+                return snapshot.withVersion(this.version);
+            }
+            this.snapshot = snapshot.withVersion(++this.version);
+            return this.snapshot;
+        }
+
+        private synchronized void apply(List<TreeChangedEvent> events) {
+            TreeSnapshot current = this.snapshot;
+            this.generation++;
+            if (current == null) {
+                return;
+            }
+
+            try {
+                for (TreeChangedEvent event : events) {
+                    switch (event.getType()) {
+                        case NODE_INSERTED:
+                            current = current.insertLeaf(event.getNodeId(), event.getLeftNestedSetIndex(),
+                                    event.getRightNestedSetIndex(), event.getOrdinalNumber(), event.getBoundShift());
+                            break;
+                        case SUBTREE_REMOVED:
+                            current = current.removeSubtree(event.getLeftNestedSetIndex(),
+                                    event.getRightNestedSetIndex(), event.getBoundShift());
+                            break;
+                        default:
+                            invalidate();
+                            return;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // Die Änderungen passen nicht zum aktuellen Stand; der
+                // Snapshot wird beim nächsten Zugriff neu geladen.
+                invalidate();
+                return;
+            }
+            this.snapshot = current.withVersion(++this.version);
+        }
+
+        private synchronized void invalidate() {
+            this.generation++;
+            this.snapshot = null;
+        }
+
+        private synchronized void beginCommit() {
+            this.commits++;
+            this.generation++;
+        }
+
+        private synchronized void endCommit() {
+            if (this.commits > 0) {
+                this.commits--;
+            }
+            this.generation++;
+        }
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeOperationDao treeOperationDao;
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+}
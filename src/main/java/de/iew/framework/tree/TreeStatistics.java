@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.persistence.NodeRowHandler;
+
+import java.util.Arrays;
+
+/**
+ * Beschreibt die Form eines Baumes: die Anzahl der Knoten, die Anzahl der
+ * Knoten je Tiefe, die maximale Anzahl der Kinder eines Knotens und die
+ * durchschnittliche Größe der Teilbäume.
+ * <p>
+ * Instanzen sind unveränderlich und werden von einem {@link Builder} erzeugt.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @see TreeStatisticsService#getStatistics(long)
+ * @since 09.04.13 - 20:40
+ */
+public final class TreeStatistics {
+
+    private final long treeId;
+
+    private final long nodeCount;
+
+    private final long[] depthHistogram;
+
+    private final int maxFanOut;
+
+    private final double averageSubtreeSize;
+
+    private TreeStatistics(Builder builder) {
+        this.treeId = builder.treeId;
+        this.nodeCount = builder.nodeCount;
+        this.depthHistogram = Arrays.copyOf(builder.depthHistogram, builder.maxDepth + 1);
+        this.maxFanOut = builder.maxFanOut;
+        // Jeder Knoten gehört zu den Teilbäumen seiner Vorfahren und zu
+        // seinem eigenen, also ist die Summe der Teilbaumgrößen die Summe
+        // der Tiefen plus 1.
+        this.averageSubtreeSize = (builder.nodeCount == 0 ? 0 : (double) builder.subtreeSizeSum / builder.nodeCount);
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Knoten je Tiefe. Die Wurzel hat die Tiefe 0.
+     *
+     * @return Die Anzahl der Knoten, indiziert nach der Tiefe.
+     */
+    public long[] getDepthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    /**
+     * Liefert die Tiefe des tiefsten Knotens.
+     *
+     * @return Die maximale Tiefe oder -1 wenn der Baum leer ist.
+     */
+    public int getMaxDepth() {
+        return depthHistogram.length - 1;
+    }
+
+    /**
+     * Liefert die maximale Anzahl der Kinder eines Knotens.
+     *
+     * @return Der maximale Verzweigungsgrad.
+     */
+    public int getMaxFanOut() {
+        return maxFanOut;
+    }
+
+    /**
+     * Liefert die durchschnittliche Anzahl der Knoten eines Teilbaumes,
+     * einschließlich der Wurzel des Teilbaumes.
+     *
+     * @return Die durchschnittliche Größe der Teilbäume oder 0 wenn der Baum
+     *         leer ist.
+     */
+    public double getAverageSubtreeSize() {
+        return averageSubtreeSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeStatistics{" +
+                "treeId=" + treeId +
+                ", nodeCount=" + nodeCount +
+                ", depthHistogram=" + Arrays.toString(depthHistogram) +
+                ", maxFanOut=" + maxFanOut +
+                ", averageSubtreeSize=" + averageSubtreeSize +
+                '}';
+    }
+
+    /**
+     * Berechnet die Statistik in einem Durchlauf über die NestedSet-Grenzen.
+     * Die Zeilen müssen in der Reihenfolge ihrer linken NestedSet-Grenzen
+     * übergeben werden. Die Tiefen werden über einen Stapel der rechten
+     * Grenzen der offenen Vorfahren bestimmt; die gespeicherten Tiefen werden
+     * also nicht benötigt.
+     * <p>
+     * Instanzen sind nicht threadsicher.
+     * </p>
+     */
+    public static class Builder implements NodeRowHandler {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final long treeId;
+
+        private long nodeCount;
+
+        private long[] depthHistogram = new long[INITIAL_CAPACITY];
+
+        private int maxDepth = -1;
+
+        private int maxFanOut;
+
+        private long subtreeSizeSum;
+
+        private long[] rightBounds = new long[INITIAL_CAPACITY];
+
+        private int[] childCounts = new int[INITIAL_CAPACITY];
+
+        private int stackSize;
+
+        public Builder(long treeId) {
+            this.treeId = treeId;
+        }
+
+        public void handleRow(long nodeId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, Long dataSourceId) {
+            addRow(nestedSetLeft, nestedSetRight);
+        }
+
+        /**
+         * Fügt einen Knoten hinzu.
+         *
+         * @param nestedSetLeft  Die linke NestedSet-Grenze.
+         * @param nestedSetRight Die rechte NestedSet-Grenze.
+         * @return Dieser Builder.
+         */
+        public Builder addRow(long nestedSetLeft, long nestedSetRight) {
+            while (this.stackSize > 0 && this.rightBounds[this.stackSize - 1] < nestedSetLeft) {
+                this.stackSize--;
+            }
+            int depth = this.stackSize;
+
+            if (depth > 0) {
+                int childCount = ++this.childCounts[depth - 1];
+                this.maxFanOut = Math.max(this.maxFanOut, childCount);
+            }
+
+            if (depth == this.rightBounds.length) {
+                this.rightBounds = Arrays.copyOf(this.rightBounds, depth * 2);
+                this.childCounts = Arrays.copyOf(this.childCounts, depth * 2);
+            }
+            this.rightBounds[depth] = nestedSetRight;
+            this.childCounts[depth] = 0;
+            this.stackSize++;
+
+            if (depth == this.depthHistogram.length) {
+                this.depthHistogram = Arrays.copyOf(this.depthHistogram, depth * 2);
+            }
+            this.depthHistogram[depth]++;
+            this.maxDepth = Math.max(this.maxDepth, depth);
+
+            this.nodeCount++;
+            this.subtreeSizeSum += depth + 1;
+            return this;
+        }
+
+        /**
+         * Erzeugt die Statistik der bisher hinzugefügten Knoten.
+         *
+         * @return Die Statistik.
+         */
+        public TreeStatistics build() {
+            return new TreeStatistics(this);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.persistence.TreeChangeListener;
+import de.iew.framework.persistence.TreeOperationDao;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Berechnet die {@link TreeStatistics} der Bäume und hält sie vor.
+ * <p>
+ * Die Statistik wird in einem Durchlauf über die NestedSet-Grenzen berechnet
+ * (siehe {@link TreeOperationDao#visitNodeRows(long, de.iew.framework.persistence.NodeRowHandler)}),
+ * es wird also keine {@link de.iew.framework.domain.Node} Entität geladen.
+ * Als gelöscht markierte Teilbäume werden nicht gezählt. Der Service meldet
+ * sich als {@link TreeChangeListener} an und verwirft die Statistik eines
+ * Baumes, nachdem eine Änderung des Baumes festgeschrieben wurde; die nächste
+ * Anfrage berechnet sie neu.
+ * </p>
+ * <p>
+ * Bäume mit NestedInterval-Kodierung werden nicht unterstützt.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 09.04.13 - 20:55
+ */
+@Component
+public class TreeStatisticsService implements TreeChangeListener, InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(TreeStatisticsService.class);
+
+    private final ConcurrentMap<Long, TreeStatistics> statistics = new ConcurrentHashMap<Long, TreeStatistics>();
+
+    private final ConcurrentMap<Long, Long> generations = new ConcurrentHashMap<Long, Long>();
+
+    private TransactionTemplate transactionTemplate;
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeOperationDao);
+        Assert.notNull(this.transactionManager);
+
+        this.transactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+
+        this.treeOperationDao.addTreeChangeListener(this);
+    }
+
+    public void destroy() throws Exception {
+        this.treeOperationDao.removeTreeChangeListener(this);
+    }
+
+    /**
+     * Liefert die Statistik des angegebenen Baumes. Nimmt an der laufenden
+     * Transaktion teil oder öffnet eine lesende Transaktion.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Statistik.
+     */
+    public TreeStatistics getStatistics(final long treeId) {
+        TreeStatistics treeStatistics = this.statistics.get(treeId);
+        if (treeStatistics != null) {
+            return treeStatistics;
+        }
+
+        long generation = getGeneration(treeId);
+        treeStatistics = this.transactionTemplate.execute(new TransactionCallback<TreeStatistics>() {
+            public TreeStatistics doInTransaction(TransactionStatus status) {
+                TreeStatistics.Builder builder = new TreeStatistics.Builder(treeId);
+                treeOperationDao.visitNodeRows(treeId, builder);
+                return builder.build();
+            }
+        });
+
+        if (log.isDebugEnabled()) {
+            log.debug("Die Statistik von Baum " + treeId + " wurde berechnet: " + treeStatistics);
+        }
+
+        // Eine Statistik, die während einer Änderung berechnet wurde, wird
+        // nicht gespeichert.
+        this.statistics.put(treeId, treeStatistics);
+        if (generation != getGeneration(treeId)) {
+            this.statistics.remove(treeId, treeStatistics);
+        }
+        return treeStatistics;
+    }
+
+    /**
+     * Liefert die Ids der Bäume, deren Statistik vorgehalten wird.
+     *
+     * @return Die Ids der Bäume.
+     */
+    public Set<Long> getCachedTreeIds() {
+        return this.statistics.keySet();
+    }
+
+    public void treeChanged(long treeId) {
+        evict(treeId);
+    }
+
+    /**
+     * Verwirft die Statistik des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     */
+    public void evict(long treeId) {
+        nextGeneration(treeId);
+        this.statistics.remove(treeId);
+    }
+
+    /**
+     * Verwirft alle Statistiken.
+     */
+    public void clear() {
+        for (Long treeId : this.statistics.keySet()) {
+            evict(treeId);
+        }
+    }
+
+    private long getGeneration(long treeId) {
+        Long generation = this.generations.get(treeId);
+        return (generation == null ? 0 : generation);
+    }
+
+    private void nextGeneration(long treeId) {
+        for (;;) {
+            Long generation = this.generations.get(treeId);
+            if (generation == null) {
+                if (this.generations.putIfAbsent(treeId, 1L) == null) {
+                    return;
+                }
+            } else if (this.generations.replace(treeId, generation, generation + 1)) {
+                return;
+            }
+        }
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeOperationDao treeOperationDao;
+
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+}
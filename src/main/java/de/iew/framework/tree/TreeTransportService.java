@@ -0,0 +1,424 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import de.iew.framework.domain.Tree;
+import de.iew.framework.persistence.NodeRowHandler;
+import de.iew.framework.persistence.NodeRowSource;
+import de.iew.framework.persistence.TreeDao;
+import de.iew.framework.persistence.TreeOperationDao;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Exportiert Bäume in einen kompakten binären Datenstrom und importiert sie
+ * wieder.
+ * <p>
+ * Der Datenstrom beginnt mit einem Kopf:
+ * </p>
+ * <pre>
+ * int   Magic Number 0x49455754 ("IEWT")
+ * short Version des Formats
+ * long  NestedSet-Lücke des Baumes
+ * int   Länge des UTF-8 kodierten Lookup-Keys oder -1
+ * byte* Lookup-Key
+ * </pre>
+ * <p>
+ * Auf den Kopf folgt je Knoten ein Datensatz mit vorangestellter Länge in der
+ * Reihenfolge der linken NestedSet-Grenzen. Ein Datensatz der Länge 0 beendet
+ * den Datenstrom. Leser überspringen unbekannte Bytes am Ende eines
+ * Datensatzes.
+ * </p>
+ * <pre>
+ * int   Länge des Datensatzes (36)
+ * long  Id des Knotens im exportierenden System
+ * long  linke NestedSet-Grenze
+ * long  rechte NestedSet-Grenze
+ * int   Ordnungszahl
+ * long  Id der Datenquelle oder -1
+ * </pre>
+ * <p>
+ * Alle Zahlen sind Big Endian. Beide Richtungen lesen die Zeilen über einen
+ * Puffer fester Größe; der Import schreibt die Knoten in JDBC-Batches, ohne
+ * NestedSet-Grenzen zu verschieben. Die Kanäle müssen blockierend sein.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 08.04.13 - 14:30
+ */
+@Component
+public class TreeTransportService implements InitializingBean {
+
+    private static final Log log = LogFactory.getLog(TreeTransportService.class);
+
+    public static final int MAGIC = 0x49455754;
+
+    public static final short VERSION = 1;
+
+    public static final int RECORD_LENGTH = 36;
+
+    public static final long NO_DATA_SOURCE = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private int bufferSize = 64 * 1024;
+
+    private boolean linkDataSources = false;
+
+    private TransactionTemplate transactionTemplate;
+
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.treeDao);
+        Assert.notNull(this.treeOperationDao);
+        Assert.notNull(this.transactionManager);
+        Assert.isTrue(this.bufferSize >= 1024);
+
+        this.transactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(this.transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Schreibt den angegebenen Baum in den angegebenen Kanal. Der Kanal wird
+     * nicht geschlossen.
+     *
+     * @param treeId  Die Id des Baumes.
+     * @param channel Der Zielkanal.
+     * @return Die Anzahl der exportierten Knoten.
+     * @throws IOException Wenn der Kanal nicht beschrieben werden kann.
+     */
+    public long exportTree(final long treeId, WritableByteChannel channel) throws IOException {
+        final ChannelRowWriter writer = new ChannelRowWriter(channel, this.bufferSize);
+
+        this.readOnlyTransactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                Tree tree = treeDao.findById(treeId);
+                if (tree == null) {
+                    throw new IllegalArgumentException("tree " + treeId + " does not exist");
+                }
+
+                writer.writeHeader(tree);
+                treeOperationDao.visitNodeRows(treeId, writer);
+                return null;
+            }
+        });
+        writer.finish();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Baum " + treeId + " wurde mit " + writer.rowCount + " Knoten exportiert.");
+        }
+        return writer.rowCount;
+    }
+
+    /**
+     * Liest einen Baum aus dem angegebenen Kanal und speichert ihn als neuen
+     * Baum. Der Kanal wird nicht geschlossen.
+     * <p>
+     * Die Knoten erhalten neue Ids. Die Ids der Datenquellen aus dem
+     * Datenstrom werden nur verknüpft, wenn
+     * {@link #setLinkDataSources(boolean)} aktiviert ist, also wenn die
+     * Datenquellen vorher mit denselben Ids übertragen wurden.
+     * </p>
+     *
+     * @param channel   Der Quellkanal.
+     * @param lookupKey Der Lookup-Key des neuen Baumes oder NULL, um den
+     *                  Lookup-Key aus dem Datenstrom zu verwenden.
+     * @return Der neue Baum.
+     * @throws IOException Wenn der Kanal nicht gelesen werden kann oder keinen
+     *                     Baum-Export enthält; in diesem Fall wird nichts
+     *                     gespeichert.
+     */
+    public Tree importTree(ReadableByteChannel channel, final String lookupKey) throws IOException {
+        final ChannelRowSource source = new ChannelRowSource(channel, this.bufferSize, this.linkDataSources);
+        source.readHeader();
+
+        Tree tree = this.transactionTemplate.execute(new TransactionCallback<Tree>() {
+            public Tree doInTransaction(TransactionStatus status) {
+                Tree tree = treeOperationDao.importTree((lookupKey == null ? source.lookupKey : lookupKey), source.nestedSetGap, source);
+                if (source.exception != null) {
+                    status.setRollbackOnly();
+                }
+                return tree;
+            }
+        });
+        if (source.exception != null) {
+            throw source.exception;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Baum " + tree.getId() + " wurde mit " + source.rowCount + " Knoten importiert.");
+        }
+        return tree;
+    }
+
+    /**
+     * Schreibt die Zeilen in einen Kanal. Da der Callback keine
+     * {@link IOException} werfen kann, wird die erste Exception gemerkt und
+     * die folgenden Zeilen werden verworfen.
+     */
+    private static class ChannelRowWriter implements NodeRowHandler {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private IOException exception;
+
+        private long rowCount;
+
+        private ChannelRowWriter(WritableByteChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        private void writeHeader(Tree tree) {
+            byte[] lookupKey = (tree.getLookupKey() == null ? null : tree.getLookupKey().getBytes(UTF8));
+            int length = (lookupKey == null ? 0 : lookupKey.length);
+            if (!ensureSpace(18 + length)) {
+                return;
+            }
+            this.buffer.putInt(MAGIC);
+            this.buffer.putShort(VERSION);
+            this.buffer.putLong(tree.getNestedSetGap());
+            if (lookupKey == null) {
+                this.buffer.putInt(-1);
+            } else {
+                this.buffer.putInt(length);
+                this.buffer.put(lookupKey);
+            }
+        }
+
+        public void handleRow(long nodeId, long nestedSetLeft, long nestedSetRight, int ordinalNumber, Long dataSourceId) {
+            if (!ensureSpace(4 + RECORD_LENGTH)) {
+                return;
+            }
+            this.buffer.putInt(RECORD_LENGTH);
+            this.buffer.putLong(nodeId);
+            this.buffer.putLong(nestedSetLeft);
+            this.buffer.putLong(nestedSetRight);
+            this.buffer.putInt(ordinalNumber);
+            this.buffer.putLong(dataSourceId == null ? NO_DATA_SOURCE : dataSourceId);
+            this.rowCount++;
+        }
+
+        private void finish() throws IOException {
+            if (ensureSpace(4)) {
+                this.buffer.putInt(0);
+                flush();
+            }
+            if (this.exception != null) {
+                throw this.exception;
+            }
+        }
+
+        private boolean ensureSpace(int bytes) {
+            if (this.exception != null) {
+                return false;
+            }
+            if (this.buffer.remaining() < bytes) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    this.exception = e;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * Liest die Zeilen aus einem Kanal. Da der Cursor keine
+     * {@link IOException} werfen kann, wird die erste Exception gemerkt und
+     * der Cursor meldet das Ende der Zeilen.
+     */
+    private static class ChannelRowSource implements NodeRowSource {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private final boolean linkDataSources;
+
+        private IOException exception;
+
+        private String lookupKey;
+
+        private long nestedSetGap;
+
+        private long rowCount;
+
+        private long nestedSetLeft;
+
+        private long nestedSetRight;
+
+        private int ordinalNumber;
+
+        private Long dataSourceId;
+
+        private ChannelRowSource(ReadableByteChannel channel, int bufferSize, boolean linkDataSources) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.buffer.flip();
+            this.linkDataSources = linkDataSources;
+        }
+
+        private void readHeader() throws IOException {
+            require(18);
+            if (this.buffer.getInt() != MAGIC) {
+                throw new IOException("the stream does not contain a tree export");
+            }
+            short version = this.buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("unsupported tree export version " + version);
+            }
+            this.nestedSetGap = this.buffer.getLong();
+
+            int length = this.buffer.getInt();
+            if (length > this.buffer.capacity()) {
+                throw new IOException("invalid lookup key length " + length);
+            }
+            if (length >= 0) {
+                require(length);
+                byte[] lookupKey = new byte[length];
+                this.buffer.get(lookupKey);
+                this.lookupKey = new String(lookupKey, UTF8);
+            }
+        }
+
+        public boolean next() {
+            if (this.exception != null) {
+                return false;
+            }
+            try {
+                require(4);
+                int length = this.buffer.getInt();
+                if (length == 0) {
+                    return false;
+                }
+                if (length < RECORD_LENGTH) {
+                    throw new IOException("invalid record length " + length);
+                }
+
+                require(RECORD_LENGTH);
+                this.buffer.getLong();
+                this.nestedSetLeft = this.buffer.getLong();
+                this.nestedSetRight = this.buffer.getLong();
+                this.ordinalNumber = this.buffer.getInt();
+                long dataSourceId = this.buffer.getLong();
+                this.dataSourceId = (this.linkDataSources && dataSourceId != NO_DATA_SOURCE ? dataSourceId : null);
+
+                // Unbekannte Felder neuerer Formatversionen überspringen.
+                for (int skip = length - RECORD_LENGTH; skip > 0; ) {
+                    int bytes = Math.min(skip, this.buffer.capacity());
+                    require(bytes);
+                    this.buffer.position(this.buffer.position() + bytes);
+                    skip -= bytes;
+                }
+
+                this.rowCount++;
+                return true;
+            } catch (IOException e) {
+                this.exception = e;
+                return false;
+            }
+        }
+
+        public long getNestedSetLeft() {
+            return this.nestedSetLeft;
+        }
+
+        public long getNestedSetRight() {
+            return this.nestedSetRight;
+        }
+
+        public int getOrdinalNumber() {
+            return this.ordinalNumber;
+        }
+
+        public Long getDataSourceId() {
+            return this.dataSourceId;
+        }
+
+        private void require(int bytes) throws IOException {
+            while (this.buffer.remaining() < bytes) {
+                this.buffer.compact();
+                int read = this.channel.read(this.buffer);
+                this.buffer.flip();
+                if (read < 0) {
+                    throw new EOFException("unexpected end of the tree export");
+                }
+            }
+        }
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setLinkDataSources(boolean linkDataSources) {
+        this.linkDataSources = linkDataSources;
+    }
+
+    // Spring dependencies ////////////////////////////////////////////////////
+
+    private TreeDao treeDao;
+
+    private TreeOperationDao treeOperationDao;
+
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public void setTreeDao(TreeDao treeDao) {
+        this.treeDao = treeDao;
+    }
+
+    @Autowired
+    public void setTreeOperationDao(TreeOperationDao treeOperationDao) {
+        this.treeOperationDao = treeOperationDao;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+}
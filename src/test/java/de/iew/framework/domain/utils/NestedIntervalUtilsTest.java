@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import de.iew.framework.domain.Node;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Arithmetik der NestedInterval-Kodierung in
+ * {@link NestedIntervalUtils}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 11:05
+ */
+public class NestedIntervalUtilsTest {
+
+    @Test
+    public void testCompare() {
+        assertEquals(-1, NestedIntervalUtils.compare(1, 3, 1, 2));
+        assertEquals(0, NestedIntervalUtils.compare(2, 4, 1, 2));
+        assertEquals(1, NestedIntervalUtils.compare(2, 3, 1, 2));
+        // Terme bis MAX_TERM dürfen nicht überlaufen.
+        long max = NestedIntervalUtils.MAX_TERM;
+        assertEquals(1, NestedIntervalUtils.compare(max, max - 1, 1, 1));
+        assertEquals(-1, NestedIntervalUtils.compare(max - 1, max, 1, 1));
+    }
+
+    @Test
+    public void testPlaceBetween() {
+        Node root = createInterval(0, 1, 1, 1);
+
+        Node first = new Node();
+        NestedIntervalUtils.placeBetween(0, 1, 1, 1, first);
+        assertInterval(first, 1, 2, 2, 3);
+
+        Node second = new Node();
+        NestedIntervalUtils.placeBetween(2, 3, 1, 1, second);
+        assertInterval(second, 3, 4, 4, 5);
+
+        Node grandChild = new Node();
+        NestedIntervalUtils.placeBetween(1, 2, 2, 3, grandChild);
+        assertInterval(grandChild, 3, 5, 5, 8);
+
+        assertTrue(NestedIntervalUtils.isDescendant(root, first));
+        assertTrue(NestedIntervalUtils.isDescendant(root, second));
+        assertTrue(NestedIntervalUtils.isDescendant(root, grandChild));
+        assertTrue(NestedIntervalUtils.isDescendant(first, grandChild));
+        assertFalse(NestedIntervalUtils.isDescendant(second, grandChild));
+        assertFalse(NestedIntervalUtils.isDescendant(first, first));
+        assertFalse(NestedIntervalUtils.isDescendant(grandChild, first));
+    }
+
+    @Test
+    public void testAppendedSiblingsAreDisjoint() {
+        Node parent = createInterval(1, 2, 2, 3);
+
+        Node previous = null;
+        for (int i = 0; i < 100; i++) {
+            Node child = new Node();
+            if (previous == null) {
+                NestedIntervalUtils.placeBetween(1, 2, 2, 3, child);
+            } else {
+                NestedIntervalUtils.placeBetween(previous.getIntervalRightNumerator(), previous.getIntervalRightDenominator(), 2, 3, child);
+                assertTrue(NestedIntervalUtils.compare(previous.getIntervalRightNumerator(), previous.getIntervalRightDenominator(),
+                        child.getIntervalLeftNumerator(), child.getIntervalLeftDenominator()) <= 0);
+                assertFalse(NestedIntervalUtils.isDescendant(previous, child));
+            }
+            assertTrue(NestedIntervalUtils.isDescendant(parent, child));
+            assertTrue(NestedIntervalUtils.compare(child.getIntervalLeftNumerator(), child.getIntervalLeftDenominator(),
+                    child.getIntervalRightNumerator(), child.getIntervalRightDenominator()) < 0);
+            previous = child;
+        }
+    }
+
+    @Test
+    public void testCheckTerm() {
+        long max = NestedIntervalUtils.MAX_TERM;
+        assertEquals(max, NestedIntervalUtils.checkTerm(max));
+        assertEquals(-max, NestedIntervalUtils.checkTerm(-max));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckTermRejectsOverflow() {
+        NestedIntervalUtils.checkTerm(NestedIntervalUtils.MAX_TERM + 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPlaceBetweenRejectsOverflow() {
+        long max = NestedIntervalUtils.MAX_TERM;
+        NestedIntervalUtils.placeBetween(1, max - 1, 1, 2, new Node());
+    }
+
+    @Test
+    public void testRenormalize() {
+        Node root = createInterval(0, 1, 1, 1);
+        Node first = createInterval(1, 2, 2, 3);
+        Node grandChild = createInterval(3, 5, 5, 8);
+        Node second = createInterval(3, 4, 4, 5);
+
+        NestedIntervalUtils.renormalize(Arrays.asList(root, first, grandChild, second));
+
+        assertInterval(root, 0, 1, 7, 1);
+        assertInterval(first, 1, 1, 4, 1);
+        assertInterval(grandChild, 2, 1, 3, 1);
+        assertInterval(second, 5, 1, 6, 1);
+    }
+
+    @Test
+    public void testDeepChainIsRenormalized() {
+        // Ohne Normalisierung läuft die Kette nach etwa 20 Ebenen über.
+        List<Node> chain = new ArrayList<Node>();
+        chain.add(createInterval(0, 1, 1, 1));
+
+        int renormalizations = 0;
+        for (int depth = 1; depth <= 200; depth++) {
+            Node parent = chain.get(depth - 1);
+            Node child = new Node();
+            try {
+                placeBelow(parent, child);
+            } catch (IllegalStateException e) {
+                NestedIntervalUtils.renormalize(chain);
+                renormalizations++;
+                placeBelow(parent, child);
+            }
+            chain.add(child);
+        }
+
+        assertTrue(renormalizations > 0);
+        for (int i = 1; i < chain.size(); i++) {
+            assertTrue(NestedIntervalUtils.isDescendant(chain.get(i - 1), chain.get(i)));
+            assertTrue(NestedIntervalUtils.isDescendant(chain.get(0), chain.get(i)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRenormalizeRejectsTooManyNodes() {
+        NestedIntervalUtils.renormalize(Collections.nCopies((int) (NestedIntervalUtils.MAX_TERM / 2) + 1, new Node()));
+    }
+
+    private static void placeBelow(Node parent, Node child) {
+        NestedIntervalUtils.placeBetween(parent.getIntervalLeftNumerator(), parent.getIntervalLeftDenominator(),
+                parent.getIntervalRightNumerator(), parent.getIntervalRightDenominator(), child);
+    }
+
+    protected static Node createInterval(long leftNumerator, long leftDenominator, long rightNumerator, long rightDenominator) {
+        Node node = new Node();
+        node.setIntervalLeftNumerator(leftNumerator);
+        node.setIntervalLeftDenominator(leftDenominator);
+        node.setIntervalRightNumerator(rightNumerator);
+        node.setIntervalRightDenominator(rightDenominator);
+        return node;
+    }
+
+    protected static void assertInterval(Node node, long leftNumerator, long leftDenominator, long rightNumerator, long rightDenominator) {
+        assertEquals(leftNumerator, node.getIntervalLeftNumerator());
+        assertEquals(leftDenominator, node.getIntervalLeftDenominator());
+        assertEquals(rightNumerator, node.getIntervalRightNumerator());
+        assertEquals(rightDenominator, node.getIntervalRightDenominator());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.domain.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Zusammensetzung von NestedSet-Verschiebungen in
+ * {@link NestedSetShift}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 10:15
+ */
+public class NestedSetShiftTest {
+
+    @Test
+    public void testNewShiftIsIdentity() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 0);
+
+        assertTrue(shift.isIdentity());
+        assertEquals(42, shift.map(42));
+        assertEquals(42, shift.firstOriginalAtLeast(42));
+        assertEquals(42, shift.lastOriginalAtMost(42));
+    }
+
+    @Test
+    public void testShiftMovesBoundsBehindPosition() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 2);
+
+        assertEquals(4, shift.map(4));
+        assertEquals(7, shift.map(5));
+        assertEquals(102, shift.map(100));
+
+        List<NestedSetShift.Segment> segments = shift.getSegments();
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 5, Long.MAX_VALUE, 2);
+    }
+
+    @Test
+    public void testShiftRefersToCurrentNumbering() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 2);
+        // Die aktuelle Position 12 ist die ursprüngliche Position 10.
+        shift.shift(12, 3);
+
+        assertEquals(7, shift.map(5));
+        assertEquals(11, shift.map(9));
+        assertEquals(15, shift.map(10));
+
+        List<NestedSetShift.Segment> segments = shift.getSegments();
+        assertEquals(2, segments.size());
+        assertSegment(segments.get(0), 5, 10, 2);
+        assertSegment(segments.get(1), 10, Long.MAX_VALUE, 5);
+    }
+
+    @Test
+    public void testOppositeShiftsCancelOut() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 2);
+        shift.shift(7, -2);
+
+        assertTrue(shift.isIdentity());
+        assertEquals(5, shift.map(5));
+    }
+
+    @Test
+    public void testShiftOriginalMovesOnlyTheRange() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shiftOriginal(10, 20, 3);
+
+        assertEquals(9, shift.map(9));
+        assertEquals(13, shift.map(10));
+        assertEquals(23, shift.map(20));
+        assertEquals(21, shift.map(21));
+
+        List<NestedSetShift.Segment> segments = shift.getSegments();
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 10, 21, 3);
+    }
+
+    @Test
+    public void testDeadBoundsAreSkipped() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 2);
+        // Löscht den Teilbaum mit den aktuellen Grenzen [10, 13] und schließt
+        // die Lücke.
+        shift.markDead(8, 11);
+        shift.shift(14, -4);
+
+        assertTrue(shift.isDead(8));
+        assertTrue(shift.isDead(11));
+        assertFalse(shift.isDead(12));
+        assertEquals(4, shift.map(4));
+        assertEquals(8, shift.map(6));
+        assertEquals(10, shift.map(12));
+
+        assertEquals(12, shift.firstOriginalAtLeast(10));
+        assertEquals(7, shift.lastOriginalAtMost(9));
+
+        // Das gelöschte Segment geht im vorherigen Segment auf.
+        List<NestedSetShift.Segment> segments = shift.getSegments();
+        assertEquals(2, segments.size());
+        assertSegment(segments.get(0), 5, 12, 2);
+        assertSegment(segments.get(1), 12, Long.MAX_VALUE, -2);
+    }
+
+    @Test
+    public void testGapPositionsHaveNoOriginal() {
+        NestedSetShift shift = new NestedSetShift();
+        shift.shift(5, 2);
+
+        // Die aktuellen Positionen 5 und 6 sind die Lücke des neuen Blattes.
+        assertEquals(5, shift.firstOriginalAtLeast(5));
+        assertEquals(4, shift.lastOriginalAtMost(6));
+    }
+
+    protected static void assertSegment(NestedSetShift.Segment segment, long start, long end, long delta) {
+        assertEquals(start, segment.getStart());
+        assertEquals(end, segment.getEnd());
+        assertEquals(delta, segment.getDelta());
+    }
+}
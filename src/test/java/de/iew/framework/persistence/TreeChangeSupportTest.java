@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet das Sammeln und Zusammenfassen der Änderungen in
+ * {@link TreeChangeSupport}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 12:50
+ */
+public class TreeChangeSupportTest {
+
+    private TreeChangeSupport treeChangeSupport;
+
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        this.treeChangeSupport = new TreeChangeSupport(this);
+        this.listener = new RecordingListener();
+        this.treeChangeSupport.addTreeChangeListener(this.listener);
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.unbindResourceIfPossible(this.treeChangeSupport);
+    }
+
+    @Test
+    public void testMergeKeepsSingleEvent() {
+        TreeChangedEvent event = TreeChangedEvent.nodeInserted(this, 1, 7, 4, 5, 0, 2);
+
+        assertSame(event, this.treeChangeSupport.merge(Arrays.asList(event)));
+    }
+
+    @Test
+    public void testMergeReportsSeveralEventsAsWholeTree() {
+        // Die zweite Änderung bezieht sich auf die Nummerierung nach der
+        // ersten; die Bereiche dürfen nicht vereinigt werden.
+        TreeChangedEvent merged = this.treeChangeSupport.merge(Arrays.asList(
+                TreeChangedEvent.nodeInserted(this, 1, 7, 4, 5, 0, 2),
+                TreeChangedEvent.subtreeRemoved(this, 1, 10, 15, -6)));
+
+        assertEquals(1, merged.getTreeId());
+        assertTrue(merged.isWholeTree());
+    }
+
+    @Test
+    public void testListenersAreNotifiedImmediatelyWithoutTransaction() {
+        this.treeChangeSupport.fireNodeInserted(1, 7, 4, 5, 0, 2);
+
+        assertEquals(Arrays.asList("changed 1 [NODE_INSERTED]"), this.listener.calls);
+    }
+
+    @Test
+    public void testListenersAreNotifiedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        this.treeChangeSupport.fireNodeInserted(1, 7, 4, 5, 0, 2);
+        this.treeChangeSupport.fireSubtreeRemoved(1, 10, 15, -6);
+        this.treeChangeSupport.fireTreeChanged(2, 3, 4);
+        assertTrue(this.listener.calls.isEmpty());
+
+        commit();
+
+        assertEquals(Arrays.asList(
+                "before 1", "before 2",
+                "changed 1 [NODE_INSERTED, SUBTREE_REMOVED]", "changed 2 [TREE_CHANGED]",
+                "completed 1", "completed 2"), this.listener.calls);
+        assertNull(TransactionSynchronizationManager.getResource(this.treeChangeSupport));
+    }
+
+    @Test
+    public void testManyEventsAreReportedAsWholeTree() {
+        TransactionSynchronizationManager.initSynchronization();
+        for (int i = 0; i < 40; i++) {
+            this.treeChangeSupport.fireNodeInserted(1, 100 + i, 2, 3, 0, 2);
+        }
+
+        commit();
+
+        assertEquals(1, this.listener.events.size());
+        assertEquals(1, this.listener.events.get(0).size());
+        assertTrue(this.listener.events.get(0).get(0).isWholeTree());
+    }
+
+    @Test
+    public void testNoNotificationAfterRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        this.treeChangeSupport.fireNodeInserted(1, 7, 4, 5, 0, 2);
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertTrue(this.listener.calls.isEmpty());
+        assertNull(TransactionSynchronizationManager.getResource(this.treeChangeSupport));
+    }
+
+    /**
+     * Spielt den Ablauf eines Commits der aktuellen Transaktion nach.
+     */
+    protected static void commit() {
+        TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        TransactionSynchronizationUtils.triggerAfterCommit();
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    /**
+     * Zeichnet die Aufrufe in ihrer Reihenfolge auf.
+     */
+    private static class RecordingListener implements TreeCommitListener {
+
+        private final List<String> calls = new ArrayList<String>();
+
+        private final List<List<TreeChangedEvent>> events = new ArrayList<List<TreeChangedEvent>>();
+
+        public void treeChanged(long treeId) {
+            this.calls.add("changed " + treeId);
+        }
+
+        public void treeChanged(long treeId, List<TreeChangedEvent> events) {
+            List<TreeChangedEvent.Type> types = new ArrayList<TreeChangedEvent.Type>();
+            for (TreeChangedEvent event : events) {
+                types.add(event.getType());
+            }
+            this.calls.add("changed " + treeId + " " + types);
+            this.events.add(new ArrayList<TreeChangedEvent>(events));
+        }
+
+        public void beforeTreeCommit(long treeId) {
+            this.calls.add("before " + treeId);
+        }
+
+        public void afterTreeCompletion(long treeId) {
+            this.calls.add("completed " + treeId);
+        }
+    }
+}
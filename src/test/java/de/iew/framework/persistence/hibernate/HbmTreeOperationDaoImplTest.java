@@ -0,0 +1,997 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence.hibernate;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.TreeEncoding;
+import de.iew.framework.persistence.NestedSetRowHandler;
+import de.iew.framework.persistence.NodeRowSource;
+import de.iew.framework.persistence.TreeMutation;
+import de.iew.framework.tree.TreeIntegrityReport;
+import de.iew.framework.tree.TreeRepairService;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.orm.hibernate4.HibernateTransactionManager;
+import org.springframework.orm.hibernate4.LocalSessionFactoryBuilder;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet den Import und das Kopieren ganzer Bäume in
+ * {@link HbmTreeOperationDaoImpl} gegen eine H2 In-Memory Datenbank.
+ * <p>
+ * Beide Operationen schreiben die Knoten mit Bulk-Anweisungen an Hibernate
+ * vorbei; der Test prüft, dass alle Spalten der Knoten danach zu den
+ * NestedSet-Grenzen passen.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 13:30
+ */
+public class HbmTreeOperationDaoImplTest {
+
+    /**
+     * Der Baum
+     * <pre>
+     * [1, 14]
+     *   [2, 7]
+     *     [3, 4]
+     *     [5, 6]
+     *   [8, 13]
+     *     [9, 12]
+     *       [10, 11]
+     * </pre>
+     * als Zeilen {nestedSetLeft, nestedSetRight, ordinalNumber}.
+     */
+    private static final long[][] TREE_ROWS = {
+            {1, 14, 0},
+            {2, 7, 0},
+            {3, 4, 0},
+            {5, 6, 1},
+            {8, 13, 1},
+            {9, 12, 0},
+            {10, 11, 0}
+    };
+
+    private static SessionFactory sessionFactory;
+
+    private static TransactionTemplate transactionTemplate;
+
+    private static HbmTreeOperationDaoImpl treeOperationDao;
+
+    private static TreeRepairService treeRepairService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        SimpleDriverDataSource dataSource = new SimpleDriverDataSource(new org.h2.Driver(), "jdbc:h2:mem:treeoperations;DB_CLOSE_DELAY=-1", "sa", "");
+
+        sessionFactory = new LocalSessionFactoryBuilder(dataSource)
+                .scanPackages("de.iew.framework.domain")
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .setProperty("hibernate.hbm2ddl.auto", "create")
+                .buildSessionFactory();
+
+        HbmTreeDaoImpl treeDao = new HbmTreeDaoImpl();
+        treeDao.setSessionFactory(sessionFactory);
+        HbmNodeDaoImpl nodeDao = new HbmNodeDaoImpl();
+        nodeDao.setSessionFactory(sessionFactory);
+
+        treeOperationDao = new HbmTreeOperationDaoImpl();
+        treeOperationDao.setSessionFactory(sessionFactory);
+        treeOperationDao.setTreeDao(treeDao);
+        treeOperationDao.setNodeDao(nodeDao);
+
+        HibernateTransactionManager transactionManager = new HibernateTransactionManager(sessionFactory);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        treeRepairService = new TreeRepairService();
+        treeRepairService.setTreeDao(treeDao);
+        treeRepairService.setTreeOperationDao(treeOperationDao);
+        treeRepairService.setTransactionManager(transactionManager);
+        treeRepairService.setPoolSize(1);
+        treeRepairService.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        treeRepairService.destroy();
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testImportTree() {
+        final long treeId = importTree("import");
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                List<long[]> rows = readRows(treeId);
+                assertStructure(rows);
+
+                Node root = treeOperationDao.findRootNodeForTree(treeId);
+                assertNotNull(root);
+                assertEquals(1, root.getNestedSetLeft());
+                assertNull(root.getParent());
+                assertEquals(0, treeOperationDao.findTombstones(treeId).length);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testImportTreeRejectsUnorderedRows() {
+        try {
+            transactionTemplate.execute(new TransactionCallback<Object>() {
+                public Object doInTransaction(TransactionStatus status) {
+                    return treeOperationDao.importTree("unordered", 0, new ArrayRowSource(new long[][]{
+                            {1, 6, 0},
+                            {4, 5, 1},
+                            {2, 3, 0}
+                    }));
+                }
+            });
+            fail("unordered rows must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Erwartet.
+        }
+    }
+
+    @Test
+    public void testCopyTree() {
+        final long sourceTreeId = importTree("copy-source");
+
+        final long copyTreeId = transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                // Der Teilbaum [8, 13] wird als gelöscht markiert; die Kopie
+                // muss die Markierung übernehmen.
+                long tombstoneId = findNodeId(sourceTreeId, 8);
+                treeOperationDao.markTombstone(sourceTreeId, tombstoneId);
+
+                Tree copy = treeOperationDao.copyTree(sourceTreeId, "copy-target");
+                assertNotNull(copy.getRoot());
+                return copy.getId();
+            }
+        });
+        assertTrue(copyTreeId != sourceTreeId);
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                List<long[]> sourceRows = readRows(sourceTreeId);
+                List<long[]> copyRows = readRows(copyTreeId);
+                assertStructure(copyRows);
+
+                // Die Kopie hat neue Ids und gehört nur zu ihrem Baum.
+                for (int i = 0; i < copyRows.size(); i++) {
+                    assertTrue(copyRows.get(i)[0] != sourceRows.get(i)[0]);
+                }
+                assertEquals(TREE_ROWS.length, sourceRows.size());
+
+                long[] tombstones = treeOperationDao.findTombstones(copyTreeId);
+                assertEquals(1, tombstones.length);
+                assertEquals(findNodeId(copyTreeId, 8), tombstones[0]);
+
+                // Der markierte Teilbaum ist in der Kopie nicht sichtbar.
+                long rootId = findNodeId(copyTreeId, 1);
+                List<Node> children = treeOperationDao.findChildren(copyTreeId, rootId, -1, 10);
+                assertEquals(1, children.size());
+                assertEquals(2, children.get(0).getNestedSetLeft());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testCopySubtreeWithinTree() {
+        final long treeId = importTree("copy-subtree");
+
+        Node copy = copySubtree(treeId, 8, treeId, 2, 1);
+        assertEquals(5, copy.getNestedSetLeft());
+
+        assertTree(treeId, new long[][]{
+                {1, 20, 0, 0, -1},
+                {2, 13, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 10, 1, 2, 2},
+                {6, 9, 0, 3, 5},
+                {7, 8, 0, 4, 6},
+                {11, 12, 2, 2, 2},
+                {14, 19, 1, 1, 1},
+                {15, 18, 0, 2, 14},
+                {16, 17, 0, 3, 15}
+        });
+    }
+
+    @Test
+    public void testCopySubtreeToOtherTree() {
+        final long sourceTreeId = importTree("copy-subtree-source");
+        final long targetTreeId = importTree("copy-subtree-target");
+
+        Node copy = copySubtree(sourceTreeId, 2, targetTreeId, 10, 5);
+        assertEquals(11, copy.getNestedSetLeft());
+
+        assertTree(targetTreeId, new long[][]{
+                {1, 20, 0, 0, -1},
+                {2, 7, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 6, 1, 2, 2},
+                {8, 19, 1, 1, 1},
+                {9, 18, 0, 2, 8},
+                {10, 17, 0, 3, 9},
+                {11, 16, 0, 4, 10},
+                {12, 13, 0, 5, 11},
+                {14, 15, 1, 5, 11}
+        });
+        assertTree(sourceTreeId, expectedRows(TREE_ROWS, 1));
+    }
+
+    @Test
+    public void testDeleteSingleNodeRaisesChildren() {
+        final long treeId = importTree("delete-inner");
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.deleteSingleNode(treeId, findNodeId(treeId, 2));
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 12, 0, 0, -1},
+                {2, 3, 0, 1, 1},
+                {4, 5, 1, 1, 1},
+                {6, 11, 2, 1, 1},
+                {7, 10, 0, 2, 6},
+                {8, 9, 0, 3, 7}
+        });
+    }
+
+    @Test
+    public void testDeleteSingleNodeOfSparseTreeKeepsBounds() {
+        final long treeId = importTree("delete-sparse", 9, scale(TREE_ROWS, 10));
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.deleteSingleNode(treeId, findNodeId(treeId, 80));
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {10, 140, 0, 0, -1},
+                {20, 70, 0, 1, 10},
+                {30, 40, 0, 2, 20},
+                {50, 60, 1, 2, 20},
+                {90, 120, 1, 1, 10},
+                {100, 110, 0, 2, 90}
+        });
+    }
+
+    @Test
+    public void testDeleteSingleNodeRejectsRootWithChildren() {
+        final long treeId = importTree("delete-root");
+
+        try {
+            transactionTemplate.execute(new TransactionCallback<Object>() {
+                public Object doInTransaction(TransactionStatus status) {
+                    treeOperationDao.deleteSingleNode(treeId, findNodeId(treeId, 1));
+                    return null;
+                }
+            });
+            fail("the root node has children");
+        } catch (IllegalArgumentException e) {
+            // Erwartet.
+        }
+        assertTree(treeId, expectedRows(TREE_ROWS, 1));
+    }
+
+    @Test
+    public void testDeleteTombstoneInChunks() {
+        final long treeId = importTree("tombstone-chunks", 0, new long[][]{
+                {1, 16, 0},
+                {2, 3, 0},
+                {4, 15, 1},
+                {5, 10, 0},
+                {6, 7, 0},
+                {8, 9, 1},
+                {11, 14, 1},
+                {12, 13, 0}
+        });
+        final long tombstoneId = readIds(treeId)[2];
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.markTombstone(treeId, tombstoneId);
+                assertArrayEquals(new long[]{tombstoneId}, treeOperationDao.findTombstones(treeId));
+
+                // Der markierte Teilbaum ist nicht mehr sichtbar.
+                List<Node> children = treeOperationDao.findChildren(treeId, findNodeId(treeId, 1), -1, 10);
+                assertEquals(1, children.size());
+                return null;
+            }
+        });
+
+        // Der erste Abschnitt löscht die Blätter der Tiefe 3 zusammen mit
+        // einem Knoten der Tiefe 2, dessen Kinder im selben Abschnitt liegen.
+        assertEquals(4, deleteTombstoneChunk(treeId, tombstoneId, 4));
+        assertEquals(1, deleteTombstoneChunk(treeId, tombstoneId, 4));
+        assertEquals(0, deleteTombstoneChunk(treeId, tombstoneId, 4));
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.removeTombstone(treeId, tombstoneId);
+                assertEquals(0, treeOperationDao.findTombstones(treeId).length);
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 4, 0, 0, -1},
+                {2, 3, 0, 1, 1}
+        });
+    }
+
+    @Test
+    public void testInsertNodeShiftsBounds() {
+        final long treeId = importTree("insert-dense");
+
+        Node node = insertNode(treeId, 2, 1);
+        assertEquals(5, node.getNestedSetLeft());
+
+        assertTree(treeId, new long[][]{
+                {1, 16, 0, 0, -1},
+                {2, 9, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 6, 1, 2, 2},
+                {7, 8, 2, 2, 2},
+                {10, 15, 1, 1, 1},
+                {11, 14, 0, 2, 10},
+                {12, 13, 0, 3, 11}
+        });
+    }
+
+    @Test
+    public void testInsertNodeUsesFreeSlot() {
+        final long treeId = importTree("insert-sparse", 9, scale(TREE_ROWS, 10));
+
+        insertNode(treeId, 20, 1);
+
+        assertTree(treeId, new long[][]{
+                {10, 140, 0, 0, -1},
+                {20, 70, 0, 1, 10},
+                {30, 40, 0, 2, 20},
+                {44, 45, 1, 2, 20},
+                {50, 60, 2, 2, 20},
+                {80, 130, 1, 1, 10},
+                {90, 120, 0, 2, 80},
+                {100, 110, 0, 3, 90}
+        });
+    }
+
+    @Test
+    public void testInsertNodeRenumbersFullTree() {
+        // Die Lücke ist 1, die Zeilen sind aber dicht nummeriert.
+        final long treeId = importTree("insert-renumber", 1, TREE_ROWS);
+
+        insertNode(treeId, 2, 1);
+
+        assertTree(treeId, new long[][]{
+                {1, 31, 0, 0, -1},
+                {3, 17, 0, 1, 1},
+                {5, 7, 0, 2, 3},
+                {9, 11, 1, 2, 3},
+                {13, 15, 2, 2, 3},
+                {19, 29, 1, 1, 1},
+                {21, 27, 0, 2, 19},
+                {23, 25, 0, 3, 21}
+        });
+    }
+
+    @Test
+    public void testInsertNodeRenormalizesDeepIntervalTree() {
+        final long treeId = createIntervalTree("intervals-deep");
+
+        // Ohne Normalisierung laufen die Intervalle nach etwa 20 Ebenen über.
+        final long[] nodeIds = new long[101];
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                nodeIds[0] = treeOperationDao.insertRoot(treeId, new Node()).getId();
+                for (int i = 1; i < nodeIds.length; i++) {
+                    nodeIds[i] = treeOperationDao.insertNode(treeId, nodeIds[i - 1], 0, new Node()).getId();
+                }
+                return null;
+            }
+        });
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                assertEquals(100, treeOperationDao.countDescendants(treeId, nodeIds[0]));
+                List<Node> ancestors = treeOperationDao.findAncestors(treeId, nodeIds[100]);
+                assertEquals(100, ancestors.size());
+                for (int i = 0; i < ancestors.size(); i++) {
+                    assertEquals(Long.valueOf(nodeIds[i]), ancestors.get(i).getId());
+                    assertEquals(i, ancestors.get(i).getDepth());
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testInsertNodeRenormalizesIntervalTreeWithSiblings() {
+        final long treeId = createIntervalTree("intervals-siblings");
+
+        // Jede Ebene erhält ein Blatt und davor das Kind, unter dem die
+        // nächste Ebene liegt.
+        final long[] chainIds = new long[61];
+        final long[] leafIds = new long[61];
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                chainIds[0] = treeOperationDao.insertRoot(treeId, new Node()).getId();
+                for (int i = 1; i < chainIds.length; i++) {
+                    leafIds[i] = treeOperationDao.insertNode(treeId, chainIds[i - 1], 0, new Node()).getId();
+                    chainIds[i] = treeOperationDao.insertNode(treeId, chainIds[i - 1], 0, new Node()).getId();
+                }
+                return null;
+            }
+        });
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                assertEquals(120, treeOperationDao.countDescendants(treeId, chainIds[0]));
+                for (int i = 1; i < chainIds.length; i++) {
+                    List<Node> children = treeOperationDao.findDescendants(treeId, chainIds[i - 1], 1);
+                    assertEquals(2, children.size());
+                    assertEquals(Long.valueOf(chainIds[i]), children.get(0).getId());
+                    assertEquals(0, children.get(0).getOrdinalNumber());
+                    assertEquals(Long.valueOf(leafIds[i]), children.get(1).getId());
+                    assertEquals(1, children.get(1).getOrdinalNumber());
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testApplyMutationsInsertsNodes() {
+        final long treeId = importTree("mutations-insert");
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                List<TreeMutation> mutations = new ArrayList<TreeMutation>();
+                mutations.add(TreeMutation.insert(newNode(treeId, 2, 7, 8, 2)));
+                // Die Grenzen beziehen sich auf die Nummerierung nach der
+                // ersten Einfügung.
+                mutations.add(TreeMutation.insert(newNode(treeId, 1, 16, 17, 2)));
+                treeOperationDao.applyMutations(treeId, mutations);
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 18, 0, 0, -1},
+                {2, 9, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 6, 1, 2, 2},
+                {7, 8, 2, 2, 2},
+                {10, 15, 1, 1, 1},
+                {11, 14, 0, 2, 10},
+                {12, 13, 0, 3, 11},
+                {16, 17, 2, 1, 1}
+        });
+    }
+
+    @Test
+    public void testApplyMutationsDeletesInnerNodes() {
+        final long treeId = importTree("mutations-delete");
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                List<TreeMutation> mutations = new ArrayList<TreeMutation>();
+                mutations.add(TreeMutation.deleteNode(findNodeId(treeId, 2)));
+                mutations.add(TreeMutation.deleteNode(findNodeId(treeId, 9)));
+                treeOperationDao.applyMutations(treeId, mutations);
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 10, 0, 0, -1},
+                {2, 3, 0, 1, 1},
+                {4, 5, 1, 1, 1},
+                {6, 9, 2, 1, 1},
+                {7, 8, 0, 2, 6}
+        });
+    }
+
+    @Test
+    public void testApplyMutationsAppliesMixedBatch() {
+        final long treeId = importTree("mutations-mixed");
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                List<TreeMutation> mutations = new ArrayList<TreeMutation>();
+                mutations.add(TreeMutation.insert(newNode(treeId, 10, 11, 12, 0)));
+                mutations.add(TreeMutation.deleteNode(findNodeId(treeId, 8)));
+                mutations.add(TreeMutation.deleteRange(3, 4));
+                treeOperationDao.applyMutations(treeId, mutations);
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 12, 0, 0, -1},
+                {2, 5, 0, 1, 1},
+                {3, 4, 1, 2, 2},
+                {6, 11, 1, 1, 1},
+                {7, 10, 0, 2, 6},
+                {8, 9, 0, 3, 7}
+        });
+    }
+
+    @Test
+    public void testMoveSubtreeLeftToShallowerParent() {
+        final long treeId = importTree("move-left-shallower");
+
+        moveSubtree(treeId, 9, 1, 0);
+
+        assertTree(treeId, new long[][]{
+                {1, 14, 0, 0, -1},
+                {2, 5, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {6, 11, 1, 1, 1},
+                {7, 8, 0, 2, 6},
+                {9, 10, 1, 2, 6},
+                {12, 13, 2, 1, 1}
+        });
+    }
+
+    @Test
+    public void testMoveSubtreeRightToDeeperParent() {
+        final long treeId = importTree("move-right-deeper");
+
+        moveSubtree(treeId, 2, 9, 1);
+
+        assertTree(treeId, new long[][]{
+                {1, 14, 0, 0, -1},
+                {2, 13, 0, 1, 1},
+                {3, 12, 0, 2, 2},
+                {4, 5, 0, 3, 3},
+                {6, 11, 1, 3, 3},
+                {7, 8, 0, 4, 6},
+                {9, 10, 1, 4, 6}
+        });
+    }
+
+    @Test
+    public void testMoveSubtreeLeftToDeeperParent() {
+        final long treeId = importTree("move-left-deeper");
+
+        moveSubtree(treeId, 10, 2, 1);
+
+        assertTree(treeId, new long[][]{
+                {1, 14, 0, 0, -1},
+                {2, 9, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 6, 1, 2, 2},
+                {7, 8, 2, 2, 2},
+                {10, 13, 1, 1, 1},
+                {11, 12, 0, 2, 10}
+        });
+    }
+
+    @Test
+    public void testMoveSubtreeRightToShallowerParent() {
+        final long treeId = importTree("move-right-shallower");
+
+        moveSubtree(treeId, 3, 1, 2);
+
+        assertTree(treeId, new long[][]{
+                {1, 14, 0, 0, -1},
+                {2, 5, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {6, 11, 1, 1, 1},
+                {7, 10, 0, 2, 6},
+                {8, 9, 0, 3, 7},
+                {12, 13, 2, 1, 1}
+        });
+    }
+
+    @Test
+    public void testMoveSubtreeWithinParent() {
+        final long treeId = importTree("move-within-parent");
+
+        moveSubtree(treeId, 3, 2, 1);
+
+        assertTree(treeId, new long[][]{
+                {1, 14, 0, 0, -1},
+                {2, 7, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {5, 6, 1, 2, 2},
+                {8, 13, 1, 1, 1},
+                {9, 12, 0, 2, 8},
+                {10, 11, 0, 3, 9}
+        });
+        // Der Knoten [3, 4] ist jetzt der frühere Knoten [5, 6].
+        long[] ids = readIds(treeId);
+        assertTrue(ids[2] > ids[3]);
+    }
+
+    @Test
+    public void testReorderChildren() {
+        final long treeId = importTree("reorder", 0, new long[][]{
+                {1, 12, 0},
+                {2, 5, 0},
+                {3, 4, 0},
+                {6, 7, 1},
+                {8, 11, 2},
+                {9, 10, 0}
+        });
+
+        final long[] ids = readIds(treeId);
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.reorderChildren(treeId, ids[0], new long[]{ids[4], ids[1], ids[3]});
+                return null;
+            }
+        });
+
+        assertTree(treeId, new long[][]{
+                {1, 12, 0, 0, -1},
+                {2, 5, 0, 1, 1},
+                {3, 4, 0, 2, 2},
+                {6, 9, 1, 1, 1},
+                {7, 8, 0, 2, 6},
+                {10, 11, 2, 1, 1}
+        });
+        // Die Kinder nehmen ihre Teilbäume mit.
+        assertArrayEquals(new long[]{ids[0], ids[4], ids[5], ids[1], ids[2], ids[3]}, readIds(treeId));
+    }
+
+    protected static long importTree(String lookupKey) {
+        return importTree(lookupKey, 0, TREE_ROWS);
+    }
+
+    protected static long importTree(final String lookupKey, final long nestedSetGap, final long[][] rows) {
+        return transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                Tree tree = treeOperationDao.importTree(lookupKey, nestedSetGap, new ArrayRowSource(rows));
+                assertNotNull(tree.getRoot());
+                return tree.getId();
+            }
+        });
+    }
+
+    /**
+     * Löscht einen Abschnitt des markierten Teilbaumes des angegebenen
+     * Knotens in einer eigenen Transaktion.
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param nodeId   Die Id des markierten Knotens.
+     * @param maxNodes Die höchste Anzahl der gelöschten Knoten.
+     * @return Die Anzahl der gelöschten Knoten.
+     */
+    protected static int deleteTombstoneChunk(final long treeId, final long nodeId, final int maxNodes) {
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            public Integer doInTransaction(TransactionStatus status) {
+                return treeOperationDao.deleteTombstoneChunk(treeId, nodeId, maxNodes);
+            }
+        });
+    }
+
+    /**
+     * Fügt einen neuen Knoten unter dem Knoten mit der angegebenen linken
+     * Grenze ein.
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param parentNestedSetLeft Die linke Grenze des Elternknotens.
+     * @param ordinalNumber       Die Position des neuen Knotens.
+     * @return Der neue Knoten.
+     */
+    protected static Node insertNode(final long treeId, final long parentNestedSetLeft, final int ordinalNumber) {
+        return transactionTemplate.execute(new TransactionCallback<Node>() {
+            public Node doInTransaction(TransactionStatus status) {
+                return treeOperationDao.insertNode(treeId, findNodeId(treeId, parentNestedSetLeft), ordinalNumber, new Node());
+            }
+        });
+    }
+
+    /**
+     * Verschiebt den Knoten mit der angegebenen linken Grenze unter den
+     * Knoten mit der angegebenen linken Grenze.
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param nestedSetLeft       Die linke Grenze des verschobenen Knotens.
+     * @param parentNestedSetLeft Die linke Grenze des neuen Elternknotens.
+     * @param ordinalNumber       Die neue Position des Knotens.
+     */
+    protected static void moveSubtree(final long treeId, final long nestedSetLeft, final long parentNestedSetLeft, final int ordinalNumber) {
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                treeOperationDao.moveSubtree(treeId, findNodeId(treeId, nestedSetLeft), findNodeId(treeId, parentNestedSetLeft), ordinalNumber);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Kopiert den Knoten mit der angegebenen linken Grenze unter den Knoten
+     * mit der angegebenen linken Grenze.
+     *
+     * @param sourceTreeId        Die Id des Quellbaumes.
+     * @param nestedSetLeft       Die linke Grenze des kopierten Knotens.
+     * @param targetTreeId        Die Id des Zielbaumes.
+     * @param parentNestedSetLeft Die linke Grenze des Elternknotens der Kopie.
+     * @param ordinalNumber       Die Position der Kopie.
+     * @return Die Wurzel der Kopie.
+     */
+    protected static Node copySubtree(final long sourceTreeId, final long nestedSetLeft, final long targetTreeId, final long parentNestedSetLeft, final int ordinalNumber) {
+        return transactionTemplate.execute(new TransactionCallback<Node>() {
+            public Node doInTransaction(TransactionStatus status) {
+                return treeOperationDao.copySubtree(sourceTreeId, findNodeId(sourceTreeId, nestedSetLeft), targetTreeId, findNodeId(targetTreeId, parentNestedSetLeft), ordinalNumber);
+            }
+        });
+    }
+
+    /**
+     * Legt einen leeren Baum mit {@link TreeEncoding#NESTED_INTERVALS} an.
+     * Die öffentliche API kann diese Kodierung nicht wählen, daher wird sie
+     * per HQL gesetzt.
+     *
+     * @param lookupKey Der Lookup-Key des Baumes.
+     * @return Die Id des Baumes.
+     */
+    protected static long createIntervalTree(final String lookupKey) {
+        return transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                Tree tree = new Tree();
+                tree.setLookupKey(lookupKey);
+                Session session = sessionFactory.getCurrentSession();
+                long treeId = (Long) session.save(tree);
+                session.flush();
+
+                Query query = session.createQuery("UPDATE Tree SET encoding = :encoding WHERE id = :treeId");
+                query.setParameter("encoding", TreeEncoding.NESTED_INTERVALS);
+                query.setLong("treeId", treeId);
+                assertEquals(1, query.executeUpdate());
+                session.evict(tree);
+                return treeId;
+            }
+        });
+    }
+
+    protected static long findNodeId(long treeId, long nestedSetLeft) {
+        for (long[] row : readRows(treeId)) {
+            if (row[4] == nestedSetLeft) {
+                return row[0];
+            }
+        }
+        throw new AssertionError("no node with left bound " + nestedSetLeft + " in tree " + treeId);
+    }
+
+    /**
+     * Erzeugt einen neuen Knoten unter dem Knoten mit der angegebenen linken
+     * Grenze. Muss innerhalb einer Transaktion aufgerufen werden.
+     *
+     * @param treeId              Die Id des Baumes.
+     * @param parentNestedSetLeft Die linke Grenze des Elternknotens.
+     * @param nestedSetLeft       Die linke Grenze des neuen Knotens.
+     * @param nestedSetRight      Die rechte Grenze des neuen Knotens.
+     * @param ordinalNumber       Die Position des neuen Knotens.
+     * @return Der neue Knoten.
+     */
+    protected static Node newNode(long treeId, long parentNestedSetLeft, long nestedSetLeft, long nestedSetRight, int ordinalNumber) {
+        Node parent = treeOperationDao.findNodeForTreeAndId(treeId, findNodeId(treeId, parentNestedSetLeft));
+        Node node = new Node();
+        node.setTree(parent.getTree());
+        node.setParent(parent);
+        node.setNestedSetLeft(nestedSetLeft);
+        node.setNestedSetRight(nestedSetRight);
+        node.setOrdinalNumber(ordinalNumber);
+        return node;
+    }
+
+    /**
+     * Liest die Ids der Knoten des angegebenen Baumes.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Ids in der Reihenfolge der linken Grenzen.
+     */
+    protected static long[] readIds(final long treeId) {
+        return transactionTemplate.execute(new TransactionCallback<long[]>() {
+            public long[] doInTransaction(TransactionStatus status) {
+                List<long[]> rows = readRows(treeId);
+                long[] ids = new long[rows.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = rows.get(i)[0];
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * Liest die Strukturdaten der Knoten als Zeilen
+     * {id, parentId, ordinalNumber, depth, nestedSetLeft, nestedSetRight};
+     * die parentId -1 steht für NULL.
+     *
+     * @param treeId Die Id des Baumes.
+     * @return Die Zeilen in der Reihenfolge der linken Grenzen.
+     */
+    protected static List<long[]> readRows(long treeId) {
+        final List<long[]> rows = new ArrayList<long[]>();
+        treeOperationDao.visitNestedSetRows(treeId, new NestedSetRowHandler() {
+            public void handleRow(long nodeId, Long parentId, int ordinalNumber, int depth, long nestedSetLeft, long nestedSetRight) {
+                rows.add(new long[]{nodeId, (parentId == null ? -1 : parentId), ordinalNumber, depth, nestedSetLeft, nestedSetRight});
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Prüft Grenzen, Positionen, Tiefen und Elternknoten der Zeilen gegen
+     * {@link #TREE_ROWS}.
+     *
+     * @param rows Die Zeilen aus {@link #readRows(long)}.
+     */
+    protected static void assertStructure(List<long[]> rows) {
+        assertEquals(TREE_ROWS.length, rows.size());
+
+        int[] expectedDepths = {0, 1, 2, 2, 1, 2, 3};
+        int[] expectedParents = {-1, 0, 1, 1, 0, 4, 5};
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+        for (int i = 0; i < rows.size(); i++) {
+            indexes.put(rows.get(i)[0], i);
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            long[] row = rows.get(i);
+            assertEquals(TREE_ROWS[i][0], row[4]);
+            assertEquals(TREE_ROWS[i][1], row[5]);
+            assertEquals(TREE_ROWS[i][2], row[2]);
+            assertEquals(expectedDepths[i], row[3]);
+            if (expectedParents[i] < 0) {
+                assertEquals(-1, row[1]);
+            } else {
+                assertEquals(Integer.valueOf(expectedParents[i]), indexes.get(row[1]));
+            }
+        }
+    }
+
+    /**
+     * Prüft die Knoten des angegebenen Baumes gegen die erwarteten Zeilen
+     * {nestedSetLeft, nestedSetRight, ordinalNumber, depth, parentLeft} und
+     * den Baum mit dem {@link TreeRepairService}. Die parentLeft -1 steht für
+     * die Wurzel.
+     *
+     * @param treeId   Die Id des Baumes.
+     * @param expected Die erwarteten Zeilen in der Reihenfolge der linken
+     *                 Grenzen.
+     */
+    protected static void assertTree(final long treeId, long[][] expected) {
+        List<long[]> rows = transactionTemplate.execute(new TransactionCallback<List<long[]>>() {
+            public List<long[]> doInTransaction(TransactionStatus status) {
+                return readRows(treeId);
+            }
+        });
+
+        Map<Long, Long> nestedSetLefts = new HashMap<Long, Long>();
+        for (long[] row : rows) {
+            nestedSetLefts.put(row[0], row[4]);
+        }
+        assertEquals(expected.length, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            long[] row = rows.get(i);
+            String message = "node " + i + " of tree " + treeId;
+            assertEquals(message, expected[i][0], row[4]);
+            assertEquals(message, expected[i][1], row[5]);
+            assertEquals(message, expected[i][2], row[2]);
+            assertEquals(message, expected[i][3], row[3]);
+            assertEquals(message, expected[i][4], (row[1] < 0 ? -1 : nestedSetLefts.get(row[1])));
+        }
+
+        TreeIntegrityReport report = treeRepairService.verify(treeId);
+        assertTrue(report.toString(), report.isValid());
+    }
+
+    /**
+     * Liefert die erwarteten Zeilen für {@link #assertTree(long, long[][])}
+     * zu Zeilen im Format von {@link #TREE_ROWS}.
+     *
+     * @param rows  Die Zeilen {nestedSetLeft, nestedSetRight, ordinalNumber}.
+     * @param scale Der Faktor, mit dem die Grenzen multipliziert werden.
+     * @return Die erwarteten Zeilen.
+     */
+    protected static long[][] expectedRows(long[][] rows, long scale) {
+        long[][] expected = new long[rows.length][];
+        long[] nestedSetRights = new long[rows.length];
+        long[] nestedSetLefts = new long[rows.length];
+        int depth = 0;
+        for (int i = 0; i < rows.length; i++) {
+            while (depth > 0 && nestedSetRights[depth - 1] < rows[i][0] * scale) {
+                depth--;
+            }
+            expected[i] = new long[]{rows[i][0] * scale, rows[i][1] * scale, rows[i][2], depth, (depth == 0 ? -1 : nestedSetLefts[depth - 1])};
+            nestedSetLefts[depth] = rows[i][0] * scale;
+            nestedSetRights[depth++] = rows[i][1] * scale;
+        }
+        return expected;
+    }
+
+    /**
+     * Multipliziert die Grenzen von Zeilen im Format von {@link #TREE_ROWS}.
+     *
+     * @param rows  Die Zeilen.
+     * @param scale Der Faktor.
+     * @return Die neuen Zeilen.
+     */
+    protected static long[][] scale(long[][] rows, long scale) {
+        long[][] scaled = new long[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            scaled[i] = new long[]{rows[i][0] * scale, rows[i][1] * scale, rows[i][2]};
+        }
+        return scaled;
+    }
+
+    /**
+     * Liefert die Zeilen eines Arrays {nestedSetLeft, nestedSetRight,
+     * ordinalNumber}.
+     */
+    private static class ArrayRowSource implements NodeRowSource {
+
+        private final long[][] rows;
+
+        private int index = -1;
+
+        private ArrayRowSource(long[][] rows) {
+            this.rows = rows;
+        }
+
+        public boolean next() {
+            return ++this.index < this.rows.length;
+        }
+
+        public long getNestedSetLeft() {
+            return this.rows[this.index][0];
+        }
+
+        public long getNestedSetRight() {
+            return this.rows[this.index][1];
+        }
+
+        public int getOrdinalNumber() {
+            return (int) this.rows[this.index][2];
+        }
+
+        public Long getDataSourceId() {
+            return null;
+        }
+    }
+}
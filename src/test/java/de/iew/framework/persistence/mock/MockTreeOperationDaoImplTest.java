@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.persistence.mock;
+
+import de.iew.framework.domain.Node;
+import de.iew.framework.domain.Order;
+import de.iew.framework.domain.Tree;
+import de.iew.framework.domain.TreeEncoding;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet den inkrementell gepflegten Index von
+ * {@link MockTreeOperationDaoImpl}.
+ * <p>
+ * Nach jeder Einfügung muss der Index dieselben Knoten in derselben
+ * Reihenfolge liefern wie ein neu aufgebauter Index und wie die
+ * Preorder-Traversierung der Kindlisten.
+ * </p>
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 18.04.13 - 10:05
+ */
+public class MockTreeOperationDaoImplTest {
+
+    private MockTreeDaoImpl treeDao;
+
+    private MockNodeDaoImpl nodeDao;
+
+    private MockTreeOperationDaoImpl treeOperationDao;
+
+    @Before
+    public void setUp() {
+        this.treeDao = new MockTreeDaoImpl();
+        this.nodeDao = new MockNodeDaoImpl();
+
+        this.treeOperationDao = new MockTreeOperationDaoImpl();
+        this.treeOperationDao.setTreeDao(this.treeDao);
+        this.treeOperationDao.setNodeDao(this.nodeDao);
+    }
+
+    @Test
+    public void testInsertNodeKeepsDenseIndex() {
+        Tree tree = this.treeDao.save(new Tree());
+
+        insertRandomNodes(tree, 60);
+
+        Node root = tree.getRoot();
+        assertEquals(1, root.getNestedSetLeft());
+        assertEquals(2 * 61, root.getNestedSetRight());
+        assertIndexMatchesTree(tree);
+    }
+
+    @Test
+    public void testInsertNodeKeepsSparseIndex() {
+        Tree tree = new Tree();
+        tree.setNestedSetGap(1);
+        tree = this.treeDao.save(tree);
+
+        // Mit einer Lücke von 1 muss regelmäßig neu nummeriert werden.
+        insertRandomNodes(tree, 60);
+
+        assertIndexMatchesTree(tree);
+    }
+
+    @Test
+    public void testInsertRootKeepsIndex() {
+        Tree tree = this.treeDao.save(new Tree());
+        insertRandomNodes(tree, 10);
+
+        Node formerRoot = tree.getRoot();
+        Node root = this.treeOperationDao.insertRoot(tree.getId(), new Node());
+
+        assertSame(root, tree.getRoot());
+        assertSame(root, formerRoot.getParent());
+        assertEquals(11, this.treeOperationDao.countDescendants(tree.getId(), root.getId()));
+        assertIndexMatchesTree(tree);
+    }
+
+    @Test
+    public void testFindAncestors() {
+        Tree tree = this.treeDao.save(new Tree());
+        insertRandomNodes(tree, 30);
+
+        for (Node node : tree.getNodes()) {
+            List<Node> expected = new ArrayList<Node>();
+            for (Node ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                expected.add(0, ancestor);
+            }
+            assertEquals(ids(expected), ids(this.treeOperationDao.findAncestors(tree.getId(), node.getId())));
+        }
+    }
+
+    @Test
+    public void testInsertNodeKeepsIntervalIndex() {
+        Tree tree = this.treeDao.save(new IntervalTree());
+
+        insertRandomNodes(tree, 40);
+
+        assertIndexMatchesTree(tree);
+    }
+
+    @Test
+    public void testDeleteSingleNodeKeepsIntervalIndex() {
+        Tree tree = this.treeDao.save(new IntervalTree());
+        insertRandomNodes(tree, 20);
+
+        Node root = tree.getRoot();
+        Node deleteNode = root.getChildren().get(0);
+        this.treeOperationDao.deleteSingleNode(tree.getId(), deleteNode.getId());
+
+        assertEquals(19, this.treeOperationDao.countDescendants(tree.getId(), root.getId()));
+        assertIndexMatchesTree(tree);
+    }
+
+    /*
+     * Hilfsmethoden
+     */
+
+    /**
+     * Fügt die angegebene Anzahl Knoten an zufälligen Positionen in den Baum
+     * ein. Hat der Baum noch keine Wurzel, wird zuerst eine Wurzel angelegt.
+     *
+     * @param tree  Der Baum.
+     * @param count Die Anzahl der einzufügenden Knoten.
+     */
+    protected void insertRandomNodes(Tree tree, int count) {
+        Random random = new Random(4711);
+
+        if (tree.getRoot() == null) {
+            this.treeOperationDao.insertRoot(tree.getId(), new Node());
+        }
+
+        for (int i = 0; i < count; i++) {
+            List<Node> nodes = preorder(tree.getRoot());
+            Node parent = nodes.get(random.nextInt(nodes.size()));
+            int ordinalNumber = random.nextInt(parent.getChildren().size() + 1);
+            this.treeOperationDao.insertNode(tree.getId(), parent.getId(), ordinalNumber, new Node());
+        }
+    }
+
+    /**
+     * Prüft, dass die Abfragen über den Index für jeden Knoten die
+     * Preorder-Folge seiner Kinder liefern, und zwar vor und nach dem Neuaufbau
+     * des Index.
+     *
+     * @param tree Der Baum.
+     */
+    protected void assertIndexMatchesTree(Tree tree) {
+        List<List<Long>> expected = new ArrayList<List<Long>>();
+        List<Long> expectedCounts = new ArrayList<Long>();
+        List<Node> nodes = preorder(tree.getRoot());
+        for (Node node : nodes) {
+            List<Node> descendants = preorder(node);
+            descendants.remove(0);
+            expected.add(ids(descendants));
+            expectedCounts.add((long) descendants.size());
+            if (tree.getEncoding() == TreeEncoding.NESTED_SET) {
+                for (Node descendant : descendants) {
+                    assertTrue(node.getNestedSetLeft() < descendant.getNestedSetLeft());
+                    assertTrue(descendant.getNestedSetRight() < node.getNestedSetRight());
+                }
+            }
+        }
+
+        assertEquals(expected, queryDescendants(tree, nodes));
+        assertEquals(expectedCounts, queryCounts(tree, nodes));
+
+        this.treeOperationDao.clearIndexes();
+
+        assertEquals(expected, queryDescendants(tree, nodes));
+        assertEquals(expectedCounts, queryCounts(tree, nodes));
+    }
+
+    protected List<List<Long>> queryDescendants(Tree tree, List<Node> nodes) {
+        List<List<Long>> descendants = new ArrayList<List<Long>>();
+        for (Node node : nodes) {
+            descendants.add(ids(this.treeOperationDao.findDescendants(tree.getId(), node.getId(), -1)));
+        }
+        return descendants;
+    }
+
+    protected List<Long> queryCounts(Tree tree, List<Node> nodes) {
+        List<Long> counts = new ArrayList<Long>();
+        for (Node node : nodes) {
+            counts.add(this.treeOperationDao.countDescendants(tree.getId(), node.getId()));
+        }
+        return counts;
+    }
+
+    protected List<Node> preorder(Node node) {
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(node);
+        List<Node> children = new ArrayList<Node>(node.getChildren());
+        Collections.sort(children, Order.ASCENDING);
+        for (Node child : children) {
+            nodes.addAll(preorder(child));
+        }
+        return nodes;
+    }
+
+    protected List<Long> ids(List<Node> nodes) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Node node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Ein Baum mit der Kodierung {@link TreeEncoding#NESTED_INTERVALS}.
+     */
+    protected static class IntervalTree extends Tree {
+
+        public IntervalTree() {
+            setEncoding(TreeEncoding.NESTED_INTERVALS);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Berechnung der NestedSet-Grenzen in {@link NestedSetNumbering}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 10:40
+ */
+public class NestedSetNumberingTest {
+
+    private static final int ROOT = NestedSetNumbering.ROOT;
+
+    private static final int DETACHED = NestedSetNumbering.DETACHED;
+
+    @Test
+    public void testChildrenAreOrderedByOrdinalNumber() {
+        // 0 ist die Wurzel, 2 kommt wegen der Ordnungszahl vor 1.
+        int[] parentIndexes = {ROOT, 0, 0, 1};
+        int[] ordinalNumbers = {0, 1, 0, 0};
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(4, parentIndexes, ordinalNumbers, 1, 1);
+
+        assertEquals(4, numbering.count);
+        assertArrayEquals(new int[]{0, 2, 1, 3}, numbering.preOrder);
+        assertArrayEquals(new long[]{1, 4, 2, 5}, numbering.nestedSetLefts);
+        assertArrayEquals(new long[]{8, 7, 3, 6}, numbering.nestedSetRights);
+        assertArrayEquals(new int[]{0, 1, 1, 2}, numbering.depths);
+        assertArrayEquals(new int[]{0, 1, 0, 0}, numbering.siblingPositions);
+    }
+
+    @Test
+    public void testSpacingAndOffset() {
+        int[] parentIndexes = {ROOT, 0, 0};
+        int[] ordinalNumbers = {0, 0, 1};
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(3, parentIndexes, ordinalNumbers, 10, 3);
+
+        assertArrayEquals(new long[]{10, 13, 19}, numbering.nestedSetLefts);
+        assertArrayEquals(new long[]{25, 16, 22}, numbering.nestedSetRights);
+    }
+
+    @Test
+    public void testEqualOrdinalNumbersKeepIndexOrder() {
+        int[] parentIndexes = {ROOT, 0, 0, 0};
+        int[] ordinalNumbers = {0, 5, 5, 5};
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(4, parentIndexes, ordinalNumbers, 1, 1);
+
+        assertArrayEquals(new int[]{0, 1, 2, 3}, numbering.preOrder);
+        assertArrayEquals(new int[]{0, 0, 1, 2}, numbering.siblingPositions);
+    }
+
+    @Test
+    public void testUnreachableNodesAreNotNumbered() {
+        // 1 ist abgehängt, 2 und 3 bilden einen Zyklus.
+        int[] parentIndexes = {ROOT, DETACHED, 3, 2, 0};
+        int[] ordinalNumbers = {0, 0, 0, 0, 0};
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(5, parentIndexes, ordinalNumbers, 1, 1);
+
+        assertEquals(2, numbering.count);
+        assertTrue(numbering.isNumbered(0));
+        assertFalse(numbering.isNumbered(1));
+        assertFalse(numbering.isNumbered(2));
+        assertFalse(numbering.isNumbered(3));
+        assertTrue(numbering.isNumbered(4));
+        assertEquals(4, numbering.nestedSetRights[0]);
+    }
+
+    @Test
+    public void testDeepChainDoesNotOverflowTheStack() {
+        int size = 200000;
+        int[] parentIndexes = new int[size];
+        int[] ordinalNumbers = new int[size];
+        parentIndexes[0] = ROOT;
+        for (int i = 1; i < size; i++) {
+            parentIndexes[i] = i - 1;
+        }
+
+        NestedSetNumbering numbering = NestedSetNumbering.number(size, parentIndexes, ordinalNumbers, 1, 1);
+
+        assertEquals(size, numbering.count);
+        assertEquals(size - 1, numbering.depths[size - 1]);
+        assertEquals(size, numbering.nestedSetLefts[size - 1]);
+        assertEquals(2 * size, numbering.nestedSetRights[0]);
+    }
+}
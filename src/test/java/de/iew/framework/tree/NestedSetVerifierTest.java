@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Prüfung der NestedSet-Grenzen in
+ * {@link TreeRepairService.NestedSetVerifier}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 12:20
+ */
+public class NestedSetVerifierTest {
+
+    /**
+     * Der Baum aus {@link TreeSnapshotTest#createSnapshot()} als Zeilen
+     * {id, parentId, ordinalNumber, depth, nestedSetLeft, nestedSetRight};
+     * die parentId -1 steht für NULL.
+     */
+    private static final long[][] VALID_TREE = {
+            {1, -1, 0, 0, 1, 14},
+            {2, 1, 0, 1, 2, 7},
+            {4, 2, 0, 2, 3, 4},
+            {5, 2, 1, 2, 5, 6},
+            {3, 1, 1, 1, 8, 13},
+            {6, 3, 0, 2, 9, 12},
+            {7, 6, 0, 3, 10, 11}
+    };
+
+    @Test
+    public void testValidTree() {
+        TreeIntegrityReport report = verify(true, VALID_TREE);
+
+        assertTrue(report.isValid());
+        assertEquals(7, report.getNodeCount());
+        assertEquals(1, report.getRootCount());
+        assertTrue(report.getProblems().isEmpty());
+    }
+
+    @Test
+    public void testGapsAreOnlyReportedForDenseTrees() {
+        long[][] rows = new long[VALID_TREE.length][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = VALID_TREE[i].clone();
+            rows[i][4] *= 10;
+            rows[i][5] *= 10;
+        }
+
+        assertTrue(verify(false, rows).isValid());
+
+        TreeIntegrityReport report = verify(true, rows);
+        assertFalse(report.isValid());
+        assertEquals(13, report.getGapCount());
+    }
+
+    @Test
+    public void testOverlappingSiblings() {
+        TreeIntegrityReport report = verify(true, new long[][]{
+                {1, -1, 0, 0, 1, 10},
+                {2, 1, 0, 1, 2, 6},
+                {3, 1, 1, 1, 5, 9}
+        });
+
+        assertFalse(report.isValid());
+        assertTrue(report.getOverlapCount() > 0);
+        // Der Knoten 3 liegt innerhalb von Knoten 2.
+        assertEquals(1, report.getParentMismatchCount());
+    }
+
+    @Test
+    public void testInvalidBounds() {
+        TreeIntegrityReport report = verify(false, new long[][]{
+                {1, -1, 0, 0, 1, 10},
+                {2, 1, 0, 1, 5, 5}
+        });
+
+        assertFalse(report.isValid());
+        assertEquals(1, report.getOverlapCount());
+    }
+
+    @Test
+    public void testOrderMismatch() {
+        TreeIntegrityReport report = verify(true, new long[][]{
+                {1, -1, 0, 0, 1, 6},
+                {2, 1, 1, 1, 2, 3},
+                {3, 1, 0, 1, 4, 5}
+        });
+
+        assertFalse(report.isValid());
+        assertEquals(1, report.getOrderMismatchCount());
+    }
+
+    @Test
+    public void testDepthMismatch() {
+        TreeIntegrityReport report = verify(true, new long[][]{
+                {1, -1, 0, 0, 1, 6},
+                {2, 1, 0, 2, 2, 3},
+                {3, 1, 1, 1, 4, 5}
+        });
+
+        assertFalse(report.isValid());
+        assertEquals(1, report.getDepthMismatchCount());
+        assertEquals(0, report.getParentMismatchCount());
+    }
+
+    @Test
+    public void testSeveralRootNodes() {
+        TreeIntegrityReport report = verify(true, new long[][]{
+                {1, -1, 0, 0, 1, 2},
+                {2, -1, 0, 0, 3, 4}
+        });
+
+        assertFalse(report.isValid());
+        assertEquals(2, report.getRootCount());
+    }
+
+    @Test
+    public void testProblemsAreLimited() {
+        long[][] rows = new long[1000][];
+        rows[0] = new long[]{1, -1, 0, 0, 1, 2000};
+        for (int i = 1; i < rows.length; i++) {
+            rows[i] = new long[]{i + 1, 1, i, 5, 2 * i, 2 * i + 1};
+        }
+
+        TreeIntegrityReport report = verify(true, rows);
+
+        assertEquals(999, report.getDepthMismatchCount());
+        assertEquals(50, report.getProblems().size());
+    }
+
+    protected static TreeIntegrityReport verify(boolean dense, long[][] rows) {
+        TreeRepairService.NestedSetVerifier verifier = new TreeRepairService.NestedSetVerifier(1, dense);
+        for (long[] row : rows) {
+            verifier.handleRow(row[0], (row[1] < 0 ? null : row[1]), (int) row[2], (int) row[3], row[4], row[5]);
+        }
+        return verifier.createReport();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Navigation und die Suche nach dem tiefsten gemeinsamen
+ * Vorfahren in {@link TreeSnapshot}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 11:30
+ */
+public class TreeSnapshotTest {
+
+    /**
+     * Erzeugt den Baum
+     * <pre>
+     * 1 [1, 14]
+     *   2 [2, 7]
+     *     4 [3, 4]
+     *     5 [5, 6]
+     *   3 [8, 13]
+     *     6 [9, 12]
+     *       7 [10, 11]
+     * </pre>
+     *
+     * @return Die Momentaufnahme.
+     */
+    protected static TreeSnapshot createSnapshot() {
+        return TreeSnapshot.create(1,
+                new long[]{1, 2, 4, 5, 3, 6, 7},
+                new long[]{1, 2, 3, 5, 8, 9, 10},
+                new long[]{14, 7, 4, 6, 13, 12, 11},
+                new int[]{0, 0, 0, 1, 1, 0, 0});
+    }
+
+    @Test
+    public void testNavigation() {
+        TreeSnapshot snapshot = createSnapshot();
+
+        assertEquals(7, snapshot.size());
+        assertEquals(0, snapshot.getRootIndex());
+        assertEquals(-1, snapshot.indexOf(99));
+        assertEquals(3, snapshot.getDepth(snapshot.indexOf(7)));
+        assertEquals(snapshot.indexOf(6), snapshot.getParentIndex(snapshot.indexOf(7)));
+        assertEquals(6, snapshot.countDescendants(snapshot.getRootIndex()));
+
+        assertArrayEquals(new long[]{2, 3}, snapshot.findChildren(1));
+        assertArrayEquals(new long[]{1, 3, 6}, snapshot.findAncestors(7));
+        assertArrayEquals(new long[]{4, 5}, snapshot.findDescendants(2));
+        assertArrayEquals(new long[0], snapshot.findChildren(99));
+    }
+
+    @Test
+    public void testFindLowestCommonAncestor() {
+        TreeSnapshot snapshot = createSnapshot();
+
+        assertEquals(2, snapshot.findLowestCommonAncestor(4, 5));
+        assertEquals(1, snapshot.findLowestCommonAncestor(4, 7));
+        assertEquals(1, snapshot.findLowestCommonAncestor(7, 4));
+        assertEquals(6, snapshot.findLowestCommonAncestor(6, 7));
+        assertEquals(3, snapshot.findLowestCommonAncestor(7, 3));
+        assertEquals(2, snapshot.findLowestCommonAncestor(2, 2));
+        assertEquals(1, snapshot.findLowestCommonAncestor(1, 5));
+        assertEquals(-1, snapshot.findLowestCommonAncestor(1, 99));
+    }
+
+    @Test
+    public void testLowestCommonAncestorOfRandomTrees() {
+        Random random = new Random(13);
+        for (int run = 0; run < 20; run++) {
+            int size = 1 + random.nextInt(500);
+            int[] parentIndexes = new int[size];
+            int[] ordinalNumbers = new int[size];
+            parentIndexes[0] = NestedSetNumbering.ROOT;
+            for (int i = 1; i < size; i++) {
+                // Flache und tiefe Bäume abwechseln.
+                parentIndexes[i] = (run % 2 == 0 ? random.nextInt(i) : Math.max(0, i - 1 - random.nextInt(3)));
+                ordinalNumbers[i] = random.nextInt(10);
+            }
+            NestedSetNumbering numbering = NestedSetNumbering.number(size, parentIndexes, ordinalNumbers, 1, 1);
+
+            long[] ids = new long[size];
+            long[] nestedSetLefts = new long[size];
+            long[] nestedSetRights = new long[size];
+            for (int i = 0; i < size; i++) {
+                int node = numbering.preOrder[i];
+                ids[i] = node;
+                nestedSetLefts[i] = numbering.nestedSetLefts[node];
+                nestedSetRights[i] = numbering.nestedSetRights[node];
+            }
+            TreeSnapshot snapshot = TreeSnapshot.create(1, ids, nestedSetLefts, nestedSetRights, new int[size]);
+
+            for (int k = 0; k < 200; k++) {
+                int node1 = random.nextInt(size);
+                int node2 = random.nextInt(size);
+                assertEquals(findLowestCommonAncestor(parentIndexes, node1, node2), snapshot.findLowestCommonAncestor(node1, node2));
+            }
+        }
+    }
+
+    @Test
+    public void testInsertLeafAndRemoveSubtree() {
+        TreeSnapshot snapshot = createSnapshot();
+        // Baut den Index der alten Version auf; die neuen Versionen müssen
+        // ihren eigenen aufbauen.
+        assertEquals(2, snapshot.findLowestCommonAncestor(4, 5));
+
+        TreeSnapshot inserted = snapshot.insertLeaf(8, 4, 5, 0, 2);
+        assertEquals(snapshot.getVersion() + 1, inserted.getVersion());
+        assertEquals(8, inserted.size());
+        assertEquals(3, inserted.getDepth(inserted.indexOf(8)));
+        assertEquals(4, inserted.findLowestCommonAncestor(8, 4));
+        assertEquals(2, inserted.findLowestCommonAncestor(8, 5));
+        assertEquals(1, inserted.findLowestCommonAncestor(8, 7));
+        assertEquals(16, inserted.getNestedSetRight(inserted.getRootIndex()));
+        assertEquals(7, snapshot.size());
+
+        TreeSnapshot removed = inserted.removeSubtree(10, 15, -6);
+        assertEquals(5, removed.size());
+        assertEquals(-1, removed.indexOf(7));
+        assertEquals(10, removed.getNestedSetRight(removed.getRootIndex()));
+        assertEquals(1, removed.findLowestCommonAncestor(8, 1));
+        assertEquals(2, removed.findLowestCommonAncestor(8, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertLeafRejectsKnownNode() {
+        createSnapshot().insertLeaf(4, 15, 16, 0, 0);
+    }
+
+    private static long findLowestCommonAncestor(int[] parentIndexes, int node1, int node2) {
+        boolean[] ancestors = new boolean[parentIndexes.length];
+        for (int node = node1; node >= 0; node = parentIndexes[node]) {
+            ancestors[node] = true;
+        }
+        int node = node2;
+        while (!ancestors[node]) {
+            node = parentIndexes[node];
+        }
+        return node;
+    }
+}
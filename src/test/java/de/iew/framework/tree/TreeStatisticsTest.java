@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2013 Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iew.framework.tree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testet die Berechnung der Form-Statistik in {@link TreeStatistics.Builder}.
+ *
+ * @author Manuel Schulze <manuel_schulze@i-entwicklung.de>
+ * @since 10.04.13 - 11:55
+ */
+public class TreeStatisticsTest {
+
+    @Test
+    public void testEmptyTree() {
+        TreeStatistics statistics = new TreeStatistics.Builder(1).build();
+
+        assertEquals(1, statistics.getTreeId());
+        assertEquals(0, statistics.getNodeCount());
+        assertEquals(0, statistics.getDepthHistogram().length);
+        assertEquals(-1, statistics.getMaxDepth());
+        assertEquals(0, statistics.getMaxFanOut());
+        assertEquals(0.0, statistics.getAverageSubtreeSize(), 0.0);
+    }
+
+    @Test
+    public void testSingleNode() {
+        TreeStatistics statistics = new TreeStatistics.Builder(1).addRow(1, 2).build();
+
+        assertEquals(1, statistics.getNodeCount());
+        assertArrayEquals(new long[]{1}, statistics.getDepthHistogram());
+        assertEquals(0, statistics.getMaxDepth());
+        assertEquals(0, statistics.getMaxFanOut());
+        assertEquals(1.0, statistics.getAverageSubtreeSize(), 0.0);
+    }
+
+    @Test
+    public void testShape() {
+        // Der Baum aus TreeSnapshotTest#createSnapshot().
+        TreeStatistics statistics = new TreeStatistics.Builder(1)
+                .addRow(1, 14)
+                .addRow(2, 7)
+                .addRow(3, 4)
+                .addRow(5, 6)
+                .addRow(8, 13)
+                .addRow(9, 12)
+                .addRow(10, 11)
+                .build();
+
+        assertEquals(7, statistics.getNodeCount());
+        assertArrayEquals(new long[]{1, 2, 3, 1}, statistics.getDepthHistogram());
+        assertEquals(3, statistics.getMaxDepth());
+        assertEquals(2, statistics.getMaxFanOut());
+        assertEquals(18.0 / 7, statistics.getAverageSubtreeSize(), 1e-9);
+    }
+
+    @Test
+    public void testSparseBoundsAndWideNode() {
+        // Eine Wurzel mit 100 Kindern und Lücken zwischen den Grenzen.
+        TreeStatistics.Builder builder = new TreeStatistics.Builder(1);
+        builder.handleRow(1, 0, 10000, 0, null);
+        for (int i = 0; i < 100; i++) {
+            builder.handleRow(i + 2, 10 + i * 50, 20 + i * 50, i, null);
+        }
+        TreeStatistics statistics = builder.build();
+
+        assertEquals(101, statistics.getNodeCount());
+        assertArrayEquals(new long[]{1, 100}, statistics.getDepthHistogram());
+        assertEquals(100, statistics.getMaxFanOut());
+        assertEquals(201.0 / 101, statistics.getAverageSubtreeSize(), 1e-9);
+    }
+
+    @Test
+    public void testDeepChainGrowsTheStack() {
+        int depth = 1000;
+        TreeStatistics.Builder builder = new TreeStatistics.Builder(1);
+        for (int i = 0; i < depth; i++) {
+            builder.addRow(i + 1, 2 * depth - i);
+        }
+        TreeStatistics statistics = builder.build();
+
+        assertEquals(depth, statistics.getNodeCount());
+        assertEquals(depth - 1, statistics.getMaxDepth());
+        assertEquals(depth, statistics.getDepthHistogram().length);
+        assertEquals(1, statistics.getMaxFanOut());
+    }
+}